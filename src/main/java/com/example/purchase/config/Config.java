@@ -2,27 +2,114 @@ package com.example.purchase.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpConnectionPoolMetrics;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @Configuration
+@EnableConfigurationProperties({TreasuryProperties.class, IngestProperties.class, ResponseCacheProperties.class,
+    ExportProperties.class})
+@EnableScheduling
 public class Config {
 
   @Bean
   @Primary
   public ObjectMapper objectMapper() {
-    var objectMapper = new ObjectMapper();
+    return configure(new ObjectMapper());
+  }
+
+  /**
+   * Converter for application/cbor bodies, configured as {@link #objectMapper()} so that they carry the same values as
+   * JSON ones. Replaces Spring MVC's default CBOR converter, which writes dates as timestamps.
+   */
+  @Bean
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+    return new MappingJackson2CborHttpMessageConverter(configure(new CBORMapper()));
+  }
+
+  /**
+   * Converter for application/x-jackson-smile bodies, see {@link #cborHttpMessageConverter()}
+   */
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+    return new MappingJackson2SmileHttpMessageConverter(configure(new SmileMapper()));
+  }
+
+  /**
+   * Configuration shared by the JSON, CBOR and Smile mappers: dates as ISO-8601 text, keeping their offset
+   */
+  public static <T extends ObjectMapper> T configure(T objectMapper) {
     objectMapper.registerModule(new JavaTimeModule());
     objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     return objectMapper;
   }
 
+  /**
+   * Client for the Treasury API: see {@link TreasuryProperties.Http}
+   *
+   * @param treasuryClientExecutor runs asynchronous calls, see {@link VirtualThreadsConfig}. OkHttp's own thread pool
+   * if absent.
+   * @param treasuryHttpCache      absent if treasury.http.cache.enabled=false
+   */
   @Bean
-  public OkHttpClient httpClient() {
-    return new OkHttpClient().newBuilder().build();
+  public OkHttpClient httpClient(TreasuryProperties treasuryProperties,
+      @Qualifier("treasuryClientExecutor") ObjectProvider<ExecutorService> treasuryClientExecutor,
+      ObjectProvider<Cache> treasuryHttpCache, MeterRegistry meterRegistry) {
+    TreasuryProperties.Http http = treasuryProperties.getHttp();
+    ExecutorService executor = treasuryClientExecutor.getIfAvailable();
+    Dispatcher dispatcher = executor == null ? new Dispatcher() : new Dispatcher(executor);
+    // OkHttp allows only 5 concurrent asynchronous calls per host by default, and all calls go to the Treasury API
+    dispatcher.setMaxRequests(treasuryProperties.getMaxConcurrentRequests());
+    dispatcher.setMaxRequestsPerHost(treasuryProperties.getMaxConcurrentRequests());
+    ConnectionPool connectionPool = new ConnectionPool(http.getMaxIdleConnections(), http.getKeepAlive().toMillis(),
+        TimeUnit.MILLISECONDS);
+    new OkHttpConnectionPoolMetrics(connectionPool, "treasury.http.pool", Tags.empty(), http.getMaxIdleConnections())
+        .bindTo(meterRegistry);
+
+    OkHttpClient.Builder builder = new OkHttpClient().newBuilder()
+        .dispatcher(dispatcher)
+        .connectionPool(connectionPool)
+        .protocols(http.isHttp2() ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+        .connectTimeout(http.getConnectTimeout())
+        .readTimeout(http.getReadTimeout())
+        .writeTimeout(http.getWriteTimeout())
+        .eventListener(new TreasuryHttpMetrics(meterRegistry));
+    Cache cache = treasuryHttpCache.getIfAvailable();
+    if (cache != null) {
+      TreasuryHttpMetrics.monitor(meterRegistry, cache);
+      builder.cache(cache)
+          .addNetworkInterceptor(HttpCachePolicy.networkInterceptor(http.getCache().getImmutableMaxAge()));
+    }
+    return builder.build();
+  }
+
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(name = "treasury.http.cache.enabled", havingValue = "true", matchIfMissing = true)
+  public Cache treasuryHttpCache(TreasuryProperties treasuryProperties) {
+    TreasuryProperties.ResponseCache cache = treasuryProperties.getHttp().getCache();
+    return new Cache(new File(cache.getDirectory()), cache.getMaxSize().toBytes());
   }
 
 }
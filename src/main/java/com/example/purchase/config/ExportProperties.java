@@ -0,0 +1,20 @@
+package com.example.purchase.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * GET /purchase-txn/export, bound from the {@code purchase-txn.export.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "purchase-txn.export")
+public class ExportProperties {
+
+  /**
+   * How long an export may take to stream, in place of spring.mvc.async.request-timeout, which bounds the other
+   * asynchronous requests. No limit if zero.
+   */
+  private Duration timeout = Duration.ofHours(1);
+
+}
@@ -0,0 +1,61 @@
+package com.example.purchase.config;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import javax.annotation.Nonnull;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * How the Treasury API client's response cache treats a response, set as a request tag: {@code
+ * new Request.Builder().tag(HttpCachePolicy.class, HttpCachePolicy.IMMUTABLE)}. The Treasury API's own caching headers
+ * are replaced; responses to untagged requests keep them.
+ */
+public enum HttpCachePolicy {
+
+  /**
+   * The response does not change, e.g. rates for a date window in the past: it is served from the cache, without a
+   * call, for treasury.http.cache.immutable-max-age
+   */
+  IMMUTABLE,
+  /**
+   * The response may still change, e.g. rates for a recent date window: it is revalidated with a conditional request
+   * each time, which is answered with a body-less 304 if unchanged. Only applies to responses with an ETag or
+   * Last-Modified header.
+   */
+  REVALIDATE;
+
+  /**
+   * @return network interceptor applying the policy of each tagged request to its response
+   */
+  public static Interceptor networkInterceptor(@Nonnull Duration immutableMaxAge) {
+    String immutableCacheControl = "public, max-age=" + immutableMaxAge.getSeconds() + ", immutable";
+    return chain -> {
+      Request request = chain.request();
+      Response response = chain.proceed(request);
+      HttpCachePolicy policy = request.tag(HttpCachePolicy.class);
+      if (policy == null || !(response.isSuccessful() || response.code() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+        return response;
+      }
+
+      if (policy == IMMUTABLE) {
+        return response.newBuilder()
+            .removeHeader("Pragma")
+            .removeHeader("Expires")
+            .header("Cache-Control", immutableCacheControl)
+            .build();
+      }
+      if (response.header("ETag") == null && response.header("Last-Modified") == null) {
+        // nothing to revalidate with
+        return response;
+      }
+      return response.newBuilder()
+          .removeHeader("Pragma")
+          .removeHeader("Expires")
+          .header("Cache-Control", "no-cache")
+          .build();
+    };
+  }
+
+}
@@ -0,0 +1,57 @@
+package com.example.purchase.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * How POST /purchase-txn stores transactions, bound from the {@code purchase-txn.ingest.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "purchase-txn.ingest")
+public class IngestProperties {
+
+  public enum Mode {
+    /**
+     * Stored in the database before responding 201
+     */
+    SYNC,
+    /**
+     * Appended to a local log before responding 202, then stored in the database in batches by a background writer
+     */
+    WRITE_BEHIND
+  }
+
+  private Mode mode = Mode.SYNC;
+  /**
+   * Directory of the write-behind log: its memory-mapped segment files and the offset committed to the database.
+   * Transactions still in it when the app stops are stored on the next start, so it must outlive restarts (not a
+   * temporary directory). Required in write-behind mode, which fails to start without it.
+   */
+  private String directory;
+  /**
+   * Size of each log segment file. A new one is started when the current one is full, and a segment is deleted once
+   * all its transactions are stored.
+   */
+  private DataSize segmentSize = DataSize.ofMegabytes(64);
+  /**
+   * Transactions appended but not yet stored in the database, beyond which POST /purchase-txn responds 429
+   */
+  private int maxBacklog = 100_000;
+  /**
+   * Transactions stored per database transaction by the background writer
+   */
+  private int batchSize = 1_000;
+  /**
+   * Attempts at storing a batch, a drain-interval apart, before its transactions are stored one at a time. Those that
+   * still fail, other than for the database being unavailable, are moved to the dead-letter file in the log's
+   * directory.
+   */
+  private int maxAttempts = 3;
+  /**
+   * Wait of the background writer once the log is drained
+   */
+  private Duration drainInterval = Duration.ofMillis(50);
+
+}
@@ -0,0 +1,44 @@
+package com.example.purchase.config;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTagsContributor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.HandlerMethod;
+
+/**
+ * Metrics beyond those Spring Boot publishes by default (JVM, Hikari pool, Tomcat, http.server.requests,
+ * spring.data.repository.invocations), all scraped from /actuator/prometheus. Which meters have percentile histograms
+ * is set in application.properties.
+ */
+@Configuration
+public class MetricsConfig {
+
+  static final Tag NO_OPERATION = Tag.of("operation", "none");
+
+  /**
+   * Tags http.server.requests with the OpenAPI operationId, the name of the handling method, e.g.
+   * operation=getPurchaseTxn, alongside the uri, method, status and outcome tags
+   */
+  @Bean
+  public WebMvcTagsContributor operationTagsContributor() {
+    return new WebMvcTagsContributor() {
+      @Override
+      public Iterable<Tag> getTags(HttpServletRequest request, HttpServletResponse response, Object handler,
+          Throwable exception) {
+        return Tags.of(handler instanceof HandlerMethod
+            ? Tag.of("operation", ((HandlerMethod) handler).getMethod().getName())
+            : NO_OPERATION);
+      }
+
+      @Override
+      public Iterable<Tag> getLongRequestTags(HttpServletRequest request, Object handler) {
+        return Tags.empty();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,31 @@
+package com.example.purchase.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Cache-Control of GET /purchase-txn/{id} responses, bound from the {@code purchase-txn.response-cache.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "purchase-txn.response-cache")
+public class ResponseCacheProperties {
+
+  /**
+   * How long clients and shared caches may reuse a conversion without revalidating it, once every rate for its window
+   * has been published. It then only changes if Treasury revises its rate, after which revalidation with its ETag
+   * gets the new one.
+   */
+  private Duration maxAge = Duration.ofDays(365);
+  /**
+   * How long a conversion may be reused while rates for its window may still be published, i.e. for a purchase dated
+   * within the publication lag, after which it is revalidated with its ETag. Revalidated every time if zero.
+   */
+  private Duration unsettledMaxAge = Duration.ofMinutes(5);
+  /**
+   * How long a 422 (rate not available for the purchase date) may be reused, as the rate may still be published. Not
+   * cached if zero.
+   */
+  private Duration rateNotAvailableMaxAge = Duration.ofMinutes(1);
+
+}
@@ -0,0 +1,144 @@
+package com.example.purchase.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Treasury API client statistics, published as treasury.http.* metrics: calls made and failed, connections opened and
+ * TLS handshakes made for them (calls minus handshakes is the number saved by connection reuse), network responses by
+ * status with their latency, bytes received, and response cache lookups with the bytes that cache hits saved
+ * receiving.
+ */
+class TreasuryHttpMetrics extends EventListener {
+
+  private final MeterRegistry registry;
+  private final Counter calls;
+  private final Counter failedCalls;
+  private final Map<Integer, Timer> responsesByStatus = new ConcurrentHashMap<>();
+  private final Counter connections;
+  private final Counter handshakes;
+  private final Counter receivedBytes;
+  private final Counter cacheHits;
+  private final Counter cacheConditionalHits;
+  private final Counter cacheMisses;
+  private final Counter cacheSavedBytes;
+
+  TreasuryHttpMetrics(@Nonnull MeterRegistry registry) {
+    this.registry = registry;
+    calls = registry.counter("treasury.http.calls");
+    failedCalls = Counter.builder("treasury.http.calls.failed")
+        .description("Calls that failed without a response: connection failures, timeouts and cancellations")
+        .register(registry);
+    connections = registry.counter("treasury.http.connections");
+    handshakes = registry.counter("treasury.http.tls.handshakes");
+    receivedBytes = Counter.builder("treasury.http.received")
+        .baseUnit("bytes")
+        .description("Response body bytes received from the network")
+        .register(registry);
+    // hits include responses revalidated with a 304, which are also counted as conditional hits
+    cacheHits = registry.counter("treasury.http.cache.lookups", "result", "hit");
+    cacheConditionalHits = registry.counter("treasury.http.cache.lookups", "result", "conditional");
+    cacheMisses = registry.counter("treasury.http.cache.lookups", "result", "miss");
+    cacheSavedBytes = Counter.builder("treasury.http.cache.saved")
+        .baseUnit("bytes")
+        .description("Response body bytes served from the cache rather than received (when their size is known)")
+        .register(registry);
+  }
+
+  /**
+   * Also publish the response cache's own counts and size
+   */
+  static void monitor(@Nonnull MeterRegistry registry, @Nonnull Cache cache) {
+    FunctionCounter.builder("treasury.http.cache.requests", cache, Cache::requestCount).register(registry);
+    FunctionCounter.builder("treasury.http.cache.network", cache, Cache::networkCount)
+        .description("Requests that needed a network call, conditional ones included")
+        .register(registry);
+    Gauge.builder("treasury.http.cache.size", cache, TreasuryHttpMetrics::size)
+        .baseUnit("bytes")
+        .register(registry);
+  }
+
+  @Override
+  public void callStart(@Nonnull Call call) {
+    calls.increment();
+  }
+
+  @Override
+  public void connectEnd(@Nonnull Call call, @Nonnull InetSocketAddress inetSocketAddress, @Nonnull Proxy proxy,
+      Protocol protocol) {
+    connections.increment();
+  }
+
+  @Override
+  public void secureConnectEnd(@Nonnull Call call, Handshake handshake) {
+    handshakes.increment();
+  }
+
+  @Override
+  public void callFailed(@Nonnull Call call, @Nonnull IOException ioe) {
+    failedCalls.increment();
+  }
+
+  /**
+   * Time from sending the request to receiving the response headers, of network responses (not cache hits)
+   */
+  @Override
+  public void responseHeadersEnd(@Nonnull Call call, @Nonnull Response response) {
+    responsesByStatus.computeIfAbsent(response.code(), status -> Timer.builder("treasury.http.responses")
+            .description("Treasury API responses received from the network, by status")
+            .tag("status", String.valueOf(status))
+            .register(registry))
+        .record(response.receivedResponseAtMillis() - response.sentRequestAtMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void responseBodyEnd(@Nonnull Call call, long byteCount) {
+    receivedBytes.increment(byteCount);
+  }
+
+  @Override
+  public void cacheHit(@Nonnull Call call, @Nonnull Response response) {
+    cacheHits.increment();
+    ResponseBody body = response.body();
+    // the stored (possibly compressed) size, i.e. what the network would have sent
+    if (body != null && body.contentLength() > 0) {
+      cacheSavedBytes.increment(body.contentLength());
+    }
+  }
+
+  @Override
+  public void cacheConditionalHit(@Nonnull Call call, @Nonnull Response cachedResponse) {
+    cacheConditionalHits.increment();
+  }
+
+  @Override
+  public void cacheMiss(@Nonnull Call call) {
+    cacheMisses.increment();
+  }
+
+  private static double size(Cache cache) {
+    try {
+      return cache.size();
+    } catch (IOException ex) {
+      return Double.NaN;
+    }
+  }
+
+}
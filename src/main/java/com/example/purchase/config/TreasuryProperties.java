@@ -0,0 +1,221 @@
+package com.example.purchase.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for calling the Treasury Reporting Rates of Exchange API, bound from the {@code treasury.*} properties
+ */
+@Data
+@ConfigurationProperties(prefix = "treasury")
+public class TreasuryProperties {
+
+  public static final String DEFAULT_URL = "https://api.fiscaldata.treasury.gov/services/api/fiscal_service/v1/accounting/od/rates_of_exchange";
+
+  /**
+   * rates_of_exchange endpoint. Overridable so tests can point at a local stub server.
+   */
+  private String url = DEFAULT_URL;
+  /**
+   * Time allowed for a whole Treasury API rate lookup call (connect, request and response), after which it is
+   * cancelled. Connecting and each read are also bounded by treasury.http.connect-timeout and read-timeout.
+   */
+  private Duration requestTimeout = Duration.ofSeconds(10);
+  /**
+   * Maximum number of concurrent Treasury API calls (hedged requests and retries included); further calls queue until
+   * one completes
+   */
+  private int maxConcurrentRequests = 64;
+
+  private Cache cache = new Cache();
+  private Sync sync = new Sync();
+  private Hedge hedge = new Hedge();
+  private Retry retry = new Retry();
+  private CircuitBreaker circuitBreaker = new CircuitBreaker();
+  private Http http = new Http();
+  private Metrics metrics = new Metrics();
+  private Prewarm prewarm = new Prewarm();
+
+  @Data
+  public static class Cache {
+
+    /**
+     * Maximum number of (currency, date window) entries kept before least-used entries are evicted
+     */
+    private long maximumSize = 10_000;
+    /**
+     * How long a found exchange rate is kept. Historical Treasury rates do not change, so this can be long.
+     */
+    private Duration ttl = Duration.ofHours(24);
+    /**
+     * How long a "no rate found" result is kept, so that a rate published later is picked up reasonably quickly
+     */
+    private Duration negativeTtl = Duration.ofMinutes(10);
+    /**
+     * Age after which an entry is reloaded in the background on next access. The stale entry keeps being served
+     * while the reload runs, and is kept if the reload fails (Treasury slow or down).
+     */
+    private Duration refreshAfter = Duration.ofHours(12);
+  }
+
+  @Data
+  public static class Sync {
+
+    /**
+     * Whether to keep a local copy of the whole rates dataset in the treasury_rate table. Rates are then looked up
+     * locally, with the Treasury API only called for dates the local copy does not cover yet.
+     */
+    private boolean enabled = false;
+    /**
+     * Time between incremental syncs. The first (full) sync runs at startup.
+     */
+    private Duration interval = Duration.ofHours(6);
+    /**
+     * Records requested per page. The Treasury API allows up to 10000.
+     */
+    private int pageSize = 10_000;
+  }
+
+  @Data
+  public static class Hedge {
+
+    /**
+     * Whether to send a second, identical request when the first has not been answered after the hedge delay, and use
+     * whichever response arrives first
+     */
+    private boolean enabled = true;
+    /**
+     * The hedge delay is this percentile of recent successful request latencies, so that only the slowest requests
+     * are duplicated
+     */
+    private double percentile = 0.95;
+    /**
+     * Lower bound of the hedge delay
+     */
+    private Duration minDelay = Duration.ofMillis(50);
+    /**
+     * Hedge delay used until min-samples requests have completed
+     */
+    private Duration initialDelay = Duration.ofSeconds(1);
+    private long minSamples = 20;
+  }
+
+  @Data
+  public static class Retry {
+
+    /**
+     * Attempts per call, the first included. Only connection failures and 429/5xx responses are retried; timeouts are
+     * not, as hedging already covers slow responses.
+     */
+    private int maxAttempts = 3;
+    /**
+     * Backoff before the first retry, doubling for each further one up to max-backoff. The actual delay is random
+     * between zero and that value (full jitter), so that retries of calls that failed together are spread out.
+     */
+    private Duration initialBackoff = Duration.ofMillis(100);
+    private Duration maxBackoff = Duration.ofSeconds(2);
+    /**
+     * Retries and hedged requests are limited to this share of calls, so that they do not multiply the load on an
+     * already struggling Treasury API
+     */
+    private double budgetRatio = 0.1;
+    /**
+     * Retries and hedged requests that can be made in a burst, e.g. while traffic is low
+     */
+    private int budgetMaxTokens = 10;
+  }
+
+  @Data
+  public static class CircuitBreaker {
+
+    private boolean enabled = true;
+    /**
+     * Share of failed requests, among the last sliding-window-size, at which the breaker opens: calls then fail fast
+     * (503) without calling the Treasury API
+     */
+    private double failureRateThreshold = 0.5;
+    private int slidingWindowSize = 20;
+    /**
+     * Requests recorded before the failure rate is evaluated
+     */
+    private int minimumCalls = 10;
+    /**
+     * Time the breaker stays open before letting half-open-calls trial requests through, which close it if they
+     * succeed and open it again otherwise
+     */
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int halfOpenCalls = 1;
+  }
+
+  @Data
+  public static class Http {
+
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    /**
+     * Maximum time without data while reading a response
+     */
+    private Duration readTimeout = Duration.ofSeconds(10);
+    private Duration writeTimeout = Duration.ofSeconds(10);
+    /**
+     * Whether to negotiate HTTP/2 (over TLS), which multiplexes concurrent calls over one connection. HTTP/1.1 only
+     * otherwise.
+     */
+    private boolean http2 = true;
+    /**
+     * Idle connections kept open for reuse, each saving a TCP and TLS handshake on a later call
+     */
+    private int maxIdleConnections = 10;
+    private Duration keepAlive = Duration.ofMinutes(5);
+    private ResponseCache cache = new ResponseCache();
+  }
+
+  @Data
+  public static class ResponseCache {
+
+    /**
+     * Whether to keep Treasury API responses in an on-disk HTTP cache, which unlike treasury.cache survives restarts.
+     * Responses for date windows in the past are served from it without a call; responses for recent windows are
+     * revalidated with a conditional request (If-None-Match/If-Modified-Since) when they have an ETag or Last-Modified.
+     */
+    private boolean enabled = true;
+    private String directory = System.getProperty("java.io.tmpdir") + "/purchase-api/treasury-http-cache";
+    private DataSize maxSize = DataSize.ofMegabytes(50);
+    /**
+     * How long responses for date windows in the past are served from the cache
+     */
+    private Duration immutableMaxAge = Duration.ofDays(365);
+  }
+
+  @Data
+  public static class Metrics {
+
+    /**
+     * Distinct currencies that get their own currency tag on exchange.rate.lookups, as currencies are given by callers.
+     * A currency is only tagged once a rate has been found for it; the others are tagged "other".
+     */
+    private int maxCurrencyTags = 200;
+  }
+
+  @Data
+  public static class Prewarm {
+
+    /**
+     * Currencies each newly stored purchase transaction is converted to in the background, so that reading it back in
+     * one of them does not wait on a rate lookup. None by default.
+     */
+    private List<String> currencies = new ArrayList<>();
+    /**
+     * Background threads converting them
+     */
+    private int threads = 1;
+    /**
+     * Conversions waiting for a thread; once full, the oldest waiting one is dropped for each new one
+     */
+    private int queueCapacity = 1_000;
+  }
+
+}
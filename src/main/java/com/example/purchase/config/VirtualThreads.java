@@ -0,0 +1,72 @@
+package com.example.purchase.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nonnull;
+
+/**
+ * Virtual threads (JDK 21+). The app is built for Java 11, so they are looked up reflectively, and are only available
+ * when running on a JDK that has them.
+ */
+public final class VirtualThreads {
+
+  private static final boolean SUPPORTED = isRuntimeSupported();
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return whether the running JDK has (non-preview) virtual threads
+   */
+  public static boolean isSupported() {
+    return SUPPORTED;
+  }
+
+  /**
+   * @return an executor starting a new virtual thread, named namePrefix0, namePrefix1 etc., for each task
+   * @throws IllegalStateException if virtual threads are not supported
+   */
+  public static ExecutorService newThreadPerTaskExecutor(@Nonnull String namePrefix) {
+    try {
+      return newExecutor(namePrefix);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      throw new IllegalStateException("Virtual threads are not supported by this JVM", ex);
+    }
+  }
+
+  // Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())
+  private static ExecutorService newExecutor(String namePrefix) throws ReflectiveOperationException {
+    Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+    Object builder = invoke(Thread.class.getMethod("ofVirtual"), null);
+    builder = invoke(builderType.getMethod("name", String.class, long.class), builder, namePrefix, 0L);
+    ThreadFactory factory = (ThreadFactory) invoke(builderType.getMethod("factory"), builder);
+    return (ExecutorService) invoke(Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class), null,
+        factory);
+  }
+
+  private static Object invoke(Method method, Object target, Object... args)
+      throws ReflectiveOperationException {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException ex) {
+      // e.g. UnsupportedOperationException on JDK 19/20 without --enable-preview
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private static boolean isRuntimeSupported() {
+    try {
+      newExecutor("probe-").shutdown();
+      return true;
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      return false;
+    }
+  }
+
+}
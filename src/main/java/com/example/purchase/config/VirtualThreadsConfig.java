@@ -0,0 +1,70 @@
+package com.example.purchase.config;
+
+import java.util.concurrent.ExecutorService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Opt-in virtual thread execution mode ({@code spring.threads.virtual.enabled=true}, as in Spring Boot 3.2+): Tomcat
+ * request handling, MVC async processing (e.g. the NDJSON export) and the Treasury API client's dispatcher each run
+ * every task on a new virtual thread, so requests blocked on JDBC or the Treasury API no longer each hold a platform
+ * thread. Tomcat's thread limit (server.tomcat.threads.max) then no longer applies; server.tomcat.max-connections
+ * does.
+ * <p>
+ * Falls back to platform threads, with a warning, on a JDK without virtual threads.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = VirtualThreadsConfig.ENABLED_PROPERTY, havingValue = "true")
+@Conditional(VirtualThreadsConfig.OnVirtualThreadsSupported.class)
+public class VirtualThreadsConfig {
+
+  static final String ENABLED_PROPERTY = "spring.threads.virtual.enabled";
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+    return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-"));
+  }
+
+  /**
+   * Replaces the auto-configured thread pool, which MVC uses for async request processing
+   */
+  @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+  public AsyncTaskExecutor applicationTaskExecutor() {
+    return new TaskExecutorAdapter(VirtualThreads.newThreadPerTaskExecutor("task-"));
+  }
+
+  /**
+   * Runs the Treasury API client's calls, see {@link Config#httpClient}
+   */
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService treasuryClientExecutor() {
+    return VirtualThreads.newThreadPerTaskExecutor("treasury-client-");
+  }
+
+  static class OnVirtualThreadsSupported extends SpringBootCondition {
+
+    @Override
+    public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+      if (VirtualThreads.isSupported()) {
+        return ConditionOutcome.match("virtual threads are supported");
+      }
+      log.warn("{}=true but Java {} has no virtual threads (Java 21+ required), using platform threads",
+          ENABLED_PROPERTY, System.getProperty("java.version"));
+      return ConditionOutcome.noMatch("virtual threads are not supported");
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.springframework.http.MediaType;
+
+/**
+ * Strong ETags of GET /purchase-txn/{id} responses, derived from the converted transaction rather than from the
+ * serialized body, so that a stored conversion can be checked against If-None-Match without producing the response.
+ * A strong ETag identifies one representation, so the JSON, CBOR and Smile bodies of a conversion get distinct ones,
+ * suffixed with the media type negotiated from Accept.
+ */
+final class ConversionETags {
+
+  private ConversionETags() {
+  }
+
+  /**
+   * @param mediaType the response is serialized as
+   * @return a quoted strong ETag, which changes with any field of the conversion, and with the media type
+   */
+  @Nonnull
+  static String of(@Nonnull PurchaseTxnCurrencyDto dto, @Nonnull MediaType mediaType) {
+    String fields = String.join("\n", String.valueOf(dto.getId()), dto.getDescription(),
+        String.valueOf(dto.getTxnDate()), String.valueOf(dto.getAmount()), dto.getCountryCurrencyDesc(),
+        String.valueOf(dto.getExchangeRate()), String.valueOf(dto.getAmountConverted()));
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(fields.getBytes(StandardCharsets.UTF_8));
+      return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + '.'
+          + mediaType.getSubtype() + '"';
+    } catch (NoSuchAlgorithmException ex) {
+      // every Java platform has SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Weak comparison, as for If-None-Match (RFC 9110 section 13.1.2)
+   *
+   * @param ifNoneMatch header value: "*" or a list of ETags, possibly weak
+   */
+  static boolean matches(@Nullable String ifNoneMatch, @Nonnull String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.service.ExchangeRateResolver;
+import com.example.purchase.service.PurchaseTxnConversionStore;
+import java.io.IOException;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admin operation on the stored purchase transaction conversions: DELETE /actuator/conversions/{countryCurrencyDesc}
+ * invalidates those to the currency, for when Treasury revises one of its rates. The currency's rates are refreshed
+ * first, so that the conversions are not computed again at the rates held before.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@Component
+@Endpoint(id = "conversions")
+public class ConversionsEndpoint {
+
+  private final PurchaseTxnConversionStore conversionStore;
+  private final ExchangeRateResolver exchangeRateResolver;
+
+  @DeleteOperation
+  public Map<String, Object> invalidate(@Selector String countryCurrencyDesc) throws IOException {
+    log.info("Received conversions invalidate request for {}", countryCurrencyDesc);
+    int ratesRefreshed = exchangeRateResolver.refresh(countryCurrencyDesc);
+    return Map.of("countryCurrencyDesc", countryCurrencyDesc,
+        "ratesRefreshed", ratesRefreshed,
+        "deleted", conversionStore.invalidate(countryCurrencyDesc));
+  }
+
+}
@@ -1,22 +1,64 @@
 package com.example.purchase.controller;
 
 import com.example.purchase.api.api.PurchaseTxnApiDelegate;
+import com.example.purchase.api.model.BatchErrorDetailsDto;
+import com.example.purchase.api.model.BatchItemErrorDto;
 import com.example.purchase.api.model.ErrorDetailsDto;
 import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyRequestDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
 import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.api.model.PurchaseTxnPageDto;
+import com.example.purchase.api.model.SpendTotalDto;
+import com.example.purchase.config.ExportProperties;
+import com.example.purchase.config.ResponseCacheProperties;
+import com.example.purchase.service.CircuitBreakerOpenException;
+import com.example.purchase.service.CurrencyConversionService;
+import com.example.purchase.service.Futures;
+import com.example.purchase.service.MoneyMath;
+import com.example.purchase.service.PurchaseTxnCursor;
+import com.example.purchase.service.PurchaseTxnExportService;
 import com.example.purchase.service.PurchaseTxnService;
-import java.io.IOException;
+import com.example.purchase.service.RequestTimings;
+import com.example.purchase.service.SpendRollupService;
+import com.example.purchase.service.WriteBehindIngester;
+import java.io.InterruptedIOException;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * HTTP/API layer logic
@@ -26,41 +68,322 @@ import org.springframework.web.client.HttpClientErrorException;
 @Controller
 public class PurchaseTxnController implements PurchaseTxnApiDelegate {
 
+  /**
+   * Upper bound on POST /purchase-txn/batch items, as in the OpenAPI spec (array bodies are not size-validated by the
+   * generated code)
+   */
+  static final int MAX_BATCH_SIZE = 10_000;
+  static final int DEFAULT_PAGE_SIZE = 100;
+  private static final Object STREAMING_TIMEOUT = PurchaseTxnController.class.getName() + ".streamingTimeout";
+
   private final PurchaseTxnService purchaseTxnService;
+  private final PurchaseTxnExportService purchaseTxnExportService;
+  private final SpendRollupService spendRollupService;
+  private final WriteBehindIngester writeBehindIngester;
+  private final ResponseCacheProperties responseCacheProperties;
+  private final ExportProperties exportProperties;
+  private final ContentNegotiationManager contentNegotiationManager;
 
   @Override
-  public ResponseEntity postPurchaseTxn(PurchaseTxnDto dto) {
+  public CompletableFuture<ResponseEntity<PurchaseTxnDto>> postPurchaseTxn(PurchaseTxnDto dto) {
     log.info("Received postPurchaseTxn request");
 
-    Optional<ErrorDetailsDto> errorDetails = this.isPurchaseTxnDtoValid(dto);
+    long started = System.nanoTime();
+    Optional<ErrorDetailsDto> errorDetails = isPurchaseTxnDtoValid(dto);
+    RequestTimings.record(RequestTimings.current(), "validate", started);
     if (errorDetails.isPresent()) {
-      return ResponseEntity.badRequest()
-          .body(errorDetails.get());
+      return completedFuture(ResponseEntity.badRequest()
+          .body(errorDetails.get()));
+    }
+
+    if (writeBehindIngester.isEnabled()) {
+      PurchaseTxnDto accepted = writeBehindIngester.append(dto);
+      return completedFuture(ResponseEntity.accepted()
+          .location(URI.create("/purchase-txn/" + accepted.getId()))
+          .body(accepted));
+    }
+    PurchaseTxnDto created;
+    try {
+      created = purchaseTxnService.createPurchaseTxn(dto);
+    } catch (DataIntegrityViolationException ex) {
+      return completedFuture(conflict("PurchaseTxn with id=" + dto.getId() + " already exists"));
     }
 
-    PurchaseTxnDto created = purchaseTxnService.createPurchaseTxn(dto);
+    return completedFuture(ResponseEntity.created(URI.create("/purchase-txn/" + created.getId()))
+        .body(created));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<PurchaseTxnPageDto>> listPurchaseTxns(LocalDate fromDate, LocalDate toDate,
+      String countryCurrencyDesc, Integer limit, String cursor) {
+    log.info("Received listPurchaseTxns request");
+
+    if (fromDate != null && toDate != null && fromDate.isAfter(toDate)) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(new ErrorDetailsDto().code(400).message("fromDate must not be after toDate")));
+    }
+    PurchaseTxnCursor after = null;
+    if (cursor != null) {
+      try {
+        after = PurchaseTxnCursor.decode(cursor);
+      } catch (IllegalArgumentException ex) {
+        return completedFuture(ResponseEntity.badRequest()
+            .body(new ErrorDetailsDto().code(400).message("Invalid cursor")));
+      }
+    }
 
-    return ResponseEntity.created(URI.create("/purchase-txn" + created.getId()))
-        .body(created);
+    // limit range already validated, see PurchaseTxnControllerAdvice
+    PurchaseTxnPageDto page = purchaseTxnService.listPurchaseTxns(fromDate, toDate, countryCurrencyDesc,
+        limit == null ? DEFAULT_PAGE_SIZE : limit, after);
+    return completedFuture(ResponseEntity.ok(page));
   }
 
   @Override
-  public ResponseEntity getPurchaseTxn(UUID id, String countryCurrencyDesc) {
+  public CompletableFuture<ResponseEntity<List<PurchaseTxnDto>>> postPurchaseTxnBatch(List<PurchaseTxnDto> dtos) {
+    log.info("Received postPurchaseTxnBatch request with {} items", dtos.size());
+
+    if (dtos.isEmpty() || dtos.size() > MAX_BATCH_SIZE) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(new ErrorDetailsDto().code(400)
+              .message("Batch must contain between 1 and " + MAX_BATCH_SIZE + " purchase transactions")));
+    }
+
+    // the OpenAPI spec constraints have already been checked, see PurchaseTxnControllerAdvice
+    Optional<BatchErrorDetailsDto> errorDetails = this.isPurchaseTxnBatchValid(dtos, Map.of());
+    if (errorDetails.isPresent()) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(errorDetails.get()));
+    }
+
+    List<PurchaseTxnDto> created;
+    try {
+      created = purchaseTxnService.createPurchaseTxns(dtos);
+    } catch (DataIntegrityViolationException ex) {
+      return completedFuture(conflict("A supplied PurchaseTxn id already exists, or is repeated in the batch"));
+    }
+
+    return completedFuture(ResponseEntity.status(HttpStatus.CREATED)
+        .body(created));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<List<PurchaseTxnCurrencyResultDto>>> getPurchaseTxnCurrencyBatch(
+      List<PurchaseTxnCurrencyRequestDto> requests) {
+    log.info("Received getPurchaseTxnCurrencyBatch request with {} items", requests.size());
+
+    if (requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(new ErrorDetailsDto().code(400)
+              .message("Batch must contain between 1 and " + MAX_BATCH_SIZE + " requests")));
+    }
+
+    // the OpenAPI spec constraints have already been checked, see PurchaseTxnControllerAdvice
+    Map<Integer, List<String>> errorsByIndex = new TreeMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      if (requests.get(i) == null) {
+        errorsByIndex.put(i, List.of("Request must not be null"));
+      }
+    }
+    Optional<BatchErrorDetailsDto> errorDetails = toBatchErrorDetails(requests.size(), errorsByIndex);
+    if (errorDetails.isPresent()) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(errorDetails.get()));
+    }
+
+    List<PurchaseTxnCurrencyResultDto> results = purchaseTxnService.getPurchaseTxnCurrencies(requests);
+    return completedFuture(ResponseEntity.ok(results));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<StreamingResponseBody>> exportPurchaseTxnCurrency(String countryCurrencyDesc,
+      LocalDate fromDate, LocalDate toDate) {
+    log.info("Received exportPurchaseTxnCurrency request");
+
+    if (fromDate != null && toDate != null && fromDate.isAfter(toDate)) {
+      // the response body type is fixed to StreamingResponseBody, see PurchaseTxnControllerAdvice
+      throw new HttpClientErrorException(HttpStatus.BAD_REQUEST, "fromDate must not be after toDate");
+    }
+
+    // written from an MVC async thread, straight to the response output stream
+    StreamingResponseBody body = out -> purchaseTxnExportService.exportPurchaseTxnCurrency(countryCurrencyDesc,
+        fromDate, toDate, out);
+    setStreamingTimeout(exportProperties.getTimeout());
+    return completedFuture(ResponseEntity.ok()
+        .contentType(MediaType.APPLICATION_NDJSON)
+        .body(body));
+  }
+
+  /**
+   * Bound the streaming of this request's StreamingResponseBody by the timeout (none if zero) rather than by
+   * spring.mvc.async.request-timeout. The body is streamed by a Callable started on a later dispatch, which gets the
+   * default timeout, so the timeout is applied as it starts.
+   */
+  private static void setStreamingTimeout(Duration timeout) {
+    HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
+        .getRequest();
+    WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(STREAMING_TIMEOUT,
+        new CallableProcessingInterceptor() {
+          @Override
+          public <T> void beforeConcurrentHandling(NativeWebRequest asyncRequest, Callable<T> task) {
+            // a zero servlet async timeout means none
+            ((AsyncWebRequest) asyncRequest).setTimeout(timeout.toMillis());
+          }
+        });
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<List<SpendTotalDto>>> getPurchaseTxnSpend(String period, LocalDate fromDate,
+      LocalDate toDate, String countryCurrencyDesc) {
+    log.info("Received getPurchaseTxnSpend request");
+
+    if (fromDate != null && toDate != null && fromDate.isAfter(toDate)) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(new ErrorDetailsDto().code(400).message("fromDate must not be after toDate")));
+    }
+    // the generated code does not check enum query parameters
+    SpendRollupService.Period spendPeriod;
+    try {
+      spendPeriod = SpendRollupService.Period.valueOf((period == null ? "day" : period).toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException ex) {
+      return completedFuture(ResponseEntity.badRequest()
+          .body(new ErrorDetailsDto().code(400).message("period must be day or month")));
+    }
+
+    List<SpendTotalDto> totals = spendRollupService.getSpendTotals(spendPeriod, fromDate, toDate,
+        countryCurrencyDesc);
+    return completedFuture(ResponseEntity.ok(totals));
+  }
+
+  @Override
+  public CompletableFuture<ResponseEntity<PurchaseTxnCurrencyDto>> getPurchaseTxn(UUID id, String countryCurrencyDesc,
+      String ifNoneMatch) {
     log.info("Received getPurchaseTxn request");
 
+    // on the servlet thread, as the response may be completed on another
+    MediaType mediaType = negotiatedMediaType();
+    if (ifNoneMatch != null) {
+      // what getPurchaseTxnCurrency would return if stored: revalidated without the rest of its work
+      Optional<PurchaseTxnCurrencyDto> stored = purchaseTxnService.findStoredConversion(id, countryCurrencyDesc);
+      if (stored.isPresent()) {
+        String etag = ConversionETags.of(stored.get(), mediaType);
+        if (ConversionETags.matches(ifNoneMatch, etag)) {
+          return completedFuture(notModified(etag, cacheControl(stored.get())));
+        }
+      }
+    }
+
+    // completed by the Treasury API client, the servlet thread is released meanwhile
+    CompletableFuture<PurchaseTxnCurrencyDto> dto = purchaseTxnService.getPurchaseTxnCurrency(id,
+        countryCurrencyDesc);
+    CompletableFuture<ResponseEntity<PurchaseTxnCurrencyDto>> response = dto.thenApply(converted -> {
+          String etag = ConversionETags.of(converted, mediaType);
+          if (ConversionETags.matches(ifNoneMatch, etag)) {
+            return PurchaseTxnController.<PurchaseTxnCurrencyDto>asDeclared(notModified(etag, cacheControl(converted)));
+          }
+          return ResponseEntity.ok()
+              .eTag(etag)
+              .cacheControl(cacheControl(converted))
+              .varyBy(HttpHeaders.ACCEPT)
+              .body(converted);
+        })
+        .exceptionally(ex -> asDeclared(toErrorResponse(Futures.unwrap(ex))));
+    // the request timing out or the client going away cancels the response, and the lookup with it
+    return Futures.propagateCancellation(response, dto);
+  }
+
+  private static <T> CompletableFuture<ResponseEntity<T>> completedFuture(ResponseEntity<?> response) {
+    return CompletableFuture.completedFuture(asDeclared(response));
+  }
+
+  /**
+   * The response, typed as the operation declares it, which its body is unless an ErrorDetailsDto (or none)
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> ResponseEntity<T> asDeclared(ResponseEntity<?> response) {
+    return (ResponseEntity<T>) response;
+  }
+
+  /**
+   * The media type the response body is written as: of the operation's producible types, the one most acceptable to
+   * the request, as picked by Spring MVC's message converter handling. JSON if none is (the response is then 406).
+   */
+  private MediaType negotiatedMediaType() {
+    HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes())
+        .getRequest();
+    @SuppressWarnings("unchecked")
+    Set<MediaType> producible = (Set<MediaType>) request.getAttribute(HandlerMapping.PRODUCIBLE_MEDIA_TYPES_ATTRIBUTE);
+    List<MediaType> acceptable;
     try {
-      PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(id, countryCurrencyDesc);
-      return ResponseEntity.ok(dto);
-    } catch (HttpClientErrorException e) {
+      acceptable = contentNegotiationManager.resolveMediaTypes(new ServletWebRequest(request));
+    } catch (HttpMediaTypeNotAcceptableException ex) {
+      return MediaType.APPLICATION_JSON;
+    }
+    List<MediaType> compatible = new ArrayList<>();
+    for (MediaType accepted : acceptable) {
+      for (MediaType candidate : producible == null ? Set.of(MediaType.APPLICATION_JSON) : producible) {
+        if (accepted.isCompatibleWith(candidate)) {
+          compatible.add(candidate.copyQualityValue(accepted));
+        }
+      }
+    }
+    MediaType.sortBySpecificityAndQuality(compatible);
+    return compatible.isEmpty() ? MediaType.APPLICATION_JSON : compatible.get(0);
+  }
+
+  /**
+   * Long-lived once every rate for the conversion's window has been published, brief until then, as a rate published
+   * late for the window may change the conversion
+   */
+  private CacheControl cacheControl(PurchaseTxnCurrencyDto converted) {
+    if (converted.getTxnDate() != null && CurrencyConversionService.isSettled(converted.getTxnDate().toLocalDate())) {
+      return CacheControl.maxAge(responseCacheProperties.getMaxAge()).cachePublic();
+    }
+    Duration maxAge = responseCacheProperties.getUnsettledMaxAge();
+    return maxAge.isZero() ? CacheControl.noCache().cachePublic() : CacheControl.maxAge(maxAge).cachePublic();
+  }
+
+  private static ResponseEntity<?> notModified(String etag, CacheControl cacheControl) {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+        .eTag(etag)
+        .cacheControl(cacheControl)
+        .varyBy(HttpHeaders.ACCEPT)
+        .build();
+  }
+
+  private static ResponseEntity<ErrorDetailsDto> conflict(String message) {
+    return ResponseEntity.status(HttpStatus.CONFLICT)
+        .body(new ErrorDetailsDto().code(HttpStatus.CONFLICT.value()).message(message));
+  }
+
+  private ResponseEntity<?> toErrorResponse(Throwable ex) {
+    if (ex instanceof HttpClientErrorException) {
+      HttpClientErrorException e = (HttpClientErrorException) ex;
       ErrorDetailsDto errorDto = new ErrorDetailsDto();
       errorDto.setCode(e.getRawStatusCode());
       errorDto.setMessage(e.getStatusText());
 
-      return ResponseEntity.status(e.getStatusCode())
-          .body(errorDto);
-    } catch (IOException e) {
-      return ResponseEntity.internalServerError().build();
+      ResponseEntity.BodyBuilder response = ResponseEntity.status(e.getStatusCode());
+      if (e.getStatusCode() == HttpStatus.UNPROCESSABLE_ENTITY) {
+        // the rate may be published later
+        Duration maxAge = responseCacheProperties.getRateNotAvailableMaxAge();
+        response.cacheControl(maxAge.isZero() ? CacheControl.noStore() : CacheControl.maxAge(maxAge).cachePublic())
+            .varyBy(HttpHeaders.ACCEPT);
+      }
+      return response.body(errorDto);
+    }
+    if (ex instanceof CircuitBreakerOpenException) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .body(new ErrorDetailsDto().code(HttpStatus.SERVICE_UNAVAILABLE.value())
+              .message("Exchange rate lookup unavailable, try again later"));
     }
+    if (ex instanceof InterruptedIOException) {
+      // Treasury API call timed out, running or still queued
+      return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+          .body(new ErrorDetailsDto().code(HttpStatus.GATEWAY_TIMEOUT.value())
+              .message("Exchange rate lookup timed out"));
+    }
+    log.error("getPurchaseTxn failed", ex);
+    return ResponseEntity.internalServerError().build();
   }
 
   /**
@@ -68,7 +391,69 @@ public class PurchaseTxnController implements PurchaseTxnApiDelegate {
    *
    * @return empty optional if valid, otherwise Error response with the error reasons.
    */
-  private Optional<ErrorDetailsDto> isPurchaseTxnDtoValid(PurchaseTxnDto dto) {
+  static Optional<ErrorDetailsDto> isPurchaseTxnDtoValid(PurchaseTxnDto dto) {
+    List<String> errors = getPurchaseTxnDtoErrors(dto);
+
+    if (errors.isEmpty()) {
+      return Optional.empty();
+    }
+
+    ErrorDetailsDto errorDetails = new ErrorDetailsDto().code(400)
+        .message(errors.toString());
+
+    return Optional.of(errorDetails);
+  }
+
+  /**
+   * Validation of every item of a batch in one pass, so the caller gets all the errors at once: field format
+   * requirements, plus the OpenAPI spec constraint errors already found by the generated code
+   *
+   * @param constraintErrors OpenAPI spec constraint errors, by item index
+   * @return empty optional if all items are valid, otherwise Error response with the error reasons of each invalid
+   * item
+   */
+  Optional<BatchErrorDetailsDto> isPurchaseTxnBatchValid(List<PurchaseTxnDto> dtos,
+      Map<Integer, List<String>> constraintErrors) {
+    Map<Integer, List<String>> errorsByIndex = new TreeMap<>();
+    for (int i = 0; i < dtos.size(); i++) {
+      PurchaseTxnDto dto = dtos.get(i);
+      List<String> errors = new ArrayList<>(constraintErrors.getOrDefault(i, List.of()));
+      if (dto == null) {
+        errors.add("Purchase transaction must not be null");
+      } else if (dto.getAmount() != null) {
+        errors.addAll(getPurchaseTxnDtoErrors(dto));
+      }
+      if (!errors.isEmpty()) {
+        errorsByIndex.put(i, errors);
+      }
+    }
+
+    return toBatchErrorDetails(dtos.size(), errorsByIndex);
+  }
+
+  /**
+   * @return empty optional if no item has errors, otherwise Error response with the error reasons of each invalid item
+   */
+  static Optional<BatchErrorDetailsDto> toBatchErrorDetails(int itemCount, Map<Integer, List<String>> errorsByIndex) {
+    if (errorsByIndex.isEmpty()) {
+      return Optional.empty();
+    }
+
+    List<BatchItemErrorDto> itemErrors = new ArrayList<>();
+    new TreeMap<>(errorsByIndex).forEach((index, errors) ->
+        itemErrors.add(new BatchItemErrorDto().index(index).message(errors.toString())));
+    BatchErrorDetailsDto errorDetails = new BatchErrorDetailsDto().code(400)
+        .message(itemErrors.size() + " of " + itemCount + " items are invalid")
+        .errors(itemErrors);
+
+    return Optional.of(errorDetails);
+  }
+
+
+  /**
+   * @return error reasons for field format requirements not met, empty if none
+   */
+  private static List<String> getPurchaseTxnDtoErrors(PurchaseTxnDto dto) {
     List<String> errors = new ArrayList<>();
 
     // pattern: ^[0-9]*\.[0-9][0-9]$
@@ -79,15 +464,11 @@ public class PurchaseTxnController implements PurchaseTxnApiDelegate {
     if (dto.getAmount().scale() > 2) {
       errors.add("Amount must be specified to up to two decimal places");
     }
+    if (dto.getAmount().compareTo(MoneyMath.MAX_AMOUNT) > 0) {
+      errors.add("Amount must be at most " + MoneyMath.MAX_AMOUNT);
+    }
 
-      if (errors.isEmpty()) {
-          return Optional.empty();
-      }
-
-    ErrorDetailsDto errorDetails = new ErrorDetailsDto().code(400)
-        .message(errors.toString());
-
-    return Optional.of(errorDetails);
+    return errors;
   }
 
 
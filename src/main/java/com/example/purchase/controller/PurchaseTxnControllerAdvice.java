@@ -0,0 +1,103 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.api.model.BatchErrorDetailsDto;
+import com.example.purchase.api.model.ErrorDetailsDto;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.ElementKind;
+import javax.validation.Path;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.client.HttpStatusCodeException;
+
+/**
+ * Error responses for exceptions thrown out of the API operations.
+ * <p>
+ * The generated API interface is @Validated, so items of an array request body are validated against the OpenAPI
+ * spec by method validation, which throws ConstraintViolationException (500 by default). Turn that into a 400, with
+ * the errors of each invalid item for the batch operations.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@RestControllerAdvice
+public class PurchaseTxnControllerAdvice {
+
+  private final PurchaseTxnController purchaseTxnController;
+
+  @ExceptionHandler
+  public ResponseEntity<Object> handleConstraintViolation(ConstraintViolationException ex) {
+    Map<Integer, List<String>> errorsByIndex = new TreeMap<>();
+    List<String> errors = new ArrayList<>();
+    String method = null;
+    List<?> batch = null;
+    for (ConstraintViolation<?> violation : ex.getConstraintViolations()) {
+      // e.g. postPurchaseTxnBatch.purchaseTxnDto[4].txnDate
+      Integer index = null;
+      String field = null;
+      for (Path.Node node : violation.getPropertyPath()) {
+        if (node.getKind() == ElementKind.METHOD) {
+          method = node.getName();
+        }
+        if (node.getIndex() != null) {
+          index = node.getIndex();
+        }
+        field = node.getName();
+      }
+
+      String error = field + " " + violation.getMessage();
+      errors.add(error);
+      Object[] parameters = violation.getExecutableParameters();
+      if (index != null && parameters != null && parameters.length == 1 && parameters[0] instanceof List) {
+        batch = (List<?>) parameters[0];
+        errorsByIndex.computeIfAbsent(index, i -> new ArrayList<>()).add(error);
+      }
+    }
+    log.info("Rejected {} request: {}", method, ex.getMessage());
+
+    Optional<BatchErrorDetailsDto> errorDetails = Optional.empty();
+    if (batch != null && "postPurchaseTxnBatch".equals(method)) {
+      // also report the items' field format errors, so the caller gets all the errors at once
+      errorDetails = purchaseTxnController.isPurchaseTxnBatchValid(castPurchaseTxnBatch(batch), errorsByIndex);
+    } else if (batch != null) {
+      errorDetails = PurchaseTxnController.toBatchErrorDetails(batch.size(), errorsByIndex);
+    }
+    if (errorDetails.isPresent()) {
+      return ResponseEntity.badRequest()
+          .body(errorDetails.get());
+    }
+
+    return ResponseEntity.badRequest()
+        .body(new ErrorDetailsDto().code(400).message(errors.toString()));
+  }
+
+  /**
+   * For operations whose response body type cannot hold ErrorDetails (e.g. streamed responses), and errors thrown by
+   * the services with their status (e.g. 429 or 503 from the write-behind ingester)
+   */
+  @ExceptionHandler
+  public ResponseEntity<Object> handleHttpStatusCodeError(HttpStatusCodeException ex) {
+    ErrorDetailsDto errorDto = new ErrorDetailsDto();
+    errorDto.setCode(ex.getRawStatusCode());
+    errorDto.setMessage(ex.getStatusText());
+
+    return ResponseEntity.status(ex.getStatusCode())
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(errorDto);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<PurchaseTxnDto> castPurchaseTxnBatch(List<?> batch) {
+    return (List<PurchaseTxnDto>) batch;
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.service.RequestTimings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Opt-in ({@code server-timing.enabled=true}) per-request breakdown of where the time of a /purchase-txn request went:
+ * validate, db (JPA), rate (exchange rate lookup as a whole), treasury (Treasury API call, until its response
+ * headers), parse (Treasury response), convert, and total. Returned in a Server-Timing header, e.g.
+ * {@code Server-Timing: db;dur=0.84, rate;dur=152.10, treasury;dur=148.77, parse;dur=0.31, convert;dur=0.02,
+ * total;dur=154.26}, which browsers and tracing clients show alongside their own timings.
+ * <p>
+ * Each request is also logged as a JSON record by the {@value #ACCESS_LOGGER} logger, with the time spent serializing
+ * the response body, which comes after the headers are sent.
+ * <p>
+ * The operations return a CompletableFuture, so the response is written in a second (async) dispatch of the request,
+ * through this filter again; the timings are kept as a request attribute in between.
+ */
+@Component
+@ConditionalOnProperty(name = ServerTimingFilter.ENABLED_PROPERTY, havingValue = "true")
+@RequiredArgsConstructor
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+  static final String ENABLED_PROPERTY = "server-timing.enabled";
+  static final String ACCESS_LOGGER = "com.example.purchase.access";
+  static final String HEADER = "Server-Timing";
+
+  private static final String TIMINGS_ATTRIBUTE = RequestTimings.class.getName();
+  private static final String SERIALIZE_START_ATTRIBUTE = TIMINGS_ATTRIBUTE + ".serializeStart";
+  private static final Logger accessLog = LoggerFactory.getLogger(ACCESS_LOGGER);
+
+  private final ObjectMapper objectMapper;
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !request.getRequestURI().startsWith("/purchase-txn");
+  }
+
+  @Override
+  protected boolean shouldNotFilterAsyncDispatch() {
+    return false;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    RequestTimings timings = (RequestTimings) request.getAttribute(TIMINGS_ATTRIBUTE);
+    if (timings == null) {
+      timings = new RequestTimings();
+      request.setAttribute(TIMINGS_ATTRIBUTE, timings);
+    }
+
+    RequestTimings.bind(timings);
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      RequestTimings.unbind();
+    }
+
+    if (isAsyncStarted(request)) {
+      // the response is written by the async dispatch
+      return;
+    }
+    if (!response.isCommitted() && !response.containsHeader(HEADER)) {
+      // no body, so ServerTimingResponseAdvice did not add it
+      response.setHeader(HEADER, toHeader(timings));
+    }
+    Long serializeStart = (Long) request.getAttribute(SERIALIZE_START_ATTRIBUTE);
+    if (serializeStart != null) {
+      RequestTimings.record(timings, "serialize", serializeStart);
+    }
+    if (accessLog.isInfoEnabled()) {
+      accessLog.info(toAccessLogRecord(request, response, timings));
+    }
+  }
+
+  /**
+   * Marks the start of the response body serialization, see {@link ServerTimingResponseAdvice}
+   *
+   * @return the request's timings, null if not timed
+   */
+  static RequestTimings startSerialize(HttpServletRequest request) {
+    RequestTimings timings = (RequestTimings) request.getAttribute(TIMINGS_ATTRIBUTE);
+    if (timings != null) {
+      request.setAttribute(SERIALIZE_START_ATTRIBUTE, System.nanoTime());
+    }
+    return timings;
+  }
+
+  static String toHeader(RequestTimings timings) {
+    StringBuilder header = new StringBuilder();
+    for (Map.Entry<String, Long> entry : timings.getDurations().entrySet()) {
+      appendMetric(header, entry.getKey(), entry.getValue());
+    }
+    appendMetric(header, "total", timings.getElapsedNanos());
+    return header.toString();
+  }
+
+  private static void appendMetric(StringBuilder header, String name, long nanos) {
+    if (header.length() > 0) {
+      header.append(", ");
+    }
+    header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.2f", toMillis(nanos)));
+  }
+
+  private String toAccessLogRecord(HttpServletRequest request, HttpServletResponse response,
+      RequestTimings timings) {
+    ObjectNode record = objectMapper.createObjectNode()
+        .put("method", request.getMethod())
+        .put("uri", request.getRequestURI())
+        .put("status", response.getStatus())
+        .put("total_ms", toMillis(timings.getElapsedNanos()));
+    ObjectNode phases = record.putObject("timings_ms");
+    timings.getDurations().forEach((phase, nanos) -> phases.put(phase, toMillis(nanos)));
+    return record.toString();
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+}
@@ -0,0 +1,41 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.service.RequestTimings;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the Server-Timing header of {@link ServerTimingFilter} just before a response body is written, the last point
+ * at which headers can still be set
+ */
+@ControllerAdvice
+@ConditionalOnProperty(name = ServerTimingFilter.ENABLED_PROPERTY, havingValue = "true")
+public class ServerTimingResponseAdvice implements ResponseBodyAdvice<Object> {
+
+  @Override
+  public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+    return true;
+  }
+
+  @Override
+  public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+      Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request,
+      ServerHttpResponse response) {
+    if (request instanceof ServletServerHttpRequest) {
+      RequestTimings timings = ServerTimingFilter.startSerialize(((ServletServerHttpRequest) request)
+          .getServletRequest());
+      if (timings != null) {
+        response.getHeaders().set(ServerTimingFilter.HEADER, ServerTimingFilter.toHeader(timings));
+      }
+    }
+    return body;
+  }
+
+}
@@ -2,6 +2,7 @@ package com.example.purchase.mapper;
 
 import com.example.purchase.api.model.PurchaseTxnDto;
 import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.service.MoneyMath;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
@@ -22,7 +23,7 @@ public class PurchaseTxnMapper {
     dto.setId(data.getId());
     dto.setDescription(data.getDescription());
     dto.setTxnDate(fromInstant(data.getTxnDate()));
-    dto.setAmount(data.getAmount());
+    dto.setAmount(MoneyMath.fromCents(data.getAmountCents()));
 
     return dto;
   }
@@ -37,7 +38,10 @@ public class PurchaseTxnMapper {
     data.setId(dto.getId());
     data.setDescription(dto.getDescription());
     data.setTxnDate(toInstant(dto.getTxnDate()));
-    data.setAmount(dto.getAmount());
+    if (dto.getAmount() != null) {
+      // already validated to be in cents
+      data.setAmountCents(MoneyMath.toCents(dto.getAmount()));
+    }
 
     return data;
   }
@@ -0,0 +1,41 @@
+package com.example.purchase.persistence.dao;
+
+import com.example.purchase.persistence.model.DailySpend;
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DailySpendRepository extends CrudRepository<DailySpend, LocalDate> {
+
+  /**
+   * Inserts an empty rollup for the day. Fails with a DataIntegrityViolationException if the day already has one.
+   */
+  @Modifying
+  @Query(value = "insert into purchase_txn_daily_spend (txn_day, txn_count, amount_cents) values (:txnDay, 0, 0)",
+      nativeQuery = true)
+  void insertEmpty(@Param("txnDay") LocalDate txnDay);
+
+  /**
+   * Adds transactions to the day's rollup, in place, so that concurrent additions queue on the row lock
+   *
+   * @return number of rollups updated, 0 if the day has none
+   */
+  @Modifying
+  @Query("update DailySpend d set d.txnCount = d.txnCount + :txnCount, d.amountCents = d.amountCents + :amountCents"
+      + " where d.txnDay = :txnDay")
+  int add(@Param("txnDay") LocalDate txnDay, @Param("txnCount") long txnCount,
+      @Param("amountCents") long amountCents);
+
+  /**
+   * Days within [from, to] with transactions, in date order
+   */
+  @Query("select d from DailySpend d where d.txnDay >= :from and d.txnDay <= :to and d.txnCount > 0"
+      + " order by d.txnDay")
+  List<DailySpend> findByTxnDayRange(@Param("from") LocalDate from, @Param("to") LocalDate to);
+
+}
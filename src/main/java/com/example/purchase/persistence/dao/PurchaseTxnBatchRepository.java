@@ -0,0 +1,19 @@
+package com.example.purchase.persistence.dao;
+
+import com.example.purchase.persistence.model.PurchaseTxn;
+import java.util.List;
+import javax.annotation.Nonnull;
+
+/**
+ * Bulk insert path for {@link PurchaseTxnRepository}
+ */
+public interface PurchaseTxnBatchRepository {
+
+  /**
+   * Insert new purchase transactions in one transaction, as batched JDBC INSERTs. Ids are generated for those without
+   * one; unlike {@code saveAll}, those with one are not merged (which would SELECT them first, then UPDATE the stored
+   * transaction holding the id). Fails with DataIntegrityViolationException if one is already stored.
+   */
+  void insertAll(@Nonnull List<PurchaseTxn> purchaseTxns);
+
+}
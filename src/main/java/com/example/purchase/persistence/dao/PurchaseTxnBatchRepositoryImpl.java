@@ -0,0 +1,43 @@
+package com.example.purchase.persistence.dao;
+
+import com.example.purchase.persistence.model.PurchaseTxn;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Persists in chunks of the Hibernate JDBC batch size, flushing and clearing the persistence context after each chunk
+ * so that a large batch does not keep every entity managed until commit.
+ */
+public class PurchaseTxnBatchRepositoryImpl implements PurchaseTxnBatchRepository {
+
+  private final EntityManager entityManager;
+  private final int batchSize;
+
+  public PurchaseTxnBatchRepositoryImpl(EntityManager entityManager,
+      @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int batchSize) {
+    this.entityManager = entityManager;
+    this.batchSize = batchSize;
+  }
+
+  @Transactional
+  @Override
+  public void insertAll(@Nonnull List<PurchaseTxn> purchaseTxns) {
+    // persist would reject an entity with its generated id already set, as detached; save inserts it either way, the
+    // id generator keeping an id already set
+    Session session = entityManager.unwrap(Session.class);
+    for (int i = 0; i < purchaseTxns.size(); i++) {
+      session.save(purchaseTxns.get(i));
+      if ((i + 1) % batchSize == 0) {
+        entityManager.flush();
+        entityManager.clear();
+      }
+    }
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+}
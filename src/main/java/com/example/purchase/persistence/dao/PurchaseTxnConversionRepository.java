@@ -0,0 +1,48 @@
+package com.example.purchase.persistence.dao;
+
+import com.example.purchase.persistence.model.PurchaseTxnConversion;
+import java.math.BigDecimal;
+import java.time.Instant;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PurchaseTxnConversionRepository
+    extends CrudRepository<PurchaseTxnConversion, PurchaseTxnConversion.Key> {
+
+  /**
+   * Deletes the conversions to the currency in one statement
+   *
+   * @return number of conversions deleted
+   */
+  @Modifying(clearAutomatically = true)
+  @Query("delete from PurchaseTxnConversion c where c.countryCurrencyDesc = :countryCurrencyDesc")
+  int deleteByCountryCurrencyDesc(@Param("countryCurrencyDesc") String countryCurrencyDesc);
+
+  /**
+   * Deletes the conversions to the currency of the transactions dated from (inclusive) to (exclusive) in one statement
+   *
+   * @return number of conversions deleted
+   */
+  @Modifying(clearAutomatically = true)
+  @Query("delete from PurchaseTxnConversion c where c.countryCurrencyDesc = :countryCurrencyDesc"
+      + " and c.txnDate >= :from and c.txnDate < :to")
+  int deleteByCountryCurrencyDescAndTxnDate(@Param("countryCurrencyDesc") String countryCurrencyDesc,
+      @Param("from") Instant from, @Param("to") Instant to);
+
+  /**
+   * Deletes the conversions to the currency at the rate of the transactions dated from (inclusive) to (exclusive) in
+   * one statement
+   *
+   * @return number of conversions deleted
+   */
+  @Modifying(clearAutomatically = true)
+  @Query("delete from PurchaseTxnConversion c where c.countryCurrencyDesc = :countryCurrencyDesc"
+      + " and c.exchangeRate = :exchangeRate and c.txnDate >= :from and c.txnDate < :to")
+  int deleteByCountryCurrencyDescAndExchangeRateAndTxnDate(@Param("countryCurrencyDesc") String countryCurrencyDesc,
+      @Param("exchangeRate") BigDecimal exchangeRate, @Param("from") Instant from, @Param("to") Instant to);
+
+}
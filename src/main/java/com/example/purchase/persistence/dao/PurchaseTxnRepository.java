@@ -1,8 +1,16 @@
 package com.example.purchase.persistence.dao;
 
 import com.example.purchase.persistence.model.PurchaseTxn;
+import java.time.Instant;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
+import javax.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -12,6 +20,36 @@ import org.springframework.stereotype.Repository;
  * without installing additional software stack components. Ebean test requires Docker.
  */
 @Repository
-public interface PurchaseTxnRepository extends CrudRepository<PurchaseTxn, UUID> {
+public interface PurchaseTxnRepository extends CrudRepository<PurchaseTxn, UUID>, PurchaseTxnBatchRepository {
+
+  /**
+   * Transactions with txnDate within [from, to), in txnDate order, read through a forward-only cursor. Must be read
+   * within a transaction, and closed.
+   */
+  @QueryHints({
+      @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"),
+      @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")
+  })
+  @Query("select p from PurchaseTxn p where p.txnDate >= :from and p.txnDate < :to order by p.txnDate, p.id")
+  Stream<PurchaseTxn> streamByTxnDateRange(@Param("from") Instant from, @Param("to") Instant to);
+
+  /**
+   * A page of transactions with txnDate within [from, to), in (txnDate, id) order, starting right after (afterTxnDate,
+   * afterId), at most page size of them. Seeks to the start through ix_purchase_txn_txn_date, which the txnDate >=
+   * afterTxnDate bound makes usable, rather than skipping over the transactions of earlier pages as OFFSET would.
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+  @Query("select p from PurchaseTxn p where p.txnDate >= :from and p.txnDate < :to"
+      + " and p.txnDate >= :afterTxnDate and (p.txnDate > :afterTxnDate or p.id > :afterId)"
+      + " order by p.txnDate, p.id")
+  List<PurchaseTxn> findPageByTxnDateRangeAfter(@Param("from") Instant from, @Param("to") Instant to,
+      @Param("afterTxnDate") Instant afterTxnDate, @Param("afterId") UUID afterId, Pageable page);
+
+  /**
+   * The first page of {@link #findPageByTxnDateRangeAfter}
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true"))
+  @Query("select p from PurchaseTxn p where p.txnDate >= :from and p.txnDate < :to order by p.txnDate, p.id")
+  List<PurchaseTxn> findPageByTxnDateRange(@Param("from") Instant from, @Param("to") Instant to, Pageable page);
 
 }
@@ -0,0 +1,27 @@
+package com.example.purchase.persistence.dao;
+
+import com.example.purchase.persistence.model.TreasuryRate;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface TreasuryRateRepository extends CrudRepository<TreasuryRate, Long> {
+
+  /**
+   * Latest rate for the currency with record_date within [dateStart, dateEnd]
+   */
+  Optional<TreasuryRate> findFirstByCountryCurrencyDescAndRecordDateBetweenOrderByRecordDateDesc(
+      String countryCurrencyDesc, LocalDate dateStart, LocalDate dateEnd);
+
+  List<TreasuryRate> findByRecordDateBetween(LocalDate dateStart, LocalDate dateEnd);
+
+  List<TreasuryRate> findByCountryCurrencyDesc(String countryCurrencyDesc);
+
+  @Query("select max(r.recordDate) from TreasuryRate r")
+  Optional<LocalDate> findLatestRecordDate();
+
+}
@@ -0,0 +1,29 @@
+package com.example.purchase.persistence.model;
+
+import java.time.LocalDate;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.Data;
+
+/**
+ * Rollup of the purchase transactions of one day (UTC): their number and total amount. Kept up to date as
+ * transactions are stored, see SpendRollupService.
+ */
+@Data
+@Entity
+@Table(name = "purchase_txn_daily_spend")
+public class DailySpend {
+
+  @Id
+  @Column(name = "txn_day")
+  private LocalDate txnDay;
+
+  @Column(name = "txn_count", nullable = false)
+  private long txnCount;
+  // USD cents, see MoneyMath
+  @Column(name = "amount_cents", nullable = false)
+  private long amountCents;
+
+}
@@ -1,36 +1,42 @@
 package com.example.purchase.persistence.model;
 
-import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.UUID;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
-import javax.validation.constraints.DecimalMin;
-import javax.validation.constraints.Digits;
+import javax.validation.constraints.Min;
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Type;
 
 @Data
 @Entity
-// not seeing any need for any extra indexes or unique constraints besides the primary index and key
-@Table(name = "purchase_txn")
+// exports read transactions in txn_date order
+@Table(name = "purchase_txn", indexes = {
+    @Index(name = "ix_purchase_txn_txn_date", columnList = "txn_date, id")
+})
 public class PurchaseTxn {
 
+  // 16 bytes, time-ordered by default, see PurchaseTxnIdGenerator
   @Id
-  @GeneratedValue
+  @GeneratedValue(generator = "purchase-txn-id")
+  @GenericGenerator(name = "purchase-txn-id",
+      strategy = "com.example.purchase.persistence.model.PurchaseTxnIdGenerator")
+  @Type(type = "uuid-binary")
   @Column(length = 16)
   private UUID id;
 
   @Column(length = 50, nullable = false)
   private String description;
-  @Column(nullable = false)
+  @Column(name = "txn_date", nullable = false)
   private Instant txnDate;
-  // Non-negative purchase amount in USD rounded to the nearest cent
-  @DecimalMin(value = "0.00") // inclusive by default
-  @Digits(integer = 19, fraction = 2)
-  @Column(nullable = false)
-  private BigDecimal amount;
+  // Non-negative purchase amount in USD cents, see MoneyMath
+  @Min(0)
+  @Column(name = "amount_cents", nullable = false)
+  private long amountCents;
 
 }
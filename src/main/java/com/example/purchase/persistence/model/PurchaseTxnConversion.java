@@ -0,0 +1,95 @@
+package com.example.purchase.persistence.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.data.domain.Persistable;
+
+/**
+ * A purchase transaction converted to a currency, with the transaction's fields copied so that it can be returned
+ * without loading the transaction. Written once, on the first conversion, and only deleted to invalidate it.
+ */
+@Data
+@Entity
+// invalidation is by currency, and transaction date
+@Table(name = "purchase_txn_conversion", indexes = {
+    @Index(name = "ix_purchase_txn_conversion_currency", columnList = "country_currency_desc,txn_date")
+})
+@IdClass(PurchaseTxnConversion.Key.class)
+public class PurchaseTxnConversion implements Persistable<PurchaseTxnConversion.Key> {
+
+  @Id
+  @Column(name = "purchase_txn_id", length = 16)
+  private UUID purchaseTxnId;
+  @Id
+  @Column(name = "country_currency_desc", length = 100)
+  private String countryCurrencyDesc;
+
+  @Column(length = 50, nullable = false)
+  private String description;
+  @Column(name = "txn_date", nullable = false)
+  private Instant txnDate;
+  @Column(name = "amount_cents", nullable = false)
+  private long amountCents;
+  @Column(nullable = false, precision = 28, scale = 9)
+  private BigDecimal exchangeRate;
+  @Column(name = "amount_converted_cents", nullable = false)
+  private long amountConvertedCents;
+
+  // loaded or stored, see isNew
+  @Transient
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  @EqualsAndHashCode.Exclude
+  @ToString.Exclude
+  private boolean persisted;
+
+  @Override
+  public Key getId() {
+    return new Key(purchaseTxnId, countryCurrencyDesc);
+  }
+
+  /**
+   * New unless loaded or stored: saving a new conversion inserts it rather than reading it first to merge it, and
+   * fails if it was stored meanwhile
+   */
+  @Override
+  public boolean isNew() {
+    return !persisted;
+  }
+
+  @PostLoad
+  @PostPersist
+  void markPersisted() {
+    persisted = true;
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Key implements Serializable {
+
+    private UUID purchaseTxnId;
+    private String countryCurrencyDesc;
+
+  }
+
+}
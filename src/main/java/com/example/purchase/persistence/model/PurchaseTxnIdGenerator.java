@@ -0,0 +1,52 @@
+package com.example.purchase.persistence.model;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Generates purchase_txn ids, as chosen by the {@value #SETTING} Hibernate setting (spring.jpa.properties.*):
+ * <ul>
+ *   <li>uuid7 (default): time-ordered, see {@link UuidV7}</li>
+ *   <li>random: random (version 4) UUIDs, as generated before</li>
+ * </ul>
+ * A purchase transaction inserted with an id already set (supplied by the client) keeps it.
+ */
+public class PurchaseTxnIdGenerator implements IdentifierGenerator {
+
+  public static final String SETTING = "purchase-txn.id-generator";
+
+  private Supplier<UUID> ids;
+
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+    String setting = serviceRegistry.getService(ConfigurationService.class)
+        .getSetting(SETTING, StandardConverters.STRING, "uuid7");
+    switch (setting.toLowerCase(Locale.ROOT)) {
+      case "uuid7":
+        ids = UuidV7::next;
+        break;
+      case "random":
+        ids = UUID::randomUUID;
+        break;
+      default:
+        throw new MappingException("Unknown " + SETTING + " " + setting + ", expected uuid7 or random");
+    }
+  }
+
+  @Override
+  public Serializable generate(SharedSessionContractImplementor session, Object object) {
+    UUID id = ((PurchaseTxn) object).getId();
+    return id != null ? id : ids.get();
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.example.purchase.persistence.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import lombok.Data;
+
+/**
+ * Local copy of one Treasury Reporting Rates of Exchange record
+ */
+@Data
+@Entity
+// lookups are by currency, then latest record_date within a window
+@Table(name = "treasury_rate", indexes = {
+    @Index(name = "ix_treasury_rate_currency_date", columnList = "country_currency_desc, record_date", unique = true)
+})
+public class TreasuryRate {
+
+  @Id
+  @GeneratedValue
+  private Long id;
+
+  @Column(name = "country_currency_desc", length = 100, nullable = false)
+  private String countryCurrencyDesc;
+  @Column(name = "record_date", nullable = false)
+  private LocalDate recordDate;
+  @Column(nullable = false, precision = 28, scale = 9)
+  private BigDecimal exchangeRate;
+
+}
@@ -0,0 +1,82 @@
+package com.example.purchase.persistence.model;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+import javax.annotation.Nonnull;
+
+/**
+ * Time-ordered UUIDs, version 7 (RFC 9562): a 48-bit Unix millisecond timestamp, then 74 random bits. Stored as 16
+ * bytes compared in byte order, successive ids sort after each other, so inserts append to the end of a primary key
+ * index rather than landing on random pages of it.
+ * <p>
+ * Ids are strictly increasing per generator, the clock going back included: within the same millisecond (or an
+ * earlier one) the random bits of the previous id are incremented by a random amount instead (RFC 9562 section 6.2,
+ * method 2), carrying into the timestamp if they overflow. {@link #next()} uses one generator per JVM.
+ */
+public final class UuidV7 {
+
+  private static final UuidV7 INSTANCE = new UuidV7(System::currentTimeMillis, new SecureRandom());
+
+  private static final long VERSION = 0x7000L;
+  private static final long VARIANT = 0x8000_0000_0000_0000L;
+  private static final long RAND_A_MASK = 0x0FFFL;
+  private static final long RAND_B_MASK = 0x3FFF_FFFF_FFFF_FFFFL;
+  private static final long RAND_A_LIMIT = RAND_A_MASK + 1;
+  private static final long RAND_B_LIMIT = RAND_B_MASK + 1;
+  // largest increment: keeps the ids hard to guess without using up the random bits
+  private static final long MAX_INCREMENT = 1L << 32;
+
+  private final LongSupplier clock;
+  private final SecureRandom random;
+  private long lastMillis = -1L;
+  private long lastRandA;
+  private long lastRandB;
+
+  UuidV7(@Nonnull LongSupplier clock, @Nonnull SecureRandom random) {
+    this.clock = clock;
+    this.random = random;
+  }
+
+  public static UUID next() {
+    return INSTANCE.generate();
+  }
+
+  /**
+   * @return the Unix millisecond timestamp of a version 7 UUID
+   */
+  public static long millis(@Nonnull UUID uuid) {
+    return uuid.getMostSignificantBits() >>> 16;
+  }
+
+  UUID generate() {
+    // drawn before taking the lock, which is then only held for a few arithmetic operations; as many random bytes as
+    // UUID.randomUUID()
+    byte[] randomBytes = new byte[16];
+    random.nextBytes(randomBytes);
+    ByteBuffer randomBits = ByteBuffer.wrap(randomBytes);
+    long bitsA = randomBits.getLong();
+    long bitsB = randomBits.getLong();
+    long increment = 1L + (bitsA & (MAX_INCREMENT - 1));
+    long millis = clock.getAsLong();
+    synchronized (this) {
+      if (millis > lastMillis) {
+        lastMillis = millis;
+        lastRandA = bitsA >>> 52;
+        lastRandB = bitsB & RAND_B_MASK;
+      } else {
+        lastRandB += increment;
+        if (lastRandB >= RAND_B_LIMIT) {
+          lastRandB -= RAND_B_LIMIT;
+          if (++lastRandA == RAND_A_LIMIT) {
+            lastRandA = 0;
+            lastMillis++;
+          }
+        }
+      }
+      return new UUID(lastMillis << 16 | VERSION | lastRandA, VARIANT | lastRandB);
+    }
+  }
+
+}
@@ -0,0 +1,151 @@
+package com.example.purchase.service;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Count-based circuit breaker. While closed, the outcomes of the last slidingWindowSize calls are recorded, and the
+ * breaker opens once at least minimumCalls are recorded and the share of failures reaches failureRateThreshold. While
+ * open, calls are rejected; after openDuration up to halfOpenCalls trial calls are let through, which close the breaker
+ * if they all succeed and open it again if one fails.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final double failureRateThreshold;
+  private final int minimumCalls;
+  private final long openDurationNanos;
+  private final int halfOpenCalls;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  // ring buffer of the outcomes recorded while closed, true for a failure
+  private final boolean[] outcomes;
+  private int recorded;
+  private int next;
+  private int failures;
+  private State state = State.CLOSED;
+  // when the breaker last opened or, when half-open, let its first trial call through
+  private long stateChangedAt;
+  private int trialCallsLeft;
+  private int trialSuccesses;
+
+  public CircuitBreaker(@Nonnull String name, double failureRateThreshold, int slidingWindowSize, int minimumCalls,
+      @Nonnull Duration openDuration, int halfOpenCalls) {
+    this.name = name;
+    this.failureRateThreshold = failureRateThreshold;
+    this.outcomes = new boolean[slidingWindowSize];
+    this.minimumCalls = Math.min(minimumCalls, slidingWindowSize);
+    this.openDurationNanos = openDuration.toNanos();
+    this.halfOpenCalls = halfOpenCalls;
+  }
+
+  /**
+   * @return whether a call may be made now. Its outcome must then be reported with {@link #onSuccess} or
+   * {@link #onFailure}.
+   */
+  public boolean tryAcquirePermission() {
+    lock.lock();
+    try {
+      long now = System.nanoTime();
+      switch (state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (now - stateChangedAt < openDurationNanos) {
+            return false;
+          }
+          transitionTo(State.HALF_OPEN, now);
+          break;
+        default:
+          // trial calls whose outcome never got reported (e.g. cancelled) must not keep the breaker half-open
+          if (trialCallsLeft == 0 && now - stateChangedAt >= openDurationNanos) {
+            transitionTo(State.HALF_OPEN, now);
+          }
+      }
+      if (trialCallsLeft == 0) {
+        return false;
+      }
+      trialCallsLeft--;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void onSuccess() {
+    lock.lock();
+    try {
+      if (state == State.CLOSED) {
+        record(false);
+      } else if (state == State.HALF_OPEN && ++trialSuccesses >= halfOpenCalls) {
+        transitionTo(State.CLOSED, System.nanoTime());
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void onFailure() {
+    lock.lock();
+    try {
+      if (state == State.CLOSED) {
+        record(true);
+        if (recorded >= minimumCalls && failures >= failureRateThreshold * recorded) {
+          transitionTo(State.OPEN, System.nanoTime());
+        }
+      } else if (state == State.HALF_OPEN) {
+        transitionTo(State.OPEN, System.nanoTime());
+      }
+      // calls let through before the breaker opened are not counted against it
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public State getState() {
+    lock.lock();
+    try {
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void record(boolean failure) {
+    if (recorded == outcomes.length) {
+      if (outcomes[next]) {
+        failures--;
+      }
+    } else {
+      recorded++;
+    }
+    outcomes[next] = failure;
+    if (failure) {
+      failures++;
+    }
+    next = (next + 1) % outcomes.length;
+  }
+
+  private void transitionTo(State newState, long now) {
+    if (newState == State.OPEN) {
+      log.warn("{} circuit breaker open: {} of the last {} calls failed", name, failures, recorded);
+    } else {
+      log.info("{} circuit breaker {}", name, newState == State.CLOSED ? "closed" : "half-open");
+    }
+    state = newState;
+    stateChangedAt = now;
+    trialCallsLeft = halfOpenCalls;
+    trialSuccesses = 0;
+    recorded = 0;
+    next = 0;
+    failures = 0;
+  }
+
+}
@@ -0,0 +1,14 @@
+package com.example.purchase.service;
+
+import java.io.IOException;
+
+/**
+ * A call was rejected without being made, as its circuit breaker is open
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+  public CircuitBreakerOpenException(String message) {
+    super(message);
+  }
+
+}
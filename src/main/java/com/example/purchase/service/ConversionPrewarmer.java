@@ -0,0 +1,148 @@
+package com.example.purchase.service;
+
+import com.example.purchase.config.TreasuryProperties;
+import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Converts newly stored purchase transactions to the treasury.prewarm.currencies in the background, resolving (and so
+ * caching) the rate of each one's date window and storing the conversion, so that reading a transaction back in one of
+ * them is a single primary key read. Conversions queue for a small pool of threads; once the queue is full, the
+ * oldest waiting conversion is dropped, so that a burst of writes is never slowed down.
+ * <p>
+ * Published as conversion.prewarm.tasks by result (converted, no_rate, failed, dropped), and conversion.prewarm.reads
+ * by result: reads of a transaction in one of the currencies that found the conversion stored (hit) or not (miss).
+ */
+@Slf4j
+@Component
+public class ConversionPrewarmer {
+
+  static final String TASKS = "conversion.prewarm.tasks";
+  static final String READS = "conversion.prewarm.reads";
+
+  private final ExchangeRateResolver exchangeRateResolver;
+  private final PurchaseTxnConversionStore conversionStore;
+  private final Set<String> currencies;
+  private final ThreadPoolExecutor executor;
+  private final Counter converted;
+  private final Counter noRate;
+  private final Counter failed;
+  private final Counter dropped;
+  private final Counter hits;
+  private final Counter misses;
+
+  public ConversionPrewarmer(@Nonnull ExchangeRateResolver exchangeRateResolver,
+      @Nonnull PurchaseTxnConversionStore conversionStore, @Nonnull TreasuryProperties treasuryProperties,
+      @Nonnull MeterRegistry meterRegistry) {
+    this.exchangeRateResolver = exchangeRateResolver;
+    this.conversionStore = conversionStore;
+    TreasuryProperties.Prewarm prewarm = treasuryProperties.getPrewarm();
+    this.currencies = Set.copyOf(prewarm.getCurrencies());
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(prewarm.getThreads(), prewarm.getThreads(), 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(prewarm.getQueueCapacity()), runnable -> {
+      Thread thread = new Thread(runnable, "prewarm-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }, this::dropOldest);
+    this.converted = task(meterRegistry, "converted");
+    this.noRate = task(meterRegistry, "no_rate");
+    this.failed = task(meterRegistry, "failed");
+    this.dropped = task(meterRegistry, "dropped");
+    this.hits = read(meterRegistry, "hit");
+    this.misses = read(meterRegistry, "miss");
+    if (!currencies.isEmpty()) {
+      log.info("Pre-warming conversions to {}", currencies);
+    }
+  }
+
+  /**
+   * Queue the conversion of the stored transaction to each of the currencies. Returns straight away.
+   */
+  public void prewarm(@Nonnull PurchaseTxn data) {
+    for (String countryCurrencyDesc : currencies) {
+      executor.execute(() -> convert(data, countryCurrencyDesc));
+    }
+  }
+
+  /**
+   * Count a read of a transaction in the currency, if one of those pre-warmed
+   *
+   * @param stored whether the conversion was found stored
+   */
+  public void recordRead(@Nonnull String countryCurrencyDesc, boolean stored) {
+    if (currencies.contains(countryCurrencyDesc)) {
+      (stored ? hits : misses).increment();
+    }
+  }
+
+  /**
+   * Stop the threads, dropping the conversions still queued
+   */
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void convert(PurchaseTxn data, String countryCurrencyDesc) {
+    OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
+    try {
+      // the same date window as a read, so the rate is also cached for it
+      Optional<BigDecimal> exchangeRate = exchangeRateResolver.getExchangeRate(countryCurrencyDesc,
+          txnDate.minusMonths(6L), txnDate);
+      if (exchangeRate.isEmpty()) {
+        noRate.increment();
+        return;
+      }
+      conversionStore.save(PurchaseTxnService.toPurchaseTxnCurrencyDto(data, countryCurrencyDesc,
+          exchangeRate.get()));
+      converted.increment();
+    } catch (Exception ex) {
+      log.warn("Pre-warming the conversion of {} to {} failed: {}", data.getId(), countryCurrencyDesc,
+          ex.toString());
+      failed.increment();
+    }
+  }
+
+  /**
+   * The queue is full: drop the oldest waiting conversion, the least likely to be read before it would have run
+   */
+  private void dropOldest(Runnable task, ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      return;
+    }
+    if (executor.getQueue().poll() != null) {
+      dropped.increment();
+    }
+    executor.execute(task);
+  }
+
+  private static Counter task(MeterRegistry meterRegistry, String result) {
+    return Counter.builder(TASKS)
+        .description("Background conversions of new purchase transactions")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  private static Counter read(MeterRegistry meterRegistry, String result) {
+    return Counter.builder(READS)
+        .description("Reads of purchase transactions in a pre-warmed currency, by whether the conversion was stored")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+}
@@ -1,17 +1,41 @@
 package com.example.purchase.service;
 
+import com.example.purchase.config.HttpCachePolicy;
+import com.example.purchase.config.TreasuryProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.Period;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Cache;
 import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -19,22 +43,46 @@ import org.apache.http.client.HttpResponseException;
 import org.springframework.stereotype.Service;
 
 /**
- * Service for calling the Treasury Reporting Rates of Exchange API to get currency conversion rates
+ * Service for calling the Treasury Reporting Rates of Exchange API to get currency conversion rates. Results are kept
+ * in a bounded in-process cache, as historical Treasury rates never change.
  */
 @Slf4j
 @RequiredArgsConstructor
 @Service
 public class CurrencyConversionService {
 
-  protected static final String EXCHANGE_RATE_URL = "https://api.fiscaldata.treasury.gov/services/api/fiscal_service/v1/accounting/od/rates_of_exchange";
+  protected static final String EXCHANGE_RATE_URL = TreasuryProperties.DEFAULT_URL;
   private static final DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+  // records requested per response. A 6-month window has a few quarterly records.
+  private static final int PAGE_SIZE = 100;
+  /**
+   * Rates for a record date may still be published (or amended) for a while afterwards, so neither the local copy of
+   * the dataset nor the index is taken as complete for the most recent dates
+   */
+  static final Period PUBLICATION_LAG = Period.ofDays(30);
+
+  /**
+   * @return whether the rates for a window ending on dateEnd have all been published, before the publication lag, so
+   * that the latest rate within it no longer changes unless Treasury revises it
+   */
+  public static boolean isSettled(@Nonnull LocalDate dateEnd) {
+    return dateEnd.isBefore(LocalDate.now(ZoneOffset.UTC).minus(PUBLICATION_LAG));
+  }
 
   private final OkHttpClient httpClient;
   private final ObjectMapper objectMapper;
+  private final TreasuryProperties treasuryProperties;
+  private final MeterRegistry meterRegistry;
+  private final ExchangeRateIndex exchangeRateIndex;
+
+  private final SingleFlight<ExchangeRateKey, Optional<BigDecimal>> inFlightRequests = new SingleFlight<>();
+  private LoadingCache<ExchangeRateKey, Optional<BigDecimal>> exchangeRateCache;
+  private ResilientCaller<Optional<BigDecimal>> resilientCaller;
+  private TreasuryResponseParser responseParser;
 
   /**
-   * Get the Treasury API response for the country_currency_desc within the date range e.g. <a
-   * href="https://api.fiscaldata.treasury.gov/services/api/fiscal_service/v1/accounting/od/rates_of_exchange?filter=country_currency_desc:in:Mexico-Peso,record_date:gte:2020-01-30,record_date:lte:2020-06-30">...</a>
+   * Get the exchange rate for the country_currency_desc within the date range, from the local cache when possible and
+   * otherwise from the Treasury API
    *
    * @param dateStart // TODO not clear from Treasure API whether date is in UTC or American timezones. Assume UTC for
    *                  now. At least the Americans are using the rational International yyyy-MM-dd formatting
@@ -42,66 +90,295 @@ public class CurrencyConversionService {
    *                  now. At least the Americans are using the rational International yyyy-MM-dd formatting
    * @return exchange rate. Empty if not found.
    */
-  // TODO: Treasury API returns multiple rates. I wonder if we want to get the one closest to the PurchaseTxn date, instead of the first (like currently implemented).
-  // It's not in the requirements, so leaving as first.
   public Optional<BigDecimal> getExchangeRate(@Nonnull String countryCurrencyDesc, @Nonnull OffsetDateTime dateStart,
       @Nonnull OffsetDateTime dateEnd) throws IOException {
-    // TODO: in a real system we might do retries if failed, such as with a retry backoff strategy
-    String url = constructExchangeRateUrl(countryCurrencyDesc, dateStart, dateEnd);
+    ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, dateStart, dateEnd);
+    Optional<BigDecimal> cached = exchangeRateCache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    // concurrent misses for the same key share one Treasury request (and its failure, which is not cached)
+    return inFlightRequests.execute(key, () -> {
+      Optional<BigDecimal> exchangeRate = fetchExchangeRate(key);
+      exchangeRateCache.put(key, exchangeRate);
+      return exchangeRate;
+    });
+  }
+
+  /**
+   * Asynchronous version of {@link #getExchangeRate}: no thread waits on the Treasury API call. The request is
+   * bounded by treasury.request-timeout, and cancelling the returned future cancels it unless other callers are
+   * waiting for the same rate.
+   *
+   * @return exchange rate, empty if not found. Fails with an IOException if the Treasury API call does.
+   */
+  public CompletableFuture<Optional<BigDecimal>> getExchangeRateAsync(@Nonnull String countryCurrencyDesc,
+      @Nonnull OffsetDateTime dateStart, @Nonnull OffsetDateTime dateEnd) {
+    ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, dateStart, dateEnd);
+    Optional<BigDecimal> cached = exchangeRateCache.getIfPresent(key);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    return inFlightRequests.executeAsync(key, () -> {
+      CompletableFuture<Optional<BigDecimal>> fetched = fetchExchangeRateAsync(key);
+      CompletableFuture<Optional<BigDecimal>> cachedOnCompletion = fetched.thenApply(exchangeRate -> {
+        exchangeRateCache.put(key, exchangeRate);
+        return exchangeRate;
+      });
+      return Futures.propagateCancellation(cachedOnCompletion, fetched);
+    });
+  }
+
+  /**
+   * Drop the cached rates of one currency, from this cache and the Treasury API client's HTTP cache, so that they are
+   * requested again, e.g. once Treasury revised one of them
+   */
+  public void evict(@Nonnull String countryCurrencyDesc) throws IOException {
+    exchangeRateCache.asMap().keySet().removeIf(key -> key.getCountryCurrencyDesc().equals(countryCurrencyDesc));
+    Cache httpCache = httpClient.cache();
+    if (httpCache == null) {
+      return;
+    }
+    // as requested by constructExchangeRateUrl
+    String filterPrefix = "country_currency_desc:in:" + countryCurrencyDesc + ",";
+    for (Iterator<String> urls = httpCache.urls(); urls.hasNext(); ) {
+      HttpUrl url = HttpUrl.parse(urls.next());
+      String filter = url == null ? null : url.queryParameter("filter");
+      if (filter != null && filter.startsWith(filterPrefix)) {
+        urls.remove();
+      }
+    }
+  }
+
+  /**
+   * Cache statistics (hits, misses, evictions), also published as "cache.*" metrics with tag cache=exchangeRate
+   */
+  public CacheStats getExchangeRateCacheStats() {
+    return exchangeRateCache.stats();
+  }
+
+  @PostConstruct
+  void init() {
+    responseParser = new TreasuryResponseParser(objectMapper.getFactory());
+    resilientCaller = new ResilientCaller<>("treasury", treasuryProperties.getHedge(), treasuryProperties.getRetry(),
+        treasuryProperties.getCircuitBreaker(), meterRegistry);
+    TreasuryProperties.Cache cacheProperties = treasuryProperties.getCache();
+    exchangeRateCache = Caffeine.newBuilder()
+        .maximumSize(cacheProperties.getMaximumSize())
+        .expireAfter(new ExchangeRateExpiry(cacheProperties.getTtl(), cacheProperties.getNegativeTtl()))
+        // stale-while-revalidate: an entry past refreshAfter is still returned while it is reloaded asynchronously,
+        // and is kept if the reload fails
+        .refreshAfterWrite(cacheProperties.getRefreshAfter())
+        .recordStats()
+        // the loader is only used for background refreshes; misses are loaded via inFlightRequests
+        .build(this::fetchExchangeRate);
+    CaffeineCacheMetrics.monitor(meterRegistry, exchangeRateCache, "exchangeRate");
+  }
+
+  /**
+   * Get the Treasury API response for the country_currency_desc within the date range e.g. <a
+   * href="https://api.fiscaldata.treasury.gov/services/api/fiscal_service/v1/accounting/od/rates_of_exchange?filter=country_currency_desc:in:Mexico-Peso,record_date:gte:2020-01-30,record_date:lte:2020-06-30">...</a>
+   *
+   * @return exchange rate. Empty if not found.
+   */
+  // Treasury API returns every rate within the window; the one closest to the PurchaseTxn date is the one with the
+  // latest record_date (see getExchangeRateFromData)
+  protected Optional<BigDecimal> fetchExchangeRate(@Nonnull ExchangeRateKey key) throws IOException {
+    // one code path for the hedging, retries and circuit breaker, and for bounding concurrent calls (the OkHttp
+    // dispatcher's limit); the caller's thread just waits
+    CompletableFuture<Optional<BigDecimal>> future = fetchExchangeRateAsync(key);
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the Treasury API");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+
+  /**
+   * Asynchronous version of {@link #fetchExchangeRate}, completed from an OkHttp dispatcher thread. Requests go
+   * through {@link ResilientCaller} (hedging, retries, circuit breaker), so this fails with a
+   * CircuitBreakerOpenException while the Treasury API is considered down. Cancelling the returned future cancels the
+   * requests in flight.
+   */
+  protected CompletableFuture<Optional<BigDecimal>> fetchExchangeRateAsync(@Nonnull ExchangeRateKey key) {
+    // responses are handled on OkHttp threads, so the request's timings are handed over
+    RequestTimings timings = RequestTimings.current();
+    return resilientCaller.call(() -> sendExchangeRateRequest(key, timings));
+  }
+
+  private CompletableFuture<Optional<BigDecimal>> sendExchangeRateRequest(ExchangeRateKey key,
+      @Nullable RequestTimings timings) {
+    Call call = newExchangeRateCall(key);
+    long sent = System.nanoTime();
+    CompletableFuture<Optional<BigDecimal>> future = new CompletableFuture<>();
+    future.whenComplete((exchangeRate, ex) -> {
+      if (future.isCancelled() || ex instanceof InterruptedIOException) {
+        call.cancel();
+      }
+    });
+    // the call timeout only starts once the dispatcher runs the call: this one also bounds the time queued behind
+    // treasury.max-concurrent-requests. Failed as OkHttp fails a call that times out, so the caller gets a 504.
+    CompletableFuture.delayedExecutor(treasuryProperties.getRequestTimeout().toMillis(), TimeUnit.MILLISECONDS)
+        .execute(() -> future.completeExceptionally(new InterruptedIOException("timeout")));
+
+    call.enqueue(new Callback() {
+      @Override
+      public void onFailure(@Nonnull Call call, @Nonnull IOException ex) {
+        future.completeExceptionally(ex);
+      }
+
+      @Override
+      public void onResponse(@Nonnull Call call, @Nonnull Response response) {
+        // until the response headers; the body is read while parsing
+        RequestTimings.record(timings, "treasury", sent);
+        try (response) {
+          future.complete(readExchangeRate(key, response, timings));
+        } catch (IOException | RuntimeException ex) {
+          future.completeExceptionally(ex);
+        }
+      }
+    });
+    return future;
+  }
+
+  private Call newExchangeRateCall(ExchangeRateKey key) {
+    String url = constructExchangeRateUrl(key);
     log.info("Requesting Exchange Rate from Treasury API GET " + url);
 
+    // rates for a window ending before the publication lag no longer change
+    HttpCachePolicy cachePolicy = isSettled(key.getDateEnd()) ? HttpCachePolicy.IMMUTABLE : HttpCachePolicy.REVALIDATE;
     Request request = new Request.Builder()
         .url(url)
+        .tag(HttpCachePolicy.class, cachePolicy)
         .build();
-    Call call = httpClient.newCall(request); // synchronous
-
-    String responseBody;
-    try (Response response = call.execute()) {
-      // unsuccessful response
-      if (response.code() != 200) {
-        throw new HttpResponseException(response.code(), "Request not successful.");
-      }
+    Call call = httpClient.newCall(request);
+    call.timeout().timeout(treasuryProperties.getRequestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    return call;
+  }
 
-      // successful response:
-      // e.g. {"data":[{"exchange_rate":"19.913","record_date":"2020-12-31"},{"exchange_rate":"20.067","record_date":"2020-09-30"},{"exchange_rate":"23.164","record_date":"2020-06-30"},{"exchange_rate":"23.791","record_date":"2020-03-31"}],"meta":{"count":4,"labels":{"exchange_rate":"Exchange Rate","record_date":"Record Date"},"dataTypes":{"exchange_rate":"NUMBER","record_date":"DATE"},"dataFormats":{"exchange_rate":"10.2","record_date":"YYYY-MM-DD"},"total-count":4,"total-pages":1},"links":{"self":"&page%5Bnumber%5D=1&page%5Bsize%5D=100","first":"&page%5Bnumber%5D=1&page%5Bsize%5D=100","prev":null,"next":null,"last":"&page%5Bnumber%5D=1&page%5Bsize%5D=100"}}
-      // or, when exchange rate not found:
-      // e.g. {"data":[],"meta":{"count":0,"labels":{"exchange_rate":"Exchange Rate","record_date":"Record Date"},"dataTypes":{"exchange_rate":"NUMBER","record_date":"DATE"},"dataFormats":{"exchange_rate":"10.2","record_date":"YYYY-MM-DD"},"total-count":0,"total-pages":0},"links":{"self":"&page%5Bnumber%5D=1&page%5Bsize%5D=100","first":"&page%5Bnumber%5D=1&page%5Bsize%5D=100","prev":null,"next":"&page%5Bnumber%5D=2&page%5Bsize%5D=100","last":"&page%5Bnumber%5D=0&page%5Bsize%5D=100"}}
-      responseBody = response.body().string();
-      log.debug("Received response body: " + responseBody);
+  private Optional<BigDecimal> readExchangeRate(ExchangeRateKey key, Response response,
+      @Nullable RequestTimings timings) throws IOException {
+    // unsuccessful response
+    if (response.code() != 200) {
+      throw new HttpResponseException(response.code(), "Request not successful.");
     }
 
-    Optional<BigDecimal> exchangeRate;
+    // successful response, with the fields, order and page size requested by constructExchangeRateUrl:
+    // e.g. {"data":[{"exchange_rate":"19.913","record_date":"2020-12-31"},{"exchange_rate":"20.067","record_date":"2020-09-30"}],"meta":{...},"links":{...}}
+    // or, when exchange rate not found:
+    // e.g. {"data":[],"meta":{...},"links":{...}}
+    // all records are only needed to add the window to the index
+    LocalDate coveredTo = indexableTo(key);
+    TreasuryResponseParser.Result result;
+    long parseStarted = System.nanoTime();
     try {
-      exchangeRate = getExchangeRateFromResponseBody(responseBody);
+      result = responseParser.parse(response.body().byteStream(), !coveredTo.isBefore(key.getDateStart()));
     } catch (JsonProcessingException ex) {
       log.error("Unknown Treasury API response received");
       throw ex;
+    } finally {
+      RequestTimings.record(timings, "parse", parseStarted);
     }
-    if (exchangeRate.isEmpty()) {
+    if (result.getLatest() == null) {
       log.info("Treasury API response could not find exchange rate");
     } else {
       log.info("Treasury API response found exchange rate {} for {}",
-          exchangeRate.get(),
-          countryCurrencyDesc);
+          result.getLatest().getExchangeRate(),
+          key.getCountryCurrencyDesc());
+    }
+    if (result.getRecords() != null) {
+      addToIndex(key, result.getRecords(), coveredTo);
     }
-    return getExchangeRateFromResponseBody(responseBody);
+    return result.getLatest() == null ? Optional.empty() : Optional.of(result.getLatest().getExchangeRate());
   }
 
-  protected Optional<BigDecimal> getExchangeRateFromResponseBody(String responseBody) throws JsonProcessingException {
-    JsonNode data = objectMapper.readTree(responseBody).get("data");
-    if (data.isEmpty()) {
-      return Optional.empty();
-    }
+  /**
+   * @return rate with the latest record_date, i.e. the latest rate on or before the end of the window
+   */
+  protected Optional<BigDecimal> getExchangeRateFromResponseBody(String responseBody) throws IOException {
+    ExchangeRateIndex.Record latest = responseParser.parse(
+        new ByteArrayInputStream(responseBody.getBytes(StandardCharsets.UTF_8)), false).getLatest();
+    return latest == null ? Optional.empty() : Optional.of(latest.getExchangeRate());
+  }
 
-    return Optional.of(new BigDecimal(data.get(0).get("exchange_rate").textValue()));
+  /**
+   * @return end of the part of the key's window that a response can be indexed for. Windows ending recently are only
+   * covered up to the publication lag, as rates for those dates may still be published.
+   */
+  private static LocalDate indexableTo(ExchangeRateKey key) {
+    LocalDate coveredTo = LocalDate.now(ZoneOffset.UTC).minus(PUBLICATION_LAG);
+    return key.getDateEnd().isBefore(coveredTo) ? key.getDateEnd() : coveredTo;
+  }
+
+  /**
+   * The response holds every record for the currency within the date window (unless it filled a page), so the index
+   * can answer later lookups within it
+   */
+  private void addToIndex(ExchangeRateKey key, List<ExchangeRateIndex.Record> records, LocalDate coveredTo) {
+    if (records.size() >= PAGE_SIZE) {
+      return;
+    }
+    exchangeRateIndex.add(key.getCountryCurrencyDesc(), records, key.getDateStart(), coveredTo);
   }
 
   protected String constructExchangeRateUrl(@Nonnull String countryCurrencyDesc, @Nonnull OffsetDateTime dateStart,
       @Nonnull OffsetDateTime dateEnd) {
-    return EXCHANGE_RATE_URL
-        + "?filter=country_currency_desc:in:" + countryCurrencyDesc
-        + ",record_date:gte:" + dtFormatter.format(dateStart)
-        + ",record_date:lte:" + dtFormatter.format(dateEnd);
+    return constructExchangeRateUrl(ExchangeRateKey.of(countryCurrencyDesc, dateStart, dateEnd));
+  }
+
+  /**
+   * Only the fields used are requested, latest record first, so that the response parser can stop after the first
+   * record when it only needs the rate
+   */
+  protected String constructExchangeRateUrl(@Nonnull ExchangeRateKey key) {
+    return treasuryProperties.getUrl()
+        + "?fields=exchange_rate,record_date"
+        + "&filter=country_currency_desc:in:" + key.getCountryCurrencyDesc()
+        + ",record_date:gte:" + dtFormatter.format(key.getDateStart())
+        + ",record_date:lte:" + dtFormatter.format(key.getDateEnd())
+        + "&sort=-record_date"
+        + "&page[size]=" + PAGE_SIZE;
+  }
+
+  /**
+   * Found rates and "no rate found" results are kept for different lengths of time
+   */
+  @RequiredArgsConstructor
+  private static class ExchangeRateExpiry implements Expiry<ExchangeRateKey, Optional<BigDecimal>> {
+
+    private final Duration ttl;
+    private final Duration negativeTtl;
+
+    @Override
+    public long expireAfterCreate(ExchangeRateKey key, Optional<BigDecimal> value, long currentTime) {
+      return (value.isPresent() ? ttl : negativeTtl).toNanos();
+    }
+
+    @Override
+    public long expireAfterUpdate(ExchangeRateKey key, Optional<BigDecimal> value, long currentTime,
+        long currentDuration) {
+      // a background refresh counts as an update, so the entry gets a fresh lifetime
+      return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(ExchangeRateKey key, Optional<BigDecimal> value, long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
   }
 
 
@@ -0,0 +1,276 @@
+package com.example.purchase.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nonnull;
+import lombok.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory index of Treasury exchange rates, per currency, answering "latest rate on or before a date, within a
+ * window" without allocating. Dates are held as epoch days in sorted int arrays and rates as fixed-point longs (scale
+ * {@value #RATE_SCALE}), so all ~170 currencies x decades of quarterly records take a few hundred KB.
+ * <p>
+ * Each currency also records which date ranges it is known to be complete for (e.g. the range a Treasury response
+ * covered), so that a lookup only answers when the answer cannot be missing a record the index was never told about.
+ */
+@Component
+public class ExchangeRateIndex {
+
+  public static final int RATE_SCALE = 9;
+  /**
+   * Lookup result: the index is complete for the window and it has no rate
+   */
+  public static final long NOT_FOUND = -1L;
+  /**
+   * Lookup result: the index is not complete for the window, so the rate must be looked up elsewhere
+   */
+  public static final long UNKNOWN = Long.MIN_VALUE;
+
+  private final ConcurrentMap<String, Series> seriesByCurrency = new ConcurrentHashMap<>();
+
+  /**
+   * A single rate record, as received from the Treasury API or the local copy of the dataset
+   */
+  @Value
+  public static class Record {
+
+    LocalDate recordDate;
+    BigDecimal exchangeRate;
+  }
+
+  /**
+   * @return the latest rate (fixed-point, scale {@value #RATE_SCALE}) with a record date within [dateStart, dateEnd],
+   * {@link #NOT_FOUND} or {@link #UNKNOWN}
+   */
+  public long lookup(@Nonnull String countryCurrencyDesc, @Nonnull LocalDate dateStart, @Nonnull LocalDate dateEnd) {
+    Series series = seriesByCurrency.get(countryCurrencyDesc);
+    if (series == null) {
+      return UNKNOWN;
+    }
+    return series.lookup((int) dateStart.toEpochDay(), (int) dateEnd.toEpochDay());
+  }
+
+  /**
+   * Add records for one currency, and mark [coveredFrom, coveredTo] as complete: the records given are all the records
+   * the currency has within that range. Nothing is added if any rate does not fit the fixed-point representation.
+   *
+   * @return whether the records were added
+   */
+  public boolean add(@Nonnull String countryCurrencyDesc, @Nonnull Iterable<Record> records,
+      @Nonnull LocalDate coveredFrom, @Nonnull LocalDate coveredTo) {
+    Series received = Series.of(records, (int) coveredFrom.toEpochDay(), (int) coveredTo.toEpochDay());
+    if (received == null) {
+      return false;
+    }
+    seriesByCurrency.merge(countryCurrencyDesc, received, Series::merge);
+    return true;
+  }
+
+  /**
+   * Replace the whole index, e.g. after loading the complete dataset, with every currency complete up to coveredTo
+   */
+  public void replaceAll(@Nonnull Map<String, ? extends Iterable<Record>> recordsByCurrency,
+      @Nonnull LocalDate coveredTo) {
+    recordsByCurrency.forEach((currency, records) -> replace(currency, records, coveredTo));
+    seriesByCurrency.keySet().retainAll(recordsByCurrency.keySet());
+  }
+
+  /**
+   * Replace one currency's records, e.g. after reloading them, with the currency complete up to coveredTo. The currency
+   * is removed if any rate does not fit the fixed-point representation.
+   */
+  public void replace(@Nonnull String countryCurrencyDesc, @Nonnull Iterable<Record> records,
+      @Nonnull LocalDate coveredTo) {
+    Series series = Series.of(records, Integer.MIN_VALUE, (int) coveredTo.toEpochDay());
+    if (series == null) {
+      seriesByCurrency.remove(countryCurrencyDesc);
+    } else {
+      seriesByCurrency.put(countryCurrencyDesc, series);
+    }
+  }
+
+  /**
+   * Remove one currency's records, so that its lookups are {@link #UNKNOWN} until records are added again
+   */
+  public void remove(@Nonnull String countryCurrencyDesc) {
+    seriesByCurrency.remove(countryCurrencyDesc);
+  }
+
+  public void clear() {
+    seriesByCurrency.clear();
+  }
+
+  /**
+   * @return number of rate records held
+   */
+  public int size() {
+    return seriesByCurrency.values().stream().mapToInt(series -> series.days.length).sum();
+  }
+
+  /**
+   * @return the rate as a fixed-point long, or {@link #NOT_FOUND} if it has more than {@value #RATE_SCALE} decimal
+   * places or is too large
+   */
+  public static long toFixedPoint(@Nonnull BigDecimal rate) {
+    try {
+      return rate.setScale(RATE_SCALE).unscaledValue().longValueExact();
+    } catch (ArithmeticException ex) {
+      return NOT_FOUND;
+    }
+  }
+
+  public static BigDecimal fromFixedPoint(long rate) {
+    BigDecimal stripped = BigDecimal.valueOf(rate, RATE_SCALE).stripTrailingZeros();
+    return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+  }
+
+  /**
+   * Immutable snapshot of one currency's records and complete ranges. Updates replace the whole snapshot, so readers
+   * never lock.
+   */
+  private static final class Series {
+
+    // sorted ascending, parallel arrays
+    private final int[] days;
+    private final long[] rates;
+    // disjoint, non-adjacent ranges sorted ascending, parallel arrays
+    private final int[] coveredFrom;
+    private final int[] coveredTo;
+
+    private Series(int[] days, long[] rates, int[] coveredFrom, int[] coveredTo) {
+      this.days = days;
+      this.rates = rates;
+      this.coveredFrom = coveredFrom;
+      this.coveredTo = coveredTo;
+    }
+
+    static Series of(Iterable<Record> records, int coveredFrom, int coveredTo) {
+      int count = 0;
+      for (Record ignored : records) {
+        count++;
+      }
+      int[] days = new int[count];
+      long[] rates = new long[count];
+      int i = 0;
+      for (Record record : records) {
+        long rate = toFixedPoint(record.getExchangeRate());
+        if (rate == NOT_FOUND) {
+          return null;
+        }
+        days[i] = (int) record.getRecordDate().toEpochDay();
+        rates[i] = rate;
+        i++;
+      }
+
+      int[] order = sortedOrder(days);
+      int[] sortedDays = new int[count];
+      long[] sortedRates = new long[count];
+      int n = 0;
+      for (int k : order) {
+        // on the same day, the record given last wins
+        if (n > 0 && sortedDays[n - 1] == days[k]) {
+          n--;
+        }
+        sortedDays[n] = days[k];
+        sortedRates[n++] = rates[k];
+      }
+      return new Series(Arrays.copyOf(sortedDays, n), Arrays.copyOf(sortedRates, n),
+          new int[]{coveredFrom}, new int[]{coveredTo});
+    }
+
+    long lookup(int startDay, int endDay) {
+      int i = floorIndex(days, endDay);
+      if (i >= 0 && days[i] >= startDay) {
+        return covers(days[i], endDay) ? rates[i] : UNKNOWN;
+      }
+      return covers(startDay, endDay) ? NOT_FOUND : UNKNOWN;
+    }
+
+    private boolean covers(int fromDay, int toDay) {
+      int i = floorIndex(coveredFrom, fromDay);
+      return i >= 0 && coveredTo[i] >= toDay;
+    }
+
+    /**
+     * @return a new series with the other series' records (which win on the same day) and ranges added
+     */
+    Series merge(Series other) {
+      int[] mergedDays = new int[days.length + other.days.length];
+      long[] mergedRates = new long[mergedDays.length];
+      int i = 0;
+      int j = 0;
+      int n = 0;
+      while (i < days.length || j < other.days.length) {
+        if (j >= other.days.length || (i < days.length && days[i] < other.days[j])) {
+          mergedDays[n] = days[i];
+          mergedRates[n++] = rates[i++];
+        } else {
+          if (i < days.length && days[i] == other.days[j]) {
+            i++;
+          }
+          mergedDays[n] = other.days[j];
+          mergedRates[n++] = other.rates[j++];
+        }
+      }
+
+      int[] from = Arrays.copyOf(coveredFrom, coveredFrom.length + other.coveredFrom.length);
+      int[] to = Arrays.copyOf(coveredTo, from.length);
+      System.arraycopy(other.coveredFrom, 0, from, coveredFrom.length, other.coveredFrom.length);
+      System.arraycopy(other.coveredTo, 0, to, coveredTo.length, other.coveredTo.length);
+      int[] rangeFrom = new int[from.length];
+      int[] rangeTo = new int[from.length];
+      int ranges = 0;
+      for (int k : sortedOrder(from)) {
+        // merge overlapping and adjacent ranges
+        if (ranges > 0 && (long) from[k] <= (long) rangeTo[ranges - 1] + 1) {
+          rangeTo[ranges - 1] = Math.max(rangeTo[ranges - 1], to[k]);
+        } else {
+          rangeFrom[ranges] = from[k];
+          rangeTo[ranges++] = to[k];
+        }
+      }
+
+      return new Series(Arrays.copyOf(mergedDays, n), Arrays.copyOf(mergedRates, n),
+          Arrays.copyOf(rangeFrom, ranges), Arrays.copyOf(rangeTo, ranges));
+    }
+
+    /**
+     * @return index of the last element <= key, or -1
+     */
+    private static int floorIndex(int[] sorted, int key) {
+      int low = 0;
+      int high = sorted.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (sorted[mid] <= key) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    /**
+     * @return indexes of keys in ascending key order (equal keys keep their original order)
+     */
+    private static int[] sortedOrder(int[] keys) {
+      long[] packed = new long[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        packed[i] = ((long) keys[i] << 32) | i;
+      }
+      Arrays.sort(packed);
+      int[] order = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        order[i] = (int) packed[i];
+      }
+      return order;
+    }
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.example.purchase.service;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import javax.annotation.Nonnull;
+import lombok.Value;
+
+/**
+ * Identifies one Treasury exchange rate lookup: the currency and the date window (at day resolution, as sent to the
+ * Treasury API)
+ */
+@Value
+public class ExchangeRateKey {
+
+  String countryCurrencyDesc;
+  LocalDate dateStart;
+  LocalDate dateEnd;
+
+  public static ExchangeRateKey of(@Nonnull String countryCurrencyDesc, @Nonnull OffsetDateTime dateStart,
+      @Nonnull OffsetDateTime dateEnd) {
+    return new ExchangeRateKey(countryCurrencyDesc, dateStart.toLocalDate(), dateEnd.toLocalDate());
+  }
+
+}
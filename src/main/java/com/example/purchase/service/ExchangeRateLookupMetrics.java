@@ -0,0 +1,112 @@
+package com.example.purchase.service;
+
+import com.example.purchase.config.TreasuryProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nonnull;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exchange rate lookups, published as exchange.rate.lookups counts by currency, source (where the rate was resolved
+ * from) and result. Currencies come from callers, so to keep the number of time series bounded only the first
+ * treasury.metrics.max-currency-tags currencies a rate was found for get their own currency tag; lookups for any other
+ * currency are counted under "other". Counters are kept per currency so that counting a lookup does not allocate.
+ */
+@Component
+public class ExchangeRateLookupMetrics {
+
+  static final String NAME = "exchange.rate.lookups";
+  static final String OTHER = "other";
+
+  public enum Source {
+    /**
+     * ExchangeRateIndex
+     */
+    INDEX,
+    /**
+     * Local copy of the Treasury dataset
+     */
+    DATASET,
+    /**
+     * CurrencyConversionService: its cache or the Treasury API
+     */
+    TREASURY
+  }
+
+  enum Result {
+    FOUND, NOT_FOUND, FAILED
+  }
+
+  private final MeterRegistry meterRegistry;
+  private final int maxCurrencyTags;
+  private final Map<String, CurrencyCounters> countersByCurrency = new ConcurrentHashMap<>();
+  private final CurrencyCounters otherCounters = new CurrencyCounters(OTHER);
+
+  public ExchangeRateLookupMetrics(@Nonnull MeterRegistry meterRegistry,
+      @Nonnull TreasuryProperties treasuryProperties) {
+    this.meterRegistry = meterRegistry;
+    this.maxCurrencyTags = treasuryProperties.getMetrics().getMaxCurrencyTags();
+  }
+
+  public void record(@Nonnull String countryCurrencyDesc, @Nonnull Source source, @Nonnull Optional<BigDecimal> rate) {
+    increment(countryCurrencyDesc, source, rate.isPresent() ? Result.FOUND : Result.NOT_FOUND);
+  }
+
+  public void recordFailure(@Nonnull String countryCurrencyDesc) {
+    increment(countryCurrencyDesc, Source.TREASURY, Result.FAILED);
+  }
+
+  private void increment(String countryCurrencyDesc, Source source, Result result) {
+    CurrencyCounters counters = countersByCurrency.get(countryCurrencyDesc);
+    if (counters == null) {
+      counters = result == Result.FOUND ? admit(countryCurrencyDesc) : otherCounters;
+    }
+    counters.get(source, result).increment();
+  }
+
+  private CurrencyCounters admit(String countryCurrencyDesc) {
+    synchronized (countersByCurrency) {
+      if (countersByCurrency.size() >= maxCurrencyTags) {
+        return otherCounters;
+      }
+      return countersByCurrency.computeIfAbsent(countryCurrencyDesc, CurrencyCounters::new);
+    }
+  }
+
+  /**
+   * Counters of a currency tag, by source and result, registered on first use
+   */
+  private class CurrencyCounters {
+
+    private final String currency;
+    private final AtomicReferenceArray<Counter> counters = new AtomicReferenceArray<>(
+        Source.values().length * Result.values().length);
+
+    CurrencyCounters(String currency) {
+      this.currency = currency;
+    }
+
+    Counter get(Source source, Result result) {
+      int i = source.ordinal() * Result.values().length + result.ordinal();
+      Counter counter = counters.get(i);
+      if (counter == null) {
+        // registering the same meter again returns the existing one
+        counter = Counter.builder(NAME)
+            .description("Exchange rate lookups")
+            .tag("currency", currency)
+            .tag("source", source.name().toLowerCase(Locale.ROOT))
+            .tag("result", result.name().toLowerCase(Locale.ROOT))
+            .register(meterRegistry);
+        counters.set(i, counter);
+      }
+      return counter;
+    }
+  }
+
+}
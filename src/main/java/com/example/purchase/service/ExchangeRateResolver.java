@@ -0,0 +1,110 @@
+package com.example.purchase.service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+/**
+ * Resolves exchange rates from the in-memory index, then the local copy of the Treasury dataset, falling back to the
+ * Treasury API for date windows neither covers (not synced yet, or newer than the last sync)
+ */
+@RequiredArgsConstructor
+@Service
+public class ExchangeRateResolver {
+
+  private final ExchangeRateIndex exchangeRateIndex;
+  private final TreasuryRateStore treasuryRateStore;
+  private final CurrencyConversionService currencyConversionService;
+  private final ExchangeRateLookupMetrics lookupMetrics;
+
+  /**
+   * @return latest exchange rate for the country_currency_desc within the date range. Empty if not found.
+   */
+  public Optional<BigDecimal> getExchangeRate(@Nonnull String countryCurrencyDesc, @Nonnull OffsetDateTime dateStart,
+      @Nonnull OffsetDateTime dateEnd) throws IOException {
+    ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, dateStart, dateEnd);
+    Optional<BigDecimal> local = getLocalExchangeRate(key);
+    if (local != null) {
+      return local;
+    }
+
+    try {
+      Optional<BigDecimal> exchangeRate = currencyConversionService.getExchangeRate(countryCurrencyDesc, dateStart,
+          dateEnd);
+      lookupMetrics.record(countryCurrencyDesc, ExchangeRateLookupMetrics.Source.TREASURY, exchangeRate);
+      return exchangeRate;
+    } catch (IOException | RuntimeException ex) {
+      lookupMetrics.recordFailure(countryCurrencyDesc);
+      throw ex;
+    }
+  }
+
+  /**
+   * Asynchronous version of {@link #getExchangeRate}: already complete if the rate is found locally, otherwise
+   * completed when the Treasury API responds
+   */
+  public CompletableFuture<Optional<BigDecimal>> getExchangeRateAsync(@Nonnull String countryCurrencyDesc,
+      @Nonnull OffsetDateTime dateStart, @Nonnull OffsetDateTime dateEnd) {
+    ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, dateStart, dateEnd);
+    Optional<BigDecimal> local = getLocalExchangeRate(key);
+    if (local != null) {
+      return CompletableFuture.completedFuture(local);
+    }
+
+    CompletableFuture<Optional<BigDecimal>> exchangeRate = currencyConversionService.getExchangeRateAsync(
+        countryCurrencyDesc, dateStart, dateEnd);
+    // returned as is, so that cancelling it still cancels the lookup
+    exchangeRate.whenComplete((rate, ex) -> {
+      if (ex == null) {
+        lookupMetrics.record(countryCurrencyDesc, ExchangeRateLookupMetrics.Source.TREASURY, rate);
+      } else if (!exchangeRate.isCancelled()) {
+        lookupMetrics.recordFailure(countryCurrencyDesc);
+      }
+    });
+    return exchangeRate;
+  }
+
+  /**
+   * Drop one currency's rates from where they are kept locally, or load them again from the Treasury API into the local
+   * copy of the dataset and the in-memory index once synced, e.g. after Treasury revised one of them
+   *
+   * @return number of records loaded again, 0 before the first sync
+   */
+  public int refresh(@Nonnull String countryCurrencyDesc) throws IOException {
+    // the local copy first: until then, lookups it covers are still answered at the rates about to be dropped
+    int refreshed = treasuryRateStore.refresh(countryCurrencyDesc);
+    currencyConversionService.evict(countryCurrencyDesc);
+    return refreshed;
+  }
+
+  /**
+   * @return the rate from the in-memory index or local copy of the dataset (empty if not found), or null if neither
+   * covers the key
+   */
+  @Nullable
+  private Optional<BigDecimal> getLocalExchangeRate(ExchangeRateKey key) {
+    long indexed = exchangeRateIndex.lookup(key.getCountryCurrencyDesc(), key.getDateStart(), key.getDateEnd());
+    if (indexed != ExchangeRateIndex.UNKNOWN) {
+      Optional<BigDecimal> exchangeRate = indexed == ExchangeRateIndex.NOT_FOUND
+          ? Optional.empty()
+          : Optional.of(ExchangeRateIndex.fromFixedPoint(indexed));
+      lookupMetrics.record(key.getCountryCurrencyDesc(), ExchangeRateLookupMetrics.Source.INDEX, exchangeRate);
+      return exchangeRate;
+    }
+
+    if (treasuryRateStore.covers(key)) {
+      Optional<BigDecimal> exchangeRate = treasuryRateStore.findExchangeRate(key);
+      lookupMetrics.record(key.getCountryCurrencyDesc(), ExchangeRateLookupMetrics.Source.DATASET, exchangeRate);
+      return exchangeRate;
+    }
+
+    return null;
+  }
+
+}
@@ -0,0 +1,43 @@
+package com.example.purchase.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nonnull;
+
+/**
+ * CompletableFuture helpers
+ */
+public final class Futures {
+
+  private Futures() {
+  }
+
+  /**
+   * Futures derived with thenApply etc. do not cancel the future they were derived from when cancelled. Make cancelling
+   * derived cancel source too, so that e.g. cancelling a request's future cancels the Treasury API call it waits on.
+   *
+   * @return derived
+   */
+  public static <T> CompletableFuture<T> propagateCancellation(@Nonnull CompletableFuture<T> derived,
+      @Nonnull CompletableFuture<?> source) {
+    derived.whenComplete((value, ex) -> {
+      if (derived.isCancelled()) {
+        source.cancel(true);
+      }
+    });
+    return derived;
+  }
+
+  /**
+   * @return the exception a future failed with, rather than the CompletionException wrapping it in dependent stages
+   */
+  public static Throwable unwrap(@Nonnull Throwable ex) {
+    Throwable cause = ex;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    return cause;
+  }
+
+}
@@ -0,0 +1,327 @@
+package com.example.purchase.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.annotation.Nonnull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of records in memory-mapped segment files, for {@link WriteBehindIngester}.
+ * <p>
+ * A record is its payload length, the CRC32 of its payload, then the payload. In a segment, a zero length ends the
+ * records written so far, and a length of -1 (or too little space left for a record header) continues in the next
+ * segment. Records are addressed by offset: the base offset of their segment (its file name) plus their position in
+ * it. The offset up to which records have been consumed is kept in the committed file. On opening, the records after
+ * it are found again by scanning, up to the first incomplete or corrupt one (e.g. torn by a crash), where appends
+ * resume.
+ * <p>
+ * Appends are serialised. {@link #sync} forces them to disk, once for all the appends made meanwhile (group commit).
+ * Records can be read by one consumer concurrently with appends. Once {@link #stopAppends stopped}, appends fail with
+ * ClosedChannelException, so that none is made after the log is closed.
+ */
+@Slf4j
+final class IngestLog implements Closeable {
+
+  static final int HEADER = 8;
+  private static final int ROLL = -1;
+  private static final String SUFFIX = ".log";
+  private static final String COMMITTED = "committed";
+
+  private final Path directory;
+  private final int segmentSize;
+  private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+  private final FileChannel committedFile;
+  private final Object syncLock = new Object();
+  // guarded by this
+  private Segment active;
+  // guarded by this
+  private boolean appendsStopped;
+  // guarded by syncLock
+  private long synced;
+  private volatile long end;
+  private volatile long committed;
+
+  /**
+   * Open the log in the directory, creating it if needed, and find the records appended after the committed offset
+   *
+   * @param segmentSize size of new segment files. Existing ones keep their size.
+   */
+  IngestLog(@Nonnull Path directory, int segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    Files.createDirectories(directory);
+    committedFile = FileChannel.open(directory.resolve(COMMITTED), StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+    committed = committedFile.read(buffer, 0L) == Long.BYTES ? buffer.getLong(0) : 0L;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+          continue;
+        }
+        if (Files.size(path) < HEADER) {
+          // created, but not yet extended to its size: holds no records
+          Files.delete(path);
+          continue;
+        }
+        long base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        segments.put(base, map(base, 0));
+      }
+    }
+    recover();
+  }
+
+  /**
+   * Append a record, not yet forced to disk
+   *
+   * @return offset of the end of the record, to {@link #sync} up to
+   */
+  synchronized long append(@Nonnull byte[] payload) throws IOException {
+    if (appendsStopped) {
+      throw new ClosedChannelException();
+    }
+    if (payload.length == 0 || HEADER + payload.length > segmentSize) {
+      throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit in a segment");
+    }
+    int position = (int) (end - active.base);
+    if (position + HEADER + payload.length > active.capacity()) {
+      if (active.capacity() - position >= HEADER) {
+        active.buffer.putInt(position, ROLL);
+      }
+      active = map(active.limit(), segmentSize);
+      segments.put(active.base, active);
+      position = 0;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    ByteBuffer buffer = active.buffer.duplicate();
+    buffer.position(position + Integer.BYTES);
+    buffer.putInt((int) crc.getValue()).put(payload);
+    active.buffer.putInt(position, payload.length);
+    end = active.base + position + HEADER + payload.length;
+    return end;
+  }
+
+  /**
+   * Force the records appended up to the offset to disk, if not already, along with any appended since
+   */
+  void sync(long offset) {
+    synchronized (syncLock) {
+      if (offset <= synced) {
+        return;
+      }
+      long upTo = end;
+      for (Segment segment : segments.values()) {
+        if (segment.limit() > synced && segment.base < upTo) {
+          segment.buffer.force();
+        }
+      }
+      synced = upTo;
+    }
+  }
+
+  /**
+   * @return up to max records from the offset on, each with the offset of its end, none once closed
+   */
+  List<Record> read(long from, int max) {
+    long limit = end;
+    List<Record> records = new ArrayList<>();
+    long offset = from;
+    while (records.size() < max && offset < limit) {
+      Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+      if (entry == null) {
+        // closed
+        break;
+      }
+      Segment segment = entry.getValue();
+      int position = (int) (offset - segment.base);
+      int length = segment.capacity() - position < HEADER ? ROLL : segment.buffer.getInt(position);
+      if (length == ROLL) {
+        offset = segment.limit();
+        continue;
+      }
+      byte[] payload = new byte[length];
+      ByteBuffer buffer = segment.buffer.duplicate();
+      buffer.position(position + HEADER);
+      buffer.get(payload);
+      offset += HEADER + length;
+      records.add(new Record(payload, offset));
+    }
+    return records;
+  }
+
+  /**
+   * Record the records up to the offset as consumed, durably, and delete the segments holding only consumed records
+   */
+  void commit(long offset) throws IOException {
+    committedFile.write(ByteBuffer.allocate(Long.BYTES).putLong(0, offset), 0L);
+    committedFile.force(false);
+    committed = offset;
+    deleteSegmentsBefore(offset);
+  }
+
+  long committedOffset() {
+    return committed;
+  }
+
+  long endOffset() {
+    return end;
+  }
+
+  /**
+   * Fail further appends. The records appended so far can still be synced, read and committed.
+   */
+  synchronized void stopAppends() {
+    appendsStopped = true;
+  }
+
+  /**
+   * Force every record appended to disk, then release the segments. Appends fail from then on, syncs return straight
+   * away and reads find no records.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    appendsStopped = true;
+    synchronized (syncLock) {
+      for (Segment segment : segments.values()) {
+        segment.buffer.force();
+      }
+      synced = end;
+      segments.clear();
+    }
+    committedFile.close();
+  }
+
+  private void recover() throws IOException {
+    deleteSegmentsBefore(committed);
+    if (segments.isEmpty()) {
+      active = map(committed, segmentSize);
+      segments.put(active.base, active);
+      end = committed;
+      synced = end;
+      return;
+    }
+    Map.Entry<Long, Segment> first = segments.floorEntry(committed);
+    Segment segment = first == null ? segments.firstEntry().getValue() : first.getValue();
+    long offset = Math.max(committed, segment.base);
+    while (true) {
+      int position = (int) (offset - segment.base);
+      int length = segment.capacity() - position < HEADER ? ROLL : segment.buffer.getInt(position);
+      if (length == ROLL) {
+        Segment next = segments.get(segment.limit());
+        if (next == null) {
+          break;
+        }
+        segment = next;
+        offset = next.base;
+      } else if (length > 0 && isValid(segment, position, length)) {
+        offset += HEADER + length;
+      } else {
+        if (length != 0) {
+          // a torn record: clear it, so that its bytes are not taken for records once appends resume before them
+          log.warn("Ingest log truncated at offset {}, after an incomplete record", offset);
+          ByteBuffer buffer = segment.buffer.duplicate();
+          buffer.position(position);
+          while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+          }
+          segment.buffer.force();
+        }
+        break;
+      }
+    }
+    // appended after the records found, so never synced
+    for (Segment later : new ArrayList<>(segments.tailMap(segment.base, false).values())) {
+      delete(later);
+    }
+    active = segment;
+    end = offset;
+    synced = end;
+  }
+
+  private static boolean isValid(Segment segment, int position, int length) {
+    if (position + HEADER + length > segment.capacity()) {
+      return false;
+    }
+    byte[] payload = new byte[length];
+    ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position(position + Integer.BYTES);
+    int crc = buffer.getInt();
+    buffer.get(payload);
+    CRC32 actual = new CRC32();
+    actual.update(payload);
+    return (int) actual.getValue() == crc;
+  }
+
+  private void deleteSegmentsBefore(long offset) throws IOException {
+    Long floor = segments.floorKey(offset);
+    if (floor == null) {
+      return;
+    }
+    // the segment holding the offset stays: it may be the one being appended to
+    for (Segment segment : new ArrayList<>(segments.headMap(floor, false).values())) {
+      delete(segment);
+    }
+  }
+
+  private void delete(Segment segment) throws IOException {
+    segments.remove(segment.base);
+    // the mapping itself is released once garbage collected
+    Files.deleteIfExists(segment.path);
+  }
+
+  /**
+   * @param size of a new segment file, 0 to keep the existing file's size
+   */
+  private Segment map(long base, int size) throws IOException {
+    Path path = directory.resolve(String.format("%020d%s", base, SUFFIX));
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long length = size == 0 ? channel.size() : size;
+      return new Segment(base, path, channel.map(FileChannel.MapMode.READ_WRITE, 0L, length));
+    }
+  }
+
+  @Value
+  static class Record {
+
+    byte[] payload;
+    /**
+     * Offset of the end of the record, where the next one starts
+     */
+    long end;
+  }
+
+  @Value
+  private static class Segment {
+
+    long base;
+    Path path;
+    MappedByteBuffer buffer;
+
+    int capacity() {
+      return buffer.capacity();
+    }
+
+    long limit() {
+      return base + buffer.capacity();
+    }
+  }
+
+}
@@ -0,0 +1,98 @@
+package com.example.purchase.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import javax.annotation.Nonnull;
+
+/**
+ * Fixed-point money arithmetic. Amounts are held as long cents; an exchange rate is an unscaled long and a decimal
+ * scale (e.g. 19.913 is 19913 at scale 3), as ExchangeRateIndex holds them at scale {@value
+ * ExchangeRateIndex#RATE_SCALE}. Results are exactly those of the BigDecimal math, {@code
+ * amount.multiply(rate).setScale(2, RoundingMode.HALF_UP)}, with no intermediate BigDecimal.
+ */
+public final class MoneyMath {
+
+  public static final int CENT_SCALE = 2;
+  /**
+   * Largest amount held, Long.MAX_VALUE cents
+   */
+  public static final BigDecimal MAX_AMOUNT = BigDecimal.valueOf(Long.MAX_VALUE, CENT_SCALE);
+
+  // 10^0 to 10^18, all the powers of ten a long holds
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1L;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10L;
+    }
+  }
+
+  private MoneyMath() {
+  }
+
+  /**
+   * @return the amount in cents
+   * @throws ArithmeticException if the amount has more than two decimal places or does not fit a long in cents
+   */
+  public static long toCents(@Nonnull BigDecimal amount) {
+    return amount.setScale(CENT_SCALE).unscaledValue().longValueExact();
+  }
+
+  /**
+   * @return the amount, with two decimal places
+   */
+  public static BigDecimal fromCents(long cents) {
+    return BigDecimal.valueOf(cents, CENT_SCALE);
+  }
+
+  /**
+   * @param rate unscaled exchange rate
+   * @param rateScale decimal places of the rate, 0 to 18
+   * @return amountCents x rate, rounded half up to cents
+   * @throws ArithmeticException if the product does not fit a long
+   */
+  public static long multiply(long amountCents, long rate, int rateScale) {
+    long product = amountCents * rate;
+    if (Math.multiplyHigh(amountCents, rate) != product >> 63) {
+      throw new ArithmeticException("long overflow");
+    }
+    return roundHalfUp(product, POWERS_OF_TEN[rateScale]);
+  }
+
+  /**
+   * Converts an amount at an exchange rate, in fixed point unless the rate has more than 18 significant digits or
+   * decimal places, or the product overflows a long, all of which the BigDecimal math is left to
+   *
+   * @return the converted amount, with two decimal places
+   */
+  public static BigDecimal convert(long amountCents, @Nonnull BigDecimal rate) {
+    int rateScale = rate.scale();
+    if (rateScale >= 0 && rateScale < POWERS_OF_TEN.length && rate.precision() < POWERS_OF_TEN.length) {
+      // the unscaled value as a long, through a BigDecimal the JIT can usually do without
+      long unscaledRate = rate.scaleByPowerOfTen(rateScale).longValue();
+      try {
+        return fromCents(multiply(amountCents, unscaledRate, rateScale));
+      } catch (ArithmeticException ex) {
+        // overflow, left to the BigDecimal math
+      }
+    }
+    return fromCents(amountCents).multiply(rate).setScale(CENT_SCALE, RoundingMode.HALF_UP);
+  }
+
+  /**
+   * @return value / divisor rounded half up, i.e. halves away from zero
+   */
+  private static long roundHalfUp(long value, long divisor) {
+    long quotient = value / divisor;
+    long remainder = value % divisor;
+    // remainder takes the sign of value; 2 * remainder >= divisor, without the overflow
+    if (remainder >= divisor - remainder) {
+      quotient++;
+    } else if (-remainder >= divisor + remainder) {
+      quotient--;
+    }
+    return quotient;
+  }
+
+}
@@ -0,0 +1,177 @@
+package com.example.purchase.service;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.dao.PurchaseTxnConversionRepository;
+import com.example.purchase.persistence.model.PurchaseTxnConversion;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Conversions of purchase transactions to currencies, kept once computed. A transaction's date and amount never
+ * change, and neither do past Treasury rates, so a conversion holds until a rate within its 6-month window is published
+ * late or revised, when only the conversions that rate may change are invalidated.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class PurchaseTxnConversionStore {
+
+  // of the exchange_rate column, as for treasury_rate, whose rates read back the same way
+  private static final int RATE_SCALE = 9;
+  // for saveAsync
+  private static final int SAVE_THREADS = 2;
+  private static final int SAVE_QUEUE_CAPACITY = 1_000;
+
+  private final PurchaseTxnConversionRepository repository;
+  private final ThreadPoolExecutor saveExecutor = newSaveExecutor();
+
+  /**
+   * @return the stored conversion, with a single primary key read, empty if none
+   */
+  public Optional<PurchaseTxnCurrencyDto> find(@Nonnull UUID id, @Nonnull String countryCurrencyDesc) {
+    return repository.findById(new PurchaseTxnConversion.Key(id, countryCurrencyDesc))
+        .map(PurchaseTxnConversionStore::toDto);
+  }
+
+  /**
+   * Store the conversion, unless already stored (concurrently). Failing to store it is logged, not thrown: the
+   * conversion is only computed again next time.
+   */
+  public void save(@Nonnull PurchaseTxnCurrencyDto dto) {
+    if (dto.getExchangeRate().scale() > RATE_SCALE) {
+      // would not be returned as computed
+      return;
+    }
+    try {
+      repository.save(toConversion(dto));
+    } catch (DataAccessException ex) {
+      log.debug("Conversion of {} to {} not stored", dto.getId(), dto.getCountryCurrencyDesc(), ex);
+    }
+  }
+
+  /**
+   * {@link #save} on the store's own threads, for conversions computed on a thread that must not wait on the database,
+   * e.g. an OkHttp dispatcher thread. Returns straight away. Once {@value #SAVE_QUEUE_CAPACITY} conversions wait, the
+   * conversion is not stored, as when storing it fails.
+   */
+  public void saveAsync(@Nonnull PurchaseTxnCurrencyDto dto) {
+    try {
+      saveExecutor.execute(() -> save(dto));
+    } catch (RejectedExecutionException ex) {
+      log.debug("Conversion of {} to {} not stored, {} waiting", dto.getId(), dto.getCountryCurrencyDesc(),
+          saveExecutor.getQueue().size());
+    }
+  }
+
+  /**
+   * Stop the threads, storing the conversions still queued first
+   */
+  @PreDestroy
+  public void shutdown() {
+    saveExecutor.shutdown();
+  }
+
+  /**
+   * @return number of conversions deleted
+   */
+  @Transactional
+  public int invalidate(@Nonnull String countryCurrencyDesc) {
+    int deleted = repository.deleteByCountryCurrencyDesc(countryCurrencyDesc);
+    log.info("Invalidated {} conversions to {}", deleted, countryCurrencyDesc);
+    return deleted;
+  }
+
+  /**
+   * Invalidate the conversions to the currency whose 6-month window includes a newly published record_date, whose rate
+   * may now be the latest within the window
+   *
+   * @return number of conversions deleted
+   */
+  @Transactional
+  public int invalidate(@Nonnull String countryCurrencyDesc, @Nonnull LocalDate recordDate) {
+    int deleted = repository.deleteByCountryCurrencyDescAndTxnDate(countryCurrencyDesc, windowsFrom(recordDate),
+        windowsTo(recordDate));
+    log.debug("Invalidated {} conversions to {} for a rate published on {}", deleted, countryCurrencyDesc, recordDate);
+    return deleted;
+  }
+
+  /**
+   * Invalidate the conversions to the currency which resolved a since revised rate: those at the previous rate whose
+   * 6-month window includes its record_date
+   *
+   * @return number of conversions deleted
+   */
+  @Transactional
+  public int invalidate(@Nonnull String countryCurrencyDesc, @Nonnull LocalDate recordDate,
+      @Nonnull BigDecimal previousRate) {
+    int deleted = repository.deleteByCountryCurrencyDescAndExchangeRateAndTxnDate(countryCurrencyDesc, previousRate,
+        windowsFrom(recordDate), windowsTo(recordDate));
+    log.debug("Invalidated {} conversions to {} at the rate revised on {}", deleted, countryCurrencyDesc, recordDate);
+    return deleted;
+  }
+
+  // a transaction's window runs from 6 months before its date (in its own offset) to its date: it includes the
+  // record_date if dated on it or up to 6 months after, the end of that month as minusMonths clamps to it. A day either
+  // side covers the transactions' offsets from UTC.
+  private static Instant windowsFrom(LocalDate recordDate) {
+    return recordDate.minusDays(1L).atStartOfDay(ZoneOffset.UTC).toInstant();
+  }
+
+  private static Instant windowsTo(LocalDate recordDate) {
+    return YearMonth.from(recordDate.plusMonths(6L)).atEndOfMonth().plusDays(2L).atStartOfDay(ZoneOffset.UTC)
+        .toInstant();
+  }
+
+  private static ThreadPoolExecutor newSaveExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(SAVE_THREADS, SAVE_THREADS, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(SAVE_QUEUE_CAPACITY), runnable -> {
+      Thread thread = new Thread(runnable, "conversion-save-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static PurchaseTxnConversion toConversion(PurchaseTxnCurrencyDto dto) {
+    PurchaseTxnConversion conversion = new PurchaseTxnConversion();
+    conversion.setPurchaseTxnId(dto.getId());
+    conversion.setCountryCurrencyDesc(dto.getCountryCurrencyDesc());
+    conversion.setDescription(dto.getDescription());
+    conversion.setTxnDate(PurchaseTxnMapper.INSTANCE.toInstant(dto.getTxnDate()));
+    conversion.setAmountCents(MoneyMath.toCents(dto.getAmount()));
+    conversion.setExchangeRate(dto.getExchangeRate());
+    conversion.setAmountConvertedCents(MoneyMath.toCents(dto.getAmountConverted()));
+    return conversion;
+  }
+
+  private static PurchaseTxnCurrencyDto toDto(PurchaseTxnConversion conversion) {
+    PurchaseTxnCurrencyDto dto = new PurchaseTxnCurrencyDto();
+    dto.setId(conversion.getPurchaseTxnId());
+    dto.setDescription(conversion.getDescription());
+    dto.setTxnDate(PurchaseTxnMapper.INSTANCE.fromInstant(conversion.getTxnDate()));
+    dto.setAmount(MoneyMath.fromCents(conversion.getAmountCents()));
+    dto.setCountryCurrencyDesc(conversion.getCountryCurrencyDesc());
+    dto.setExchangeRate(TreasuryRateStore.normalise(conversion.getExchangeRate()));
+    dto.setAmountConverted(MoneyMath.fromCents(conversion.getAmountConvertedCents()));
+    return dto;
+  }
+
+}
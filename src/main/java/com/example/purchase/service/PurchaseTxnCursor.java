@@ -0,0 +1,57 @@
+package com.example.purchase.service;
+
+import com.example.purchase.persistence.model.PurchaseTxn;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+import javax.annotation.Nonnull;
+import lombok.Value;
+
+/**
+ * Position in the list of purchase transactions, ordered by (txnDate, id): the last transaction of a page. Handed to
+ * clients as an opaque URL-safe string, so that the encoding can change.
+ */
+@Value
+public class PurchaseTxnCursor {
+
+  // version, txnDate seconds and nanos, id
+  private static final int LENGTH = 1 + Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+  private static final byte VERSION = 1;
+
+  Instant txnDate;
+  UUID id;
+
+  public static PurchaseTxnCursor after(@Nonnull PurchaseTxn last) {
+    return new PurchaseTxnCursor(last.getTxnDate(), last.getId());
+  }
+
+  public String encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(LENGTH)
+        .put(VERSION)
+        .putLong(txnDate.getEpochSecond())
+        .putInt(txnDate.getNano())
+        .putLong(id.getMostSignificantBits())
+        .putLong(id.getLeastSignificantBits());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  /**
+   * @throws IllegalArgumentException if the cursor was not returned by {@link #encode()}
+   */
+  public static PurchaseTxnCursor decode(@Nonnull String cursor) {
+    byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+    if (bytes.length != LENGTH || bytes[0] != VERSION) {
+      throw new IllegalArgumentException("Unknown cursor " + cursor);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, LENGTH - 1);
+    try {
+      Instant txnDate = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+      return new PurchaseTxnCursor(txnDate, new UUID(buffer.getLong(), buffer.getLong()));
+    } catch (RuntimeException ex) {
+      // DateTimeException
+      throw new IllegalArgumentException("Unknown cursor " + cursor, ex);
+    }
+  }
+
+}
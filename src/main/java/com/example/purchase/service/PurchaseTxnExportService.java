@@ -0,0 +1,148 @@
+package com.example.purchase.service;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
+import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Export of purchase transactions converted to a currency, as newline-delimited JSON. Rows are read through a
+ * forward-only cursor and written one at a time, so memory use does not depend on the number of rows; a slow client
+ * blocks the writes, which in turn stops the cursor being read.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class PurchaseTxnExportService {
+
+  static final LocalDate MIN_DATE = LocalDate.of(1, 1, 1);
+  static final LocalDate MAX_DATE = LocalDate.of(9999, 12, 30);
+
+  private final PurchaseTxnRepository repository;
+  private final ExchangeRateResolver exchangeRateResolver;
+  private final ObjectMapper objectMapper;
+  private final EntityManager entityManager;
+
+  /**
+   * Write a PurchaseTxnCurrencyResult line for each transaction within [fromDate, toDate] (UTC, both optional), in
+   * transaction date order
+   *
+   * @return number of transactions written
+   */
+  @Transactional(readOnly = true)
+  public long exportPurchaseTxnCurrency(@Nonnull String countryCurrencyDesc, @Nullable LocalDate fromDate,
+      @Nullable LocalDate toDate, @Nonnull OutputStream out) throws IOException {
+    Instant from = rangeStart(fromDate);
+    Instant to = rangeEnd(toDate);
+    // the servlet output stream buffers, and flushing every row would send a chunk per row
+    ObjectWriter writer = objectMapper.writerFor(PurchaseTxnCurrencyResultDto.class)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    long count = 0;
+    // rows arrive in txnDate order, so consecutive rows mostly share a date window: remember the last rate looked up
+    ExchangeRateKey lastKey = null;
+    Optional<BigDecimal> lastRate = null;
+    try (Stream<PurchaseTxn> rows = repository.streamByTxnDateRange(from, to);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      // lines are separated by newlines rather than the default space between root values
+      generator.setRootValueSeparator(null);
+      Iterator<PurchaseTxn> iterator = rows.iterator();
+      while (iterator.hasNext()) {
+        PurchaseTxn data = iterator.next();
+        // nothing is written back, so do not keep read rows in the persistence context
+        entityManager.detach(data);
+
+        OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
+        ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, txnDate.minusMonths(6L), txnDate);
+        if (!key.equals(lastKey)) {
+          lastKey = key;
+          lastRate = lookUpExchangeRate(countryCurrencyDesc, txnDate);
+        }
+
+        writer.writeValue(generator, toResult(data, countryCurrencyDesc, txnDate, lastRate,
+            HttpStatus.INTERNAL_SERVER_ERROR));
+        generator.writeRaw('\n');
+        count++;
+      }
+      generator.flush();
+    }
+
+    log.info("Exported {} purchase transactions converted to {}", count, countryCurrencyDesc);
+    return count;
+  }
+
+  /**
+   * @return the exchange rate, empty if none, or null if the lookup failed
+   */
+  private Optional<BigDecimal> lookUpExchangeRate(String countryCurrencyDesc, OffsetDateTime txnDate) {
+    try {
+      return exchangeRateResolver.getExchangeRate(countryCurrencyDesc, txnDate.minusMonths(6L), txnDate);
+    } catch (IOException | RuntimeException ex) {
+      log.error("Exchange rate lookup failed for " + countryCurrencyDesc + " on " + txnDate, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Unlike the batch operation, error results also hold the (unconverted) transaction, to identify it
+   *
+   * @param exchangeRate null if the lookup failed
+   * @param failureStatus error status if the lookup failed
+   */
+  static PurchaseTxnCurrencyResultDto toResult(PurchaseTxn data, String countryCurrencyDesc,
+      OffsetDateTime txnDate, Optional<BigDecimal> exchangeRate, HttpStatus failureStatus) {
+    if (exchangeRate == null || exchangeRate.isEmpty()) {
+      PurchaseTxnCurrencyResultDto result = exchangeRate == null
+          ? PurchaseTxnService.errorResult(failureStatus,
+          "Exchange rate lookup failed for " + countryCurrencyDesc + " on " + txnDate)
+          : PurchaseTxnService.errorResult(HttpStatus.UNPROCESSABLE_ENTITY,
+              "Missing " + countryCurrencyDesc + " exchange rate for " + txnDate);
+      return result.purchaseTxnCurrency(PurchaseTxnService.toUnconvertedDto(data, countryCurrencyDesc, txnDate));
+    }
+    return new PurchaseTxnCurrencyResultDto()
+        .purchaseTxnCurrency(PurchaseTxnService.toPurchaseTxnCurrencyDto(data, countryCurrencyDesc,
+            exchangeRate.get()));
+  }
+
+  /**
+   * @return start of a [fromDate, toDate] date range (UTC), as an inclusive bound
+   */
+  static Instant rangeStart(@Nullable LocalDate fromDate) {
+    return toInstant(fromDate == null ? MIN_DATE : fromDate);
+  }
+
+  /**
+   * @return end of a [fromDate, toDate] date range (UTC), as an exclusive bound
+   */
+  static Instant rangeEnd(@Nullable LocalDate toDate) {
+    return toInstant((toDate == null ? MAX_DATE : toDate).plusDays(1));
+  }
+
+  private static Instant toInstant(LocalDate date) {
+    return date.atStartOfDay(ZoneOffset.UTC).toInstant();
+  }
+
+}
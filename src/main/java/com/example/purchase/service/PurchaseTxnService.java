@@ -1,21 +1,37 @@
 package com.example.purchase.service;
 
+import com.example.purchase.api.model.ErrorDetailsDto;
 import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyRequestDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
 import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.api.model.PurchaseTxnPageDto;
 import com.example.purchase.mapper.PurchaseTxnMapper;
 import com.example.purchase.persistence.dao.PurchaseTxnRepository;
 import com.example.purchase.persistence.model.PurchaseTxn;
 import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 
 /**
@@ -27,48 +43,271 @@ import org.springframework.web.client.HttpClientErrorException;
 public class PurchaseTxnService {
 
   private final PurchaseTxnRepository repository;
-  private final CurrencyConversionService currencyConversionService;
+  private final ExchangeRateResolver exchangeRateResolver;
+  private final SpendRollupService spendRollupService;
+  private final TransactionTemplate transactionTemplate;
+  private final PurchaseTxnConversionStore conversionStore;
+  private final ConversionPrewarmer conversionPrewarmer;
+  private final WriteBehindIngester writeBehindIngester;
 
+  /**
+   * Store the purchase transaction, adding it to its day's spend rollup in the same transaction, then queue its
+   * conversion to the pre-warmed currencies. Fails with DataIntegrityViolationException if its supplied id is already
+   * stored.
+   */
   public PurchaseTxnDto createPurchaseTxn(@Nonnull final PurchaseTxnDto dto) {
     // fields already validated
-    PurchaseTxn data = repository.save(PurchaseTxnMapper.INSTANCE.dtoToPurchaseTxn(dto));
+    RequestTimings timings = RequestTimings.current();
+    long started = System.nanoTime();
+    PurchaseTxn data = PurchaseTxnMapper.INSTANCE.dtoToPurchaseTxn(dto);
+    spendRollupService.createMissingRollups(List.of(data));
+    // inserted with its supplied id if any, rather than saved, which would merge onto the transaction holding the id
+    transactionTemplate.executeWithoutResult(status -> {
+      repository.insertAll(List.of(data));
+      spendRollupService.add(List.of(data));
+    });
+    RequestTimings.record(timings, "db", started);
+    // likely read back soon, in one of the pre-warmed currencies
+    conversionPrewarmer.prewarm(data);
 
     return PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(data);
   }
 
-  public PurchaseTxnCurrencyDto getPurchaseTxnCurrency(@Nonnull final UUID uuid,
-      @Nonnull final String countryCurrencyDesc) throws HttpClientErrorException, IOException {
+  /**
+   * Store all purchase transactions in one transaction, via batched INSERTs, adding them to the daily spend rollups.
+   * Fails with DataIntegrityViolationException, storing none, if a supplied id is already stored.
+   *
+   * @return the stored purchase transactions, in request order
+   */
+  public List<PurchaseTxnDto> createPurchaseTxns(@Nonnull final List<PurchaseTxnDto> dtos) {
     // fields already validated
-    Optional<PurchaseTxn> optData = repository.findById(uuid);
+    List<PurchaseTxn> data = dtos.stream()
+        .map(PurchaseTxnMapper.INSTANCE::dtoToPurchaseTxn)
+        .collect(Collectors.toList());
+    spendRollupService.createMissingRollups(data);
+    transactionTemplate.executeWithoutResult(status -> {
+      repository.insertAll(data);
+      spendRollupService.add(data);
+    });
+
+    return data.stream()
+        .map(PurchaseTxnMapper.INSTANCE::purchaseTxnToDto)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @return the purchase transaction converted to the currency, completed once the exchange rate is known. Fails with
+   * HttpClientErrorException 404 if not found, 422 if no rate is available, or the IOException of a failed Treasury
+   * API call. Cancelling it cancels the Treasury API call, if one is made. A conversion is stored once computed (in the
+   * background if the Treasury API was called), and returned as stored afterwards, without loading the transaction or
+   * resolving the rate.
+   */
+  public CompletableFuture<PurchaseTxnCurrencyDto> getPurchaseTxnCurrency(@Nonnull final UUID uuid,
+      @Nonnull final String countryCurrencyDesc) {
+    // fields already validated
+    RequestTimings timings = RequestTimings.current();
+    long started = System.nanoTime();
+    Optional<PurchaseTxnCurrencyDto> stored = conversionStore.find(uuid, countryCurrencyDesc);
+    conversionPrewarmer.recordRead(countryCurrencyDesc, stored.isPresent());
+    if (stored.isPresent()) {
+      RequestTimings.record(timings, "db", started);
+      return CompletableFuture.completedFuture(stored.get());
+    }
+    // appended in write-behind mode but not yet stored: looked up first, as it is only dropped from there once stored
+    Optional<PurchaseTxn> optData = writeBehindIngester.findPending(uuid);
+    if (optData.isEmpty()) {
+      optData = repository.findById(uuid);
+    }
+    RequestTimings.record(timings, "db", started);
     // not too sure about the choice of Exception thrown - want abstraction from HTTP layer
     if (optData.isEmpty()) {
-      throw new HttpClientErrorException(HttpStatus.NOT_FOUND,
-          "PurchaseTxn with id=" + uuid + " not found in database");
+      return CompletableFuture.failedFuture(new HttpClientErrorException(HttpStatus.NOT_FOUND,
+          "PurchaseTxn with id=" + uuid + " not found in database"));
     }
 
     PurchaseTxn data = optData.get();
 
     // retrieve exchange rate from within the last 6 months
     OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
-    Optional<BigDecimal> optExchangeRate = currencyConversionService.getExchangeRate(countryCurrencyDesc,
+    long lookupStarted = System.nanoTime();
+    CompletableFuture<Optional<BigDecimal>> exchangeRate = exchangeRateResolver.getExchangeRateAsync(
+        countryCurrencyDesc,
         txnDate.minusMonths(6L),
         txnDate);
-    if (optExchangeRate.isEmpty()) {
-      throw new HttpClientErrorException(HttpStatus.UNPROCESSABLE_ENTITY,
-          "Missing " + countryCurrencyDesc + " exchange rate for " + txnDate);
+    // found locally, otherwise completed on an OkHttp dispatcher thread, which is not held up storing the conversion
+    boolean resolvedLocally = exchangeRate.isDone();
+    CompletableFuture<PurchaseTxnCurrencyDto> dto = exchangeRate.thenApply(optExchangeRate -> {
+      // the whole lookup, Treasury API call included if one was needed
+      RequestTimings.record(timings, "rate", lookupStarted);
+      if (optExchangeRate.isEmpty()) {
+        throw new HttpClientErrorException(HttpStatus.UNPROCESSABLE_ENTITY,
+            "Missing " + countryCurrencyDesc + " exchange rate for " + txnDate);
+      }
+      long convertStarted = System.nanoTime();
+      PurchaseTxnCurrencyDto converted = toPurchaseTxnCurrencyDto(data, countryCurrencyDesc, optExchangeRate.get());
+      RequestTimings.record(timings, "convert", convertStarted);
+      if (resolvedLocally) {
+        conversionStore.save(converted);
+      } else {
+        conversionStore.saveAsync(converted);
+      }
+      return converted;
+    });
+    return Futures.propagateCancellation(dto, exchangeRate);
+  }
+
+  /**
+   * @return the conversion stored by an earlier {@link #getPurchaseTxnCurrency}, which it would return as it is: one
+   * primary key read
+   */
+  public Optional<PurchaseTxnCurrencyDto> findStoredConversion(@Nonnull final UUID uuid,
+      @Nonnull final String countryCurrencyDesc) {
+    return conversionStore.find(uuid, countryCurrencyDesc);
+  }
+
+  /**
+   * Batch version of {@link #getPurchaseTxnCurrency}: all transactions are loaded in one query, and each distinct
+   * (currency, date window) exchange rate is resolved once
+   *
+   * @return a result per request, in request order, holding either the converted transaction or its error (404 or 422
+   * as for the single version, 500 if the exchange rate could not be retrieved, 503 if the Treasury API is considered
+   * down)
+   */
+  public List<PurchaseTxnCurrencyResultDto> getPurchaseTxnCurrencies(
+      @Nonnull final List<PurchaseTxnCurrencyRequestDto> requests) {
+    // fields already validated
+    Set<UUID> ids = requests.stream().map(PurchaseTxnCurrencyRequestDto::getId).collect(Collectors.toSet());
+    Map<UUID, PurchaseTxn> dataById = new HashMap<>();
+    repository.findAllById(ids).forEach(data -> dataById.put(data.getId(), data));
+
+    Map<ExchangeRateKey, Optional<BigDecimal>> exchangeRates = new HashMap<>();
+    // status of each failed lookup
+    Map<ExchangeRateKey, HttpStatus> failedKeys = new HashMap<>();
+    List<PurchaseTxnCurrencyResultDto> results = new ArrayList<>(requests.size());
+    for (PurchaseTxnCurrencyRequestDto request : requests) {
+      PurchaseTxn data = dataById.get(request.getId());
+      if (data == null) {
+        results.add(errorResult(HttpStatus.NOT_FOUND,
+            "PurchaseTxn with id=" + request.getId() + " not found in database"));
+        continue;
+      }
+
+      String countryCurrencyDesc = request.getCountryCurrencyDesc();
+      OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
+      ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, txnDate.minusMonths(6L), txnDate);
+      Optional<BigDecimal> optExchangeRate = lookUpExchangeRate(key, txnDate, exchangeRates, failedKeys);
+      if (optExchangeRate == null) {
+        results.add(errorResult(failedKeys.get(key),
+            "Exchange rate lookup failed for " + countryCurrencyDesc + " on " + txnDate));
+      } else if (optExchangeRate.isEmpty()) {
+        results.add(errorResult(HttpStatus.UNPROCESSABLE_ENTITY,
+            "Missing " + countryCurrencyDesc + " exchange rate for " + txnDate));
+      } else {
+        results.add(new PurchaseTxnCurrencyResultDto()
+            .purchaseTxnCurrency(toPurchaseTxnCurrencyDto(data, countryCurrencyDesc, optExchangeRate.get())));
+      }
+    }
+
+    log.info("Converted {} purchase transactions with {} exchange rate lookups", requests.size(),
+        exchangeRates.size() + failedKeys.size());
+    return results;
+  }
+
+  /**
+   * A page of the purchase transactions within [fromDate, toDate] (UTC, both optional), in (txnDate, id) order, each
+   * converted to countryCurrencyDesc if given. Each distinct (currency, date window) exchange rate is resolved once,
+   * after the page is read, so that no database connection is held meanwhile.
+   *
+   * @param after position to start after, the first page if null
+   * @return the page, with the cursor of the next one unless it is the last
+   */
+  public PurchaseTxnPageDto listPurchaseTxns(@Nullable LocalDate fromDate, @Nullable LocalDate toDate,
+      @Nullable String countryCurrencyDesc, int limit, @Nullable PurchaseTxnCursor after) {
+    Instant from = PurchaseTxnExportService.rangeStart(fromDate);
+    Instant to = PurchaseTxnExportService.rangeEnd(toDate);
+    // one more than the page, to tell whether there is a next page
+    Pageable page = PageRequest.of(0, limit + 1);
+    List<PurchaseTxn> rows = after == null
+        ? repository.findPageByTxnDateRange(from, to, page)
+        : repository.findPageByTxnDateRangeAfter(from, to, after.getTxnDate(), after.getId(), page);
+
+    Map<ExchangeRateKey, Optional<BigDecimal>> exchangeRates = new HashMap<>();
+    Map<ExchangeRateKey, HttpStatus> failedKeys = new HashMap<>();
+    List<PurchaseTxnCurrencyResultDto> items = new ArrayList<>(Math.min(rows.size(), limit));
+    for (PurchaseTxn data : rows.subList(0, Math.min(rows.size(), limit))) {
+      OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
+      if (countryCurrencyDesc == null) {
+        items.add(new PurchaseTxnCurrencyResultDto().purchaseTxnCurrency(toUnconvertedDto(data, null, txnDate)));
+        continue;
+      }
+      ExchangeRateKey key = ExchangeRateKey.of(countryCurrencyDesc, txnDate.minusMonths(6L), txnDate);
+      Optional<BigDecimal> optExchangeRate = lookUpExchangeRate(key, txnDate, exchangeRates, failedKeys);
+      items.add(PurchaseTxnExportService.toResult(data, countryCurrencyDesc, txnDate, optExchangeRate,
+          failedKeys.get(key)));
+    }
+
+    PurchaseTxnPageDto pageDto = new PurchaseTxnPageDto().items(items);
+    if (rows.size() > limit) {
+      pageDto.setNextCursor(PurchaseTxnCursor.after(rows.get(limit - 1)).encode());
     }
+    return pageDto;
+  }
+
+  /**
+   * Resolves the exchange rate of key, unless already resolved (exchangeRates) or failed (failedKeys, with the status
+   * of the failure)
+   *
+   * @return the exchange rate, empty if none, or null if the lookup failed
+   */
+  private Optional<BigDecimal> lookUpExchangeRate(ExchangeRateKey key, OffsetDateTime txnDate,
+      Map<ExchangeRateKey, Optional<BigDecimal>> exchangeRates, Map<ExchangeRateKey, HttpStatus> failedKeys) {
+    if (!exchangeRates.containsKey(key) && !failedKeys.containsKey(key)) {
+      try {
+        exchangeRates.put(key, exchangeRateResolver.getExchangeRate(key.getCountryCurrencyDesc(),
+            txnDate.minusMonths(6L), txnDate));
+      } catch (IOException | RuntimeException ex) {
+        log.error("Exchange rate lookup failed for " + key, ex);
+        failedKeys.put(key, ex instanceof CircuitBreakerOpenException
+            ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.INTERNAL_SERVER_ERROR);
+      }
+    }
+    return exchangeRates.get(key);
+  }
+
+  static PurchaseTxnCurrencyResultDto errorResult(HttpStatus status, String message) {
+    return new PurchaseTxnCurrencyResultDto()
+        .error(new ErrorDetailsDto().code(status.value()).message(message));
+  }
 
-    BigDecimal exchangeRate = optExchangeRate.get();
+  /**
+   * @return the transaction as is, without exchange rate or converted amount
+   */
+  static PurchaseTxnCurrencyDto toUnconvertedDto(PurchaseTxn data, @Nullable String countryCurrencyDesc,
+      OffsetDateTime txnDate) {
+    PurchaseTxnCurrencyDto dto = new PurchaseTxnCurrencyDto();
+    dto.setId(data.getId());
+    dto.setDescription(data.getDescription());
+    dto.setTxnDate(txnDate);
+    dto.setAmount(MoneyMath.fromCents(data.getAmountCents()));
+    dto.setCountryCurrencyDesc(countryCurrencyDesc);
+    return dto;
+  }
+
+  static PurchaseTxnCurrencyDto toPurchaseTxnCurrencyDto(PurchaseTxn data, String countryCurrencyDesc,
+      BigDecimal exchangeRate) {
+    OffsetDateTime txnDate = PurchaseTxnMapper.INSTANCE.fromInstant(data.getTxnDate());
     // rounded to two decimal places (i.e., cent)
-    BigDecimal amountConverted = data.getAmount().multiply(exchangeRate).setScale(2, RoundingMode.HALF_UP);
+    BigDecimal amountConverted = MoneyMath.convert(data.getAmountCents(), exchangeRate);
 
     PurchaseTxnCurrencyDto dto = new PurchaseTxnCurrencyDto();
     dto.setId(data.getId());
     dto.setDescription(data.getDescription());
     dto.setTxnDate(txnDate);
-    dto.setAmount(data.getAmount());
+    dto.setAmount(MoneyMath.fromCents(data.getAmountCents()));
     dto.setCountryCurrencyDesc(countryCurrencyDesc);
-    dto.setExchangeRate(exchangeRate);
+    // the scale as the Treasury API sent it (e.g. "1.0") differs from that of a stored rate: normalised, so that the
+    // body and its ETag do not depend on where the rate was read from
+    dto.setExchangeRate(TreasuryRateStore.normalise(exchangeRate));
     dto.setAmountConverted(amountConverted);
 
     return dto;
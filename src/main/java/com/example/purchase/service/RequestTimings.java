@@ -0,0 +1,69 @@
+package com.example.purchase.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Time spent in each phase of handling a request (e.g. db, rate, treasury, parse, convert), for the opt-in
+ * Server-Timing breakdown. Bound to the request thread while timing is on; code running elsewhere on behalf of the
+ * request (e.g. a Treasury API callback) is handed the instance. Phases recorded more than once (retried Treasury
+ * calls) add up.
+ * <p>
+ * Recording is a no-op when timing is off: callers pass on {@link #current()}, which is then null.
+ */
+public class RequestTimings {
+
+  private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+  private final long startNanos = System.nanoTime();
+  private final Map<String, Long> durations = new LinkedHashMap<>();
+
+  /**
+   * @return timings of the request handled by the current thread, null if none are being recorded
+   */
+  @Nullable
+  public static RequestTimings current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Binds timings to the current thread, until {@link #unbind()}
+   */
+  public static void bind(@Nonnull RequestTimings timings) {
+    CURRENT.set(timings);
+  }
+
+  public static void unbind() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Records the time since startNanos (a System.nanoTime()) as the phase
+   */
+  public static void record(@Nullable RequestTimings timings, @Nonnull String phase, long startNanos) {
+    if (timings != null) {
+      timings.add(phase, System.nanoTime() - startNanos);
+    }
+  }
+
+  public synchronized void add(@Nonnull String phase, long nanos) {
+    durations.merge(phase, nanos, Long::sum);
+  }
+
+  /**
+   * @return nanoseconds by phase, in the order first recorded
+   */
+  public synchronized Map<String, Long> getDurations() {
+    return new LinkedHashMap<>(durations);
+  }
+
+  /**
+   * @return nanoseconds since the timings were created, at the start of the request
+   */
+  public long getElapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+}
@@ -0,0 +1,239 @@
+package com.example.purchase.service;
+
+import com.example.purchase.config.TreasuryProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * Makes asynchronous HTTP requests resilient to a slow or failing upstream:
+ * <ul>
+ *   <li>hedging: when a request has not completed after a percentile of recent latencies, an identical one is sent,
+ *   and the first response wins (the other request is cancelled)</li>
+ *   <li>retries of transient failures (connection failures, 429 and 5xx responses), with exponential backoff and full
+ *   jitter</li>
+ *   <li>a {@link RetryBudget} shared by hedged requests and retries</li>
+ *   <li>a {@link CircuitBreaker}, failing calls fast with a {@link CircuitBreakerOpenException} while open</li>
+ * </ul>
+ * Requests must be idempotent.
+ */
+@Slf4j
+public class ResilientCaller<T> {
+
+  private final String name;
+  private final TreasuryProperties.Hedge hedge;
+  private final TreasuryProperties.Retry retry;
+  private final RetryBudget retryBudget;
+  // null when disabled
+  private final CircuitBreaker circuitBreaker;
+
+  private final Timer latency;
+  private final Counter hedgedRequests;
+  private final Counter retriedRequests;
+  private final Counter rejectedCalls;
+
+  public ResilientCaller(@Nonnull String name, @Nonnull TreasuryProperties.Hedge hedge,
+      @Nonnull TreasuryProperties.Retry retry, @Nonnull TreasuryProperties.CircuitBreaker circuitBreaker,
+      @Nonnull MeterRegistry meterRegistry) {
+    this.name = name;
+    this.hedge = hedge;
+    this.retry = retry;
+    this.retryBudget = new RetryBudget(retry.getBudgetRatio(), retry.getBudgetMaxTokens());
+    this.circuitBreaker = circuitBreaker.isEnabled()
+        ? new CircuitBreaker(name, circuitBreaker.getFailureRateThreshold(), circuitBreaker.getSlidingWindowSize(),
+        circuitBreaker.getMinimumCalls(), circuitBreaker.getOpenDuration(), circuitBreaker.getHalfOpenCalls())
+        : null;
+
+    Timer.Builder latencyBuilder = Timer.builder(name + ".requests")
+        .description("Latency of successful " + name + " requests");
+    if (hedge.isEnabled()) {
+      latencyBuilder.publishPercentiles(hedge.getPercentile());
+    }
+    this.latency = latencyBuilder.register(meterRegistry);
+    this.hedgedRequests = meterRegistry.counter(name + ".requests.hedged");
+    this.retriedRequests = meterRegistry.counter(name + ".requests.retried");
+    this.rejectedCalls = meterRegistry.counter(name + ".calls.rejected");
+  }
+
+  /**
+   * @param request sends a request. Cancelling its future must cancel the request.
+   * @return the result of the first successful request, or the failure of the last one. Cancelling it cancels the
+   * requests in flight.
+   */
+  public CompletableFuture<T> call(@Nonnull Supplier<CompletableFuture<T>> request) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    retryBudget.deposit();
+    attempt(request, 1, result);
+    return result;
+  }
+
+  private void attempt(Supplier<CompletableFuture<T>> request, int attempt, CompletableFuture<T> result) {
+    if (result.isDone()) {
+      // cancelled while backing off
+      return;
+    }
+    if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+      rejectedCalls.increment();
+      result.completeExceptionally(new CircuitBreakerOpenException(name + " circuit breaker is open"));
+      return;
+    }
+
+    CompletableFuture<T> response = hedge.isEnabled() ? sendHedged(request) : send(request);
+    result.whenComplete((value, ex) -> {
+      if (result.isCancelled()) {
+        response.cancel(true);
+      }
+    });
+    response.whenComplete((value, ex) -> {
+      if (response.isCancelled()) {
+        return;
+      }
+      if (ex == null) {
+        onSuccess();
+        result.complete(value);
+        return;
+      }
+
+      Throwable cause = Futures.unwrap(ex);
+      if (!isFailure(cause)) {
+        // e.g. a 404: upstream is healthy
+        onSuccess();
+        result.completeExceptionally(cause);
+        return;
+      }
+      if (circuitBreaker != null) {
+        circuitBreaker.onFailure();
+      }
+      if (attempt < retry.getMaxAttempts() && isRetryable(cause) && retryBudget.tryWithdraw()) {
+        long backoffMillis = backoffMillis(attempt);
+        log.warn("{} request failed ({}), retrying in {} ms", name, cause.toString(), backoffMillis);
+        retriedRequests.increment();
+        CompletableFuture.delayedExecutor(backoffMillis, TimeUnit.MILLISECONDS)
+            .execute(() -> attempt(request, attempt + 1, result));
+      } else {
+        result.completeExceptionally(cause);
+      }
+    });
+  }
+
+  private void onSuccess() {
+    if (circuitBreaker != null) {
+      circuitBreaker.onSuccess();
+    }
+  }
+
+  /**
+   * Send the request and, if it has not completed after the hedge delay, an identical one
+   *
+   * @return the first successful response, or the last failure if every request failed
+   */
+  private CompletableFuture<T> sendHedged(Supplier<CompletableFuture<T>> request) {
+    CompletableFuture<T> winner = new CompletableFuture<>();
+    List<CompletableFuture<T>> sent = new CopyOnWriteArrayList<>();
+    // requests not yet failed; the hedged request is not sent once this drops to 0
+    AtomicInteger pending = new AtomicInteger(1);
+    winner.whenComplete((value, ex) -> sent.forEach(response -> response.cancel(true)));
+
+    sendAsPartOf(request, winner, sent, pending);
+    CompletableFuture.delayedExecutor(hedgeDelayNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+      if (winner.isDone() || !retryBudget.tryWithdraw()
+          || pending.getAndUpdate(count -> count == 0 ? 0 : count + 1) == 0) {
+        return;
+      }
+      hedgedRequests.increment();
+      sendAsPartOf(request, winner, sent, pending);
+    });
+    return winner;
+  }
+
+  private void sendAsPartOf(Supplier<CompletableFuture<T>> request, CompletableFuture<T> winner,
+      List<CompletableFuture<T>> sent, AtomicInteger pending) {
+    CompletableFuture<T> response = send(request);
+    sent.add(response);
+    if (winner.isDone()) {
+      // completed while this request was being sent
+      response.cancel(true);
+    }
+    response.whenComplete((value, ex) -> {
+      if (ex == null) {
+        winner.complete(value);
+      } else if (pending.decrementAndGet() == 0) {
+        winner.completeExceptionally(ex);
+      }
+    });
+  }
+
+  private CompletableFuture<T> send(Supplier<CompletableFuture<T>> request) {
+    long start = System.nanoTime();
+    CompletableFuture<T> response;
+    try {
+      response = request.get();
+    } catch (RuntimeException ex) {
+      return CompletableFuture.failedFuture(ex);
+    }
+    response.whenComplete((value, ex) -> {
+      if (ex == null) {
+        latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    });
+    return response;
+  }
+
+  private long hedgeDelayNanos() {
+    long minDelay = hedge.getMinDelay().toNanos();
+    if (latency.count() < hedge.getMinSamples()) {
+      return Math.max(minDelay, hedge.getInitialDelay().toNanos());
+    }
+    ValueAtPercentile[] percentiles = latency.takeSnapshot().percentileValues();
+    if (percentiles.length == 0) {
+      return Math.max(minDelay, hedge.getInitialDelay().toNanos());
+    }
+    return Math.max(minDelay, (long) percentiles[0].value(TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Full jitter: uniformly random up to the exponential backoff for the attempt
+   */
+  private long backoffMillis(int attempt) {
+    long initial = retry.getInitialBackoff().toMillis();
+    long max = retry.getMaxBackoff().toMillis();
+    long backoff = initial << Math.min(attempt - 1, 20);
+    return ThreadLocalRandom.current().nextLong(Math.min(backoff, max) + 1);
+  }
+
+  /**
+   * @return whether the failure says upstream is unhealthy, i.e. counts against the circuit breaker
+   */
+  static boolean isFailure(Throwable ex) {
+    if (ex instanceof HttpResponseException) {
+      int status = ((HttpResponseException) ex).getStatusCode();
+      return status == 429 || status >= 500;
+    }
+    return ex instanceof IOException
+        && !(ex instanceof JsonProcessingException)
+        && !(ex instanceof CircuitBreakerOpenException);
+  }
+
+  /**
+   * Timeouts are failures but are not retried: hedging already covers slow responses, and a retry would take the
+   * call beyond its timeout
+   */
+  static boolean isRetryable(Throwable ex) {
+    return isFailure(ex) && !(ex instanceof InterruptedIOException);
+  }
+
+}
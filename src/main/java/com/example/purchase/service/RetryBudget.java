@@ -0,0 +1,49 @@
+package com.example.purchase.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting extra requests (retries and hedged requests) to a share of calls: each call deposits ratio of
+ * a token, up to maxTokens, and each extra request takes a whole token. During an outage, extra requests then add at
+ * most ratio to the load on upstream rather than multiplying it by the number of attempts.
+ */
+public class RetryBudget {
+
+  // tokens are held in thousandths, so that fractional deposits can be counted atomically
+  private static final long SCALE = 1000;
+
+  private final long deposit;
+  private final long maxTokens;
+  private final AtomicLong tokens;
+
+  /**
+   * @param maxTokens also the initial number of tokens, so that a few extra requests can be made before any call
+   */
+  public RetryBudget(double ratio, int maxTokens) {
+    this.deposit = Math.round(ratio * SCALE);
+    this.maxTokens = maxTokens * SCALE;
+    this.tokens = new AtomicLong(this.maxTokens);
+  }
+
+  /**
+   * Record a call
+   */
+  public void deposit() {
+    tokens.getAndUpdate(current -> Math.min(maxTokens, current + deposit));
+  }
+
+  /**
+   * @return whether an extra request may be made, in which case its token has been taken
+   */
+  public boolean tryWithdraw() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < SCALE) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - SCALE));
+    return true;
+  }
+
+}
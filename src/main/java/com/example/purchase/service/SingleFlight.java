@@ -0,0 +1,126 @@
+package com.example.purchase.service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call, and callers arriving while it is in
+ * flight wait for and share its result, including any exception it throws. Results are not kept once the call
+ * completes (caching is left to the caller).
+ * <p>
+ * Blocking ({@link #execute}) and asynchronous ({@link #executeAsync}) callers of the same key share the same flight.
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+  @FunctionalInterface
+  public interface IOCallable<V> {
+
+    V call() throws IOException;
+  }
+
+  private static final class Flight<V> {
+
+    private final CompletableFuture<V> future = new CompletableFuture<>();
+    // callers still waiting; the flight is cancelled when the last one cancels
+    private final AtomicInteger waiters = new AtomicInteger();
+  }
+
+  public V execute(@Nonnull K key, @Nonnull IOCallable<V> callable) throws IOException {
+    Flight<V> created = new Flight<>();
+    Flight<V> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      // blocking waiters cannot cancel, so the flight is never cancelled while they wait
+      existing.waiters.incrementAndGet();
+      return await(existing.future);
+    }
+
+    try {
+      V value = callable.call();
+      created.future.complete(value);
+      return value;
+    } catch (IOException | RuntimeException | Error ex) {
+      created.future.completeExceptionally(ex);
+      throw ex;
+    } finally {
+      inFlight.remove(key, created);
+    }
+  }
+
+  /**
+   * Asynchronous version of {@link #execute}. Each caller gets its own future: cancelling it does not affect the other
+   * callers, but once every caller of the flight has cancelled, the future returned by the call is cancelled too.
+   */
+  public CompletableFuture<V> executeAsync(@Nonnull K key, @Nonnull Supplier<CompletableFuture<V>> call) {
+    Flight<V> created = new Flight<>();
+    Flight<V> existing = inFlight.putIfAbsent(key, created);
+    Flight<V> flight = existing != null ? existing : created;
+    flight.waiters.incrementAndGet();
+
+    if (existing == null) {
+      CompletableFuture<V> upstream;
+      try {
+        upstream = call.get();
+      } catch (RuntimeException ex) {
+        upstream = CompletableFuture.failedFuture(ex);
+      }
+      upstream.whenComplete((value, ex) -> {
+        inFlight.remove(key, created);
+        if (ex == null) {
+          created.future.complete(value);
+        } else {
+          created.future.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+        }
+      });
+      CompletableFuture<V> cancellable = upstream;
+      created.future.whenComplete((value, ex) -> {
+        if (created.future.isCancelled()) {
+          cancellable.cancel(true);
+        }
+      });
+    }
+
+    CompletableFuture<V> result = flight.future.copy();
+    result.whenComplete((value, ex) -> {
+      if (result.isCancelled() && flight.waiters.decrementAndGet() == 0) {
+        inFlight.remove(key, flight);
+        flight.future.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return number of calls currently in flight
+   */
+  public int size() {
+    return inFlight.size();
+  }
+
+  private V await(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for in-flight call", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw (Error) cause;
+    }
+  }
+
+}
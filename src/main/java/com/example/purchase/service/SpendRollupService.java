@@ -0,0 +1,166 @@
+package com.example.purchase.service;
+
+import com.example.purchase.api.model.ErrorDetailsDto;
+import com.example.purchase.api.model.SpendTotalDto;
+import com.example.purchase.persistence.dao.DailySpendRepository;
+import com.example.purchase.persistence.model.DailySpend;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Daily spend rollups: the number and total amount of the purchase transactions of each day (UTC), added to as
+ * transactions are stored, and the per day or month totals read from them.
+ * <p>
+ * All transactions of a day share one exchange rate for a currency (its date window is the six months up to the
+ * day), so a day's total is converted once, at that rate, rather than each transaction.
+ */
+@RequiredArgsConstructor
+@Slf4j
+@Service
+public class SpendRollupService {
+
+  public enum Period {
+    DAY, MONTH
+  }
+
+  private final DailySpendRepository repository;
+  private final ExchangeRateResolver exchangeRateResolver;
+  private final TransactionTemplate transactionTemplate;
+
+  /**
+   * Creates the empty rollups missing for the days of the transactions, each committed on its own, so that
+   * {@link #add} only has to update rows. To be called before the transaction storing them: concurrent writers of a
+   * new day then race on this insert, and the loser carries on with the row the winner created.
+   */
+  public void createMissingRollups(@Nonnull Collection<PurchaseTxn> txns) {
+    Set<LocalDate> missing = new HashSet<>();
+    txns.forEach(txn -> missing.add(txnDay(txn)));
+    repository.findAllById(missing).forEach(rollup -> missing.remove(rollup.getTxnDay()));
+    for (LocalDate day : missing) {
+      try {
+        transactionTemplate.executeWithoutResult(status -> repository.insertEmpty(day));
+      } catch (DataIntegrityViolationException ex) {
+        log.debug("Spend rollup for {} created concurrently", day);
+      }
+    }
+  }
+
+  /**
+   * Adds the transactions to their days' rollups, in the transaction storing them. Rollups are updated in day order,
+   * so that concurrent writers lock them in the same order.
+   *
+   * @throws IllegalStateException if a day has no rollup, see {@link #createMissingRollups}
+   */
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void add(@Nonnull Collection<PurchaseTxn> txns) {
+    Map<LocalDate, DailySpend> byDay = new TreeMap<>();
+    for (PurchaseTxn txn : txns) {
+      DailySpend sum = byDay.computeIfAbsent(txnDay(txn), day -> new DailySpend());
+      sum.setTxnCount(sum.getTxnCount() + 1);
+      sum.setAmountCents(Math.addExact(sum.getAmountCents(), txn.getAmountCents()));
+    }
+    byDay.forEach((day, sum) -> {
+      if (repository.add(day, sum.getTxnCount(), sum.getAmountCents()) == 0) {
+        throw new IllegalStateException("No spend rollup for " + day);
+      }
+    });
+  }
+
+  /**
+   * Total spend of each day or month within [fromDate, toDate] (UTC, both optional) with transactions, in date order,
+   * converted to countryCurrencyDesc if given. Each day's exchange rate is resolved once; a month's converted total
+   * is the sum of its days' converted totals.
+   *
+   * @return a total per period, with a 422 error instead of a converted total if a day has no exchange rate (500 if
+   * the lookup failed, 503 if the Treasury API is considered down)
+   */
+  public List<SpendTotalDto> getSpendTotals(@Nonnull Period period, @Nullable LocalDate fromDate,
+      @Nullable LocalDate toDate, @Nullable String countryCurrencyDesc) {
+    List<DailySpend> rollups = repository.findByTxnDayRange(
+        fromDate == null ? PurchaseTxnExportService.MIN_DATE : fromDate,
+        toDate == null ? PurchaseTxnExportService.MAX_DATE : toDate);
+
+    List<SpendTotalDto> totals = new ArrayList<>();
+    SpendTotalDto total = null;
+    long amountCents = 0;
+    for (DailySpend rollup : rollups) {
+      LocalDate periodStart = period == Period.DAY ? rollup.getTxnDay() : rollup.getTxnDay().withDayOfMonth(1);
+      if (total == null || !total.getPeriodStart().equals(periodStart)) {
+        total = new SpendTotalDto().periodStart(periodStart).txnCount(0L).amount(BigDecimal.ZERO)
+            .countryCurrencyDesc(countryCurrencyDesc);
+        if (countryCurrencyDesc != null) {
+          total.setAmountConverted(BigDecimal.ZERO.setScale(MoneyMath.CENT_SCALE));
+        }
+        totals.add(total);
+        amountCents = 0;
+      }
+      amountCents = Math.addExact(amountCents, rollup.getAmountCents());
+      total.setTxnCount(total.getTxnCount() + rollup.getTxnCount());
+      total.setAmount(MoneyMath.fromCents(amountCents));
+      if (countryCurrencyDesc != null && total.getError() == null) {
+        addConverted(total, rollup, countryCurrencyDesc);
+      }
+    }
+
+    log.info("Read {} spend rollups into {} totals", rollups.size(), totals.size());
+    return totals;
+  }
+
+  /**
+   * Adds the day's total converted at the day's exchange rate to the period's, or sets the period's error if the
+   * exchange rate could not be resolved
+   */
+  private void addConverted(SpendTotalDto total, DailySpend rollup, String countryCurrencyDesc) {
+    OffsetDateTime txnDate = rollup.getTxnDay().atStartOfDay().atOffset(ZoneOffset.UTC);
+    Optional<BigDecimal> optExchangeRate;
+    try {
+      // the date window of every transaction of the day, see ExchangeRateKey
+      optExchangeRate = exchangeRateResolver.getExchangeRate(countryCurrencyDesc, txnDate.minusMonths(6L), txnDate);
+    } catch (IOException | RuntimeException ex) {
+      log.error("Exchange rate lookup failed for " + countryCurrencyDesc + " on " + rollup.getTxnDay(), ex);
+      HttpStatus status = ex instanceof CircuitBreakerOpenException
+          ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.INTERNAL_SERVER_ERROR;
+      setError(total, status, "Exchange rate lookup failed for " + countryCurrencyDesc + " on " + rollup.getTxnDay());
+      return;
+    }
+    if (optExchangeRate.isEmpty()) {
+      setError(total, HttpStatus.UNPROCESSABLE_ENTITY,
+          "Missing " + countryCurrencyDesc + " exchange rate for " + rollup.getTxnDay());
+      return;
+    }
+    total.setAmountConverted(total.getAmountConverted()
+        .add(MoneyMath.convert(rollup.getAmountCents(), optExchangeRate.get())));
+  }
+
+  private static void setError(SpendTotalDto total, HttpStatus status, String message) {
+    total.setAmountConverted(null);
+    total.setError(new ErrorDetailsDto().code(status.value()).message(message));
+  }
+
+  static LocalDate txnDay(PurchaseTxn txn) {
+    return LocalDate.ofInstant(txn.getTxnDate(), ZoneOffset.UTC);
+  }
+
+}
@@ -0,0 +1,273 @@
+package com.example.purchase.service;
+
+import com.example.purchase.config.TreasuryProperties;
+import com.example.purchase.persistence.dao.TreasuryRateRepository;
+import com.example.purchase.persistence.model.TreasuryRate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.CacheControl;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.http.client.HttpResponseException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Local copy of the Treasury Reporting Rates of Exchange dataset, kept in the treasury_rate table. The whole dataset
+ * is loaded on the first sync, then re-synced incrementally by record_date on a schedule, so that rate lookups do not
+ * need to call the Treasury API. After each sync the whole copy is also loaded into the {@link ExchangeRateIndex}.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Service
+public class TreasuryRateStore {
+
+  private static final String FIELDS = "country_currency_desc,exchange_rate,record_date";
+
+  private final OkHttpClient httpClient;
+  private final ObjectMapper objectMapper;
+  private final TreasuryProperties treasuryProperties;
+  private final TreasuryRateRepository repository;
+  private final ExchangeRateIndex exchangeRateIndex;
+  private final PurchaseTxnConversionStore conversionStore;
+
+  // serialises syncs and refreshes; a lock rather than the monitor, which would pin a virtual thread's carrier for the
+  // duration of the Treasury API requests
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // every record with a record_date up to this date had been published, and no longer changes, when the last
+  // successful sync ran
+  private volatile LocalDate completeThrough;
+
+  /**
+   * @return true if the local copy is complete up to the end of the key's date window, so that lookups for it can be
+   * answered locally (including "no rate found")
+   */
+  public boolean covers(@Nonnull ExchangeRateKey key) {
+    LocalDate through = completeThrough;
+    return through != null && !key.getDateEnd().isAfter(through);
+  }
+
+  /**
+   * @return latest local rate within the key's date window. Only meaningful if {@link #covers} the key.
+   */
+  public Optional<BigDecimal> findExchangeRate(@Nonnull ExchangeRateKey key) {
+    return repository.findFirstByCountryCurrencyDescAndRecordDateBetweenOrderByRecordDateDesc(
+            key.getCountryCurrencyDesc(), key.getDateStart(), key.getDateEnd())
+        .map(TreasuryRate::getExchangeRate)
+        .map(TreasuryRateStore::normalise);
+  }
+
+  @Scheduled(fixedDelayString = "${treasury.sync.interval:PT6H}")
+  public void scheduledSync() {
+    if (!treasuryProperties.getSync().isEnabled()) {
+      return;
+    }
+    try {
+      sync();
+    } catch (IOException | RuntimeException ex) {
+      // keep serving from the existing local copy (and the Treasury API fallback) until the next sync
+      log.error("Treasury rates sync failed", ex);
+    }
+  }
+
+  /**
+   * Load all records with a record_date on or after the latest one held locally, or within the publication lag if
+   * earlier (the whole dataset if none held), following the Treasury API pagination links. The local copy is then
+   * complete up to the publication lag before the sync date.
+   *
+   * @return number of records received
+   */
+  public int sync() throws IOException {
+    lock.lock();
+    try {
+      LocalDate syncDate = LocalDate.now(ZoneOffset.UTC);
+      LocalDate settledThrough = syncDate.minus(CurrencyConversionService.PUBLICATION_LAG);
+      // gte rather than gt: picks up records amended since the last sync on the latest date, and on every date that
+      // may still be amended
+      Optional<LocalDate> from = repository.findLatestRecordDate()
+          .map(latest -> latest.isAfter(settledThrough) ? settledThrough : latest);
+      log.info("Syncing Treasury rates from record_date {}", from.map(LocalDate::toString).orElse("(full load)"));
+
+      HttpUrl.Builder baseUrl = HttpUrl.get(treasuryProperties.getUrl()).newBuilder()
+          .addQueryParameter("fields", FIELDS)
+          .addQueryParameter("sort", "record_date");
+      from.ifPresent(date -> baseUrl.addQueryParameter("filter", "record_date:gte:" + date));
+
+      int received = requestAll(baseUrl.build().toString(), from.isPresent(), null);
+
+      completeThrough = settledThrough;
+      loadIndex(settledThrough);
+      log.info("Synced {} Treasury rates", received);
+      return received;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Load all records of one currency again, bypassing the HTTP cache, e.g. once Treasury revised one of its rates, and
+   * replace them in the index. Before the first sync, when lookups are not answered from the local copy, the currency
+   * is only removed from the index.
+   *
+   * @return number of records received
+   */
+  public int refresh(@Nonnull String countryCurrencyDesc) throws IOException {
+    lock.lock();
+    try {
+      LocalDate through = completeThrough;
+      if (through == null) {
+        exchangeRateIndex.remove(countryCurrencyDesc);
+        return 0;
+      }
+      log.info("Refreshing Treasury rates for {}", countryCurrencyDesc);
+
+      String base = HttpUrl.get(treasuryProperties.getUrl()).newBuilder()
+          .addQueryParameter("fields", FIELDS)
+          .addQueryParameter("filter", "country_currency_desc:in:" + countryCurrencyDesc)
+          .addQueryParameter("sort", "record_date")
+          .build().toString();
+      int received = requestAll(base, true, CacheControl.FORCE_NETWORK);
+
+      List<ExchangeRateIndex.Record> records = repository.findByCountryCurrencyDesc(countryCurrencyDesc).stream()
+          .map(rate -> new ExchangeRateIndex.Record(rate.getRecordDate(), rate.getExchangeRate()))
+          .collect(Collectors.toList());
+      exchangeRateIndex.replace(countryCurrencyDesc, records, through);
+      log.info("Refreshed {} Treasury rates for {}", received, countryCurrencyDesc);
+      return received;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Request every page of records from base, following the Treasury API pagination links, and upsert them
+   *
+   * @return number of records received
+   */
+  private int requestAll(String base, boolean incremental, @Nullable CacheControl cacheControl) throws IOException {
+    int received = 0;
+    int pages = 0;
+    // same form as the Treasury API pagination links
+    String page = "&page%5Bnumber%5D=1&page%5Bsize%5D=" + treasuryProperties.getSync().getPageSize();
+    while (page != null) {
+      JsonNode body = requestPage(base + page, cacheControl);
+      received += upsert(body.get("data"), incremental);
+      pages++;
+
+      JsonNode next = body.path("links").path("next");
+      page = next.isTextual() && body.get("data").size() > 0 ? next.textValue() : null;
+    }
+    log.debug("Received {} Treasury rates in {} pages", received, pages);
+    return received;
+  }
+
+  /**
+   * Rebuild the in-memory index from the whole local copy
+   */
+  private void loadIndex(LocalDate coveredTo) {
+    Map<String, List<ExchangeRateIndex.Record>> recordsByCurrency = new HashMap<>();
+    for (TreasuryRate rate : repository.findAll()) {
+      recordsByCurrency.computeIfAbsent(rate.getCountryCurrencyDesc(), currency -> new ArrayList<>())
+          .add(new ExchangeRateIndex.Record(rate.getRecordDate(), rate.getExchangeRate()));
+    }
+    exchangeRateIndex.replaceAll(recordsByCurrency, coveredTo);
+    log.info("Loaded {} rates for {} currencies into the in-memory index", exchangeRateIndex.size(),
+        recordsByCurrency.size());
+  }
+
+  private JsonNode requestPage(String url, @Nullable CacheControl cacheControl) throws IOException {
+    log.debug("Requesting Treasury rates page GET " + url);
+    Request.Builder request = new Request.Builder()
+        .url(url);
+    if (cacheControl != null) {
+      request.cacheControl(cacheControl);
+    }
+    try (Response response = httpClient.newCall(request.build()).execute()) {
+      if (response.code() != 200) {
+        throw new HttpResponseException(response.code(), "Request not successful.");
+      }
+      return objectMapper.readTree(response.body().byteStream());
+    }
+  }
+
+  /**
+   * @param incremental whether records are already held: conversions whose window includes a new record's date are
+   *                    then invalidated, as it may be the latest rate for transactions converted before it was
+   *                    published. Conversions at a revised record's previous rate are always invalidated.
+   */
+  private int upsert(JsonNode data, boolean incremental) {
+    if (data == null || data.isEmpty()) {
+      return 0;
+    }
+
+    List<TreasuryRate> received = new ArrayList<>(data.size());
+    for (JsonNode record : data) {
+      TreasuryRate rate = new TreasuryRate();
+      rate.setCountryCurrencyDesc(record.get("country_currency_desc").textValue());
+      rate.setRecordDate(LocalDate.parse(record.get("record_date").textValue()));
+      rate.setExchangeRate(new BigDecimal(record.get("exchange_rate").textValue()));
+      received.add(rate);
+    }
+
+    // records already held for the page's dates are updated in place, keeping the unique index happy
+    LocalDate first = received.stream().map(TreasuryRate::getRecordDate).min(LocalDate::compareTo).get();
+    LocalDate last = received.stream().map(TreasuryRate::getRecordDate).max(LocalDate::compareTo).get();
+    Map<String, TreasuryRate> existing = repository.findByRecordDateBetween(first, last).stream()
+        .collect(Collectors.toMap(TreasuryRateStore::naturalKey, Function.identity()));
+    List<TreasuryRate> toSave = new ArrayList<>(received.size());
+    List<Runnable> invalidations = new ArrayList<>();
+    for (TreasuryRate rate : received) {
+      TreasuryRate held = existing.get(naturalKey(rate));
+      if (held == null) {
+        existing.put(naturalKey(rate), rate);
+        toSave.add(rate);
+        if (incremental) {
+          invalidations.add(() -> conversionStore.invalidate(rate.getCountryCurrencyDesc(), rate.getRecordDate()));
+        }
+      } else if (held.getExchangeRate().compareTo(rate.getExchangeRate()) != 0) {
+        BigDecimal previousRate = held.getExchangeRate();
+        invalidations.add(() -> conversionStore.invalidate(held.getCountryCurrencyDesc(), held.getRecordDate(),
+            previousRate));
+        held.setExchangeRate(rate.getExchangeRate());
+        toSave.add(held);
+      }
+    }
+    repository.saveAll(toSave);
+    // conversions made at the previous (or without the new) rates no longer hold
+    invalidations.forEach(Runnable::run);
+    return received.size();
+  }
+
+  private static String naturalKey(TreasuryRate rate) {
+    return rate.getCountryCurrencyDesc() + '|' + rate.getRecordDate();
+  }
+
+  /**
+   * Rates are stored with a fixed scale, and the Treasury API may send trailing zeros (e.g. "1.0"): strip both, so
+   * that a rate has the same scale whichever source it was read from
+   */
+  static BigDecimal normalise(BigDecimal rate) {
+    BigDecimal stripped = rate.stripTrailingZeros();
+    return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+  }
+
+}
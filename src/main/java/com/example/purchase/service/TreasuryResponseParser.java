@@ -0,0 +1,148 @@
+package com.example.purchase.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.Value;
+
+/**
+ * Single-pass streaming parser of rates_of_exchange responses: the records of "data" are read straight off the
+ * response stream, without building a tree or a String of the body, and the rest of the response (meta, links) is not
+ * parsed. Rates and dates are decoded from the parser's character buffer.
+ */
+public class TreasuryResponseParser {
+
+  private static final String DATA = "data";
+  private static final String EXCHANGE_RATE = "exchange_rate";
+  private static final String RECORD_DATE = "record_date";
+
+  private final JsonFactory jsonFactory;
+
+  public TreasuryResponseParser(@Nonnull JsonFactory jsonFactory) {
+    this.jsonFactory = jsonFactory;
+  }
+
+  @Value
+  public static class Result {
+
+    /**
+     * Record with the latest record_date, null if there are none
+     */
+    @Nullable
+    ExchangeRateIndex.Record latest;
+    /**
+     * All records, in response order; null if only the first record was read
+     */
+    @Nullable
+    List<ExchangeRateIndex.Record> records;
+  }
+
+  /**
+   * @param allRecords whether to read every record. Otherwise parsing stops after the first one, which is the latest
+   *                   as the request asks for records by descending record_date.
+   * @throws JsonParseException if the response is not a rates_of_exchange response
+   */
+  public Result parse(@Nonnull InputStream in, boolean allRecords) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        if (DATA.equals(name)) {
+          return readData(parser, allRecords);
+        }
+        parser.skipChildren();
+      }
+      throw new JsonParseException(parser, "No data in Treasury API response");
+    }
+  }
+
+  private static Result readData(JsonParser parser, boolean allRecords) throws IOException {
+    if (parser.currentToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException(parser, "Expected data to be an array");
+    }
+    List<ExchangeRateIndex.Record> records = allRecords ? new ArrayList<>() : null;
+    ExchangeRateIndex.Record latest = null;
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      ExchangeRateIndex.Record record = readRecord(parser);
+      if (!allRecords) {
+        return new Result(record, null);
+      }
+      records.add(record);
+      if (latest == null || record.getRecordDate().isAfter(latest.getRecordDate())) {
+        latest = record;
+      }
+    }
+    if (parser.currentToken() != JsonToken.END_ARRAY) {
+      throw new JsonParseException(parser, "Expected data records to be objects");
+    }
+    return new Result(latest, records);
+  }
+
+  private static ExchangeRateIndex.Record readRecord(JsonParser parser) throws IOException {
+    BigDecimal exchangeRate = null;
+    LocalDate recordDate = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (EXCHANGE_RATE.equals(name) && value == JsonToken.VALUE_STRING) {
+        exchangeRate = readDecimal(parser);
+      } else if (RECORD_DATE.equals(name) && value == JsonToken.VALUE_STRING) {
+        recordDate = readDate(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (exchangeRate == null || recordDate == null) {
+      throw new JsonParseException(parser, "Expected exchange_rate and record_date in data record");
+    }
+    return new ExchangeRateIndex.Record(recordDate, exchangeRate);
+  }
+
+  private static BigDecimal readDecimal(JsonParser parser) throws IOException {
+    try {
+      return new BigDecimal(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    } catch (NumberFormatException ex) {
+      throw new JsonParseException(parser, "Invalid exchange_rate " + parser.getText(), ex);
+    }
+  }
+
+  // yyyy-MM-dd
+  private static LocalDate readDate(JsonParser parser) throws IOException {
+    char[] chars = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    if (parser.getTextLength() != 10 || chars[offset + 4] != '-' || chars[offset + 7] != '-') {
+      throw new JsonParseException(parser, "Invalid record_date " + parser.getText());
+    }
+    try {
+      return LocalDate.of(digits(chars, offset, 4), digits(chars, offset + 5, 2), digits(chars, offset + 8, 2));
+    } catch (NumberFormatException | DateTimeException ex) {
+      throw new JsonParseException(parser, "Invalid record_date " + parser.getText(), ex);
+    }
+  }
+
+  private static int digits(char[] chars, int offset, int length) {
+    int value = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+}
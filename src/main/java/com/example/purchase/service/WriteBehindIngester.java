@@ -0,0 +1,381 @@
+package com.example.purchase.service;
+
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.config.IngestProperties;
+import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.persistence.model.UuidV7;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Write-behind ingest, with purchase-txn.ingest.mode=write-behind: POST /purchase-txn appends each transaction to an
+ * {@link IngestLog} and responds once it is on disk. A background thread stores the log's transactions in the database
+ * in batches, with their daily spend rollups as for POST /purchase-txn/batch, then commits the log offset. On start,
+ * the transactions left in the log after the committed offset are stored; those a crash left stored without the
+ * offset committed are skipped. A batch that keeps failing is stored one transaction at a time, moving those that fail
+ * on their own to a dead-letter file, so that a bad transaction does not hold up the log.
+ * <p>
+ * Transactions appended but not yet stored are also kept in memory, so that GET /purchase-txn/{id} finds them. Beyond
+ * purchase-txn.ingest.max-backlog of them, appends fail with 429, and once shutting down with 503. Published as purchase.txn.ingest.backlog,
+ * purchase.txn.ingest.rejected and purchase.txn.ingest.dead.lettered.
+ */
+@Slf4j
+@Component
+public class WriteBehindIngester {
+
+  static final String BACKLOG = "purchase.txn.ingest.backlog";
+  static final String REJECTED = "purchase.txn.ingest.rejected";
+  static final String DEAD_LETTERED = "purchase.txn.ingest.dead.lettered";
+  static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+  private static final byte FORMAT = 1;
+  private static final byte[] NEWLINE = {'\n'};
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+  private final IngestProperties properties;
+  private final PurchaseTxnRepository repository;
+  private final SpendRollupService spendRollupService;
+  private final TransactionTemplate transactionTemplate;
+  private final ConversionPrewarmer conversionPrewarmer;
+  private final ObjectMapper objectMapper;
+  private final Map<UUID, PurchaseTxn> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger backlog = new AtomicInteger();
+  private final Counter rejected;
+  private final Counter deadLettered;
+  private IngestLog ingestLog;
+  private Path deadLetterFile;
+  private ScheduledExecutorService writer;
+  // end of the records found in the log on start, which may have been stored before the offset was committed
+  private long recoveredEnd;
+  // of the batch at the committed offset, written by the background writer only
+  private int failedAttempts;
+
+  public WriteBehindIngester(@Nonnull IngestProperties properties, @Nonnull PurchaseTxnRepository repository,
+      @Nonnull SpendRollupService spendRollupService, @Nonnull TransactionTemplate transactionTemplate,
+      @Nonnull ConversionPrewarmer conversionPrewarmer, @Nonnull ObjectMapper objectMapper,
+      @Nonnull MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.repository = repository;
+    this.spendRollupService = spendRollupService;
+    this.transactionTemplate = transactionTemplate;
+    this.conversionPrewarmer = conversionPrewarmer;
+    this.objectMapper = objectMapper;
+    Gauge.builder(BACKLOG, backlog, AtomicInteger::get)
+        .description("Purchase transactions appended to the ingest log, not yet stored in the database")
+        .register(meterRegistry);
+    this.rejected = Counter.builder(REJECTED)
+        .description("Purchase transactions rejected with 429 as the ingest backlog was full")
+        .register(meterRegistry);
+    this.deadLettered = Counter.builder(DEAD_LETTERED)
+        .description("Purchase transactions moved from the ingest log to the dead-letter file, as they failed to store")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Open the log and start the background writer, in write-behind mode. Fails if purchase-txn.ingest.directory is not
+   * set.
+   */
+  @PostConstruct
+  public void start() throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    if (!StringUtils.hasText(properties.getDirectory())) {
+      throw new IllegalStateException("purchase-txn.ingest.directory must be set in write-behind mode");
+    }
+    Path directory = Paths.get(properties.getDirectory());
+    ingestLog = new IngestLog(directory, (int) properties.getSegmentSize().toBytes());
+    deadLetterFile = directory.resolve(DEAD_LETTER_FILE);
+    recoveredEnd = ingestLog.endOffset();
+    long offset = ingestLog.committedOffset();
+    while (offset < recoveredEnd) {
+      List<IngestLog.Record> records = ingestLog.read(offset, properties.getBatchSize());
+      for (IngestLog.Record record : records) {
+        PurchaseTxn txn = decode(record.getPayload());
+        pending.put(txn.getId(), txn);
+      }
+      backlog.addAndGet(records.size());
+      offset = records.get(records.size() - 1).getEnd();
+    }
+    if (backlog.get() > 0) {
+      log.info("Storing {} purchase transactions left in the ingest log", backlog.get());
+    }
+    writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ingest-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = properties.getDrainInterval().toMillis();
+    writer.scheduleWithFixedDelay(this::drainAll, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop accepting transactions (appends then fail with 503), then stop the background writer once done with its
+   * current batch, and close the log. Transactions still in the log are stored on the next start.
+   */
+  @PreDestroy
+  public void shutdown() throws IOException, InterruptedException {
+    if (writer == null) {
+      return;
+    }
+    ingestLog.stopAppends();
+    writer.shutdown();
+    if (!writer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      // closing the log would release its segments under the writer; the appended records are all synced by now
+      log.warn("Ingest writer still storing after {}s, leaving the ingest log open", SHUTDOWN_TIMEOUT_SECONDS);
+      return;
+    }
+    ingestLog.close();
+  }
+
+  public boolean isEnabled() {
+    return properties.getMode() == IngestProperties.Mode.WRITE_BEHIND;
+  }
+
+  /**
+   * Append the purchase transaction to the log, returning once it is on disk. Fails with HttpClientErrorException 429
+   * if the backlog is full, 409 if its supplied id is already stored or pending, and with HttpServerErrorException 503
+   * once shutting down.
+   *
+   * @return the transaction, with its id
+   */
+  public PurchaseTxnDto append(@Nonnull final PurchaseTxnDto dto) {
+    // fields already validated
+    if (backlog.incrementAndGet() > properties.getMaxBacklog()) {
+      backlog.decrementAndGet();
+      rejected.increment();
+      throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS,
+          "Too many purchase transactions waiting to be stored, retry later");
+    }
+    PurchaseTxn txn = PurchaseTxnMapper.INSTANCE.dtoToPurchaseTxn(dto);
+    if (txn.getId() == null) {
+      // assigned now rather than on insert, as the transaction is returned (and can be read) before it is stored
+      txn.setId(UuidV7.next());
+    } else if (repository.existsById(txn.getId())) {
+      backlog.decrementAndGet();
+      throw alreadyExists(txn.getId());
+    }
+    // before appending, so that the writer cannot have stored it (and so removed it) first
+    if (pending.putIfAbsent(txn.getId(), txn) != null) {
+      backlog.decrementAndGet();
+      throw alreadyExists(txn.getId());
+    }
+    long end;
+    try {
+      end = ingestLog.append(encode(txn));
+    } catch (IOException | RuntimeException ex) {
+      pending.remove(txn.getId());
+      backlog.decrementAndGet();
+      if (ex instanceof ClosedChannelException) {
+        throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE,
+            "Not accepting purchase transactions while shutting down, retry later");
+      }
+      throw ex instanceof IOException ? new UncheckedIOException((IOException) ex) : (RuntimeException) ex;
+    }
+    ingestLog.sync(end);
+    return PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(txn);
+  }
+
+  private static HttpClientErrorException alreadyExists(UUID id) {
+    return new HttpClientErrorException(HttpStatus.CONFLICT, "PurchaseTxn with id=" + id + " already exists");
+  }
+
+  /**
+   * @return the purchase transaction if appended to the log but not yet stored in the database
+   */
+  public Optional<PurchaseTxn> findPending(@Nonnull UUID id) {
+    return Optional.ofNullable(pending.get(id));
+  }
+
+  /**
+   * Store the next batch of transactions in the log, then commit the log offset past them. Once a batch has failed
+   * purchase-txn.ingest.max-attempts times in a row, its transactions are stored one at a time instead, see
+   * {@link #drainEach}.
+   *
+   * @return the number of transactions taken from the log, 0 once it is drained
+   */
+  int drain() throws IOException {
+    long committed = ingestLog.committedOffset();
+    List<IngestLog.Record> records = ingestLog.read(committed, properties.getBatchSize());
+    if (records.isEmpty()) {
+      return 0;
+    }
+    List<PurchaseTxn> appended = records.stream()
+        .map(record -> decode(record.getPayload()))
+        .collect(Collectors.toList());
+    List<PurchaseTxn> txns = new ArrayList<>(appended);
+    if (committed < recoveredEnd) {
+      Set<UUID> stored = new HashSet<>();
+      repository.findAllById(txns.stream().map(PurchaseTxn::getId).collect(Collectors.toList()))
+          .forEach(txn -> stored.add(txn.getId()));
+      txns.removeIf(txn -> stored.contains(txn.getId()));
+    }
+    if (!txns.isEmpty()) {
+      try {
+        store(txns);
+      } catch (RuntimeException ex) {
+        if (++failedAttempts < properties.getMaxAttempts()) {
+          throw ex;
+        }
+        log.warn("Storing {} purchase transactions from the ingest log failed {} times, storing them one at a time: {}",
+            txns.size(), failedAttempts, ex.toString());
+        return drainEach(records, appended, txns);
+      }
+    }
+    failedAttempts = 0;
+    ingestLog.commit(records.get(records.size() - 1).getEnd());
+    appended.forEach(txn -> pending.remove(txn.getId()));
+    backlog.addAndGet(-appended.size());
+    txns.forEach(conversionPrewarmer::prewarm);
+    return records.size();
+  }
+
+  /**
+   * Store the transactions of a failing batch one at a time, committing the log offset past each. One that fails
+   * while the database is available (e.g. its id is already stored) is moved to the dead-letter file, so that it does
+   * not hold up the ones after it.
+   */
+  private int drainEach(List<IngestLog.Record> records, List<PurchaseTxn> appended, List<PurchaseTxn> txns)
+      throws IOException {
+    Set<PurchaseTxn> unstored = Collections.newSetFromMap(new IdentityHashMap<>());
+    unstored.addAll(txns);
+    for (int i = 0; i < records.size(); i++) {
+      PurchaseTxn txn = appended.get(i);
+      boolean stored = false;
+      if (unstored.contains(txn)) {
+        try {
+          store(List.of(txn));
+          stored = true;
+        } catch (RuntimeException ex) {
+          if (isDatabaseUnavailable(ex)) {
+            // left in the log from this transaction on, retried after drain-interval
+            throw ex;
+          }
+          deadLetter(txn, ex);
+        }
+      }
+      ingestLog.commit(records.get(i).getEnd());
+      pending.remove(txn.getId());
+      backlog.decrementAndGet();
+      if (stored) {
+        conversionPrewarmer.prewarm(txn);
+      }
+    }
+    failedAttempts = 0;
+    return records.size();
+  }
+
+  private void store(List<PurchaseTxn> txns) {
+    spendRollupService.createMissingRollups(txns);
+    transactionTemplate.executeWithoutResult(status -> {
+      repository.insertAll(txns);
+      spendRollupService.add(txns);
+    });
+  }
+
+  // as opposed to the transaction itself failing, e.g. on a constraint
+  private static boolean isDatabaseUnavailable(RuntimeException ex) {
+    return ex instanceof TransientDataAccessException || ex instanceof RecoverableDataAccessException
+        || ex instanceof DataAccessResourceFailureException || ex instanceof CannotCreateTransactionException;
+  }
+
+  /**
+   * Append the transaction to the dead-letter file, as its POST /purchase-txn body, forced to disk before the log
+   * offset is committed past it
+   */
+  private void deadLetter(PurchaseTxn txn, RuntimeException ex) throws IOException {
+    log.error("Moving purchase transaction {} from the ingest log to {}: {}", txn.getId(), deadLetterFile,
+        ex.toString());
+    byte[] line = objectMapper.writeValueAsBytes(PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(txn));
+    try (FileChannel channel = FileChannel.open(deadLetterFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND)) {
+      channel.write(new ByteBuffer[] {ByteBuffer.wrap(line), ByteBuffer.wrap(NEWLINE)});
+      channel.force(false);
+    }
+    deadLettered.increment();
+  }
+
+  private void drainAll() {
+    try {
+      while (drain() > 0) {
+        // until drained
+      }
+    } catch (Exception ex) {
+      // left in the log, retried after drain-interval
+      log.warn("Storing purchase transactions from the ingest log failed: {}", ex.toString());
+    }
+  }
+
+  static byte[] encode(@Nonnull PurchaseTxn txn) {
+    byte[] description = txn.getDescription().getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(1 + 16 + Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES + description.length)
+        .put(FORMAT)
+        .putLong(txn.getId().getMostSignificantBits())
+        .putLong(txn.getId().getLeastSignificantBits())
+        .putLong(txn.getTxnDate().getEpochSecond())
+        .putInt(txn.getTxnDate().getNano())
+        .putLong(txn.getAmountCents())
+        .putInt(description.length)
+        .put(description)
+        .array();
+  }
+
+  static PurchaseTxn decode(@Nonnull byte[] payload) {
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    byte format = buffer.get();
+    if (format != FORMAT) {
+      throw new IllegalStateException("Unknown ingest log record format " + format);
+    }
+    PurchaseTxn txn = new PurchaseTxn();
+    txn.setId(new UUID(buffer.getLong(), buffer.getLong()));
+    txn.setTxnDate(Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()));
+    txn.setAmountCents(buffer.getLong());
+    byte[] description = new byte[buffer.getInt()];
+    buffer.get(description);
+    txn.setDescription(new String(description, StandardCharsets.UTF_8));
+    return txn;
+  }
+
+}
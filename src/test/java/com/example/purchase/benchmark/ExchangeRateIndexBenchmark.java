@@ -0,0 +1,85 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.service.ExchangeRateIndex;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * "Latest rate on or before the purchase date, within 6 months" over ~170 currencies x 40 years of quarterly records:
+ * {@link ExchangeRateIndex} against a TreeMap&lt;LocalDate, BigDecimal&gt; per currency. Run with -prof gc to compare
+ * allocation per lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExchangeRateIndexBenchmark {
+
+  private static final int CURRENCIES = 170;
+  private static final int QUARTERS = 160;
+  private static final int QUERIES = 1024;
+  private static final LocalDate FIRST_QUARTER_END = LocalDate.parse("1984-03-31");
+
+  private final ExchangeRateIndex index = new ExchangeRateIndex();
+  private final Map<String, TreeMap<LocalDate, BigDecimal>> treeMaps = new HashMap<>();
+
+  private final String[] queryCurrencies = new String[QUERIES];
+  private final LocalDate[] queryStarts = new LocalDate[QUERIES];
+  private final LocalDate[] queryEnds = new LocalDate[QUERIES];
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    Map<String, List<ExchangeRateIndex.Record>> records = new HashMap<>();
+    for (int c = 0; c < CURRENCIES; c++) {
+      String currency = "Country" + c + "-Currency";
+      TreeMap<LocalDate, BigDecimal> treeMap = new TreeMap<>();
+      List<ExchangeRateIndex.Record> currencyRecords = new ArrayList<>();
+      for (int q = 0; q < QUARTERS; q++) {
+        LocalDate recordDate = FIRST_QUARTER_END.plusMonths(3L * q);
+        BigDecimal rate = BigDecimal.valueOf(random.nextInt(100_000_000), 4);
+        treeMap.put(recordDate, rate);
+        currencyRecords.add(new ExchangeRateIndex.Record(recordDate, rate));
+      }
+      treeMaps.put(currency, treeMap);
+      records.put(currency, currencyRecords);
+    }
+    index.replaceAll(records, FIRST_QUARTER_END.plusMonths(3L * QUARTERS));
+
+    for (int i = 0; i < QUERIES; i++) {
+      queryCurrencies[i] = "Country" + random.nextInt(CURRENCIES) + "-Currency";
+      queryEnds[i] = FIRST_QUARTER_END.plusDays(random.nextInt(QUARTERS * 91));
+      queryStarts[i] = queryEnds[i].minusMonths(6);
+    }
+    System.out.println("Index holds " + index.size() + " records, ~" + index.size() * (Integer.BYTES + Long.BYTES)
+        + " bytes of rate data");
+  }
+
+  @Benchmark
+  public long index() {
+    int i = next++ & (QUERIES - 1);
+    return index.lookup(queryCurrencies[i], queryStarts[i], queryEnds[i]);
+  }
+
+  @Benchmark
+  public BigDecimal treeMap() {
+    int i = next++ & (QUERIES - 1);
+    Map.Entry<LocalDate, BigDecimal> floor = treeMaps.get(queryCurrencies[i]).floorEntry(queryEnds[i]);
+    return floor == null || floor.getKey().isBefore(queryStarts[i]) ? null : floor.getValue();
+  }
+
+}
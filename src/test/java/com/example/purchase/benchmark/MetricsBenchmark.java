@@ -0,0 +1,91 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.config.TreasuryProperties;
+import com.example.purchase.service.ExchangeRateLookupMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost per request of the metrics recorded on the GET /purchase-txn/{id} path, in a Prometheus registry:
+ * <ul>
+ *   <li>http.server.requests as Spring Boot records it (tags built and the timer looked up for every request), with
+ *   the percentile histogram configured in application.properties</li>
+ *   <li>an exchange.rate.lookups count through ExchangeRateLookupMetrics' per-currency counters, against looking the
+ *   counter up by name and tags each time</li>
+ *   <li>a treasury.http.responses timer, already looked up</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+
+  private static final String CURRENCY = "Mexico-Peso";
+  private static final Optional<BigDecimal> FOUND = Optional.of(new BigDecimal("19.913"));
+
+  private PrometheusMeterRegistry registry;
+  private ExchangeRateLookupMetrics lookupMetrics;
+  private Timer treasuryResponses;
+  private long durationNanos;
+
+  @Setup
+  public void setUp() {
+    registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    lookupMetrics = new ExchangeRateLookupMetrics(registry, new TreasuryProperties());
+    treasuryResponses = Timer.builder("treasury.http.responses")
+        .tag("status", "200")
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofSeconds(10))
+        .register(registry);
+    durationNanos = TimeUnit.MILLISECONDS.toNanos(12);
+  }
+
+  @Benchmark
+  public void httpServerRequests() {
+    Tags tags = Tags.of("exception", "None", "method", "GET", "operation", "getPurchaseTxn", "outcome", "SUCCESS",
+        "status", "200", "uri", "/purchase-txn/{id}");
+    Timer.builder("http.server.requests")
+        .tags(tags)
+        .publishPercentileHistogram()
+        .minimumExpectedValue(Duration.ofMillis(1))
+        .maximumExpectedValue(Duration.ofSeconds(10))
+        .register(registry)
+        .record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Benchmark
+  public void exchangeRateLookup() {
+    lookupMetrics.record(CURRENCY, ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+  }
+
+  @Benchmark
+  public void exchangeRateLookup_registryLookup() {
+    Counter.builder("exchange.rate.lookups")
+        .tag("currency", CURRENCY)
+        .tag("source", "index")
+        .tag("result", "found")
+        .register(registry)
+        .increment();
+  }
+
+  @Benchmark
+  public void treasuryResponse() {
+    treasuryResponses.record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+}
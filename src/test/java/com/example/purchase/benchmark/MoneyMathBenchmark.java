@@ -0,0 +1,57 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.service.MoneyMath;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converting an amount at an exchange rate: fixed point on long cents against the BigDecimal multiply and rounding it
+ * replaced, for a rate as received from the Treasury API and for one as held by ExchangeRateIndex (scale 9)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MoneyMathBenchmark {
+
+  @Param({"19.913", "19.913000000"})
+  private String exchangeRate;
+
+  private BigDecimal rate;
+  private long amountCents;
+  private BigDecimal amount;
+
+  @Setup
+  public void setUp() {
+    rate = new BigDecimal(exchangeRate);
+    amountCents = 137_995L;
+    amount = MoneyMath.fromCents(amountCents);
+  }
+
+  @Benchmark
+  public BigDecimal convert() {
+    return MoneyMath.convert(amountCents, rate);
+  }
+
+  @Benchmark
+  public BigDecimal convert_bigDecimal() {
+    return amount.multiply(rate).setScale(2, RoundingMode.HALF_UP);
+  }
+
+  /**
+   * As before, with the amount read from the database as a BigDecimal too
+   */
+  @Benchmark
+  public BigDecimal convert_bigDecimalAmount() {
+    return MoneyMath.fromCents(amountCents).multiply(rate).setScale(2, RoundingMode.HALF_UP);
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.config.Config;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Writing and reading a GET /purchase-txn/{id} body as JSON, CBOR or Smile, with the mappers of the application's
+ * message converters. The body size of each format is printed on setup. Run with -prof gc to compare allocation per
+ * body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PayloadFormatBenchmark {
+
+  @Param({"json", "cbor", "smile"})
+  public String format;
+
+  private ObjectWriter writer;
+  private ObjectReader reader;
+  private PurchaseTxnCurrencyDto dto;
+  private byte[] body;
+
+  @Setup
+  public void setUp() throws IOException {
+    Config config = new Config();
+    ObjectMapper objectMapper;
+    switch (format) {
+      case "cbor":
+        objectMapper = config.cborHttpMessageConverter().getObjectMapper();
+        break;
+      case "smile":
+        objectMapper = config.smileHttpMessageConverter().getObjectMapper();
+        break;
+      default:
+        objectMapper = config.objectMapper();
+    }
+    writer = objectMapper.writerFor(PurchaseTxnCurrencyDto.class);
+    reader = objectMapper.readerFor(PurchaseTxnCurrencyDto.class);
+    dto = new PurchaseTxnCurrencyDto()
+        .id(UUID.fromString("01890a5d-ac96-774b-bcce-b302099a8057"))
+        .description("Airline ticket from New Zealand to Australia")
+        .txnDate(OffsetDateTime.parse("2019-10-12T07:20:50.52Z"))
+        .amount(new BigDecimal("200.00"))
+        .countryCurrencyDesc("Mexico-Peso")
+        .exchangeRate(new BigDecimal("19.913"))
+        .amountConverted(new BigDecimal("3982.60"));
+    body = writer.writeValueAsBytes(dto);
+    if (!dto.equals(reader.readValue(body))) {
+      throw new IllegalStateException(format + " does not read back what it writes");
+    }
+    System.out.printf("%n%s body: %d bytes%n", format, body.length);
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    return writer.writeValueAsBytes(dto);
+  }
+
+  @Benchmark
+  public PurchaseTxnCurrencyDto deserialize() throws IOException {
+    return reader.readValue(body);
+  }
+
+}
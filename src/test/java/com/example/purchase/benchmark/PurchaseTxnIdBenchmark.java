@@ -0,0 +1,117 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.PurchaseApplication;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.persistence.model.UuidV7;
+import com.example.purchase.service.PurchaseTxnService;
+import com.example.purchase.support.TestHelper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Rows stored per second by createPurchaseTxns (as POST /purchase-txn/batch) into a purchase_txn table already
+ * holding {@code rows} transactions, with random (version 4) ids against time-ordered UUIDv7 ids. Uses a file-based
+ * H2 database, so that the table does not have to fit in the heap, and prints the space the table and its indexes
+ * take on disk at the end. Boots the application without the web server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PurchaseTxnIdBenchmark.BATCH)
+@Warmup(time = 5)
+@Measurement(time = 5)
+public class PurchaseTxnIdBenchmark {
+
+  static final int BATCH = 1000;
+  private static final int PREFILL_BATCH = 10_000;
+
+  @Param({"random", "uuid7"})
+  private String idGenerator;
+  @Param({"10000000"})
+  private int rows;
+
+  private Path directory;
+  private ConfigurableApplicationContext context;
+  private PurchaseTxnService purchaseTxnService;
+  private JdbcTemplate jdbcTemplate;
+  private final List<PurchaseTxnDto> dtos = new ArrayList<>(BATCH);
+
+  @Setup
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("purchase-txn-id");
+    context = new SpringApplicationBuilder(PurchaseApplication.class)
+        .web(WebApplicationType.NONE)
+        .run("--logging.level.root=WARN", "--treasury.sync.enabled=false",
+            "--spring.datasource.url=jdbc:h2:file:" + directory.resolve("db"),
+            // a file database is not created automatically, unlike the in-memory one
+            "--spring.jpa.hibernate.ddl-auto=create",
+            "--spring.jpa.properties.purchase-txn.id-generator=" + idGenerator);
+    purchaseTxnService = context.getBean(PurchaseTxnService.class);
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+    prefill();
+    for (int i = 0; i < BATCH; i++) {
+      PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+      dto.setDescription("Purchase " + i);
+      dtos.add(dto);
+    }
+  }
+
+  // JDBC batches with the same kind of ids, rather than through the entities, to get to 10M rows in minutes
+  private void prefill() {
+    Supplier<UUID> ids = "uuid7".equals(idGenerator) ? UuidV7::next : UUID::randomUUID;
+    Timestamp txnDate = Timestamp.from(Instant.parse("2020-01-01T00:00:00Z"));
+    List<Object[]> batch = new ArrayList<>(PREFILL_BATCH);
+    for (int i = 0; i < rows; i++) {
+      batch.add(new Object[] {ids.get(), "Purchase " + i, txnDate, 1000L});
+      if (batch.size() == PREFILL_BATCH || i == rows - 1) {
+        jdbcTemplate.batchUpdate("insert into purchase_txn (id, description, txn_date, amount_cents)"
+            + " values (?, ?, ?, ?)", batch);
+        batch.clear();
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Long count = jdbcTemplate.queryForObject("select count(*) from purchase_txn", Long.class);
+    Long bytes = jdbcTemplate.queryForObject("call disk_space_used('PURCHASE_TXN')", Long.class);
+    System.out.printf("%n%s: %d rows, table and indexes %d MB, %d bytes per row%n", idGenerator, count,
+        bytes / (1024 * 1024), bytes / count);
+    context.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public int batchInsert() {
+    return purchaseTxnService.createPurchaseTxns(dtos).size();
+  }
+
+}
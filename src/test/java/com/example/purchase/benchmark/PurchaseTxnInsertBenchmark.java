@@ -0,0 +1,116 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.PurchaseApplication;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Rows stored per second into the in-memory H2 database, end to end over HTTP: one POST /purchase-txn per row (one
+ * request, one INSERT, one transaction each), against one POST /purchase-txn/batch for all the rows (batched INSERTs,
+ * one transaction). Both send the same rows from one client over a kept-alive connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PurchaseTxnInsertBenchmark.ROWS)
+@Warmup(time = 5)
+@Measurement(time = 5)
+public class PurchaseTxnInsertBenchmark {
+
+  static final int ROWS = 1000;
+
+  private ConfigurableApplicationContext context;
+  private JdbcTemplate jdbcTemplate;
+  private HttpClient client;
+  private URI singleUri;
+  private URI batchUri;
+  private final List<String> singleBodies = new ArrayList<>(ROWS);
+  private String batchBody;
+
+  @Setup
+  public void setUp() throws JsonProcessingException {
+    context = new SpringApplicationBuilder(PurchaseApplication.class)
+        .run("--logging.level.root=WARN", "--treasury.sync.enabled=false", "--server.port=0");
+    jdbcTemplate = context.getBean(JdbcTemplate.class);
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    singleUri = URI.create("http://localhost:" + port + "/purchase-txn");
+    batchUri = URI.create("http://localhost:" + port + "/purchase-txn/batch");
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    ObjectMapper objectMapper = context.getBean(ObjectMapper.class);
+    List<PurchaseTxnDto> dtos = new ArrayList<>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+      dto.setDescription("Purchase " + i);
+      dtos.add(dto);
+      singleBodies.add(objectMapper.writeValueAsString(dto));
+    }
+    batchBody = objectMapper.writeValueAsString(dtos);
+  }
+
+  // keep the table size comparable between the two benchmarks
+  @Setup(Level.Iteration)
+  public void clearTable() {
+    jdbcTemplate.update("delete from purchase_txn_daily_spend");
+    jdbcTemplate.update("delete from purchase_txn");
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int singlePosts() throws IOException, InterruptedException {
+    int stored = 0;
+    for (String body : singleBodies) {
+      post(singleUri, body);
+      stored++;
+    }
+    return stored;
+  }
+
+  @Benchmark
+  public int batchPost() throws IOException, InterruptedException {
+    post(batchUri, batchBody);
+    return ROWS;
+  }
+
+  private void post(URI uri, String body) throws IOException, InterruptedException {
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    if (status != 201) {
+      throw new IllegalStateException("POST " + uri + " responded " + status);
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.PurchaseApplication;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+
+/**
+ * Time to read a page of GET /purchase-txn at a given depth into {@value #ROWS} transactions: keyset pagination, as
+ * the operation does, against OFFSET pagination, whose cost grows with the depth. Boots the application without the
+ * web server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PurchaseTxnPageBenchmark {
+
+  static final int ROWS = 100_000;
+  static final int PAGE_SIZE = 100;
+  private static final Instant FROM = Instant.parse("2000-01-01T00:00:00Z");
+  private static final Instant TO = Instant.parse("3000-01-01T00:00:00Z");
+
+  @Param({"0", "10000", "90000"})
+  private int depth;
+
+  private ConfigurableApplicationContext context;
+  private PurchaseTxnRepository repository;
+  private EntityManagerFactory entityManagerFactory;
+  private PurchaseTxn last;
+
+  @Setup
+  public void setUp() {
+    context = new SpringApplicationBuilder(PurchaseApplication.class)
+        .web(WebApplicationType.NONE)
+        // H2 would otherwise answer a repeated query on an unchanged table with its previous result
+        .run("--logging.level.root=WARN", "--treasury.sync.enabled=false",
+            "--spring.datasource.url=jdbc:h2:mem:testdb;QUERY_CACHE_SIZE=0");
+    repository = context.getBean(PurchaseTxnRepository.class);
+    entityManagerFactory = context.getBean(EntityManagerFactory.class);
+    List<PurchaseTxn> purchaseTxns = new ArrayList<>(ROWS);
+    Instant start = Instant.parse("2015-01-01T00:00:00Z");
+    for (int i = 0; i < ROWS; i++) {
+      PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+      txn.setTxnDate(start.plus(i, ChronoUnit.MINUTES));
+      purchaseTxns.add(txn);
+    }
+    repository.insertAll(purchaseTxns);
+    // the transaction the page starts after
+    last = depth == 0 ? null : offsetPage(depth - 1, 1).get(0);
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public List<PurchaseTxn> keyset() {
+    PageRequest page = PageRequest.of(0, PAGE_SIZE);
+    return last == null
+        ? repository.findPageByTxnDateRange(FROM, TO, page)
+        : repository.findPageByTxnDateRangeAfter(FROM, TO, last.getTxnDate(), last.getId(), page);
+  }
+
+  @Benchmark
+  public List<PurchaseTxn> offset() {
+    return offsetPage(depth, PAGE_SIZE);
+  }
+
+  private List<PurchaseTxn> offsetPage(int offset, int size) {
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    try {
+      return entityManager.createQuery("select p from PurchaseTxn p where p.txnDate >= :from and p.txnDate < :to"
+              + " order by p.txnDate, p.id", PurchaseTxn.class)
+          .setParameter("from", FROM)
+          .setParameter("to", TO)
+          .setFirstResult(offset)
+          .setMaxResults(size)
+          .getResultList();
+    } finally {
+      entityManager.close();
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.config.Config;
+import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The in-process work of a request, without I/O: mapping between PurchaseTxnDto and PurchaseTxn and serializing the
+ * PurchaseTxnCurrencyDto response with the app's ObjectMapper. Validating a PurchaseTxnDto is in
+ * PurchaseTxnValidationBenchmark and converting an amount in PurchaseTxnConversionBenchmark, next to the package-private
+ * code they call. Treasury response parsing is in {@link TreasuryResponseParserBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestHotPathBenchmark {
+
+  private PurchaseTxnDto dto;
+  private PurchaseTxn purchaseTxn;
+  private PurchaseTxnCurrencyDto purchaseTxnCurrencyDto;
+  private ObjectWriter writer;
+
+  @Setup
+  public void setUp() {
+    dto = TestHelper.createValidPurchaseTxnDto();
+    purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(UUID.randomUUID());
+    purchaseTxnCurrencyDto = new PurchaseTxnCurrencyDto()
+        .id(purchaseTxn.getId())
+        .description(purchaseTxn.getDescription())
+        .txnDate(OffsetDateTime.parse("2019-10-12T07:20:50.52Z"))
+        .amount(new BigDecimal("200.00"))
+        .countryCurrencyDesc("Mexico-Peso")
+        .exchangeRate(new BigDecimal("19.913"))
+        .amountConverted(new BigDecimal("3982.60"));
+    writer = new Config().objectMapper().writerFor(PurchaseTxnCurrencyDto.class);
+  }
+
+  @Benchmark
+  public PurchaseTxn dtoToPurchaseTxn() {
+    return PurchaseTxnMapper.INSTANCE.dtoToPurchaseTxn(dto);
+  }
+
+  @Benchmark
+  public PurchaseTxnDto purchaseTxnToDto() {
+    return PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(purchaseTxn);
+  }
+
+  @Benchmark
+  public byte[] serializePurchaseTxnCurrencyDto() throws JsonProcessingException {
+    return writer.writeValueAsBytes(purchaseTxnCurrencyDto);
+  }
+
+}
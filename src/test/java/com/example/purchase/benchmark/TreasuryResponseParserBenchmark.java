@@ -0,0 +1,111 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.config.Config;
+import com.example.purchase.service.ExchangeRateIndex;
+import com.example.purchase.service.TreasuryResponseParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a rates_of_exchange response from its bytes: the tree-based parse {@link TreasuryResponseParser} replaced
+ * (body String, ObjectMapper.readTree, then the latest rate and the records for the index from the tree) against the
+ * streaming parser reading every record or stopping at the first. Responses either have every field, in no particular
+ * order, as before requests asked for fields and sort order, or only exchange_rate and record_date, latest first. Run
+ * with -prof gc to compare allocation per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TreasuryResponseParserBenchmark {
+
+  @Param({"2", "40"})
+  public int records;
+  @Param({"false", "true"})
+  public boolean projected;
+
+  private final ObjectMapper objectMapper = new Config().objectMapper();
+  private final TreasuryResponseParser parser = new TreasuryResponseParser(objectMapper.getFactory());
+  private byte[] response;
+
+  @Setup
+  public void setUp() {
+    StringBuilder body = new StringBuilder("{\"data\":[");
+    LocalDate recordDate = LocalDate.parse("2020-12-31");
+    for (int i = 0; i < records; i++) {
+      // unsorted responses come in ascending record_date order
+      LocalDate date = projected ? recordDate.minusMonths(3L * i) : recordDate.minusMonths(3L * (records - 1 - i));
+      String rate = BigDecimal.valueOf(19_913 + 37L * i, 3).toPlainString();
+      if (i > 0) {
+        body.append(',');
+      }
+      if (projected) {
+        body.append("{\"exchange_rate\":\"").append(rate).append("\",\"record_date\":\"").append(date).append("\"}");
+      } else {
+        body.append("{\"record_date\":\"").append(date)
+            .append("\",\"country\":\"Mexico\",\"currency\":\"Peso\",\"country_currency_desc\":\"Mexico-Peso\"")
+            .append(",\"exchange_rate\":\"").append(rate)
+            .append("\",\"effective_date\":\"").append(date)
+            .append("\",\"src_line_nbr\":\"104\",\"record_fiscal_year\":\"").append(date.getYear())
+            .append("\",\"record_fiscal_quarter\":\"1\",\"record_calendar_year\":\"").append(date.getYear())
+            .append("\",\"record_calendar_quarter\":\"4\",\"record_calendar_month\":\"").append(date.getMonthValue())
+            .append("\",\"record_calendar_day\":\"").append(date.getDayOfMonth()).append("\"}");
+      }
+    }
+    body.append("],\"meta\":{\"count\":").append(records)
+        .append(",\"labels\":{\"exchange_rate\":\"Exchange Rate\",\"record_date\":\"Record Date\"},")
+        .append("\"dataTypes\":{\"exchange_rate\":\"NUMBER\",\"record_date\":\"DATE\"},")
+        .append("\"dataFormats\":{\"exchange_rate\":\"10.2\",\"record_date\":\"YYYY-MM-DD\"},")
+        .append("\"total-count\":").append(records).append(",\"total-pages\":1},")
+        .append("\"links\":{\"self\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",")
+        .append("\"first\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",\"prev\":null,\"next\":null,")
+        .append("\"last\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\"}}");
+    response = body.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public void tree(Blackhole blackhole) throws IOException {
+    JsonNode data = objectMapper.readTree(new String(response, StandardCharsets.UTF_8)).get("data");
+    JsonNode latest = null;
+    for (JsonNode record : data) {
+      if (latest == null
+          || record.get("record_date").textValue().compareTo(latest.get("record_date").textValue()) > 0) {
+        latest = record;
+      }
+    }
+    List<ExchangeRateIndex.Record> indexRecords = new ArrayList<>(data.size());
+    for (JsonNode record : data) {
+      indexRecords.add(new ExchangeRateIndex.Record(LocalDate.parse(record.get("record_date").textValue()),
+          new BigDecimal(record.get("exchange_rate").textValue())));
+    }
+    blackhole.consume(latest);
+    blackhole.consume(indexRecords);
+  }
+
+  @Benchmark
+  public TreasuryResponseParser.Result streamingAllRecords() throws IOException {
+    return parser.parse(new ByteArrayInputStream(response), true);
+  }
+
+  @Benchmark
+  public TreasuryResponseParser.Result streamingFirstRecord() throws IOException {
+    return parser.parse(new ByteArrayInputStream(response), false);
+  }
+
+}
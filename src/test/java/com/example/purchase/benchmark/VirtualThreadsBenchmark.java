@@ -0,0 +1,138 @@
+package com.example.purchase.benchmark;
+
+import com.example.purchase.PurchaseApplication;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Time for a burst of concurrent POST /purchase-txn/currency/batch requests (which block a request thread on the
+ * Treasury API) to complete, over real HTTP against a local Treasury stub with high latency: Tomcat's default 200
+ * platform threads against spring.threads.virtual.enabled=true. Every request asks for a new currency, so each one
+ * waits on its own Treasury call.
+ * <p>
+ * Virtual threads need Java 21+; on older JDKs both runs use platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class VirtualThreadsBenchmark {
+
+  private static final long TREASURY_LATENCY_MILLIS = 1000;
+  private static final int BACKLOG = 2048;
+  private static final int MAX_TREASURY_REQUESTS = 500;
+  private static final String FOUND_BODY = "{\"data\":[{\"exchange_rate\":\"0.121111113\",\"record_date\":\"2019-09-30\"}],\"meta\":{\"count\":1}}";
+
+  @Param({"false", "true"})
+  public boolean virtualThreads;
+  @Param({"200", "1000"})
+  public int concurrentRequests;
+
+  private HttpServer treasury;
+  private ExecutorService treasuryExecutor;
+  private ConfigurableApplicationContext context;
+  private HttpClient client;
+  private URI batchUri;
+  private UUID id;
+  private int nextCurrency;
+
+  @Setup
+  public void setUp() throws IOException {
+    // MockWebServer adds latency of its own under bursts of connections: use the JDK's server, with a thread per
+    // request and a large enough accept backlog
+    treasury = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+    treasury.createContext("/rates_of_exchange", exchange -> {
+      try {
+        Thread.sleep(TREASURY_LATENCY_MILLIS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = FOUND_BODY.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    treasuryExecutor = Executors.newCachedThreadPool();
+    treasury.setExecutor(treasuryExecutor);
+    treasury.start();
+    context = new SpringApplicationBuilder(PurchaseApplication.class)
+        .run("--logging.level.root=WARN", "--treasury.sync.enabled=false", "--treasury.http.cache.enabled=false",
+            "--server.port=0",
+            "--server.tomcat.accept-count=" + BACKLOG,
+            // above Tomcat's 200 threads, so the bound that applies is the request thread pool's
+            "--treasury.max-concurrent-requests=" + MAX_TREASURY_REQUESTS,
+            "--treasury.url=http://localhost:" + treasury.getAddress().getPort() + "/rates_of_exchange",
+            "--spring.threads.virtual.enabled=" + virtualThreads);
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    batchUri = URI.create("http://localhost:" + port + "/purchase-txn/currency/batch");
+    PurchaseTxn stored = context.getBean(PurchaseTxnRepository.class).save(TestHelper.createValidPurchaseTxn());
+    id = stored.getId();
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+    treasury.stop(0);
+    treasuryExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public int burst() {
+    List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(concurrentRequests);
+    for (int i = 0; i < concurrentRequests; i++) {
+      String body = "[{\"id\":\"" + id + "\",\"countryCurrencyDesc\":\"Country" + nextCurrency++ + "-Currency\"}]";
+      HttpRequest request = HttpRequest.newBuilder(batchUri)
+          .header("Content-Type", "application/json")
+          .timeout(Duration.ofMinutes(1))
+          .POST(HttpRequest.BodyPublishers.ofString(body))
+          .build();
+      responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    }
+    int ok = 0;
+    for (CompletableFuture<HttpResponse<Void>> response : responses) {
+      if (response.join().statusCode() == 200) {
+        ok++;
+      }
+    }
+    if (ok != concurrentRequests) {
+      throw new IllegalStateException(ok + " of " + concurrentRequests + " requests succeeded");
+    }
+    return ok;
+  }
+
+}
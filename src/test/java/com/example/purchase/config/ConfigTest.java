@@ -0,0 +1,94 @@
+package com.example.purchase.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+class ConfigTest {
+
+  private static final String BODY = "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-12-31\"}]}";
+
+  @TempDir
+  Path cacheDirectory;
+
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+      .withUserConfiguration(Config.class)
+      .withBean(MeterRegistry.class, SimpleMeterRegistry::new);
+
+  @Test
+  void httpClient_tunedFromProperties() {
+    contextRunner.withPropertyValues("treasury.http.cache.enabled=false", "treasury.http.http2=false",
+            "treasury.http.connect-timeout=2s", "treasury.http.read-timeout=3s", "treasury.max-concurrent-requests=16")
+        .run(context -> {
+          OkHttpClient client = context.getBean(OkHttpClient.class);
+          assertNull(client.cache());
+          assertEquals(List.of(Protocol.HTTP_1_1), client.protocols());
+          assertEquals(2000, client.connectTimeoutMillis());
+          assertEquals(3000, client.readTimeoutMillis());
+          assertEquals(16, client.dispatcher().getMaxRequestsPerHost());
+        });
+  }
+
+  @Test
+  void httpClient_cachesImmutableResponses() throws IOException {
+    try (MockWebServer server = new MockWebServer()) {
+      // no caching headers: only cached because the request is tagged
+      server.enqueue(new MockResponse().setBody(BODY));
+      server.start();
+
+      contextRunner.withPropertyValues("treasury.http.cache.directory=" + cacheDirectory)
+          .run(context -> {
+            OkHttpClient client = context.getBean(OkHttpClient.class);
+            assertNotNull(client.cache());
+            for (int i = 0; i < 2; i++) {
+              Request request = new Request.Builder()
+                  .url(server.url("/rates_of_exchange"))
+                  .tag(HttpCachePolicy.class, HttpCachePolicy.IMMUTABLE)
+                  .build();
+              try (Response response = client.newCall(request).execute()) {
+                assertEquals(BODY, response.body().string());
+              }
+            }
+
+            assertEquals(1, server.getRequestCount());
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertEquals(1, registry.get("treasury.http.cache.lookups").tag("result", "hit").counter().count());
+            assertEquals(1, registry.get("treasury.http.cache.lookups").tag("result", "miss").counter().count());
+            assertEquals(BODY.length(), registry.get("treasury.http.cache.saved").counter().count());
+            assertEquals(1, registry.get("treasury.http.connections").counter().count());
+            assertEquals(1, registry.get("treasury.http.cache.network").functionCounter().count());
+            assertTrue(registry.get("treasury.http.pool.connection.count").gauges().size() > 0);
+          });
+    }
+  }
+
+  @Test
+  void treasuryHttpCache_closedWithContext() {
+    contextRunner.withPropertyValues("treasury.http.cache.directory=" + cacheDirectory)
+        .run(context -> {
+          assertThat(context).hasSingleBean(Cache.class);
+          Cache cache = context.getBean(Cache.class);
+          context.close();
+          assertTrue(cache.isClosed());
+        });
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.example.purchase.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+class VirtualThreadsConfigTest {
+
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+      .withUserConfiguration(VirtualThreadsConfig.class);
+
+  @Test
+  void disabledByDefault() {
+    contextRunner.run(context -> assertThat(context).doesNotHaveBean(VirtualThreadsConfig.class));
+  }
+
+  @Test
+  void enabled_virtualThreadsSupported() throws Exception {
+    assumeTrue(VirtualThreads.isSupported(), "Java 21+ required");
+
+    ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+    Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+    executor.shutdown();
+    assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread));
+    assertEquals("test-0", thread.getName());
+    contextRunner.withPropertyValues("spring.threads.virtual.enabled=true")
+        .run(context -> assertThat(context).hasBean("treasuryClientExecutor"));
+  }
+
+  // falls back to platform threads rather than failing to start
+  @Test
+  void enabled_virtualThreadsNotSupported() {
+    assumeFalse(VirtualThreads.isSupported(), "Java 21+ has virtual threads");
+
+    assertThrows(IllegalStateException.class, () -> VirtualThreads.newThreadPerTaskExecutor("test-"));
+    contextRunner.withPropertyValues("spring.threads.virtual.enabled=true")
+        .run(context -> {
+          assertThat(context).hasNotFailed();
+          assertThat(context).doesNotHaveBean("treasuryClientExecutor");
+        });
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.example.purchase.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.persistence.dao.DailySpendRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnConversionRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxnConversion;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalManagementPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * DELETE /actuator/conversions/{countryCurrencyDesc} on the management port, once Treasury revised a rate: the revised
+ * rate is served afterwards, although the old one was held in the stored conversions, the in-memory index, the rate
+ * cache and the HTTP cache. Run during mvn verify stage
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+class ConversionsEndpointIntegrationTest {
+
+  private static final String RATE_BODY = "{\"data\":[{\"exchange_rate\":\"%s\",\"record_date\":\"2019-09-30\"}]}";
+
+  private static final MockWebServer treasury = new MockWebServer();
+  @TempDir
+  static Path httpCacheDirectory;
+
+  @LocalServerPort
+  private int port;
+  @LocalManagementPort
+  private int managementPort;
+  @Autowired
+  private ObjectMapper objectMapper;
+  @Autowired
+  private PurchaseTxnRepository repository;
+  @Autowired
+  private DailySpendRepository dailySpendRepository;
+  @Autowired
+  private PurchaseTxnConversionRepository conversionRepository;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @DynamicPropertySource
+  static void treasuryProperties(DynamicPropertyRegistry registry) {
+    registry.add("treasury.url", () -> treasury.url("/rates_of_exchange").toString());
+    registry.add("treasury.http.cache.enabled", () -> "true");
+    registry.add("treasury.http.cache.directory", () -> httpCacheDirectory.toString());
+  }
+
+  @AfterAll
+  static void shutDownTreasuryStub() throws IOException {
+    treasury.shutdown();
+  }
+
+  @AfterEach
+  void tearDown() {
+    repository.deleteAll();
+    dailySpendRepository.deleteAll();
+    conversionRepository.deleteAll();
+  }
+
+  @Test
+  void invalidate_servesRevisedRate() throws Exception {
+    HttpResponse<String> created = send(HttpRequest.newBuilder(uri(port, "/purchase-txn"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(
+            objectMapper.writeValueAsString(TestHelper.createValidPurchaseTxnDto()))));
+    assertEquals(201, created.statusCode());
+    String id = objectMapper.readTree(created.body()).get("id").textValue();
+    URI converted = uri(port, "/purchase-txn/" + id + "?countryCurrencyDesc=Mexico-Peso");
+
+    treasury.enqueue(new MockResponse().setBody(String.format(RATE_BODY, "19.913")));
+    assertEquals(new BigDecimal("3982.60"), getConverted(converted).getAmountConverted());
+    // stored in the background, as the rate came from the Treasury API
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    PurchaseTxnConversion.Key key = new PurchaseTxnConversion.Key(UUID.fromString(id), "Mexico-Peso");
+    while (!conversionRepository.existsById(key) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(new BigDecimal("3982.60"), getConverted(converted).getAmountConverted());
+    assertEquals(1, treasury.getRequestCount());
+
+    // not on the API port
+    assertEquals(404, send(HttpRequest.newBuilder(uri(port, "/actuator/conversions/Mexico-Peso")).DELETE())
+        .statusCode());
+    HttpResponse<String> invalidated = send(HttpRequest.newBuilder(
+        uri(managementPort, "/actuator/conversions/Mexico-Peso")).DELETE());
+    assertEquals(200, invalidated.statusCode());
+    JsonNode body = objectMapper.readTree(invalidated.body());
+    assertEquals(1, body.get("deleted").intValue());
+    // no local copy of the dataset, as treasury.sync.enabled=false
+    assertEquals(0, body.get("ratesRefreshed").intValue());
+
+    treasury.enqueue(new MockResponse().setBody(String.format(RATE_BODY, "20.5")));
+    PurchaseTxnCurrencyDto revised = getConverted(converted);
+    assertEquals(new BigDecimal("20.5"), revised.getExchangeRate());
+    assertEquals(new BigDecimal("4100.00"), revised.getAmountConverted());
+    assertEquals(2, treasury.getRequestCount());
+  }
+
+  private PurchaseTxnCurrencyDto getConverted(URI uri) throws IOException, InterruptedException {
+    HttpResponse<String> response = send(HttpRequest.newBuilder(uri));
+    assertEquals(200, response.statusCode());
+    return objectMapper.readValue(response.body(), PurchaseTxnCurrencyDto.class);
+  }
+
+  private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static URI uri(int port, String path) {
+    return URI.create("http://localhost:" + port + path);
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.example.purchase.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.UUID;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalManagementPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * The metrics scraped from /actuator/prometheus after a few requests: request, repository, Treasury client and rate
+ * lookup meters with their tags, and the JVM, Hikari and Tomcat ones. Run during mvn verify stage
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@AutoConfigureMetrics
+class MetricsIntegrationTest {
+
+  private static final String FOUND_BODY = "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2019-09-30\"}]}";
+
+  private static final MockWebServer treasury = new MockWebServer();
+
+  @LocalServerPort
+  private int port;
+  @LocalManagementPort
+  private int managementPort;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @DynamicPropertySource
+  static void treasuryProperties(DynamicPropertyRegistry registry) {
+    registry.add("treasury.url", () -> treasury.url("/rates_of_exchange").toString());
+  }
+
+  @AfterAll
+  static void shutDownTreasuryStub() throws IOException {
+    treasury.shutdown();
+  }
+
+  @Test
+  void prometheus() throws Exception {
+    treasury.enqueue(new MockResponse().setBody(FOUND_BODY));
+    HttpResponse<String> created = send(HttpRequest.newBuilder(uri("/purchase-txn"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(
+            objectMapper.writeValueAsString(TestHelper.createValidPurchaseTxnDto()))));
+    assertEquals(201, created.statusCode());
+    String id = objectMapper.readTree(created.body()).get("id").textValue();
+    assertEquals(200, send(HttpRequest.newBuilder(uri("/purchase-txn/" + id + "?countryCurrencyDesc=Mexico-Peso")))
+        .statusCode());
+    assertEquals(404, send(HttpRequest.newBuilder(uri("/purchase-txn/" + UUID.randomUUID()
+        + "?countryCurrencyDesc=Mexico-Peso"))).statusCode());
+
+    String metrics = send(HttpRequest.newBuilder(managementUri("/actuator/prometheus"))).body();
+
+    assertMetric(metrics, "http_server_requests_seconds_bucket", "operation=\"postPurchaseTxn\"",
+        "outcome=\"SUCCESS\"", "status=\"201\"", "uri=\"/purchase-txn\"");
+    assertMetric(metrics, "http_server_requests_seconds_count", "operation=\"getPurchaseTxn\"",
+        "outcome=\"CLIENT_ERROR\"", "status=\"404\"", "uri=\"/purchase-txn/{id}\"");
+    assertMetric(metrics, "spring_data_repository_invocations_seconds_bucket", "method=\"findById\"",
+        "repository=\"PurchaseTxnRepository\"");
+    assertMetric(metrics, "spring_data_repository_invocations_seconds_count", "method=\"save\"");
+    assertMetric(metrics, "treasury_http_responses_seconds_bucket", "status=\"200\"");
+    assertMetric(metrics, "treasury_http_received_bytes_total");
+    assertMetric(metrics, "exchange_rate_lookups_total", "currency=\"Mexico-Peso\"", "result=\"found\"",
+        "source=\"treasury\"");
+    assertMetric(metrics, "jvm_memory_used_bytes");
+    assertMetric(metrics, "jvm_gc_pause_seconds_count");
+    assertMetric(metrics, "hikaricp_connections_active");
+    assertMetric(metrics, "tomcat_threads_busy_threads");
+  }
+
+  private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + port + path);
+  }
+
+  private URI managementUri(String path) {
+    return URI.create("http://localhost:" + managementPort + path);
+  }
+
+  private static void assertMetric(String metrics, String name, String... labels) {
+    assertTrue(metrics.lines().anyMatch(line -> (line.startsWith(name + "{") || line.startsWith(name + " "))
+            && Arrays.stream(labels).allMatch(line::contains)),
+        name + " " + Arrays.toString(labels) + " not found");
+  }
+
+}
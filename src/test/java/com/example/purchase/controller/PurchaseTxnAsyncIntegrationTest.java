@@ -0,0 +1,111 @@
+package com.example.purchase.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Load test of GET /purchase-txn/{id} against a slow local stub of the Treasury API, over real HTTP: requests waiting
+ * on the Treasury API must not hold one of the (few) servlet threads. Run during mvn verify stage
+ */
+// every stub response is slow, which would only make hedged requests
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {"server.tomcat.threads.max=4", "treasury.hedge.enabled=false"})
+class PurchaseTxnAsyncIntegrationTest {
+
+  private static final long TREASURY_DELAY_MILLIS = 1000;
+  private static final int CONCURRENT_REQUESTS = 40;
+  private static final String FOUND_BODY = "{\"data\":[{\"exchange_rate\":\"0.121111113\",\"record_date\":\"2019-09-30\"}],\"meta\":{\"count\":1}}";
+
+  private static final MockWebServer treasury = startTreasuryStub();
+
+  @LocalServerPort
+  private int port;
+  @Autowired
+  private PurchaseTxnRepository repository;
+
+  @DynamicPropertySource
+  static void treasuryProperties(DynamicPropertyRegistry registry) {
+    registry.add("treasury.url", () -> treasury.url("/rates_of_exchange").toString());
+  }
+
+  @AfterEach
+  void tearDown() {
+    repository.deleteAll();
+  }
+
+  @AfterAll
+  static void shutDownTreasuryStub() throws IOException {
+    treasury.shutdown();
+  }
+
+  // with 4 servlet threads, blocking on each 1s Treasury call would take 10s
+  @Test
+  void getPurchaseTxn_concurrentSlowLookups() throws Exception {
+    PurchaseTxn stored = repository.save(TestHelper.createValidPurchaseTxn());
+    HttpClient client = HttpClient.newHttpClient();
+
+    long started = System.nanoTime();
+    List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+    for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+      // a different currency each, so that every request waits on its own Treasury call
+      HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/purchase-txn/"
+              + stored.getId() + "?countryCurrencyDesc=Country" + i + "-Currency"))
+          .timeout(Duration.ofSeconds(30))
+          .build();
+      responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+    }
+    for (CompletableFuture<HttpResponse<String>> response : responses) {
+      assertEquals(200, response.get(30, TimeUnit.SECONDS).statusCode());
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+    assertEquals(CONCURRENT_REQUESTS, treasury.getRequestCount());
+    assertTrue(elapsedMillis < 4 * TREASURY_DELAY_MILLIS, CONCURRENT_REQUESTS + " requests took " + elapsedMillis
+        + "ms");
+  }
+
+  private static MockWebServer startTreasuryStub() {
+    MockWebServer server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return new MockResponse().setBody(FOUND_BODY)
+            .setHeadersDelay(TREASURY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      }
+    });
+    try {
+      server.start();
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return server;
+  }
+
+}
@@ -1,28 +1,51 @@
 package com.example.purchase.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.example.purchase.api.model.ErrorDetailsDto;
 import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyRequestDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
 import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.api.model.PurchaseTxnPageDto;
+import com.example.purchase.api.model.SpendTotalDto;
+import com.example.purchase.config.Config;
 import com.example.purchase.mapper.PurchaseTxnMapper;
+import com.example.purchase.persistence.dao.DailySpendRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnConversionRepository;
 import com.example.purchase.persistence.dao.PurchaseTxnRepository;
 import com.example.purchase.persistence.model.PurchaseTxn;
 import com.example.purchase.service.CurrencyConversionService;
 import com.example.purchase.service.PurchaseTxnService;
 import com.example.purchase.support.TestHelper;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -31,6 +54,10 @@ import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 /**
  * Test controller integration tests (using actual in-memory test DB) Run during mvn verify stage
@@ -41,6 +68,8 @@ import org.springframework.test.web.servlet.MockMvc;
 class PurchaseTxnControllerIntegrationTest {
 
   private static final String API_PATH = "/purchase-txn";
+  private static final MediaType CBOR = MediaType.parseMediaType("application/cbor");
+  private static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
 
   @Autowired
   private MockMvc mockMvc;
@@ -52,6 +81,19 @@ class PurchaseTxnControllerIntegrationTest {
   private PurchaseTxnRepository repository;
   @SpyBean
   private CurrencyConversionService currencyConversionService;
+  @Autowired
+  private DailySpendRepository dailySpendRepository;
+  @Autowired
+  private PurchaseTxnConversionRepository conversionRepository;
+  @Autowired
+  private ConversionsEndpoint conversionsEndpoint;
+
+  @AfterEach
+  void tearDown() {
+    repository.deleteAll();
+    dailySpendRepository.deleteAll();
+    conversionRepository.deleteAll();
+  }
 
   // happy path test
   @Test
@@ -59,7 +101,7 @@ class PurchaseTxnControllerIntegrationTest {
     // POST test
     PurchaseTxnDto sentDto = TestHelper.createValidPurchaseTxnDto();
 
-    MockHttpServletResponse response = this.mockMvc.perform(
+    MockHttpServletResponse response = perform(
             post(API_PATH)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(sentDto))
@@ -68,12 +110,14 @@ class PurchaseTxnControllerIntegrationTest {
         .andReturn().getResponse();
 
     verify(purchaseTxnService, times(1)).createPurchaseTxn(any());
-    verify(repository, times(1)).save(any());
+    verify(repository, times(1)).insertAll(any());
+    verify(repository, never()).save(any());
     assertEquals(1L, repository.count());
     PurchaseTxn stored = repository.findAll().iterator().next();
     PurchaseTxnDto recvDto = objectMapper.readValue(response.getContentAsString(), PurchaseTxnDto.class);
 
     assertNotNull(recvDto.getId());
+    assertEquals("/purchase-txn/" + recvDto.getId(), response.getHeader("Location"));
     assertEquals(PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(stored), recvDto);
     recvDto.setId(null);
     assertEquals(sentDto, recvDto);
@@ -81,10 +125,10 @@ class PurchaseTxnControllerIntegrationTest {
     // GET test
     // integration test would not normally call external API, because response apt to change
     // also CI/CD pipeline may have network restrictions for security reasons
-    doReturn(Optional.of(new BigDecimal("0.121111113")))
-        .when(currencyConversionService).getExchangeRate(any(), any(), any());
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
 
-    response = this.mockMvc.perform(
+    response = perform(
             get(API_PATH + "/" + stored.getId())
                 .queryParam("countryCurrencyDesc", "Mexico-Peso")
         )
@@ -94,10 +138,338 @@ class PurchaseTxnControllerIntegrationTest {
     assertNotNull(objectMapper.readValue(response.getContentAsString(), PurchaseTxnCurrencyDto.class));
   }
 
+  @Test
+  void postAndGetPurchaseTxn_cborAndSmile() throws Exception {
+    ObjectMapper cborMapper = Config.configure(new CBORMapper());
+    ObjectMapper smileMapper = Config.configure(new SmileMapper());
+    PurchaseTxnDto sentDto = TestHelper.createValidPurchaseTxnDto();
+
+    MockHttpServletResponse response = perform(
+            post(API_PATH)
+                .contentType(CBOR)
+                .accept(CBOR)
+                .content(cborMapper.writeValueAsBytes(sentDto))
+        )
+        .andExpect(status().is(201))
+        .andReturn().getResponse();
+    assertEquals(CBOR.toString(), response.getContentType());
+    PurchaseTxnDto recvDto = cborMapper.readValue(response.getContentAsByteArray(), PurchaseTxnDto.class);
+    UUID id = recvDto.getId();
+    assertNotNull(id);
+    recvDto.setId(null);
+    assertEquals(sentDto, recvDto);
+
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
+    MockHttpServletRequestBuilder request = get(API_PATH + "/" + id)
+        .queryParam("countryCurrencyDesc", "Mexico-Peso");
+
+    // JSON unless asked otherwise
+    response = perform(request).andExpect(status().is(200)).andReturn().getResponse();
+    assertEquals(MediaType.APPLICATION_JSON_VALUE, response.getContentType());
+    assertEquals("Accept", response.getHeader("Vary"));
+    assertTrue(response.getHeader("ETag").endsWith(".json\""));
+    PurchaseTxnCurrencyDto json = objectMapper.readValue(response.getContentAsString(), PurchaseTxnCurrencyDto.class);
+    assertEquals(new BigDecimal("200.00"), json.getAmount());
+
+    // the same values, down to BigDecimal scale and OffsetDateTime offset, but another representation (ETag)
+    response = perform(request.accept(CBOR)).andExpect(status().is(200)).andReturn().getResponse();
+    assertEquals(CBOR.toString(), response.getContentType());
+    assertTrue(response.getHeader("ETag").endsWith(".cbor\""));
+    assertEquals(json, cborMapper.readValue(response.getContentAsByteArray(), PurchaseTxnCurrencyDto.class));
+    response = perform(request.accept(SMILE)).andExpect(status().is(200)).andReturn().getResponse();
+    assertEquals(SMILE.toString(), response.getContentType());
+    assertTrue(response.getHeader("ETag").endsWith(".x-jackson-smile\""));
+    assertEquals(json, smileMapper.readValue(response.getContentAsByteArray(), PurchaseTxnCurrencyDto.class));
+  }
+
+  @Test
+  void getPurchaseTxn_ifNoneMatch_isNotModified() throws Exception {
+    // left by the other test classes sharing the in-memory database
+    conversionRepository.deleteAll();
+    PurchaseTxn stored = repository.save(TestHelper.createValidPurchaseTxn());
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
+
+    MockHttpServletResponse response = perform(get(API_PATH + "/" + stored.getId())
+        .queryParam("countryCurrencyDesc", "Mexico-Peso"))
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+    String etag = response.getHeader("ETag");
+    assertNotNull(etag);
+
+    response = perform(get(API_PATH + "/" + stored.getId())
+        .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        .header("If-None-Match", etag))
+        .andExpect(status().is(304))
+        .andReturn().getResponse();
+    assertEquals(etag, response.getHeader("ETag"));
+    // revalidated against the stored conversion
+    verify(purchaseTxnService, times(1)).getPurchaseTxnCurrency(any(), any());
+    verify(currencyConversionService, times(1)).getExchangeRateAsync(any(), any(), any());
+
+    // the JSON ETag does not validate a cached CBOR body
+    response = perform(get(API_PATH + "/" + stored.getId())
+        .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        .accept(CBOR)
+        .header("If-None-Match", etag))
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+    assertEquals(CBOR.toString(), response.getContentType());
+    assertNotEquals(etag, response.getHeader("ETag"));
+  }
+
+  @Test
+  void getPurchaseTxn_storedConversion() throws Exception {
+    // left by the other test classes sharing the in-memory database
+    conversionRepository.deleteAll();
+    PurchaseTxn stored = repository.save(TestHelper.createValidPurchaseTxn());
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
+    MockHttpServletRequestBuilder request = get(API_PATH + "/" + stored.getId())
+        .queryParam("countryCurrencyDesc", "Mexico-Peso");
+
+    String converted = perform(request).andExpect(status().is(200)).andReturn().getResponse().getContentAsString();
+    // served from the stored conversion
+    assertEquals(converted, perform(request).andExpect(status().is(200)).andReturn().getResponse()
+        .getContentAsString());
+    verify(repository, times(1)).findById(stored.getId());
+    verify(currencyConversionService, times(1)).getExchangeRateAsync(any(), any(), any());
+
+    // admin invalidation, only served on the management port, converted again on the next request
+    perform(delete("/actuator/conversions/Mexico-Peso")).andExpect(status().is(404));
+    assertEquals(1, conversionsEndpoint.invalidate("Mexico-Peso").get("deleted"));
+    assertEquals(converted, perform(request).andExpect(status().is(200)).andReturn().getResponse()
+        .getContentAsString());
+    verify(repository, times(2)).findById(stored.getId());
+  }
+
+  @Test
+  void getPurchaseTxn_trailingZeroRate_storedConversionSame() throws Exception {
+    // left by the other test classes sharing the in-memory database
+    conversionRepository.deleteAll();
+    PurchaseTxn stored = repository.save(TestHelper.createValidPurchaseTxn());
+    // as parsed from the Treasury API's "1.0", while the stored conversion reads back without the trailing zero
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("1.0"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
+    MockHttpServletRequestBuilder request = get(API_PATH + "/" + stored.getId())
+        .queryParam("countryCurrencyDesc", "Mexico-Peso");
+
+    MockHttpServletResponse converted = perform(request).andExpect(status().is(200)).andReturn().getResponse();
+    MockHttpServletResponse fromStore = perform(request).andExpect(status().is(200)).andReturn().getResponse();
+    verify(currencyConversionService, times(1)).getExchangeRateAsync(any(), any(), any());
+    assertEquals(converted.getContentAsString(), fromStore.getContentAsString());
+    assertEquals(converted.getHeader("ETag"), fromStore.getHeader("ETag"));
+    assertEquals(new BigDecimal("1"), objectMapper.readValue(fromStore.getContentAsString(),
+        PurchaseTxnCurrencyDto.class).getExchangeRate());
+  }
+
+  @Test
+  void postPurchaseTxnBatch() throws Exception {
+    List<PurchaseTxnDto> sentDtos = List.of(TestHelper.createValidPurchaseTxnDto(),
+        TestHelper.createValidPurchaseTxnDto(), TestHelper.createValidPurchaseTxnDto());
+
+    MockHttpServletResponse response = perform(
+            post(API_PATH + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(sentDtos))
+        )
+        .andExpect(status().is(201))
+        .andReturn().getResponse();
+
+    verify(repository, times(1)).insertAll(any());
+    verify(repository, never()).save(any());
+    assertEquals(3L, repository.count());
+    PurchaseTxnDto[] recvDtos = objectMapper.readValue(response.getContentAsString(), PurchaseTxnDto[].class);
+    assertEquals(3, recvDtos.length);
+    for (PurchaseTxnDto recvDto : recvDtos) {
+      assertEquals(PurchaseTxnMapper.INSTANCE.purchaseTxnToDto(repository.findById(recvDto.getId()).get()), recvDto);
+    }
+  }
+
+  @Test
+  void postPurchaseTxn_suppliedId_keptThenConflict() throws Exception {
+    PurchaseTxnDto sentDto = TestHelper.createValidPurchaseTxnDto().id(UUID.randomUUID());
+    RequestBuilder request = post(API_PATH)
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(sentDto));
+
+    MockHttpServletResponse created = perform(request).andExpect(status().is(201)).andReturn().getResponse();
+    assertEquals(sentDto.getId(), objectMapper.readValue(created.getContentAsString(), PurchaseTxnDto.class).getId());
+
+    MockHttpServletResponse conflict = perform(request).andExpect(status().is(409)).andReturn().getResponse();
+    assertEquals(409, objectMapper.readValue(conflict.getContentAsString(), ErrorDetailsDto.class).getCode());
+    assertEquals(1L, repository.count());
+  }
+
+  @Test
+  void postPurchaseTxnBatch_repeatedId_conflict() throws Exception {
+    UUID id = UUID.randomUUID();
+    List<PurchaseTxnDto> sentDtos = List.of(TestHelper.createValidPurchaseTxnDto(),
+        TestHelper.createValidPurchaseTxnDto().id(id), TestHelper.createValidPurchaseTxnDto().id(id));
+
+    perform(
+            post(API_PATH + "/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(sentDtos))
+        )
+        .andExpect(status().is(409));
+
+    // none stored
+    assertEquals(0L, repository.count());
+  }
+
+  @Test
+  void getPurchaseTxnCurrencyBatch() throws Exception {
+    PurchaseTxn stored = repository.save(TestHelper.createValidPurchaseTxn());
+    UUID nonExistentId = UUID.randomUUID();
+    doReturn(Optional.of(new BigDecimal("0.121111113")))
+        .when(currencyConversionService).getExchangeRate(any(), any(), any());
+    List<PurchaseTxnCurrencyRequestDto> requests = List.of(
+        new PurchaseTxnCurrencyRequestDto().id(stored.getId()).countryCurrencyDesc("Mexico-Peso"),
+        new PurchaseTxnCurrencyRequestDto().id(nonExistentId).countryCurrencyDesc("Mexico-Peso"),
+        new PurchaseTxnCurrencyRequestDto().id(stored.getId()).countryCurrencyDesc("Mexico-Peso"));
+
+    MockHttpServletResponse response = perform(
+            post(API_PATH + "/currency/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(requests))
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    verify(repository, times(1)).findAllById(any());
+    verify(currencyConversionService, times(1)).getExchangeRate(any(), any(), any());
+    PurchaseTxnCurrencyResultDto[] results = objectMapper.readValue(response.getContentAsString(),
+        PurchaseTxnCurrencyResultDto[].class);
+    assertEquals(3, results.length);
+    assertEquals("24.22", results[0].getPurchaseTxnCurrency().getAmountConverted().toString());
+    assertEquals(404, results[1].getError().getCode());
+    assertEquals("PurchaseTxn with id=" + nonExistentId + " not found in database", results[1].getError().getMessage());
+    assertEquals(results[0], results[2]);
+  }
+
+  @Test
+  void exportPurchaseTxnCurrency() throws Exception {
+    repository.insertAll(List.of(TestHelper.createValidPurchaseTxn(), TestHelper.createValidPurchaseTxn()));
+    doReturn(Optional.of(new BigDecimal("0.121111113")))
+        .when(currencyConversionService).getExchangeRate(any(), any(), any());
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/export")
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .queryParam("toDate", "2019-10-12")
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    String[] lines = response.getContentAsString().split("\n");
+    assertEquals(2, lines.length);
+    for (String line : lines) {
+      PurchaseTxnCurrencyResultDto exported = objectMapper.readValue(line, PurchaseTxnCurrencyResultDto.class);
+      assertEquals("24.22", exported.getPurchaseTxnCurrency().getAmountConverted().toString());
+    }
+  }
+
+  @Test
+  void listPurchaseTxns() throws Exception {
+    List<PurchaseTxn> stored = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+      txn.setTxnDate(Instant.parse("2019-10-12T07:20:50.52Z").plus(i, ChronoUnit.HOURS));
+      stored.add(txn);
+    }
+    repository.insertAll(stored);
+    doReturn(Optional.of(new BigDecimal("0.121111113")))
+        .when(currencyConversionService).getExchangeRate(any(), any(), any());
+
+    List<PurchaseTxnCurrencyResultDto> listed = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      MockHttpServletRequestBuilder request = get(API_PATH)
+          .queryParam("fromDate", "2019-10-12")
+          .queryParam("countryCurrencyDesc", "Mexico-Peso")
+          .queryParam("limit", "2");
+      if (cursor != null) {
+        request.queryParam("cursor", cursor);
+      }
+      MockHttpServletResponse response = perform(request)
+          .andExpect(status().is(200))
+          .andReturn().getResponse();
+      PurchaseTxnPageDto page = objectMapper.readValue(response.getContentAsString(), PurchaseTxnPageDto.class);
+      listed.addAll(page.getItems());
+      cursor = page.getNextCursor();
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(3, pages);
+    assertEquals(stored.stream().map(PurchaseTxn::getId).collect(Collectors.toList()),
+        listed.stream().map(result -> result.getPurchaseTxnCurrency().getId()).collect(Collectors.toList()));
+    assertEquals("24.22", listed.get(4).getPurchaseTxnCurrency().getAmountConverted().toString());
+    // all in the same date window, resolved once per page
+    verify(currencyConversionService, times(3)).getExchangeRate(any(), any(), any());
+  }
+
+  @Test
+  void listPurchaseTxns_unconverted() throws Exception {
+    repository.save(TestHelper.createValidPurchaseTxn());
+
+    MockHttpServletResponse response = perform(get(API_PATH))
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    PurchaseTxnPageDto page = objectMapper.readValue(response.getContentAsString(), PurchaseTxnPageDto.class);
+    assertEquals(1, page.getItems().size());
+    assertEquals("200.00", page.getItems().get(0).getPurchaseTxnCurrency().getAmount().toString());
+    assertNull(page.getItems().get(0).getPurchaseTxnCurrency().getAmountConverted());
+    assertNull(page.getNextCursor());
+    verify(currencyConversionService, never()).getExchangeRate(any(), any(), any());
+  }
+
+  @Test
+  void listPurchaseTxns_invalidParameters() throws Exception {
+    perform(get(API_PATH).queryParam("cursor", "not-a-cursor"))
+        .andExpect(status().is(400));
+    perform(get(API_PATH).queryParam("limit", "1001"))
+        .andExpect(status().is(400));
+    perform(get(API_PATH).queryParam("fromDate", "2019-10-12").queryParam("toDate", "2019-10-11"))
+        .andExpect(status().is(400));
+  }
+
+  @Test
+  void getPurchaseTxnSpend() throws Exception {
+    PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+    perform(post(API_PATH).contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(dto)))
+        .andExpect(status().is(201));
+    perform(post(API_PATH + "/batch").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.writeValueAsString(List.of(dto, dto))))
+        .andExpect(status().is(201));
+    doReturn(Optional.of(new BigDecimal("0.121111113")))
+        .when(currencyConversionService).getExchangeRate(any(), any(), any());
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/spend")
+                .queryParam("period", "month")
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    SpendTotalDto[] totals = objectMapper.readValue(response.getContentAsString(), SpendTotalDto[].class);
+    assertEquals(1, totals.length);
+    assertEquals(LocalDate.parse("2019-10-01"), totals[0].getPeriodStart());
+    assertEquals(3L, totals[0].getTxnCount());
+    assertEquals("600.00", totals[0].getAmount().toString());
+    // 600.00 x 0.121111113, converted once for the day
+    assertEquals("72.67", totals[0].getAmountConverted().toString());
+    verify(currencyConversionService, times(1)).getExchangeRate(any(), any(), any());
+  }
+
   @Test
   void getPurchaseTxn_notFound() throws Exception {
     UUID nonExistentId = UUID.randomUUID();
-    MockHttpServletResponse response = this.mockMvc.perform(
+    MockHttpServletResponse response = perform(
             get(API_PATH + "/" + nonExistentId)
                 .queryParam("countryCurrencyDesc", "Mexico-Peso")
         )
@@ -109,4 +481,17 @@ class PurchaseTxnControllerIntegrationTest {
     assertEquals("PurchaseTxn with id=" + nonExistentId + " not found in database", errorDetails.getMessage());
   }
 
+  /**
+   * Operations return CompletableFuture, so the response is only written on the async dispatch(es) that follow
+   */
+  private ResultActions perform(RequestBuilder request) throws Exception {
+    ResultActions actions = this.mockMvc.perform(request);
+    MvcResult result = actions.andReturn();
+    while (result.getRequest().isAsyncStarted()) {
+      actions = this.mockMvc.perform(asyncDispatch(result));
+      result = actions.andReturn();
+    }
+    return actions;
+  }
+
 }
\ No newline at end of file
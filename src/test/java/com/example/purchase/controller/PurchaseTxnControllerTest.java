@@ -1,38 +1,73 @@
 package com.example.purchase.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.example.purchase.api.model.BatchErrorDetailsDto;
+import com.example.purchase.api.model.BatchItemErrorDto;
 import com.example.purchase.api.model.ErrorDetailsDto;
 import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyRequestDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
 import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.api.model.SpendTotalDto;
+import com.example.purchase.config.ExportProperties;
+import com.example.purchase.config.ResponseCacheProperties;
+import com.example.purchase.service.CircuitBreakerOpenException;
+import com.example.purchase.service.PurchaseTxnExportService;
 import com.example.purchase.service.PurchaseTxnService;
+import com.example.purchase.service.SpendRollupService;
+import com.example.purchase.service.WriteBehindIngester;
 import com.example.purchase.support.TestHelper;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 
 /**
  * Test controller API input validation and response codes
  */
 @WebMvcTest
+@EnableConfigurationProperties({ResponseCacheProperties.class, ExportProperties.class})
 class PurchaseTxnControllerTest {
 
   private static final String API_PATH = "/purchase-txn";
@@ -43,6 +78,12 @@ class PurchaseTxnControllerTest {
   private ObjectMapper objectMapper;
   @MockBean
   private PurchaseTxnService purchaseTxnService;
+  @MockBean
+  private PurchaseTxnExportService purchaseTxnExportService;
+  @MockBean
+  private SpendRollupService spendRollupService;
+  @MockBean
+  private WriteBehindIngester writeBehindIngester;
 
   @BeforeEach
   void setUp() {
@@ -52,23 +93,63 @@ class PurchaseTxnControllerTest {
   // happy path test
   @Test
   void postPurchaseTxn() throws Exception {
-    this.mockMvc.perform(
+    UUID id = UUID.randomUUID();
+    given(purchaseTxnService.createPurchaseTxn(any())).willReturn(new PurchaseTxnDto().id(id));
+
+    MockHttpServletResponse response = perform(
             post(API_PATH)
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(objectMapper.writeValueAsString(TestHelper.createValidPurchaseTxnDto()))
         )
-        .andExpect(status().is(201));
+        .andExpect(status().is(201))
+        .andReturn().getResponse();
 
+    // as in write-behind mode
+    assertEquals("/purchase-txn/" + id, response.getHeader("Location"));
     verify(purchaseTxnService, times(1)).createPurchaseTxn(any());
   }
 
+  @Test
+  void postPurchaseTxn_writeBehind_isAccepted() throws Exception {
+    UUID id = UUID.randomUUID();
+    given(writeBehindIngester.isEnabled()).willReturn(true);
+    given(writeBehindIngester.append(any())).willReturn(new PurchaseTxnDto().id(id));
+
+    MockHttpServletResponse response = performPostPurchaseTxn(TestHelper.createValidPurchaseTxnDto());
+    assertEquals(202, response.getStatus());
+    assertEquals("/purchase-txn/" + id, response.getHeader("Location"));
+    verify(purchaseTxnService, never()).createPurchaseTxn(any());
+  }
+
+  @Test
+  void postPurchaseTxn_writeBehindBacklogFull_isTooManyRequests() throws Exception {
+    given(writeBehindIngester.isEnabled()).willReturn(true);
+    given(writeBehindIngester.append(any())).willThrow(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS,
+        "Too many purchase transactions waiting to be stored, retry later"));
+
+    MockHttpServletResponse response = performPostPurchaseTxn(TestHelper.createValidPurchaseTxnDto());
+    assertEquals(429, response.getStatus());
+    assertEquals(429, objectMapper.readValue(response.getContentAsString(), ErrorDetailsDto.class).getCode());
+  }
+
+  @Test
+  void postPurchaseTxn_writeBehindShuttingDown_isServiceUnavailable() throws Exception {
+    given(writeBehindIngester.isEnabled()).willReturn(true);
+    given(writeBehindIngester.append(any())).willThrow(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE,
+        "Not accepting purchase transactions while shutting down, retry later"));
+
+    MockHttpServletResponse response = performPostPurchaseTxn(TestHelper.createValidPurchaseTxnDto());
+    assertEquals(503, response.getStatus());
+    assertEquals(503, objectMapper.readValue(response.getContentAsString(), ErrorDetailsDto.class).getCode());
+  }
+
   /**
    * Advantage of using OpenAPI generator is it automatically generates code to validate required parameters, parameter
    * formats and restrictions (e.g. length)
    */
   @Test
   void postPurchaseTxn_missingParameters_isBadRequest() throws Exception {
-    this.mockMvc.perform(
+    perform(
             post(API_PATH)
                 .contentType(MediaType.APPLICATION_JSON)
         )
@@ -94,21 +175,191 @@ class PurchaseTxnControllerTest {
     assertEquals(400, performPostPurchaseTxn(dto).getStatus());
     dto.setAmount(new BigDecimal("7.034"));
     assertEquals(400, performPostPurchaseTxn(dto).getStatus());
+    // held in cents as a long
+    dto.setAmount(new BigDecimal("92233720368547758.07"));
+    assertEquals(201, performPostPurchaseTxn(dto).getStatus());
+    dto.setAmount(new BigDecimal("92233720368547758.08"));
+    assertEquals(400, performPostPurchaseTxn(dto).getStatus());
   }
 
   private MockHttpServletResponse performPostPurchaseTxn(PurchaseTxnDto content) throws Exception {
-    return this.mockMvc.perform(
+    return perform(
         post(API_PATH)
             .contentType(MediaType.APPLICATION_JSON)
             .content(objectMapper.writeValueAsString(content))).andReturn().getResponse();
   }
 
+  // happy path test
+  @Test
+  void postPurchaseTxnBatch() throws Exception {
+    List<PurchaseTxnDto> dtos = List.of(TestHelper.createValidPurchaseTxnDto(), TestHelper.createValidPurchaseTxnDto());
+    given(purchaseTxnService.createPurchaseTxns(any())).willReturn(dtos);
+
+    MockHttpServletResponse response = performPostPurchaseTxnBatch(dtos);
+
+    assertEquals(201, response.getStatus());
+    verify(purchaseTxnService, times(1)).createPurchaseTxns(any());
+    assertEquals(2, objectMapper.readValue(response.getContentAsString(), PurchaseTxnDto[].class).length);
+  }
+
+  // every invalid item reported, by index, and nothing stored
+  @Test
+  void postPurchaseTxnBatch_invalidItems_isBadRequest() throws Exception {
+    PurchaseTxnDto longDescription = TestHelper.createValidPurchaseTxnDto();
+    longDescription.setDescription("Verylonglonglonglongerthan50characterssolonglonglonglonglonglonglonglonglonglong");
+    PurchaseTxnDto negativeAmount = TestHelper.createValidPurchaseTxnDto();
+    negativeAmount.setAmount(new BigDecimal("-5.00"));
+    PurchaseTxnDto missingDate = TestHelper.createValidPurchaseTxnDto();
+    missingDate.setTxnDate(null);
+
+    MockHttpServletResponse response = performPostPurchaseTxnBatch(List.of(TestHelper.createValidPurchaseTxnDto(),
+        longDescription, negativeAmount, TestHelper.createValidPurchaseTxnDto(), missingDate));
+
+    assertEquals(400, response.getStatus());
+    verify(purchaseTxnService, never()).createPurchaseTxns(any());
+    BatchErrorDetailsDto errorDetails = objectMapper.readValue(response.getContentAsString(),
+        BatchErrorDetailsDto.class);
+    assertEquals(400, errorDetails.getCode());
+    assertEquals(List.of(1, 2, 4),
+        errorDetails.getErrors().stream().map(BatchItemErrorDto::getIndex).collect(Collectors.toList()));
+    assertEquals("[Amount must be non-negative]", errorDetails.getErrors().get(1).getMessage());
+    assertTrue(errorDetails.getErrors().get(2).getMessage().contains("txnDate"));
+  }
+
+  @Test
+  void postPurchaseTxnBatch_empty_isBadRequest() throws Exception {
+    assertEquals(400, performPostPurchaseTxnBatch(List.of()).getStatus());
+    verify(purchaseTxnService, never()).createPurchaseTxns(any());
+  }
+
+  private MockHttpServletResponse performPostPurchaseTxnBatch(List<PurchaseTxnDto> content) throws Exception {
+    return perform(
+        post(API_PATH + "/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(content))).andReturn().getResponse();
+  }
+
+  // happy path test
+  @Test
+  void getPurchaseTxnCurrencyBatch() throws Exception {
+    given(purchaseTxnService.getPurchaseTxnCurrencies(any())).willReturn(List.of(
+        new PurchaseTxnCurrencyResultDto().purchaseTxnCurrency(new PurchaseTxnCurrencyDto()),
+        new PurchaseTxnCurrencyResultDto().error(new ErrorDetailsDto().code(404).message("msg"))));
+
+    MockHttpServletResponse response = performGetPurchaseTxnCurrencyBatch(List.of(
+        new PurchaseTxnCurrencyRequestDto().id(UUID.randomUUID()).countryCurrencyDesc("Mexico-Peso"),
+        new PurchaseTxnCurrencyRequestDto().id(UUID.randomUUID()).countryCurrencyDesc("Mexico-Peso")));
+
+    assertEquals(200, response.getStatus());
+    PurchaseTxnCurrencyResultDto[] results = objectMapper.readValue(response.getContentAsString(),
+        PurchaseTxnCurrencyResultDto[].class);
+    assertEquals(2, results.length);
+    assertEquals(404, results[1].getError().getCode());
+  }
+
+  @Test
+  void getPurchaseTxnCurrencyBatch_invalidItems_isBadRequest() throws Exception {
+    MockHttpServletResponse response = performGetPurchaseTxnCurrencyBatch(List.of(
+        new PurchaseTxnCurrencyRequestDto().id(UUID.randomUUID()).countryCurrencyDesc("Mexico-Peso"),
+        new PurchaseTxnCurrencyRequestDto().countryCurrencyDesc("Mexico-Peso")));
+
+    assertEquals(400, response.getStatus());
+    verify(purchaseTxnService, never()).getPurchaseTxnCurrencies(any());
+    BatchErrorDetailsDto errorDetails = objectMapper.readValue(response.getContentAsString(),
+        BatchErrorDetailsDto.class);
+    assertEquals(1, errorDetails.getErrors().size());
+    assertEquals(1, errorDetails.getErrors().get(0).getIndex());
+    assertEquals("[id must not be null]", errorDetails.getErrors().get(0).getMessage());
+  }
+
+  private MockHttpServletResponse performGetPurchaseTxnCurrencyBatch(List<PurchaseTxnCurrencyRequestDto> content)
+      throws Exception {
+    return perform(
+        post(API_PATH + "/currency/batch")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(content))).andReturn().getResponse();
+  }
+
+  // happy path test
+  @Test
+  void exportPurchaseTxnCurrency() throws Exception {
+    given(purchaseTxnExportService.exportPurchaseTxnCurrency(any(), any(), any(), any())).willAnswer(invocation -> {
+      invocation.getArgument(3, OutputStream.class).write("{}\n{}\n".getBytes(StandardCharsets.UTF_8));
+      return 2L;
+    });
+
+    MvcResult result = perform(
+            get(API_PATH + "/export")
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .queryParam("fromDate", "2019-01-01")
+        )
+        .andExpect(status().is(200))
+        .andReturn();
+    MockHttpServletResponse response = result.getResponse();
+    // streamed under purchase-txn.export.timeout rather than the default asynchronous request timeout
+    assertEquals(Duration.ofHours(1).toMillis(), result.getRequest().getAsyncContext().getTimeout());
+
+    verify(purchaseTxnExportService, times(1)).exportPurchaseTxnCurrency(eq("Mexico-Peso"),
+        eq(LocalDate.parse("2019-01-01")), isNull(), any());
+    assertEquals(MediaType.APPLICATION_NDJSON_VALUE, response.getContentType());
+    assertEquals("{}\n{}\n", response.getContentAsString());
+  }
+
+  @Test
+  void exportPurchaseTxnCurrency_invalidDateRange_isBadRequest() throws Exception {
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/export")
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .queryParam("fromDate", "2019-02-01")
+                .queryParam("toDate", "2019-01-01")
+        )
+        .andExpect(status().is(400))
+        .andReturn().getResponse();
+    ErrorDetailsDto errorDetails = objectMapper.readValue(response.getContentAsString(), ErrorDetailsDto.class);
+    assertEquals("fromDate must not be after toDate", errorDetails.getMessage());
+    perform(get(API_PATH + "/export")).andExpect(status().is(400));
+    verify(purchaseTxnExportService, never()).exportPurchaseTxnCurrency(any(), any(), any(), any());
+  }
+
+  @Test
+  void getPurchaseTxnSpend() throws Exception {
+    given(spendRollupService.getSpendTotals(any(), any(), any(), any())).willReturn(List.of(new SpendTotalDto()));
+
+    perform(
+            get(API_PATH + "/spend")
+                .queryParam("period", "month")
+                .queryParam("toDate", "2019-01-31")
+        )
+        .andExpect(status().is(200));
+    perform(get(API_PATH + "/spend")).andExpect(status().is(200));
+
+    verify(spendRollupService, times(1)).getSpendTotals(eq(SpendRollupService.Period.MONTH), isNull(),
+        eq(LocalDate.parse("2019-01-31")), isNull());
+    verify(spendRollupService, times(1)).getSpendTotals(eq(SpendRollupService.Period.DAY), isNull(), isNull(),
+        isNull());
+  }
+
+  @Test
+  void getPurchaseTxnSpend_invalidParameters_isBadRequest() throws Exception {
+    perform(get(API_PATH + "/spend").queryParam("period", "week")).andExpect(status().is(400));
+    perform(
+            get(API_PATH + "/spend")
+                .queryParam("fromDate", "2019-02-01")
+                .queryParam("toDate", "2019-01-01")
+        )
+        .andExpect(status().is(400));
+    verify(spendRollupService, never()).getSpendTotals(any(), any(), any(), any());
+  }
+
   // happy path test
   @Test
   void getPurchaseTxn() throws Exception {
-    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(new PurchaseTxnCurrencyDto());
+    PurchaseTxnCurrencyDto converted = new PurchaseTxnCurrencyDto()
+        .txnDate(OffsetDateTime.parse("2019-10-12T07:20:50.52Z"));
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.completedFuture(converted));
 
-    MockHttpServletResponse response = this.mockMvc.perform(
+    MockHttpServletResponse response = perform(
             get(API_PATH + "/" + UUID.randomUUID())
                 .queryParam("countryCurrencyDesc", "Mexico-Peso")
         )
@@ -116,19 +367,144 @@ class PurchaseTxnControllerTest {
         .andReturn().getResponse();
 
     assertNotNull(objectMapper.readValue(response.getContentAsString(), PurchaseTxnCurrencyDto.class));
+    assertEquals(ConversionETags.of(converted, MediaType.APPLICATION_JSON), response.getHeader("ETag"));
+    assertEquals("max-age=31536000, public", response.getHeader("Cache-Control"));
+  }
+
+  // a rate may still be published for the window: cached briefly, and revalidated with the ETag after that
+  @Test
+  void getPurchaseTxn_recentTxnDate_isCachedBriefly() throws Exception {
+    UUID id = UUID.randomUUID();
+    PurchaseTxnCurrencyDto converted = new PurchaseTxnCurrencyDto().id(id).countryCurrencyDesc("Mexico-Peso")
+        .txnDate(OffsetDateTime.now(ZoneOffset.UTC).minusDays(3)).exchangeRate(new BigDecimal("17.1"));
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.completedFuture(converted));
+    given(purchaseTxnService.findStoredConversion(id, "Mexico-Peso")).willReturn(Optional.of(converted));
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+    assertEquals("max-age=300, public", response.getHeader("Cache-Control"));
+
+    response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .header("If-None-Match", response.getHeader("ETag"))
+        )
+        .andExpect(status().is(304))
+        .andReturn().getResponse();
+    assertEquals("max-age=300, public", response.getHeader("Cache-Control"));
+  }
+
+  // revalidated against the stored conversion, without converting again
+  @Test
+  void getPurchaseTxn_ifNoneMatchStored_isNotModified() throws Exception {
+    UUID id = UUID.randomUUID();
+    PurchaseTxnCurrencyDto stored = new PurchaseTxnCurrencyDto().id(id).countryCurrencyDesc("Mexico-Peso")
+        .exchangeRate(new BigDecimal("17.1"));
+    given(purchaseTxnService.findStoredConversion(id, "Mexico-Peso")).willReturn(Optional.of(stored));
+    String etag = ConversionETags.of(stored, MediaType.APPLICATION_JSON);
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .header("If-None-Match", "\"other\", W/" + etag)
+        )
+        .andExpect(status().is(304))
+        .andReturn().getResponse();
+
+    assertEquals(etag, response.getHeader("ETag"));
+    assertEquals("", response.getContentAsString());
+    verify(purchaseTxnService, never()).getPurchaseTxnCurrency(any(), any());
+  }
+
+  // e.g. converted again after a rate revision
+  @Test
+  void getPurchaseTxn_ifNoneMatchChanged_isOk() throws Exception {
+    UUID id = UUID.randomUUID();
+    PurchaseTxnCurrencyDto previous = new PurchaseTxnCurrencyDto().id(id).exchangeRate(new BigDecimal("17.1"));
+    PurchaseTxnCurrencyDto current = new PurchaseTxnCurrencyDto().id(id).exchangeRate(new BigDecimal("17.2"));
+    given(purchaseTxnService.findStoredConversion(any(), any())).willReturn(Optional.of(current));
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.completedFuture(current));
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .header("If-None-Match", ConversionETags.of(previous, MediaType.APPLICATION_JSON))
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    assertEquals(ConversionETags.of(current, MediaType.APPLICATION_JSON), response.getHeader("ETag"));
+    assertNotEquals(ConversionETags.of(previous, MediaType.APPLICATION_JSON),
+        ConversionETags.of(current, MediaType.APPLICATION_JSON));
+  }
+
+  @Test
+  void getPurchaseTxn_rateNotAvailable_isCachedBriefly() throws Exception {
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(CompletableFuture.failedFuture(
+        new HttpClientErrorException(HttpStatus.UNPROCESSABLE_ENTITY, "Missing rate")));
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + UUID.randomUUID())
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(422))
+        .andReturn().getResponse();
+
+    assertEquals("max-age=60, public", response.getHeader("Cache-Control"));
+    assertEquals("Accept", response.getHeader("Vary"));
+    assertNull(response.getHeader("ETag"));
+  }
+
+  // one ETag per representation: the JSON one does not validate a CBOR body
+  @Test
+  void getPurchaseTxn_ifNoneMatchOtherMediaType_isOk() throws Exception {
+    UUID id = UUID.randomUUID();
+    PurchaseTxnCurrencyDto converted = new PurchaseTxnCurrencyDto().id(id).exchangeRate(new BigDecimal("17.1"));
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.completedFuture(converted));
+    MediaType cbor = MediaType.parseMediaType("application/cbor");
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .accept(cbor)
+                .header("If-None-Match", ConversionETags.of(converted, MediaType.APPLICATION_JSON))
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+
+    assertEquals(cbor.toString(), response.getContentType());
+    assertEquals(ConversionETags.of(converted, cbor), response.getHeader("ETag"));
+
+    // the most acceptable of the producible types
+    response = perform(
+            get(API_PATH + "/" + id)
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+                .header("Accept", "application/cbor;q=0.5, application/json")
+                .header("If-None-Match", ConversionETags.of(converted, MediaType.APPLICATION_JSON))
+        )
+        .andExpect(status().is(304))
+        .andReturn().getResponse();
+    assertEquals(ConversionETags.of(converted, MediaType.APPLICATION_JSON), response.getHeader("ETag"));
   }
 
   @Test
   void getPurchaseTxn_missingParameters_isBadRequest() throws Exception {
-    this.mockMvc.perform(get(API_PATH + "/" + UUID.randomUUID())).andExpect(status().is(400));
+    perform(get(API_PATH + "/" + UUID.randomUUID())).andExpect(status().is(400));
   }
 
   @Test
   void getPurchaseTxn_httpException() throws Exception {
     HttpClientErrorException ex = new HttpClientErrorException(HttpStatus.NOT_FOUND, "msg");
-    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willThrow(ex);
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(CompletableFuture.failedFuture(ex));
 
-    MockHttpServletResponse response = this.mockMvc.perform(
+    MockHttpServletResponse response = perform(
             get(API_PATH + "/" + UUID.randomUUID())
                 .queryParam("countryCurrencyDesc", "Mexico-Peso")
         )
@@ -140,4 +516,49 @@ class PurchaseTxnControllerTest {
     assertEquals("msg", errorDetails.getMessage());
   }
 
+  @Test
+  void getPurchaseTxn_timeout() throws Exception {
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.failedFuture(new InterruptedIOException("timeout")));
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + UUID.randomUUID())
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(504))
+        .andReturn().getResponse();
+
+    ErrorDetailsDto errorDetails = objectMapper.readValue(response.getContentAsString(), ErrorDetailsDto.class);
+    assertEquals(504, errorDetails.getCode());
+  }
+
+  @Test
+  void getPurchaseTxn_treasuryUnavailable() throws Exception {
+    given(purchaseTxnService.getPurchaseTxnCurrency(any(), any())).willReturn(
+        CompletableFuture.failedFuture(new CircuitBreakerOpenException("treasury circuit breaker is open")));
+
+    MockHttpServletResponse response = perform(
+            get(API_PATH + "/" + UUID.randomUUID())
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(503))
+        .andReturn().getResponse();
+
+    ErrorDetailsDto errorDetails = objectMapper.readValue(response.getContentAsString(), ErrorDetailsDto.class);
+    assertEquals(503, errorDetails.getCode());
+  }
+
+  /**
+   * Operations return CompletableFuture, so the response is only written on the async dispatch(es) that follow
+   */
+  private ResultActions perform(RequestBuilder request) throws Exception {
+    ResultActions actions = this.mockMvc.perform(request);
+    MvcResult result = actions.andReturn();
+    while (result.getRequest().isAsyncStarted()) {
+      actions = this.mockMvc.perform(asyncDispatch(result));
+      result = actions.andReturn();
+    }
+    return actions;
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.example.purchase.controller;
+
+import com.example.purchase.api.model.ErrorDetailsDto;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.support.TestHelper;
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Validating a PurchaseTxnDto, part of the request hot path (see RequestHotPathBenchmark). In this package since
+ * isPurchaseTxnDtoValid is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PurchaseTxnValidationBenchmark {
+
+  private PurchaseTxnDto dto;
+  private PurchaseTxnDto invalidDto;
+
+  @Setup
+  public void setUp() {
+    dto = TestHelper.createValidPurchaseTxnDto();
+    invalidDto = TestHelper.createValidPurchaseTxnDto();
+    invalidDto.setAmount(new BigDecimal("-1.001"));
+  }
+
+  @Benchmark
+  public Optional<ErrorDetailsDto> isPurchaseTxnDtoValid() {
+    return PurchaseTxnController.isPurchaseTxnDtoValid(dto);
+  }
+
+  @Benchmark
+  public Optional<ErrorDetailsDto> isPurchaseTxnDtoValid_invalid() {
+    return PurchaseTxnController.isPurchaseTxnDtoValid(invalidDto);
+  }
+
+}
@@ -0,0 +1,126 @@
+package com.example.purchase.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.boot.test.web.server.LocalManagementPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * The Server-Timing header and access log record of purchase-txn requests, with server-timing.enabled. Run during mvn
+ * verify stage
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "server-timing.enabled=true")
+@ExtendWith(OutputCaptureExtension.class)
+class ServerTimingIntegrationTest {
+
+  private static final String FOUND_BODY = "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2019-09-30\"}]}";
+
+  private static final MockWebServer treasury = new MockWebServer();
+
+  @LocalServerPort
+  private int port;
+  @LocalManagementPort
+  private int managementPort;
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @DynamicPropertySource
+  static void treasuryProperties(DynamicPropertyRegistry registry) {
+    registry.add("treasury.url", () -> treasury.url("/rates_of_exchange").toString());
+  }
+
+  @AfterAll
+  static void shutDownTreasuryStub() throws IOException {
+    treasury.shutdown();
+  }
+
+  @Test
+  void serverTiming(CapturedOutput output) throws Exception {
+    HttpResponse<String> created = send(HttpRequest.newBuilder(uri("/purchase-txn"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(
+            objectMapper.writeValueAsString(TestHelper.createValidPurchaseTxnDto()))));
+    assertEquals(201, created.statusCode());
+    assertEquals(Set.of("validate", "db", "total"), metricNames(created));
+
+    treasury.enqueue(new MockResponse().setBody(FOUND_BODY));
+    String id = objectMapper.readTree(created.body()).get("id").textValue();
+    HttpResponse<String> converted = send(HttpRequest.newBuilder(
+        uri("/purchase-txn/" + id + "?countryCurrencyDesc=Mexico-Peso")));
+    assertEquals(200, converted.statusCode());
+    assertEquals(Set.of("db", "rate", "treasury", "parse", "convert", "total"), metricNames(converted));
+    assertTrue(converted.headers().firstValue(ServerTimingFilter.HEADER).orElseThrow()
+        .matches("(\\w+;dur=\\d+\\.\\d{2})(, \\w+;dur=\\d+\\.\\d{2})*"));
+
+    JsonNode record = output.getOut().lines()
+        .filter(line -> line.contains(ServerTimingFilter.ACCESS_LOGGER) && line.contains("\"GET\""))
+        .map(line -> readTree(line.substring(line.indexOf('{'))))
+        .findFirst()
+        .orElseThrow();
+    assertEquals("/purchase-txn/" + id, record.get("uri").textValue());
+    assertEquals(200, record.get("status").intValue());
+    assertTrue(record.get("total_ms").doubleValue() > 0);
+    assertTrue(record.get("timings_ms").has("treasury"));
+    assertTrue(record.get("timings_ms").has("serialize"));
+  }
+
+  @Test
+  void notTimed() throws Exception {
+    HttpResponse<String> health = send(HttpRequest.newBuilder(managementUri("/actuator/health")));
+    assertEquals(200, health.statusCode());
+    assertTrue(health.headers().firstValue(ServerTimingFilter.HEADER).isEmpty());
+  }
+
+  private static Set<String> metricNames(HttpResponse<?> response) {
+    return Arrays.stream(response.headers().firstValue(ServerTimingFilter.HEADER).orElseThrow().split(", "))
+        .map(metric -> metric.substring(0, metric.indexOf(';')))
+        .collect(Collectors.toSet());
+  }
+
+  private JsonNode readTree(String json) {
+    try {
+      return objectMapper.readTree(json);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private URI uri(String path) {
+    return URI.create("http://localhost:" + port + path);
+  }
+
+  private URI managementUri(String path) {
+    return URI.create("http://localhost:" + managementPort + path);
+  }
+
+}
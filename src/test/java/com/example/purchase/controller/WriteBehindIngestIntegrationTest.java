@@ -0,0 +1,124 @@
+package com.example.purchase.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.persistence.dao.DailySpendRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnConversionRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.service.CurrencyConversionService;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+/**
+ * POST /purchase-txn in write-behind mode, against the in-memory test DB
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class WriteBehindIngestIntegrationTest {
+
+  private static final String API_PATH = "/purchase-txn";
+
+  @Autowired
+  private MockMvc mockMvc;
+  @Autowired
+  private ObjectMapper objectMapper;
+  @Autowired
+  private PurchaseTxnRepository repository;
+  @Autowired
+  private DailySpendRepository dailySpendRepository;
+  @Autowired
+  private PurchaseTxnConversionRepository conversionRepository;
+  @SpyBean
+  private CurrencyConversionService currencyConversionService;
+
+  @DynamicPropertySource
+  static void ingestProperties(DynamicPropertyRegistry registry) throws IOException {
+    String directory = Files.createTempDirectory("ingest-log").toString();
+    registry.add("purchase-txn.ingest.mode", () -> "write-behind");
+    registry.add("purchase-txn.ingest.directory", () -> directory);
+    registry.add("purchase-txn.ingest.drain-interval", () -> "10ms");
+  }
+
+  @AfterEach
+  void tearDown() {
+    repository.deleteAll();
+    dailySpendRepository.deleteAll();
+    conversionRepository.deleteAll();
+  }
+
+  @Test
+  void postPurchaseTxn_acceptedThenStored() throws Exception {
+    PurchaseTxnDto sentDto = TestHelper.createValidPurchaseTxnDto();
+    MockHttpServletResponse response = perform(
+            post(API_PATH)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(sentDto))
+        )
+        .andExpect(status().is(202))
+        .andReturn().getResponse();
+    PurchaseTxnDto accepted = objectMapper.readValue(response.getContentAsString(), PurchaseTxnDto.class);
+    assertEquals("/purchase-txn/" + accepted.getId(), response.getHeader("Location"));
+
+    // readable straight away, stored or not yet
+    doReturn(CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113"))))
+        .when(currencyConversionService).getExchangeRateAsync(any(), any(), any());
+    response = perform(
+            get(API_PATH + "/" + accepted.getId())
+                .queryParam("countryCurrencyDesc", "Mexico-Peso")
+        )
+        .andExpect(status().is(200))
+        .andReturn().getResponse();
+    assertEquals(accepted.getId(),
+        objectMapper.readValue(response.getContentAsString(), PurchaseTxnCurrencyDto.class).getId());
+
+    // then stored by the background writer, with the same id, and added to its day's rollup
+    long deadline = System.currentTimeMillis() + 10_000L;
+    while (!repository.existsById(accepted.getId()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    PurchaseTxn stored = repository.findById(accepted.getId()).orElseThrow();
+    assertEquals(sentDto.getDescription(), stored.getDescription());
+    assertTrue(dailySpendRepository.findById(stored.getTxnDate().atOffset(ZoneOffset.UTC).toLocalDate()).isPresent());
+  }
+
+  private ResultActions perform(RequestBuilder request) throws Exception {
+    ResultActions actions = this.mockMvc.perform(request);
+    MvcResult result = actions.andReturn();
+    while (result.getRequest().isAsyncStarted()) {
+      actions = this.mockMvc.perform(asyncDispatch(result));
+      result = actions.andReturn();
+    }
+    return actions;
+  }
+
+}
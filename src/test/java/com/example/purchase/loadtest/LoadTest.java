@@ -0,0 +1,282 @@
+package com.example.purchase.loadtest;
+
+import com.example.purchase.PurchaseApplication;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.service.MoneyMath;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * End-to-end load test: boots the application against a {@link TreasuryStub} and sends it a mix of POST /purchase-txn
+ * and GET /purchase-txn/{id}?countryCurrencyDesc= requests at a fixed arrival rate (open loop: a request is started
+ * when it is due, whether or not earlier ones have been answered), then reports throughput, response time percentiles
+ * per operation (see {@link OperationStats}), and heap and GC figures for the measured part of the run.
+ * <p>
+ * Run with {@code mvnw verify -Ploadtest [-Dloadtest.args="--loadtest.rate=500 ..."]}. Arguments other than
+ * {@code --loadtest.*} ones (see {@link LoadTestOptions}) are passed on to the application. Generator, stub and
+ * application share the JVM, so heap and GC figures include the generator's own, small, share.
+ */
+@Slf4j
+public class LoadTest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final LoadTestOptions options;
+  private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  private final List<UUID> ids = new ArrayList<>();
+  private final List<String> currencies;
+  private final String baseUrl;
+  private final OperationStats posts = new OperationStats("POST /purchase-txn");
+  private final OperationStats gets = new OperationStats("GET /purchase-txn/{id}");
+  private final AtomicLong outstanding = new AtomicLong();
+
+  LoadTest(LoadTestOptions options, List<String> currencies, String baseUrl) {
+    this.options = options;
+    this.currencies = currencies;
+    this.baseUrl = baseUrl;
+  }
+
+  public static void main(String[] args) throws Exception {
+    SimpleCommandLinePropertySource arguments = new SimpleCommandLinePropertySource(args);
+    StandardEnvironment environment = new StandardEnvironment();
+    environment.getPropertySources().addFirst(arguments);
+    LoadTestOptions options = Binder.get(environment).bind("loadtest", LoadTestOptions.class)
+        .orElseGet(LoadTestOptions::new);
+
+    LoadTestOptions.Stub stubOptions = options.getStub();
+    try (TreasuryStub stub = new TreasuryStub(stubOptions.getMode(), stubOptions.getCaptures(),
+        stubOptions.getUpstream(), stubOptions.getLatency(), stubOptions.getLatencyJitter(),
+        stubOptions.getErrorRate(), stubOptions.getErrorStatus())) {
+      // the application's own settings, which the arguments can override: no full rates sync (the stub only answers
+      // rate lookups) and no on-disk HTTP cache shared between runs
+      Map<String, String> properties = new LinkedHashMap<>();
+      properties.put("server.port", "0");
+      properties.put("logging.level.root", "WARN");
+      properties.put("treasury.url", stub.getUrl());
+      properties.put("treasury.sync.enabled", "false");
+      properties.put("treasury.http.cache.enabled", "false");
+      for (String name : arguments.getPropertyNames()) {
+        if (!name.startsWith("loadtest.")) {
+          properties.put(name, arguments.getProperty(name));
+        }
+      }
+      String[] applicationArgs = properties.entrySet().stream()
+          .map(property -> "--" + property.getKey() + "=" + property.getValue())
+          .toArray(String[]::new);
+      try (ConfigurableApplicationContext context = new SpringApplicationBuilder(PurchaseApplication.class)
+          .run(applicationArgs)) {
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        List<String> currencies = stubOptions.getMode() == TreasuryStub.Mode.SYNTHETIC
+            ? IntStream.rangeClosed(1, options.getCurrencies()).mapToObj(i -> "Country" + i + "-Currency")
+            .collect(Collectors.toList())
+            : stub.getCapturedCurrencies();
+        if (currencies.isEmpty()) {
+          // RECORD mode with nothing captured yet
+          currencies = List.of("Mexico-Peso", "Canada-Dollar", "Euro Zone-Euro", "United Kingdom-Pound");
+        }
+        LoadTest loadTest = new LoadTest(options, currencies, "http://localhost:" + port);
+        loadTest.seed(context.getBean(PurchaseTxnRepository.class));
+        loadTest.run(System.out);
+      }
+    }
+  }
+
+  private void seed(PurchaseTxnRepository repository) {
+    Random random = new Random(1);
+    List<PurchaseTxn> txns = new ArrayList<>(options.getSeedTransactions());
+    for (int i = 0; i < options.getSeedTransactions(); i++) {
+      PurchaseTxn txn = new PurchaseTxn();
+      txn.setDescription("Load test purchase " + i);
+      txn.setTxnDate(randomTxnDate(random).toInstant());
+      txn.setAmountCents(MoneyMath.toCents(randomAmount(random)));
+      txns.add(txn);
+    }
+    repository.saveAll(txns).forEach(txn -> ids.add(txn.getId()));
+  }
+
+  private void run(PrintStream out) throws IOException, InterruptedException {
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.getRate());
+    long start = System.nanoTime();
+    long measureFrom = start + options.getWarmup().toNanos();
+    long end = measureFrom + options.getDuration().toNanos();
+    out.printf("Load test: %.1f requests/s, %s warm-up then %s measured%n", options.getRate(), options.getWarmup(),
+        options.getDuration());
+    JvmStats jvmStats = null;
+    for (long i = 0; ; i++) {
+      long intended = start + i * intervalNanos;
+      if (intended >= end) {
+        break;
+      }
+      for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+        LockSupport.parkNanos(wait);
+      }
+      boolean measured = intended >= measureFrom;
+      if (measured && jvmStats == null) {
+        jvmStats = JvmStats.start();
+      }
+      if (ThreadLocalRandom.current().nextDouble() < options.getGetRatio()) {
+        send(getRequest(), gets, intended, measured ? end : -1, false);
+      } else {
+        send(postRequest(), posts, intended, measured ? end : -1, true);
+      }
+    }
+    if (jvmStats == null) {
+      jvmStats = JvmStats.start();
+    }
+    long drainUntil = System.nanoTime() + options.getDrainTimeout().toNanos();
+    while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+      Thread.sleep(10);
+    }
+
+    double windowSeconds = options.getDuration().toNanos() / 1e9;
+    Files.createDirectories(options.getOutput());
+    out.printf("%nTarget rate %.1f requests/s for %s, %d still outstanding%n", options.getRate(),
+        options.getDuration(), outstanding.get());
+    posts.report(out, windowSeconds, options.getOutput());
+    gets.report(out, windowSeconds, options.getOutput());
+    jvmStats.report(out, options.getDuration());
+    out.println("Response time distributions: " + options.getOutput().toAbsolutePath());
+  }
+
+  /**
+   * @param windowEnd end of the measurement window, or -1 for an unmeasured (warm-up) request
+   */
+  private void send(HttpRequest request, OperationStats stats, long intended, long windowEnd, boolean created) {
+    outstanding.incrementAndGet();
+    long sent = System.nanoTime();
+    client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, ex) -> {
+      long done = System.nanoTime();
+      if (windowEnd >= 0) {
+        stats.record(intended, sent, done, windowEnd, response == null ? -1 : response.statusCode());
+      }
+      if (created && response != null && response.statusCode() == 201) {
+        try {
+          UUID id = UUID.fromString(OBJECT_MAPPER.readTree(response.body()).get("id").textValue());
+          synchronized (ids) {
+            ids.add(id);
+          }
+        } catch (IOException | RuntimeException e) {
+          log.warn("Unexpected POST /purchase-txn response {}", response.body());
+        }
+      }
+      outstanding.decrementAndGet();
+    });
+  }
+
+  private HttpRequest getRequest() {
+    UUID id;
+    synchronized (ids) {
+      id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+    String currency = currencies.get(ThreadLocalRandom.current().nextInt(currencies.size()));
+    return HttpRequest.newBuilder(URI.create(baseUrl + "/purchase-txn/" + id + "?countryCurrencyDesc="
+            + URLEncoder.encode(currency, StandardCharsets.UTF_8)))
+        .timeout(Duration.ofMinutes(1))
+        .GET()
+        .build();
+  }
+
+  private HttpRequest postRequest() {
+    Random random = ThreadLocalRandom.current();
+    String body = OBJECT_MAPPER.createObjectNode()
+        .put("description", "Load test purchase")
+        .put("txnDate", randomTxnDate(random).toString())
+        .put("amount", randomAmount(random))
+        .toString();
+    return HttpRequest.newBuilder(URI.create(baseUrl + "/purchase-txn"))
+        .header("Content-Type", "application/json")
+        .timeout(Duration.ofMinutes(1))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private OffsetDateTime randomTxnDate(Random random) {
+    long seconds = TimeUnit.DAYS.toSeconds(365L * options.getYears());
+    return OffsetDateTime.now(ZoneOffset.UTC).minusSeconds((long) (random.nextDouble() * seconds))
+        .withNano(0);
+  }
+
+  private static BigDecimal randomAmount(Random random) {
+    return BigDecimal.valueOf(1 + random.nextInt(100_000), 2);
+  }
+
+  /**
+   * Heap and GC figures from the start of the measured run
+   */
+  private static class JvmStats {
+
+    private final Map<String, long[]> gcAtStart = new LinkedHashMap<>();
+
+    static JvmStats start() {
+      JvmStats stats = new JvmStats();
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        stats.gcAtStart.put(gc.getName(), new long[]{gc.getCollectionCount(), gc.getCollectionTime()});
+      }
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        pool.resetPeakUsage();
+      }
+      return stats;
+    }
+
+    void report(PrintStream out, Duration duration) {
+      MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+      long peak = ManagementFactory.getMemoryPoolMXBeans().stream()
+          .filter(pool -> pool.getType() == MemoryType.HEAP)
+          .mapToLong(pool -> pool.getPeakUsage().getUsed())
+          .sum();
+      out.printf("Heap: used %d MB, committed %d MB, max %d MB, peak used by pool (sum) %d MB%n", mb(heap.getUsed()),
+          mb(heap.getCommitted()), mb(heap.getMax()), mb(peak));
+      long gcMillis = 0;
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        long[] atStart = gcAtStart.getOrDefault(gc.getName(), new long[2]);
+        long count = gc.getCollectionCount() - atStart[0];
+        long millis = gc.getCollectionTime() - atStart[1];
+        gcMillis += millis;
+        out.printf("GC %s: %d collections, %d ms%n", gc.getName(), count, millis);
+      }
+      out.printf("GC time: %.2f%% of the run%n", 100.0 * gcMillis / duration.toMillis());
+    }
+
+    private static long mb(long bytes) {
+      return bytes / (1024 * 1024);
+    }
+  }
+
+}
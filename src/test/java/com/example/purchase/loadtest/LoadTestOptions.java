@@ -0,0 +1,78 @@
+package com.example.purchase.loadtest;
+
+import com.example.purchase.config.TreasuryProperties;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Data;
+
+/**
+ * Settings of a load test run, bound from the {@code --loadtest.*} arguments
+ */
+@Data
+public class LoadTestOptions {
+
+  /**
+   * Requests started per second, on a fixed schedule whatever the response times (open loop)
+   */
+  private double rate = 200;
+  /**
+   * Run time before measuring, for the JIT, pools and caches to warm up
+   */
+  private Duration warmup = Duration.ofSeconds(15);
+  /**
+   * Measured run time
+   */
+  private Duration duration = Duration.ofSeconds(60);
+  /**
+   * Share of requests that are GET /purchase-txn/{id}, the rest being POST /purchase-txn
+   */
+  private double getRatio = 0.8;
+  /**
+   * Purchase transactions stored before the run, for GET requests to ask for
+   */
+  private int seedTransactions = 1000;
+  /**
+   * Purchase dates are spread over this many years back, which sets how many Treasury date windows are requested
+   */
+  private int years = 5;
+  /**
+   * Number of currencies GET requests convert to, with a synthetic Treasury stub
+   */
+  private int currencies = 20;
+  /**
+   * Time after the end of the run to wait for outstanding responses
+   */
+  private Duration drainTimeout = Duration.ofSeconds(30);
+  /**
+   * Directory the latency distributions are written to
+   */
+  private Path output = Path.of("target", "loadtest");
+
+  private Stub stub = new Stub();
+
+  @Data
+  public static class Stub {
+
+    private TreasuryStub.Mode mode = TreasuryStub.Mode.SYNTHETIC;
+    /**
+     * Directory of captured records, one file per currency, written in RECORD mode and read in REPLAY mode
+     */
+    private Path captures = Path.of("src", "test", "resources", "loadtest", "treasury");
+    /**
+     * Treasury API that RECORD mode forwards requests to
+     */
+    private URI upstream = URI.create(TreasuryProperties.DEFAULT_URL);
+    /**
+     * Time the stub takes to answer, plus a uniformly random part of up to latency-jitter
+     */
+    private Duration latency = Duration.ofMillis(100);
+    private Duration latencyJitter = Duration.ofMillis(50);
+    /**
+     * Share of requests answered with error-status instead
+     */
+    private double errorRate = 0;
+    private int errorStatus = 503;
+  }
+
+}
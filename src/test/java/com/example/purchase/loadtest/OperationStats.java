@@ -0,0 +1,88 @@
+package com.example.purchase.loadtest;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latencies and response statuses of the measured requests of one operation. Response time runs from the time the
+ * request was due on the fixed arrival schedule, so it includes any time the request waited behind a stalled
+ * generator or service (correcting for coordinated omission); service time runs from the time it was actually sent.
+ */
+class OperationStats {
+
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final String name;
+  private final Recorder responseTime = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+  private final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+  private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder completedInWindow = new LongAdder();
+
+  OperationStats(String name) {
+    this.name = name;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * @param status response status, or -1 when the request failed without a response
+   */
+  void record(long intendedNanos, long sentNanos, long doneNanos, long windowEndNanos, int status) {
+    responseTime.recordValue(Math.min(toMicros(doneNanos - intendedNanos), HIGHEST_TRACKABLE_MICROS));
+    serviceTime.recordValue(Math.min(toMicros(doneNanos - sentNanos), HIGHEST_TRACKABLE_MICROS));
+    if (status < 0) {
+      failures.increment();
+    } else {
+      statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+    if (doneNanos <= windowEndNanos) {
+      completedInWindow.increment();
+    }
+  }
+
+  /**
+   * Prints the summary, and writes the response time distribution as an HdrHistogram percentile file (in ms, for the
+   * HdrHistogram plotter) to the output directory
+   */
+  void report(PrintStream out, double windowSeconds, Path outputDirectory) throws FileNotFoundException {
+    Histogram response = responseTime.getIntervalHistogram();
+    Histogram service = serviceTime.getIntervalHistogram();
+    Map<Integer, Long> statusCounts = new TreeMap<>();
+    statuses.forEach((status, count) -> statusCounts.put(status, count.sum()));
+    out.printf("%s: %d requests, %.1f/s completed, statuses %s, failed %d%n", name, response.getTotalCount(),
+        completedInWindow.sum() / windowSeconds, statusCounts, failures.sum());
+    printPercentiles(out, "response time", response);
+    printPercentiles(out, "service time ", service);
+    String fileName = name.replaceAll("[^A-Za-z0-9]+", "-").replaceAll("^-|-$", "") + ".hgrm";
+    try (PrintStream file = new PrintStream(outputDirectory.resolve(fileName).toFile())) {
+      response.outputPercentileDistribution(file, 1000.0);
+    }
+  }
+
+  private static void printPercentiles(PrintStream out, String label, Histogram histogram) {
+    StringBuilder line = new StringBuilder("  ").append(label).append(" ms:");
+    for (double percentile : PERCENTILES) {
+      line.append(String.format(" p%s=%.2f", percentile == (long) percentile ? String.valueOf((long) percentile)
+          : String.valueOf(percentile), histogram.getValueAtPercentile(percentile) / 1000.0));
+    }
+    line.append(String.format(" max=%.2f", histogram.getMaxValue() / 1000.0));
+    out.println(line);
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+}
@@ -0,0 +1,331 @@
+package com.example.purchase.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local stand-in for the Treasury rates_of_exchange endpoint, answering the filter, sort and page size of the requests
+ * CurrencyConversionService makes, after a configurable latency and with a configurable rate of error responses.
+ * Records come from one of:
+ * <ul>
+ *   <li>SYNTHETIC: generated quarter-end rates, for any currency</li>
+ *   <li>REPLAY: responses captured in RECORD mode, one file of records per currency in the captures directory</li>
+ *   <li>RECORD: the real Treasury API, the stub forwarding each request and adding the records of the response to the
+ *   currency's capture file</li>
+ * </ul>
+ */
+@Slf4j
+class TreasuryStub implements AutoCloseable {
+
+  enum Mode {
+    SYNTHETIC, REPLAY, RECORD
+  }
+
+  private static final String PATH = "/rates_of_exchange";
+  private static final String EXCHANGE_RATE = "exchange_rate";
+  private static final String RECORD_DATE = "record_date";
+  private static final int DEFAULT_PAGE_SIZE = 100;
+  private static final LocalDate SYNTHETIC_FROM = LocalDate.of(2001, 3, 31);
+
+  private final Mode mode;
+  private final Path capturesDirectory;
+  private final URI upstream;
+  private final Duration latency;
+  private final Duration latencyJitter;
+  private final double errorRate;
+  private final int errorStatus;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  /**
+   * Records by record_date, per currency, as captured
+   */
+  private final Map<String, NavigableMap<LocalDate, BigDecimal>> captures = new ConcurrentHashMap<>();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final HttpServer server;
+  private final HttpClient upstreamClient;
+
+  TreasuryStub(Mode mode, Path capturesDirectory, URI upstream, Duration latency, Duration latencyJitter,
+      double errorRate, int errorStatus) throws IOException {
+    this.mode = mode;
+    this.capturesDirectory = capturesDirectory;
+    this.upstream = upstream;
+    this.latency = latency;
+    this.latencyJitter = latencyJitter;
+    this.errorRate = errorRate;
+    this.errorStatus = errorStatus;
+    if (mode != Mode.SYNTHETIC) {
+      loadCaptures();
+    }
+    upstreamClient = mode == Mode.RECORD ? HttpClient.newHttpClient() : null;
+    // a thread per request, so that latency is added to each request independently
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+    server.createContext(PATH, this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort() + PATH;
+  }
+
+  /**
+   * @return currencies that have captured records, in REPLAY or RECORD mode
+   */
+  List<String> getCapturedCurrencies() {
+    return captures.keySet().stream().sorted().collect(Collectors.toList());
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      delay();
+      if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+        send(exchange, errorStatus, "{\"error\":\"Stubbed error\",\"message\":\"Injected by the load test\"}");
+        return;
+      }
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      if (mode == Mode.RECORD) {
+        forward(exchange);
+        return;
+      }
+      Map<String, String> filter = parseFilter(query.get("filter"));
+      String currency = filter.get("country_currency_desc");
+      if (currency == null) {
+        send(exchange, 400, "{\"error\":\"Invalid Query Param\",\"message\":\"Only country_currency_desc filters\"}");
+        return;
+      }
+      LocalDate from = filter.containsKey("record_date:gte") ? LocalDate.parse(filter.get("record_date:gte"))
+          : LocalDate.MIN;
+      LocalDate to = filter.containsKey("record_date:lte") ? LocalDate.parse(filter.get("record_date:lte"))
+          : LocalDate.MAX;
+      int pageSize = query.containsKey("page[size]") ? Integer.parseInt(query.get("page[size]")) : DEFAULT_PAGE_SIZE;
+      send(exchange, 200, toResponseBody(records(currency, from, to), pageSize));
+    } catch (RuntimeException ex) {
+      log.warn("Treasury stub failed to answer {}", exchange.getRequestURI(), ex);
+      send(exchange, 500, "{\"error\":\"Stub failure\"}");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void delay() {
+    long millis = latency.toMillis();
+    if (!latencyJitter.isZero()) {
+      millis += ThreadLocalRandom.current().nextLong(latencyJitter.toMillis() + 1);
+    }
+    if (millis > 0) {
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Latest first, as requested with sort=-record_date
+   */
+  private List<Map.Entry<LocalDate, BigDecimal>> records(String currency, LocalDate from, LocalDate to) {
+    if (mode == Mode.SYNTHETIC) {
+      List<Map.Entry<LocalDate, BigDecimal>> records = new ArrayList<>();
+      LocalDate last = to.isAfter(LocalDate.now(ZoneOffset.UTC)) ? LocalDate.now(ZoneOffset.UTC) : to;
+      for (LocalDate date = lastQuarterEnd(last); !date.isBefore(from) && !date.isBefore(SYNTHETIC_FROM);
+          date = lastQuarterEnd(date.minusDays(1))) {
+        records.add(Map.entry(date, syntheticRate(currency, date)));
+      }
+      return records;
+    }
+    NavigableMap<LocalDate, BigDecimal> captured = captures.get(currency);
+    if (captured == null) {
+      return List.of();
+    }
+    synchronized (captured) {
+      return new ArrayList<>(captured.subMap(from, true, to, true).descendingMap().entrySet());
+    }
+  }
+
+  private static LocalDate lastQuarterEnd(LocalDate date) {
+    LocalDate quarterEnd = date.with(IsoFields.DAY_OF_QUARTER, 1).plusMonths(3).minusDays(1);
+    return quarterEnd.isAfter(date) ? date.with(IsoFields.DAY_OF_QUARTER, 1).minusDays(1) : quarterEnd;
+  }
+
+  /**
+   * Deterministic, so that runs are comparable: a rate per currency, drifting by quarter
+   */
+  private static BigDecimal syntheticRate(String currency, LocalDate date) {
+    long base = 1_000 + Math.floorMod(currency.hashCode(), 99_000);
+    long quarters = date.getYear() * 4L + date.get(IsoFields.QUARTER_OF_YEAR);
+    return BigDecimal.valueOf(base + base * Math.floorMod(quarters * 31, 20) / 100, 3);
+  }
+
+  private String toResponseBody(List<Map.Entry<LocalDate, BigDecimal>> records, int pageSize) {
+    ObjectNode body = objectMapper.createObjectNode();
+    ArrayNode data = body.putArray("data");
+    records.stream().limit(pageSize).forEach(record -> data.addObject()
+        .put(EXCHANGE_RATE, record.getValue().toPlainString())
+        .put(RECORD_DATE, record.getKey().toString()));
+    body.putObject("meta")
+        .put("count", data.size())
+        .put("total-count", records.size())
+        .put("total-pages", Math.max(1, (records.size() + pageSize - 1) / pageSize));
+    return body.toString();
+  }
+
+  private void forward(HttpExchange exchange) throws IOException {
+    URI uri = URI.create(upstream + "?" + exchange.getRequestURI().getRawQuery());
+    HttpResponse<String> response;
+    try {
+      response = upstreamClient.send(HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).build(),
+          HttpResponse.BodyHandlers.ofString());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      send(exchange, 504, "{\"error\":\"Interrupted\"}");
+      return;
+    } catch (IOException ex) {
+      log.warn("Treasury API request GET {} failed", uri, ex);
+      send(exchange, 502, "{\"error\":\"Bad Gateway\"}");
+      return;
+    }
+    if (response.statusCode() == 200) {
+      String currency = parseFilter(parseQuery(uri.getRawQuery()).get("filter")).get("country_currency_desc");
+      if (currency != null) {
+        capture(currency, objectMapper.readTree(response.body()).path("data"));
+      }
+    }
+    send(exchange, response.statusCode(), response.body());
+  }
+
+  private void capture(String currency, JsonNode data) throws IOException {
+    NavigableMap<LocalDate, BigDecimal> captured = captures.computeIfAbsent(currency,
+        c -> Collections.synchronizedNavigableMap(new TreeMap<>()));
+    ObjectNode file = objectMapper.createObjectNode();
+    synchronized (captured) {
+      for (JsonNode record : data) {
+        captured.put(LocalDate.parse(record.get(RECORD_DATE).textValue()),
+            new BigDecimal(record.get(EXCHANGE_RATE).textValue()));
+      }
+      ArrayNode records = file.putArray("data");
+      captured.descendingMap().forEach((date, rate) -> records.addObject()
+          .put(EXCHANGE_RATE, rate.toPlainString())
+          .put(RECORD_DATE, date.toString()));
+      Files.createDirectories(capturesDirectory);
+      objectMapper.writerWithDefaultPrettyPrinter().writeValue(captureFile(currency).toFile(), file);
+    }
+  }
+
+  /**
+   * Capture files hold the "data" records of rates_of_exchange responses for a currency, so they can also be made from
+   * a response saved by hand
+   */
+  private void loadCaptures() throws IOException {
+    if (!Files.isDirectory(capturesDirectory)) {
+      if (mode == Mode.REPLAY) {
+        throw new IllegalStateException("No captured responses in " + capturesDirectory.toAbsolutePath()
+            + ": record some first with loadtest.stub.mode=record");
+      }
+      return;
+    }
+    try (Stream<Path> files = Files.list(capturesDirectory)) {
+      files.filter(file -> file.getFileName().toString().endsWith(".json")).forEach(file -> {
+        String name = file.getFileName().toString();
+        String currency = name.substring(0, name.length() - ".json".length());
+        NavigableMap<LocalDate, BigDecimal> records = Collections.synchronizedNavigableMap(new TreeMap<>());
+        try {
+          for (JsonNode record : objectMapper.readTree(file.toFile()).path("data")) {
+            records.put(LocalDate.parse(record.get(RECORD_DATE).textValue()),
+                new BigDecimal(record.get(EXCHANGE_RATE).textValue()));
+          }
+        } catch (IOException ex) {
+          throw new UncheckedIOException(ex);
+        }
+        captures.put(currency, records);
+      });
+    }
+    if (mode == Mode.REPLAY && captures.isEmpty()) {
+      throw new IllegalStateException("No captured responses in " + capturesDirectory.toAbsolutePath());
+    }
+    log.info("Loaded captured Treasury records for {} currencies", captures.size());
+  }
+
+  private Path captureFile(String currency) {
+    return capturesDirectory.resolve(currency + ".json");
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery != null) {
+      for (String param : rawQuery.split("&")) {
+        int eq = param.indexOf('=');
+        if (eq > 0) {
+          query.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+              URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+      }
+    }
+    return query;
+  }
+
+  /**
+   * e.g. country_currency_desc:in:Mexico-Peso,record_date:gte:2020-06-30,record_date:lte:2020-12-31 to
+   * {country_currency_desc=Mexico-Peso, record_date:gte=2020-06-30, record_date:lte=2020-12-31}
+   */
+  private static Map<String, String> parseFilter(String filter) {
+    Map<String, String> conditions = new HashMap<>();
+    if (filter != null) {
+      for (String condition : filter.split(",")) {
+        String[] parts = condition.split(":", 3);
+        if (parts.length == 3) {
+          conditions.put(parts[0].equals("country_currency_desc") ? parts[0] : parts[0] + ":" + parts[1], parts[2]);
+        }
+      }
+    }
+    return conditions;
+  }
+
+}
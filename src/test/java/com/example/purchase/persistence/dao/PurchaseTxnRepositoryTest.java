@@ -3,10 +3,16 @@ package com.example.purchase.persistence.dao;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.example.purchase.persistence.model.PurchaseTxn;
 import com.example.purchase.support.TestHelper;
-import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
 import javax.validation.ConstraintViolationException;
@@ -14,6 +20,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 
 @DataJpaTest
 class PurchaseTxnRepositoryTest {
@@ -56,12 +64,6 @@ class PurchaseTxnRepositoryTest {
     assertThrows(PersistenceException.class, this::savePurchaseTxn);
   }
 
-  @Test
-  void savePurchaseTxn_missingFields_Amount_Fail() {
-    purchaseTxn.setAmount(null);
-    assertThrows(PersistenceException.class, this::savePurchaseTxn);
-  }
-
   @Test
   void savePurchaseTxn_constraint_Description_Fail() {
     purchaseTxn.setDescription("Verylonglonglonglongerthan50characterssolonglonglonglonglonglonglonglonglonglong");
@@ -70,10 +72,95 @@ class PurchaseTxnRepositoryTest {
 
   @Test
   void savePurchaseTxn_constraint_Amount_Fail() {
-    purchaseTxn.setAmount(new BigDecimal("50.015"));
+    purchaseTxn.setAmountCents(-1L);
     assertThrows(ConstraintViolationException.class, this::savePurchaseTxn);
   }
 
+  @Test
+  void insertAll_success() {
+    List<PurchaseTxn> purchaseTxns = new ArrayList<>();
+    // more than one JDBC batch, with a partial last batch
+    for (int i = 0; i < 120; i++) {
+      PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+      txn.setDescription("Purchase " + i);
+      purchaseTxns.add(txn);
+    }
+
+    repository.insertAll(purchaseTxns);
+
+    assertEquals(120L, repository.count());
+    // time-ordered, in insertion order
+    for (int i = 1; i < purchaseTxns.size(); i++) {
+      assertEquals(7, purchaseTxns.get(i).getId().version());
+      assertTrue(Long.compareUnsigned(purchaseTxns.get(i - 1).getId().getMostSignificantBits(),
+          purchaseTxns.get(i).getId().getMostSignificantBits()) <= 0);
+    }
+    assertEquals("Purchase 119", repository.findById(purchaseTxns.get(119).getId()).get().getDescription());
+  }
+
+  @Test
+  void insertAll_suppliedIds_kept() {
+    UUID clientId = UUID.randomUUID();
+    purchaseTxn.setId(clientId);
+    PurchaseTxn generated = TestHelper.createValidPurchaseTxn();
+
+    repository.insertAll(List.of(purchaseTxn, generated));
+
+    assertEquals(clientId, purchaseTxn.getId());
+    assertEquals(7, generated.getId().version());
+    assertEquals(purchaseTxn, repository.findById(clientId).get());
+    assertEquals(2L, repository.count());
+  }
+
+  @Test
+  void insertAll_suppliedIdStored_Fail() {
+    repository.insertAll(List.of(purchaseTxn));
+    PurchaseTxn duplicate = TestHelper.createValidPurchaseTxn();
+    duplicate.setId(purchaseTxn.getId());
+    duplicate.setDescription("Hotel in Sydney");
+
+    // inserted, rather than merged onto the stored transaction
+    assertThrows(DataIntegrityViolationException.class, () -> repository.insertAll(List.of(duplicate)));
+  }
+
+  @Test
+  void insertAll_constraint_Fail() {
+    PurchaseTxn invalid = TestHelper.createValidPurchaseTxn();
+    invalid.setAmountCents(-1L);
+    List<PurchaseTxn> purchaseTxns = List.of(purchaseTxn, invalid);
+
+    assertThrows(ConstraintViolationException.class, () -> repository.insertAll(purchaseTxns));
+  }
+
+  @Test
+  void findPageByTxnDateRangeAfter_allRowsOnceInOrder() {
+    List<PurchaseTxn> purchaseTxns = new ArrayList<>();
+    Instant start = Instant.parse("2020-01-01T00:00:00Z");
+    for (int i = 0; i < 50; i++) {
+      PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+      // several transactions per date, so that pages end within a date
+      txn.setTxnDate(start.plus(i / 4, ChronoUnit.DAYS));
+      purchaseTxns.add(txn);
+    }
+    repository.insertAll(purchaseTxns);
+    Instant from = start.plus(1, ChronoUnit.DAYS);
+    Instant to = start.plus(11, ChronoUnit.DAYS);
+
+    List<PurchaseTxn> read = new ArrayList<>();
+    List<PurchaseTxn> page = repository.findPageByTxnDateRange(from, to, PageRequest.of(0, 7));
+    while (!page.isEmpty()) {
+      read.addAll(page);
+      PurchaseTxn last = page.get(page.size() - 1);
+      page = repository.findPageByTxnDateRangeAfter(from, to, last.getTxnDate(), last.getId(), PageRequest.of(0, 7));
+    }
+
+    List<PurchaseTxn> expected = new ArrayList<>();
+    repository.streamByTxnDateRange(from, to).forEach(expected::add);
+    assertEquals(40, expected.size());
+    assertEquals(expected.stream().map(PurchaseTxn::getId).collect(Collectors.toList()),
+        read.stream().map(PurchaseTxn::getId).collect(Collectors.toList()));
+  }
+
   private void savePurchaseTxn() {
     repository.save(purchaseTxn);
     entityManager.flush();
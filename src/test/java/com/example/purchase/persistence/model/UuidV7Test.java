@@ -0,0 +1,118 @@
+package com.example.purchase.persistence.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class UuidV7Test {
+
+  private static final long NOW = 1_700_000_000_000L;
+
+  @Test
+  void generate_layout() {
+    UUID uuid = new UuidV7(() -> NOW, new SecureRandom()).generate();
+
+    assertEquals(7, uuid.version());
+    assertEquals(2, uuid.variant());
+    assertEquals(NOW, UuidV7.millis(uuid));
+  }
+
+  @Test
+  void generate_increasingWithinAMillisecond() {
+    UuidV7 generator = new UuidV7(() -> NOW, new SecureRandom());
+    UUID previous = generator.generate();
+    for (int i = 0; i < 100_000; i++) {
+      UUID next = generator.generate();
+      assertIncreasing(previous, next);
+      assertEquals(7, next.version());
+      previous = next;
+    }
+  }
+
+  @Test
+  void generate_increasingWhenClockGoesBack() {
+    AtomicLong clock = new AtomicLong(NOW);
+    UuidV7 generator = new UuidV7(clock::get, new SecureRandom());
+    UUID before = generator.generate();
+    clock.set(NOW - 1_000L);
+
+    UUID after = generator.generate();
+    assertIncreasing(before, after);
+    assertEquals(NOW, UuidV7.millis(after));
+    // once the clock has caught up again
+    clock.set(NOW + 1L);
+    assertEquals(NOW + 1L, UuidV7.millis(generator.generate()));
+  }
+
+  @Test
+  void generate_randomBitsOverflowIntoTimestamp() {
+    // all random bits set: the largest possible random part and increment
+    SecureRandom ones = new SecureRandom() {
+      @Override
+      public void nextBytes(byte[] bytes) {
+        Arrays.fill(bytes, (byte) 0xFF);
+      }
+    };
+    UuidV7 generator = new UuidV7(() -> NOW, ones);
+    UUID first = generator.generate();
+
+    UUID second = generator.generate();
+    assertIncreasing(first, second);
+    assertEquals(NOW + 1L, UuidV7.millis(second));
+    assertEquals(7, second.version());
+    assertEquals(2, second.variant());
+  }
+
+  @Test
+  void next_increasingPerThreadAndUnique() throws Exception {
+    int threads = 4;
+    int perThread = 50_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<List<UUID>>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        futures.add(executor.submit(() -> {
+          List<UUID> ids = new ArrayList<>(perThread);
+          for (int i = 0; i < perThread; i++) {
+            ids.add(UuidV7.next());
+          }
+          return ids;
+        }));
+      }
+      Set<UUID> all = new HashSet<>();
+      for (Future<List<UUID>> future : futures) {
+        List<UUID> ids = future.get();
+        for (int i = 1; i < ids.size(); i++) {
+          assertIncreasing(ids.get(i - 1), ids.get(i));
+        }
+        all.addAll(ids);
+      }
+      assertEquals(threads * perThread, all.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * In the byte order the database compares 16-byte ids in, unlike UUID.compareTo, which compares signed longs
+   */
+  static void assertIncreasing(UUID previous, UUID next) {
+    int msb = Long.compareUnsigned(previous.getMostSignificantBits(), next.getMostSignificantBits());
+    int cmp = msb != 0 ? msb : Long.compareUnsigned(previous.getLeastSignificantBits(),
+        next.getLeastSignificantBits());
+    assertTrue(cmp < 0, () -> previous + " not before " + next);
+  }
+
+}
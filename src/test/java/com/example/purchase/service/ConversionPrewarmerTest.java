@@ -0,0 +1,137 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.purchase.config.TreasuryProperties;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConversionPrewarmerTest {
+
+  private static final long TIMEOUT_MILLIS = 5_000L;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private ExchangeRateResolver exchangeRateResolver;
+  private PurchaseTxnConversionStore conversionStore;
+  private TreasuryProperties treasuryProperties;
+  private ConversionPrewarmer prewarmer;
+
+  @BeforeEach
+  void setUp() {
+    exchangeRateResolver = mock(ExchangeRateResolver.class);
+    conversionStore = mock(PurchaseTxnConversionStore.class);
+    treasuryProperties = new TreasuryProperties();
+  }
+
+  @AfterEach
+  void tearDown() {
+    prewarmer.shutdown();
+  }
+
+  @Test
+  void prewarm_convertsToEachCurrency() throws Exception {
+    treasuryProperties.getPrewarm().setCurrencies(List.of("Euro Zone-Euro", "Canada-Dollar", "Mexico-Peso"));
+    when(exchangeRateResolver.getExchangeRate(eq("Euro Zone-Euro"), any(), any()))
+        .thenReturn(Optional.of(new BigDecimal("0.9")));
+    when(exchangeRateResolver.getExchangeRate(eq("Canada-Dollar"), any(), any())).thenReturn(Optional.empty());
+    when(exchangeRateResolver.getExchangeRate(eq("Mexico-Peso"), any(), any()))
+        .thenThrow(new IOException("Treasury API down"));
+    prewarmer = new ConversionPrewarmer(exchangeRateResolver, conversionStore, treasuryProperties, meterRegistry);
+
+    PurchaseTxn data = purchaseTxn();
+    prewarmer.prewarm(data);
+
+    verify(conversionStore, timeout(TIMEOUT_MILLIS)).save(argThat(dto -> dto.getId().equals(data.getId())
+        && dto.getCountryCurrencyDesc().equals("Euro Zone-Euro")
+        && dto.getAmountConverted().toString().equals("180.00")));
+    awaitTasks(3);
+    assertEquals(1.0, tasks("converted"));
+    assertEquals(1.0, tasks("no_rate"));
+    assertEquals(1.0, tasks("failed"));
+    verify(conversionStore, never()).save(argThat(dto -> !dto.getCountryCurrencyDesc().equals("Euro Zone-Euro")));
+  }
+
+  @Test
+  void prewarm_queueFull_dropsOldest() throws Exception {
+    treasuryProperties.getPrewarm().setCurrencies(List.of("Euro Zone-Euro"));
+    treasuryProperties.getPrewarm().setQueueCapacity(2);
+    CountDownLatch release = new CountDownLatch(1);
+    when(exchangeRateResolver.getExchangeRate(any(), any(), any())).thenAnswer(invocation -> {
+      release.await();
+      return Optional.of(new BigDecimal("0.9"));
+    });
+    prewarmer = new ConversionPrewarmer(exchangeRateResolver, conversionStore, treasuryProperties, meterRegistry);
+
+    // the first runs (and waits), the next two queue, the fourth drops the second
+    List<PurchaseTxn> txns = List.of(purchaseTxn(), purchaseTxn(), purchaseTxn(), purchaseTxn());
+    txns.forEach(prewarmer::prewarm);
+    assertEquals(1.0, tasks("dropped"));
+    release.countDown();
+
+    awaitTasks(3);
+    assertEquals(3.0, tasks("converted"));
+    verify(conversionStore, never()).save(argThat(dto -> dto.getId().equals(txns.get(1).getId())));
+  }
+
+  @Test
+  void recordRead_onlyPrewarmedCurrencies() {
+    treasuryProperties.getPrewarm().setCurrencies(List.of("Euro Zone-Euro"));
+    prewarmer = new ConversionPrewarmer(exchangeRateResolver, conversionStore, treasuryProperties, meterRegistry);
+
+    prewarmer.recordRead("Euro Zone-Euro", true);
+    prewarmer.recordRead("Euro Zone-Euro", true);
+    prewarmer.recordRead("Euro Zone-Euro", false);
+    prewarmer.recordRead("Mexico-Peso", false);
+
+    assertEquals(2.0, meterRegistry.get(ConversionPrewarmer.READS).tag("result", "hit").counter().count());
+    assertEquals(1.0, meterRegistry.get(ConversionPrewarmer.READS).tag("result", "miss").counter().count());
+  }
+
+  @Test
+  void prewarm_noCurrencies_doesNothing() throws Exception {
+    prewarmer = new ConversionPrewarmer(exchangeRateResolver, conversionStore, treasuryProperties, meterRegistry);
+
+    prewarmer.prewarm(purchaseTxn());
+    prewarmer.recordRead("Euro Zone-Euro", false);
+
+    verify(exchangeRateResolver, never()).getExchangeRate(any(), any(), any());
+    assertEquals(0.0, meterRegistry.get(ConversionPrewarmer.READS).tag("result", "miss").counter().count());
+  }
+
+  private static PurchaseTxn purchaseTxn() {
+    PurchaseTxn data = TestHelper.createValidPurchaseTxn();
+    data.setId(UUID.randomUUID());
+    return data;
+  }
+
+  private double tasks(String result) {
+    return meterRegistry.get(ConversionPrewarmer.TASKS).tag("result", result).counter().count();
+  }
+
+  private void awaitTasks(int completed) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (tasks("converted") + tasks("no_rate") + tasks("failed") < completed
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+  }
+
+}
@@ -0,0 +1,489 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.purchase.config.Config;
+import com.example.purchase.config.HttpCachePolicy;
+import com.example.purchase.config.TreasuryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the Treasury client behaviour (caching, request coalescing etc.) against a local stub server standing in for the Treasury API
+ */
+class CurrencyConversionServiceStubTest {
+
+  private static final String COUNTRY_CURRENCY_DESC = "Mexico-Peso";
+  private static final OffsetDateTime DATE_START = OffsetDateTime.parse("2020-06-30T07:20:50.52Z");
+  private static final OffsetDateTime DATE_END = OffsetDateTime.parse("2020-12-31T07:20:50.52Z");
+  private static final String FOUND_BODY = "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-12-31\"},{\"exchange_rate\":\"20.067\",\"record_date\":\"2020-09-30\"}],\"meta\":{\"count\":2}}";
+  private static final String NOT_FOUND_BODY = "{\"data\":[],\"meta\":{\"count\":0}}";
+  private static final int CONCURRENT_CALLERS = 20;
+
+  private MockWebServer server;
+  private TreasuryProperties properties;
+  private ExchangeRateIndex exchangeRateIndex;
+  private OkHttpClient httpClient;
+  private CurrencyConversionService service;
+  @TempDir
+  Path httpCacheDirectory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    properties = new TreasuryProperties();
+    properties.setUrl(server.url("/rates_of_exchange").toString());
+    // one request per call, unless a test turns hedging or retries on
+    properties.getHedge().setEnabled(false);
+    properties.getRetry().setMaxAttempts(1);
+    createService();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  private void createService() {
+    httpClient = new OkHttpClient();
+    createService(httpClient);
+  }
+
+  private void createService(OkHttpClient httpClient) {
+    exchangeRateIndex = new ExchangeRateIndex();
+    service = new CurrencyConversionService(httpClient, new Config().objectMapper(), properties,
+        new SimpleMeterRegistry(), exchangeRateIndex);
+    service.init();
+  }
+
+  @Test
+  void getExchangeRate_cachesFoundRate() throws IOException {
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    Optional<BigDecimal> first = service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END);
+    // same currency and date window at day resolution, different time of day
+    Optional<BigDecimal> second = service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START.plusHours(1),
+        DATE_END.plusHours(1));
+
+    assertEquals(new BigDecimal("19.913"), first.get());
+    assertEquals(first, second);
+    assertEquals(1, server.getRequestCount());
+    assertEquals(1, service.getExchangeRateCacheStats().hitCount());
+    assertEquals(1, service.getExchangeRateCacheStats().missCount());
+  }
+
+  @Test
+  void getExchangeRate_addsResponseToIndex() throws IOException {
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END);
+
+    // any window within the one requested can now be answered from the index
+    assertEquals(new BigDecimal("20.067"), ExchangeRateIndex.fromFixedPoint(exchangeRateIndex.lookup(
+        COUNTRY_CURRENCY_DESC, LocalDate.parse("2020-07-01"), LocalDate.parse("2020-12-30"))));
+    assertEquals(ExchangeRateIndex.NOT_FOUND, exchangeRateIndex.lookup(
+        COUNTRY_CURRENCY_DESC, LocalDate.parse("2020-07-01"), LocalDate.parse("2020-09-29")));
+    assertEquals(ExchangeRateIndex.UNKNOWN, exchangeRateIndex.lookup(
+        COUNTRY_CURRENCY_DESC, LocalDate.parse("2020-01-01"), LocalDate.parse("2020-09-29")));
+  }
+
+  @Test
+  void getExchangeRate_cachesNotFound() throws IOException {
+    server.enqueue(new MockResponse().setBody(NOT_FOUND_BODY));
+
+    assertTrue(service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).isEmpty());
+    assertTrue(service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).isEmpty());
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_notFoundExpiresSeparately() throws Exception {
+    properties.getCache().setNegativeTtl(Duration.ofMillis(50));
+    createService();
+    server.enqueue(new MockResponse().setBody(NOT_FOUND_BODY));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    assertTrue(service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).isEmpty());
+    Thread.sleep(100);
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_errorsAreNotCached() throws IOException {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    assertThrows(IOException.class, () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_servesStaleWhileRefreshFails() throws Exception {
+    properties.getCache().setRefreshAfter(Duration.ofMillis(50));
+    createService();
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+    server.enqueue(new MockResponse().setResponseCode(503));
+
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    Thread.sleep(100);
+    // triggers a background refresh, which fails; the stale entry is still served
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    server.takeRequest();
+    server.takeRequest();
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+  }
+
+  @Test
+  void getExchangeRate_evictsBeyondMaximumSize() throws Exception {
+    properties.getCache().setMaximumSize(1);
+    createService();
+    for (int i = 0; i < 5; i++) {
+      server.enqueue(new MockResponse().setBody(FOUND_BODY));
+      service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START.plusDays(i), DATE_END.plusDays(i));
+    }
+    // eviction runs asynchronously after writes
+    for (int i = 0; i < 100 && service.getExchangeRateCacheStats().evictionCount() < 4; i++) {
+      Thread.sleep(10);
+    }
+
+    assertTrue(service.getExchangeRateCacheStats().evictionCount() >= 4);
+  }
+
+  @Test
+  void getExchangeRate_concurrentCallersShareOneRequest() throws Exception {
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+    List<Future<Optional<BigDecimal>>> results = callConcurrently(CONCURRENT_CALLERS);
+
+    for (Future<Optional<BigDecimal>> result : results) {
+      assertEquals(new BigDecimal("19.913"), result.get().get());
+    }
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_concurrentCallersShareOneFailure() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(500).setHeadersDelay(300, TimeUnit.MILLISECONDS));
+
+    List<Future<Optional<BigDecimal>>> results = callConcurrently(CONCURRENT_CALLERS);
+
+    for (Future<Optional<BigDecimal>> result : results) {
+      ExecutionException ex = assertThrows(ExecutionException.class, result::get);
+      assertTrue(ex.getCause() instanceof IOException);
+    }
+    assertEquals(1, server.getRequestCount());
+  }
+
+  // no thread is held while waiting, so concurrent callers need not be threads
+  @Test
+  void getExchangeRateAsync_concurrentCallersShareOneRequest() throws Exception {
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+    List<CompletableFuture<Optional<BigDecimal>>> results = new ArrayList<>();
+    for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+      results.add(service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    }
+
+    for (CompletableFuture<Optional<BigDecimal>> result : results) {
+      assertEquals(new BigDecimal("19.913"), result.get(10, TimeUnit.SECONDS).get());
+    }
+    assertEquals(1, server.getRequestCount());
+    // cached, so completed without a request
+    assertTrue(service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).isDone());
+  }
+
+  @Test
+  void getExchangeRateAsync_timesOut() {
+    properties.setRequestTimeout(Duration.ofMillis(200));
+    createService();
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setBodyDelay(2, TimeUnit.SECONDS));
+
+    ExecutionException ex = assertThrows(ExecutionException.class,
+        () -> service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get(10, TimeUnit.SECONDS));
+    assertTrue(ex.getCause() instanceof InterruptedIOException);
+  }
+
+  // bounded from the time the call is queued, not when the dispatcher gets to run it
+  @Test
+  void getExchangeRateAsync_queuedCallTimesOut() throws Exception {
+    properties.setRequestTimeout(Duration.ofMillis(500));
+    OkHttpClient client = new OkHttpClient();
+    client.dispatcher().setMaxRequests(1);
+    createService(client);
+    // takes up the only slot for longer than the request timeout
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setHeadersDelay(2, TimeUnit.SECONDS));
+    Call running = client.newCall(new Request.Builder().url(server.url("/rates_of_exchange")).build());
+    running.enqueue(new Callback() {
+      @Override
+      public void onFailure(Call call, IOException ex) {
+      }
+
+      @Override
+      public void onResponse(Call call, Response response) {
+        response.close();
+      }
+    });
+    server.takeRequest();
+
+    CompletableFuture<Optional<BigDecimal>> queued = service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START,
+        DATE_END);
+    assertEquals(1, client.dispatcher().queuedCallsCount());
+
+    ExecutionException ex = assertThrows(ExecutionException.class, () -> queued.get(1, TimeUnit.SECONDS));
+    assertTrue(ex.getCause() instanceof InterruptedIOException);
+    // the queued call is cancelled too: once the slot is free, it is not sent
+    running.cancel();
+    for (int i = 0; i < 100 && client.dispatcher().queuedCallsCount() + client.dispatcher().runningCallsCount() > 0;
+        i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, client.dispatcher().queuedCallsCount() + client.dispatcher().runningCallsCount());
+    assertEquals(1, server.getRequestCount());
+  }
+
+  // the Treasury API call is only cancelled once every caller waiting on it has cancelled
+  @Test
+  void getExchangeRateAsync_cancelledWhenAllCallersCancel() throws Exception {
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setBodyDelay(2, TimeUnit.SECONDS));
+
+    CompletableFuture<Optional<BigDecimal>> first = service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START,
+        DATE_END);
+    CompletableFuture<Optional<BigDecimal>> second = service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START,
+        DATE_END);
+    server.takeRequest();
+
+    first.cancel(true);
+    assertEquals(1, httpClient.dispatcher().runningCallsCount());
+    assertFalse(second.isDone());
+
+    second.cancel(true);
+    for (int i = 0; i < 100 && httpClient.dispatcher().runningCallsCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, httpClient.dispatcher().runningCallsCount());
+  }
+
+  @Test
+  void getExchangeRate_retriesServerErrors() throws IOException {
+    properties.getRetry().setMaxAttempts(3);
+    properties.getRetry().setInitialBackoff(Duration.ofMillis(10));
+    createService();
+    server.enqueue(new MockResponse().setResponseCode(503));
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_doesNotRetryClientErrors() {
+    properties.getRetry().setMaxAttempts(3);
+    createService();
+    server.enqueue(new MockResponse().setResponseCode(400));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    HttpResponseException ex = assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertEquals(400, ex.getStatusCode());
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_retriesLimitedByBudget() {
+    properties.getRetry().setMaxAttempts(3);
+    properties.getRetry().setInitialBackoff(Duration.ofMillis(10));
+    properties.getRetry().setBudgetRatio(0);
+    properties.getRetry().setBudgetMaxTokens(1);
+    createService();
+    for (int i = 0; i < 4; i++) {
+      server.enqueue(new MockResponse().setResponseCode(500));
+    }
+
+    // the only token allows one retry
+    assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertEquals(2, server.getRequestCount());
+    assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_hedgesSlowRequest() throws IOException {
+    properties.getHedge().setEnabled(true);
+    properties.getHedge().setInitialDelay(Duration.ofMillis(100));
+    createService();
+    // responses are served in order: the first request gets the slow one, the hedged request the fast one
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setHeadersDelay(5, TimeUnit.SECONDS));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    long start = System.nanoTime();
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_fastRequestNotHedged() throws Exception {
+    properties.getHedge().setEnabled(true);
+    properties.getHedge().setInitialDelay(Duration.ofMillis(200));
+    createService();
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    Thread.sleep(400);
+    assertEquals(1, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_circuitBreakerFailsFastThenRecovers() throws Exception {
+    properties.getCircuitBreaker().setSlidingWindowSize(2);
+    properties.getCircuitBreaker().setMinimumCalls(2);
+    properties.getCircuitBreaker().setOpenDuration(Duration.ofMillis(200));
+    createService();
+    server.enqueue(new MockResponse().setResponseCode(500));
+    server.enqueue(new MockResponse().setResponseCode(500));
+
+    assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    // open: no request made
+    assertThrows(CircuitBreakerOpenException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    ExecutionException ex = assertThrows(ExecutionException.class,
+        () -> service.getExchangeRateAsync(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get(10, TimeUnit.SECONDS));
+    assertTrue(ex.getCause() instanceof CircuitBreakerOpenException);
+    assertEquals(2, server.getRequestCount());
+
+    // half-open after openDuration: the trial request succeeds and closes the breaker
+    Thread.sleep(300);
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertEquals(new BigDecimal("19.913"),
+        service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START.plusDays(1), DATE_END.plusDays(1)).get());
+    assertEquals(4, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_circuitBreakerReopensOnFailedTrial() throws Exception {
+    properties.getCircuitBreaker().setSlidingWindowSize(2);
+    properties.getCircuitBreaker().setMinimumCalls(2);
+    properties.getCircuitBreaker().setOpenDuration(Duration.ofMillis(200));
+    createService();
+    for (int i = 0; i < 3; i++) {
+      server.enqueue(new MockResponse().setResponseCode(500));
+    }
+    for (int i = 0; i < 2; i++) {
+      assertThrows(HttpResponseException.class,
+          () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    }
+
+    Thread.sleep(300);
+    assertThrows(HttpResponseException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertThrows(CircuitBreakerOpenException.class,
+        () -> service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END));
+    assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  void getExchangeRate_pastWindowServedFromHttpCacheAfterRestart() throws IOException {
+    httpClient = newCachingHttpClient();
+    createService(httpClient);
+    server.enqueue(new MockResponse().setBody(FOUND_BODY));
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    httpClient.cache().close();
+
+    // new process: empty in-memory cache, same cache directory
+    httpClient = newCachingHttpClient();
+    createService(httpClient);
+    assertEquals(new BigDecimal("19.913"), service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END).get());
+    assertEquals(1, server.getRequestCount());
+    httpClient.cache().close();
+  }
+
+  @Test
+  void getExchangeRate_recentWindowRevalidatedFromHttpCache() throws Exception {
+    OffsetDateTime dateEnd = OffsetDateTime.now();
+    httpClient = newCachingHttpClient();
+    createService(httpClient);
+    server.enqueue(new MockResponse().setBody(FOUND_BODY).setHeader("ETag", "\"v1\""));
+    server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+    assertEquals(new BigDecimal("19.913"),
+        service.getExchangeRate(COUNTRY_CURRENCY_DESC, dateEnd.minusMonths(6), dateEnd).get());
+
+    createService(httpClient);
+    assertEquals(new BigDecimal("19.913"),
+        service.getExchangeRate(COUNTRY_CURRENCY_DESC, dateEnd.minusMonths(6), dateEnd).get());
+    server.takeRequest();
+    assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"));
+    assertEquals(1, httpClient.cache().hitCount());
+    httpClient.cache().close();
+  }
+
+  private OkHttpClient newCachingHttpClient() {
+    return new OkHttpClient.Builder()
+        .cache(new Cache(httpCacheDirectory.toFile(), 10 * 1024 * 1024))
+        .addNetworkInterceptor(HttpCachePolicy.networkInterceptor(Duration.ofDays(365)))
+        .build();
+  }
+
+  private List<Future<Optional<BigDecimal>>> callConcurrently(int callers) throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Optional<BigDecimal>>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < callers; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          return service.getExchangeRate(COUNTRY_CURRENCY_DESC, DATE_START, DATE_END);
+        }));
+      }
+      start.countDown();
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+
+}
@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.Optional;
@@ -21,7 +22,9 @@ class CurrencyConversionServiceTest {
   @Test
   void constructExchangeRateUrl() {
     assertEquals(CurrencyConversionService.EXCHANGE_RATE_URL
-            + "?filter=country_currency_desc:in:Mexico-Peso,record_date:gte:2019-10-12,record_date:lte:2020-02-25",
+            + "?fields=exchange_rate,record_date"
+            + "&filter=country_currency_desc:in:Mexico-Peso,record_date:gte:2019-10-12,record_date:lte:2020-02-25"
+            + "&sort=-record_date&page[size]=100",
         service.constructExchangeRateUrl("Mexico-Peso",
             OffsetDateTime.parse("2019-10-12T07:20:50.52Z"),
             OffsetDateTime.parse("2020-02-25T08:20:50.52Z")));
@@ -29,7 +32,7 @@ class CurrencyConversionServiceTest {
 
   // happy path
   @Test
-  void getExchangeRateFromResponseBody() throws JsonProcessingException {
+  void getExchangeRateFromResponseBody() throws IOException {
     String responseBody = "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-12-31\"},{\"exchange_rate\":\"20.067\",\"record_date\":\"2020-09-30\"},{\"exchange_rate\":\"23.164\",\"record_date\":\"2020-06-30\"},{\"exchange_rate\":\"23.791\",\"record_date\":\"2020-03-31\"}],\"meta\":{\"count\":4,\"labels\":{\"exchange_rate\":\"Exchange Rate\",\"record_date\":\"Record Date\"},\"dataTypes\":{\"exchange_rate\":\"NUMBER\",\"record_date\":\"DATE\"},\"dataFormats\":{\"exchange_rate\":\"10.2\",\"record_date\":\"YYYY-MM-DD\"},\"total-count\":4,\"total-pages\":1},\"links\":{\"self\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",\"first\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",\"prev\":null,\"next\":null,\"last\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\"}}";
     Optional<BigDecimal> exchangeRate = service.getExchangeRateFromResponseBody(responseBody);
 
@@ -40,7 +43,7 @@ class CurrencyConversionServiceTest {
 
   // exchange rate not found
   @Test
-  void getExchangeRateFromResponseBody_NotFound() throws JsonProcessingException {
+  void getExchangeRateFromResponseBody_NotFound() throws IOException {
     String responseBody = "{\"data\":[],\"meta\":{\"count\":0,\"labels\":{\"exchange_rate\":\"Exchange Rate\",\"record_date\":\"Record Date\"},\"dataTypes\":{\"exchange_rate\":\"NUMBER\",\"record_date\":\"DATE\"},\"dataFormats\":{\"exchange_rate\":\"10.2\",\"record_date\":\"YYYY-MM-DD\"},\"total-count\":0,\"total-pages\":0},\"links\":{\"self\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",\"first\":\"&page%5Bnumber%5D=1&page%5Bsize%5D=100\",\"prev\":null,\"next\":\"&page%5Bnumber%5D=2&page%5Bsize%5D=100\",\"last\":\"&page%5Bnumber%5D=0&page%5Bsize%5D=100\"}}";
     Optional<BigDecimal> exchangeRate = service.getExchangeRateFromResponseBody(responseBody);
 
@@ -0,0 +1,124 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ExchangeRateIndexTest {
+
+  private static final String COUNTRY_CURRENCY_DESC = "Mexico-Peso";
+
+  private ExchangeRateIndex index;
+
+  @BeforeEach
+  void setUp() {
+    index = new ExchangeRateIndex();
+    index.add(COUNTRY_CURRENCY_DESC, List.of(
+            record("2020-12-31", "19.913"),
+            record("2020-09-30", "20.067"),
+            record("2020-06-30", "23.164")),
+        LocalDate.parse("2020-06-01"), LocalDate.parse("2020-12-31"));
+  }
+
+  @Test
+  void lookup_latestOnOrBeforeEnd() {
+    assertEquals(rate("20.067"), lookup("2020-07-01", "2020-12-30"));
+    assertEquals(rate("19.913"), lookup("2020-07-01", "2020-12-31"));
+    assertEquals(rate("23.164"), lookup("2020-06-01", "2020-09-29"));
+  }
+
+  @Test
+  void lookup_completeRangeWithoutRate() {
+    assertEquals(ExchangeRateIndex.NOT_FOUND, lookup("2020-07-01", "2020-09-29"));
+  }
+
+  @Test
+  void lookup_outsideCompleteRange() {
+    // a rate may exist between 2020-12-31 and 2021-03-01 that the index was never told about
+    assertEquals(ExchangeRateIndex.UNKNOWN, lookup("2020-09-01", "2021-03-01"));
+    assertEquals(ExchangeRateIndex.UNKNOWN, lookup("2020-01-01", "2020-05-31"));
+    assertEquals(ExchangeRateIndex.UNKNOWN, index.lookup("Canada-Dollar", LocalDate.parse("2020-01-01"),
+        LocalDate.parse("2020-05-31")));
+  }
+
+  @Test
+  void add_mergesRecordsAndRanges() {
+    index.add(COUNTRY_CURRENCY_DESC, List.of(record("2021-03-31", "20.5"), record("2020-12-31", "19.9")),
+        LocalDate.parse("2021-01-01"), LocalDate.parse("2021-06-30"));
+
+    // adjacent ranges merged
+    assertEquals(rate("19.9"), lookup("2020-09-01", "2021-03-01"));
+    assertEquals(rate("20.5"), lookup("2020-07-01", "2021-06-30"));
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  void add_unrepresentableRate() {
+    assertFalse(index.add("Canada-Dollar", List.of(record("2020-12-31", "1.0000000001")),
+        LocalDate.parse("2020-06-01"), LocalDate.parse("2020-12-31")));
+    assertEquals(ExchangeRateIndex.UNKNOWN, index.lookup("Canada-Dollar", LocalDate.parse("2020-06-01"),
+        LocalDate.parse("2020-12-31")));
+  }
+
+  @Test
+  void replaceAll_completeUpToDate() {
+    index.replaceAll(Map.of("Canada-Dollar", List.of(record("1999-12-31", "1.4"))), LocalDate.parse("2021-01-01"));
+
+    assertEquals(rate("1.4"), index.lookup("Canada-Dollar", LocalDate.parse("1999-07-01"),
+        LocalDate.parse("2000-01-01")));
+    assertEquals(ExchangeRateIndex.NOT_FOUND, index.lookup("Canada-Dollar", LocalDate.parse("2020-07-01"),
+        LocalDate.parse("2021-01-01")));
+    assertEquals(ExchangeRateIndex.UNKNOWN, lookup("2020-07-01", "2020-12-31"));
+  }
+
+  @Test
+  void fixedPoint_roundTrip() {
+    assertEquals(new BigDecimal("19.913"), ExchangeRateIndex.fromFixedPoint(rate("19.913")));
+    assertEquals(new BigDecimal("1000"), ExchangeRateIndex.fromFixedPoint(rate("1000.0")));
+    assertEquals(new BigDecimal("0.121111113"), ExchangeRateIndex.fromFixedPoint(rate("0.121111113")));
+  }
+
+  @Test
+  void lookup_doesNotAllocate() {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assertTrue(threads.isThreadAllocatedMemoryEnabled());
+    LocalDate start = LocalDate.parse("2020-07-01");
+    LocalDate end = LocalDate.parse("2020-12-30");
+    long sum = 0;
+    for (int i = 0; i < 20_000; i++) { // warm up
+      sum += index.lookup(COUNTRY_CURRENCY_DESC, start, end);
+    }
+
+    long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    for (int i = 0; i < 100_000; i++) {
+      sum += index.lookup(COUNTRY_CURRENCY_DESC, start, end);
+    }
+    long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+    assertTrue(sum != 0);
+    // allow for a little measurement noise, well under one byte per lookup
+    assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+  }
+
+  private long lookup(String dateStart, String dateEnd) {
+    return index.lookup(COUNTRY_CURRENCY_DESC, LocalDate.parse(dateStart), LocalDate.parse(dateEnd));
+  }
+
+  private static long rate(String rate) {
+    return ExchangeRateIndex.toFixedPoint(new BigDecimal(rate));
+  }
+
+  private static ExchangeRateIndex.Record record(String recordDate, String exchangeRate) {
+    return new ExchangeRateIndex.Record(LocalDate.parse(recordDate), new BigDecimal(exchangeRate));
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.example.purchase.config.TreasuryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ExchangeRateLookupMetricsTest {
+
+  private static final Optional<BigDecimal> FOUND = Optional.of(new BigDecimal("19.913"));
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private ExchangeRateLookupMetrics lookupMetrics;
+
+  @BeforeEach
+  void setUp() {
+    TreasuryProperties treasuryProperties = new TreasuryProperties();
+    treasuryProperties.getMetrics().setMaxCurrencyTags(2);
+    lookupMetrics = new ExchangeRateLookupMetrics(meterRegistry, treasuryProperties);
+  }
+
+  @Test
+  void record_currencyTaggedOnceFound() {
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.TREASURY, Optional.empty());
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.TREASURY, FOUND);
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.INDEX, Optional.empty());
+    lookupMetrics.recordFailure("Mexico-Peso");
+
+    assertEquals(1, count(ExchangeRateLookupMetrics.OTHER, "treasury", "not_found"));
+    assertEquals(1, count("Mexico-Peso", "treasury", "found"));
+    assertEquals(1, count("Mexico-Peso", "index", "found"));
+    assertEquals(1, count("Mexico-Peso", "index", "not_found"));
+    assertEquals(1, count("Mexico-Peso", "treasury", "failed"));
+  }
+
+  @Test
+  void record_currencyTagsCapped() {
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+    lookupMetrics.record("Canada-Dollar", ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+    lookupMetrics.record("Euro Zone-Euro", ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+    lookupMetrics.record("Mexico-Peso", ExchangeRateLookupMetrics.Source.INDEX, FOUND);
+
+    Set<String> currencies = meterRegistry.get(ExchangeRateLookupMetrics.NAME).counters().stream()
+        .map(counter -> counter.getId().getTag("currency"))
+        .collect(Collectors.toSet());
+    assertEquals(Set.of("Mexico-Peso", "Canada-Dollar", ExchangeRateLookupMetrics.OTHER), currencies);
+    assertEquals(2, count("Mexico-Peso", "index", "found"));
+    assertEquals(1, count(ExchangeRateLookupMetrics.OTHER, "index", "found"));
+  }
+
+  private double count(String currency, String source, String result) {
+    return meterRegistry.get(ExchangeRateLookupMetrics.NAME)
+        .tags("currency", currency, "source", source, "result", result)
+        .counter().count();
+  }
+
+}
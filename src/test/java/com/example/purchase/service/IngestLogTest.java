@@ -0,0 +1,169 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IngestLogTest {
+
+  private static final int SEGMENT_SIZE = 1024;
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void appendAndRead() throws IOException {
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      long first = log.append(bytes("first"));
+      long second = log.append(bytes("second"));
+      log.sync(second);
+
+      assertEquals(IngestLog.HEADER + 5, first);
+      assertEquals(second, log.endOffset());
+      List<IngestLog.Record> records = log.read(0L, 10);
+      assertEquals(List.of("first", "second"), strings(records));
+      assertEquals(first, records.get(0).getEnd());
+      assertEquals(List.of("second"), strings(log.read(first, 10)));
+      assertEquals(List.of("first"), strings(log.read(0L, 1)));
+    }
+  }
+
+  @Test
+  void reopen_recoversRecordsAfterCommittedOffset() throws IOException {
+    long end;
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      log.commit(log.append(bytes("stored")));
+      log.append(bytes("pending 1"));
+      end = log.append(bytes("pending 2"));
+      log.sync(end);
+    }
+
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      assertEquals(end, log.endOffset());
+      assertEquals(List.of("pending 1", "pending 2"), strings(log.read(log.committedOffset(), 10)));
+      long next = log.append(bytes("pending 3"));
+      assertEquals(List.of("pending 1", "pending 2", "pending 3"), strings(log.read(log.committedOffset(), 10)));
+      assertEquals(next, log.endOffset());
+    }
+  }
+
+  // e.g. the app crashed while the record was being written: it was never acknowledged
+  @Test
+  void reopen_tornRecordDiscarded() throws IOException {
+    long first;
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      first = log.append(bytes("complete"));
+      log.sync(log.append(bytes("torn record")));
+    }
+    try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(bytes("XX")), first + IngestLog.HEADER + 2);
+    }
+
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      assertEquals(first, log.endOffset());
+      log.append(bytes("next"));
+      assertEquals(List.of("complete", "next"), strings(log.read(0L, 10)));
+    }
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      assertEquals(List.of("complete", "next"), strings(log.read(0L, 10)));
+    }
+  }
+
+  @Test
+  void segments_rolledAndDeletedOnceCommitted() throws IOException {
+    // two records per segment
+    byte[] payload = new byte[IngestLog.HEADER * 3];
+    long[] ends = new long[5];
+    try (IngestLog log = new IngestLog(directory, 64)) {
+      for (int i = 0; i < ends.length; i++) {
+        payload[0] = (byte) i;
+        ends[i] = log.append(payload);
+      }
+      assertEquals(3, segments().size());
+      List<IngestLog.Record> records = log.read(0L, 10);
+      assertEquals(5, records.size());
+      for (int i = 0; i < records.size(); i++) {
+        assertEquals(i, records.get(i).getPayload()[0]);
+        assertEquals(ends[i], records.get(i).getEnd());
+      }
+
+      log.commit(ends[3]);
+      assertEquals(1, segments().size());
+    }
+
+    try (IngestLog log = new IngestLog(directory, 64)) {
+      List<IngestLog.Record> records = log.read(log.committedOffset(), 10);
+      assertEquals(1, records.size());
+      assertEquals(4, records.get(0).getPayload()[0]);
+    }
+  }
+
+  @Test
+  void stopAppends_appendsFailRecordsStillConsumed() throws IOException {
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      long end = log.append(bytes("appended"));
+      log.stopAppends();
+
+      assertThrows(ClosedChannelException.class, () -> log.append(bytes("rejected")));
+      log.sync(end);
+      List<IngestLog.Record> records = log.read(0L, 10);
+      assertEquals(List.of("appended"), strings(records));
+      log.commit(records.get(0).getEnd());
+      assertEquals(end, log.committedOffset());
+    }
+  }
+
+  @Test
+  void close_appendedRecordsKeptReadsFindNone() throws IOException {
+    IngestLog closed = new IngestLog(directory, SEGMENT_SIZE);
+    long end = closed.append(bytes("appended, not synced"));
+    closed.close();
+
+    assertThrows(ClosedChannelException.class, () -> closed.append(bytes("rejected")));
+    closed.sync(end);
+    assertEquals(List.of(), closed.read(0L, 10));
+    try (IngestLog log = new IngestLog(directory, SEGMENT_SIZE)) {
+      assertEquals(List.of("appended, not synced"), strings(log.read(0L, 10)));
+    }
+  }
+
+  @Test
+  void append_largerThanSegment_rejected() throws IOException {
+    try (IngestLog log = new IngestLog(directory, 64)) {
+      assertThrows(IllegalArgumentException.class, () -> log.append(new byte[64]));
+      assertThrows(IllegalArgumentException.class, () -> log.append(new byte[0]));
+      assertEquals(0L, log.endOffset());
+    }
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(path -> path.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> strings(List<IngestLog.Record> records) {
+    return records.stream()
+        .map(record -> new String(record.getPayload(), StandardCharsets.UTF_8))
+        .collect(Collectors.toList());
+  }
+
+}
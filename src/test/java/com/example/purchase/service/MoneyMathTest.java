@@ -0,0 +1,107 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class MoneyMathTest {
+
+  private static final int SAMPLES = 200_000;
+
+  @Test
+  void toCents() {
+    assertEquals(20000L, MoneyMath.toCents(new BigDecimal("200.00")));
+    assertEquals(137900L, MoneyMath.toCents(new BigDecimal("1379")));
+    assertEquals(10L, MoneyMath.toCents(new BigDecimal("0.1")));
+    assertEquals(Long.MAX_VALUE, MoneyMath.toCents(MoneyMath.MAX_AMOUNT));
+    assertThrows(ArithmeticException.class, () -> MoneyMath.toCents(new BigDecimal("7.034")));
+    assertThrows(ArithmeticException.class, () -> MoneyMath.toCents(MoneyMath.MAX_AMOUNT.add(new BigDecimal("0.01"))));
+  }
+
+  @Test
+  void fromCents() {
+    assertEquals("200.00", MoneyMath.fromCents(20000L).toString());
+    assertEquals("0.00", MoneyMath.fromCents(0L).toString());
+  }
+
+  @Test
+  void multiply_roundsHalfUp() {
+    // 200.00 x 0.1211 = 24.22
+    assertEquals(2422L, MoneyMath.multiply(20000L, 1211L, 4));
+    // 0.01 x 0.5 = 0.005 -> 0.01, 0.01 x 0.4999 -> 0.00
+    assertEquals(1L, MoneyMath.multiply(1L, 5L, 1));
+    assertEquals(0L, MoneyMath.multiply(1L, 4999L, 4));
+    // halves away from zero
+    assertEquals(-1L, MoneyMath.multiply(-1L, 5L, 1));
+    assertEquals(0L, MoneyMath.multiply(-1L, 4999L, 4));
+    assertEquals(20000L, MoneyMath.multiply(20000L, 1L, 0));
+    assertEquals(9L, MoneyMath.multiply(Long.MAX_VALUE, 1L, 18));
+  }
+
+  @Test
+  void multiply_overflow() {
+    assertThrows(ArithmeticException.class, () -> MoneyMath.multiply(Long.MAX_VALUE, 2L, 0));
+    assertThrows(ArithmeticException.class, () -> MoneyMath.multiply(Long.MIN_VALUE, -1L, 0));
+  }
+
+  @Test
+  void convert_fallsBackToBigDecimal() {
+    // too many decimal places, too many digits, negative scale, overflow
+    assertConvert(12345L, new BigDecimal("0.1234567890123456789"));
+    assertConvert(12345L, new BigDecimal("12345678901234567890.5"));
+    assertConvert(12345L, new BigDecimal("1E+3"));
+    assertConvert(Long.MAX_VALUE, new BigDecimal("19.913"));
+  }
+
+  /**
+   * Random amounts and rates of every magnitude, scale and precision, converted exactly as the BigDecimal math of
+   * PurchaseTxnService did, value and scale
+   */
+  @Test
+  void convert_sameAsBigDecimal() {
+    Random random = new Random(17);
+    for (int i = 0; i < SAMPLES; i++) {
+      assertConvert(randomCents(random), randomRate(random));
+    }
+  }
+
+  /**
+   * Products ending in exactly half a cent, rounded up
+   */
+  @Test
+  void convert_halfCents_sameAsBigDecimal() {
+    Random random = new Random(23);
+    for (int i = 0; i < SAMPLES; i++) {
+      // amountCents x rate = n + 0.5 cents for rate = (2n + 1) / (2 amountCents), a terminating decimal when
+      // amountCents is a power of two
+      long amountCents = 1L << random.nextInt(10);
+      BigDecimal rate = BigDecimal.valueOf(2L * random.nextInt(1_000_000) + 1)
+          .divide(BigDecimal.valueOf(2L * amountCents));
+      assertEquals(5, MoneyMath.fromCents(amountCents).multiply(rate).movePointRight(3).longValue() % 10);
+      assertConvert(amountCents, rate);
+    }
+  }
+
+  private static void assertConvert(long amountCents, BigDecimal rate) {
+    BigDecimal expected = MoneyMath.fromCents(amountCents).multiply(rate).setScale(2, RoundingMode.HALF_UP);
+    assertEquals(expected, MoneyMath.convert(amountCents, rate), () -> amountCents + " x " + rate);
+  }
+
+  private static long randomCents(Random random) {
+    // evenly spread over the number of digits, from 0 to Long.MAX_VALUE
+    long bound = 1L << random.nextInt(64);
+    return bound == Long.MIN_VALUE ? random.nextLong() & Long.MAX_VALUE : (long) (random.nextDouble() * bound);
+  }
+
+  private static BigDecimal randomRate(Random random) {
+    int digits = 1 + random.nextInt(20);
+    BigInteger unscaled = new BigInteger(digits * 4, random).mod(BigInteger.TEN.pow(digits));
+    return new BigDecimal(unscaled, random.nextInt(14) - 1);
+  }
+
+}
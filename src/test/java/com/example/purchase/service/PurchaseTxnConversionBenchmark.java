@@ -0,0 +1,42 @@
+package com.example.purchase.service;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converting an amount into a PurchaseTxnCurrencyDto (fixed-point, see MoneyMathBenchmark), part of the request hot path
+ * (see RequestHotPathBenchmark). In this package since toPurchaseTxnCurrencyDto is package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PurchaseTxnConversionBenchmark {
+
+  private static final String COUNTRY_CURRENCY_DESC = "Mexico-Peso";
+  private static final BigDecimal EXCHANGE_RATE = new BigDecimal("19.913");
+
+  private PurchaseTxn purchaseTxn;
+
+  @Setup
+  public void setUp() {
+    purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(UUID.randomUUID());
+  }
+
+  @Benchmark
+  public PurchaseTxnCurrencyDto toPurchaseTxnCurrencyDto() {
+    return PurchaseTxnService.toPurchaseTxnCurrencyDto(purchaseTxn, COUNTRY_CURRENCY_DESC, EXCHANGE_RATE);
+  }
+
+}
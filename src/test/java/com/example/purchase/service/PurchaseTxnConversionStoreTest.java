@@ -0,0 +1,106 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.persistence.dao.PurchaseTxnConversionRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+@DataJpaTest
+class PurchaseTxnConversionStoreTest {
+
+  @Autowired
+  private PurchaseTxnConversionRepository repository;
+
+  private PurchaseTxnConversionStore store;
+
+  @BeforeEach
+  void setUp() {
+    store = new PurchaseTxnConversionStore(repository);
+  }
+
+  @Test
+  void saveAndFind() {
+    PurchaseTxnCurrencyDto dto = conversion(UUID.randomUUID(), "Mexico-Peso", "0.5210");
+    store.save(dto);
+    // already stored, not an error
+    store.save(dto);
+
+    assertEquals(1L, repository.count());
+    // rates read back without trailing zeros, as from the local copy of the Treasury dataset
+    dto.setExchangeRate(new BigDecimal("0.521"));
+    assertEquals(dto, store.find(dto.getId(), "Mexico-Peso").get());
+    assertTrue(store.find(dto.getId(), "Canada-Dollar").isEmpty());
+  }
+
+  @Test
+  void save_rateTooPrecise_notStored() {
+    store.save(conversion(UUID.randomUUID(), "Mexico-Peso", "0.1234567891"));
+    assertEquals(0L, repository.count());
+  }
+
+  @Test
+  void invalidate() {
+    UUID id = UUID.randomUUID();
+    store.save(conversion(id, "Mexico-Peso", "0.5210"));
+    store.save(conversion(UUID.randomUUID(), "Mexico-Peso", "0.5210"));
+    store.save(conversion(id, "Canada-Dollar", "1.42"));
+
+    assertEquals(2, store.invalidate("Mexico-Peso"));
+    assertTrue(store.find(id, "Mexico-Peso").isEmpty());
+    assertTrue(store.find(id, "Canada-Dollar").isPresent());
+  }
+
+  @Test
+  void invalidate_ratePublished_windowsIncludingRecordDate() {
+    UUID before = save("Mexico-Peso", "2020-06-28T12:00:00Z", "23.164");
+    UUID on = save("Mexico-Peso", "2020-06-30T12:00:00Z", "23.164");
+    UUID endOfWindow = save("Mexico-Peso", "2020-12-31T12:00:00-05:00", "23.164");
+    UUID after = save("Mexico-Peso", "2021-01-03T12:00:00Z", "23.164");
+    UUID otherCurrency = save("Canada-Dollar", "2020-07-15T12:00:00Z", "1.42");
+
+    // a transaction on 2020-12-31 looks from 2020-06-30: the month-end clamp, and its own offset, included
+    assertEquals(2, store.invalidate("Mexico-Peso", LocalDate.parse("2020-06-30")));
+    assertTrue(store.find(on, "Mexico-Peso").isEmpty());
+    assertTrue(store.find(endOfWindow, "Mexico-Peso").isEmpty());
+    assertTrue(store.find(before, "Mexico-Peso").isPresent());
+    assertTrue(store.find(after, "Mexico-Peso").isPresent());
+    assertTrue(store.find(otherCurrency, "Canada-Dollar").isPresent());
+  }
+
+  @Test
+  void invalidate_rateRevised_conversionsAtPreviousRate() {
+    UUID atPrevious = save("Mexico-Peso", "2020-08-15T12:00:00Z", "23.164");
+    UUID atLaterRate = save("Mexico-Peso", "2020-10-15T12:00:00Z", "20.067");
+    UUID outsideWindow = save("Mexico-Peso", "2021-02-15T12:00:00Z", "23.164");
+
+    assertEquals(1, store.invalidate("Mexico-Peso", LocalDate.parse("2020-06-30"), new BigDecimal("23.164000000")));
+    assertTrue(store.find(atPrevious, "Mexico-Peso").isEmpty());
+    assertTrue(store.find(atLaterRate, "Mexico-Peso").isPresent());
+    assertTrue(store.find(outsideWindow, "Mexico-Peso").isPresent());
+  }
+
+  private UUID save(String countryCurrencyDesc, String txnDate, String exchangeRate) {
+    PurchaseTxnCurrencyDto dto = conversion(UUID.randomUUID(), countryCurrencyDesc, exchangeRate);
+    dto.setTxnDate(OffsetDateTime.parse(txnDate));
+    store.save(dto);
+    return dto.getId();
+  }
+
+  private static PurchaseTxnCurrencyDto conversion(UUID id, String countryCurrencyDesc, String exchangeRate) {
+    PurchaseTxn data = TestHelper.createValidPurchaseTxn();
+    data.setId(id);
+    return PurchaseTxnService.toPurchaseTxnCurrencyDto(data, countryCurrencyDesc, new BigDecimal(exchangeRate));
+  }
+
+}
@@ -0,0 +1,36 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class PurchaseTxnCursorTest {
+
+  @Test
+  void encodeDecode() {
+    PurchaseTxnCursor cursor = new PurchaseTxnCursor(Instant.parse("2019-10-12T07:20:50.520000001Z"),
+        UUID.randomUUID());
+
+    String encoded = cursor.encode();
+
+    assertTrue(encoded.matches("[A-Za-z0-9_-]+"), encoded);
+    assertEquals(cursor, PurchaseTxnCursor.decode(encoded));
+  }
+
+  @Test
+  void decode_unknown() {
+    assertThrows(IllegalArgumentException.class, () -> PurchaseTxnCursor.decode("not a cursor"));
+    assertThrows(IllegalArgumentException.class, () -> PurchaseTxnCursor.decode("AQID"));
+    // txnDate out of Instant's range
+    ByteBuffer bytes = ByteBuffer.allocate(29).put((byte) 1).putLong(Long.MAX_VALUE);
+    String outOfRange = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+    assertThrows(IllegalArgumentException.class, () -> PurchaseTxnCursor.decode(outOfRange));
+  }
+
+}
@@ -0,0 +1,169 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
+import com.example.purchase.config.Config;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+@DataJpaTest
+class PurchaseTxnExportServiceTest {
+
+  private static final String COUNTRY_CURRENCY_DESC = "Mexico-Peso";
+
+  @Autowired
+  private PurchaseTxnRepository repository;
+  @Autowired
+  private EntityManager entityManager;
+
+  private final ObjectMapper objectMapper = new Config().objectMapper();
+  private ExchangeRateResolver exchangeRateResolver;
+  private PurchaseTxnExportService exportService;
+
+  @BeforeEach
+  void setUp() {
+    exchangeRateResolver = mock(ExchangeRateResolver.class);
+    exportService = new PurchaseTxnExportService(repository, exchangeRateResolver, objectMapper, entityManager);
+  }
+
+  // one line per transaction in the date range, in date order, one rate lookup per date window
+  @Test
+  void exportPurchaseTxnCurrency() throws Exception {
+    PurchaseTxn early = purchaseTxn("2019-10-12T07:20:50Z", "100.00");
+    PurchaseTxn sameDay = purchaseTxn("2019-10-12T23:00:00Z", "200.00");
+    PurchaseTxn noRate = purchaseTxn("2019-11-02T10:00:00Z", "300.00");
+    PurchaseTxn after = purchaseTxn("2019-12-01T00:00:00Z", "400.00");
+    PurchaseTxn before = purchaseTxn("2019-10-11T23:59:59Z", "500.00");
+    repository.insertAll(List.of(noRate, after, sameDay, before, early));
+    when(exchangeRateResolver.getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any()))
+        .thenReturn(Optional.of(new BigDecimal("0.5")))
+        .thenReturn(Optional.empty());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long count = exportService.exportPurchaseTxnCurrency(COUNTRY_CURRENCY_DESC, LocalDate.parse("2019-10-12"),
+        LocalDate.parse("2019-11-30"), out);
+
+    assertEquals(3L, count);
+    verify(exchangeRateResolver, times(2)).getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any());
+    String body = out.toString(StandardCharsets.UTF_8);
+    assertTrue(body.endsWith("}\n"));
+    String[] lines = body.split("\n");
+    assertEquals(3, lines.length);
+    PurchaseTxnCurrencyResultDto first = objectMapper.readValue(lines[0], PurchaseTxnCurrencyResultDto.class);
+    assertEquals(early.getId(), first.getPurchaseTxnCurrency().getId());
+    assertEquals("50.00", first.getPurchaseTxnCurrency().getAmountConverted().toString());
+    assertNull(first.getError());
+    PurchaseTxnCurrencyResultDto second = objectMapper.readValue(lines[1], PurchaseTxnCurrencyResultDto.class);
+    assertEquals("100.00", second.getPurchaseTxnCurrency().getAmountConverted().toString());
+    // error results identify the transaction
+    PurchaseTxnCurrencyResultDto third = objectMapper.readValue(lines[2], PurchaseTxnCurrencyResultDto.class);
+    assertEquals(422, third.getError().getCode());
+    assertEquals(noRate.getId(), third.getPurchaseTxnCurrency().getId());
+    assertNull(third.getPurchaseTxnCurrency().getAmountConverted());
+  }
+
+  /**
+   * Neither the persistence context nor the heap grows with the number of rows exported. Heap use is sampled (after GC)
+   * early and late in a 50k row export: holding the rows read, as findAll would, takes tens of MB.
+   */
+  @Test
+  void exportPurchaseTxnCurrency_constantMemory() throws Exception {
+    int rows = 50_000;
+    List<PurchaseTxn> purchaseTxns = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+      txn.setDescription("Purchase " + i);
+      txn.setTxnDate(Instant.parse("2019-01-01T00:00:00Z").plusSeconds(600L * i));
+      purchaseTxns.add(txn);
+    }
+    repository.insertAll(purchaseTxns);
+    purchaseTxns = null;
+    when(exchangeRateResolver.getExchangeRate(any(), any(), any())).thenReturn(Optional.of(new BigDecimal("0.5")));
+
+    LineSampler out = new LineSampler(5_000, 45_000);
+    long count = exportService.exportPurchaseTxnCurrency(COUNTRY_CURRENCY_DESC, null, null, out);
+
+    assertEquals(rows, count);
+    assertEquals(rows, out.lines);
+    assertTrue(out.managedEntities[0] <= 1 && out.managedEntities[1] <= 1,
+        "managed entities " + out.managedEntities[0] + ", " + out.managedEntities[1]);
+    long growth = out.usedHeap[1] - out.usedHeap[0];
+    assertTrue(growth < 8L * 1024 * 1024, "heap grew by " + growth + " bytes over 40k rows");
+  }
+
+  private static PurchaseTxn purchaseTxn(String txnDate, String amount) {
+    PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+    txn.setTxnDate(Instant.parse(txnDate));
+    txn.setAmountCents(MoneyMath.toCents(new BigDecimal(amount)));
+    return txn;
+  }
+
+  /**
+   * Discards the export, sampling the persistence context size and used heap when given line numbers are reached
+   */
+  private class LineSampler extends OutputStream {
+
+    private final int[] sampleAt;
+    private final int[] managedEntities = new int[2];
+    private final long[] usedHeap = new long[2];
+    private int lines;
+
+    LineSampler(int... sampleAt) {
+      this.sampleAt = sampleAt;
+    }
+
+    @Override
+    public void write(int b) {
+      if (b == '\n') {
+        lines++;
+        for (int i = 0; i < sampleAt.length; i++) {
+          if (lines == sampleAt[i]) {
+            managedEntities[i] = entityManager.unwrap(Session.class).getStatistics().getEntityCount();
+            usedHeap[i] = usedHeapAfterGc();
+          }
+        }
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        write(b[i]);
+      }
+    }
+  }
+
+  private static long usedHeapAfterGc() {
+    System.gc();
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+}
@@ -1,25 +1,45 @@
 package com.example.purchase.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.example.purchase.api.model.PurchaseTxnCurrencyDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyRequestDto;
+import com.example.purchase.api.model.PurchaseTxnCurrencyResultDto;
 import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.config.TreasuryProperties;
 import com.example.purchase.persistence.dao.PurchaseTxnRepository;
 import com.example.purchase.persistence.model.PurchaseTxn;
 import com.example.purchase.support.TestHelper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 
 class PurchaseTxnServiceTest {
@@ -29,6 +49,13 @@ class PurchaseTxnServiceTest {
   private PurchaseTxnRepository repository;
   private PurchaseTxnService purchaseTxnService;
   private CurrencyConversionService currencyConversionService;
+  private TreasuryRateStore treasuryRateStore;
+  private ExchangeRateIndex exchangeRateIndex;
+  private SpendRollupService spendRollupService;
+  private PurchaseTxnConversionStore conversionStore;
+  private ConversionPrewarmer conversionPrewarmer;
+  private WriteBehindIngester writeBehindIngester;
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
   private final UUID createdId = UUID.randomUUID();
   private final UUID existingId = UUID.randomUUID();
@@ -38,18 +65,69 @@ class PurchaseTxnServiceTest {
   void setUp() {
     repository = mock(PurchaseTxnRepository.class);
     currencyConversionService = mock(CurrencyConversionService.class);
-    purchaseTxnService = new PurchaseTxnService(repository, currencyConversionService);
+    treasuryRateStore = mock(TreasuryRateStore.class);
+    exchangeRateIndex = new ExchangeRateIndex();
+    spendRollupService = mock(SpendRollupService.class);
+    conversionStore = mock(PurchaseTxnConversionStore.class);
+    conversionPrewarmer = mock(ConversionPrewarmer.class);
+    writeBehindIngester = mock(WriteBehindIngester.class);
+    when(writeBehindIngester.findPending(any())).thenReturn(Optional.empty());
+    purchaseTxnService = new PurchaseTxnService(repository,
+        new ExchangeRateResolver(exchangeRateIndex, treasuryRateStore, currencyConversionService,
+            new ExchangeRateLookupMetrics(meterRegistry, new TreasuryProperties())),
+        spendRollupService, new TransactionTemplate(mock(PlatformTransactionManager.class)), conversionStore,
+        conversionPrewarmer, writeBehindIngester);
   }
 
   // happy path
   @Test
   void createPurchaseTxn() {
-    PurchaseTxn data = TestHelper.createValidPurchaseTxn();
-    data.setId(createdId);
-    when(repository.save(any())).thenReturn(data);
+    // id assigned on insert
+    doAnswer(invocation -> {
+      List<PurchaseTxn> data = invocation.getArgument(0);
+      data.forEach(txn -> txn.setId(createdId));
+      return null;
+    }).when(repository).insertAll(any());
 
     PurchaseTxnDto dto = purchaseTxnService.createPurchaseTxn(TestHelper.createValidPurchaseTxnDto());
     assertEquals(createdId, dto.getId());
+    verify(spendRollupService, times(1)).createMissingRollups(any());
+    verify(spendRollupService, times(1)).add(argThat(txns -> createdId.equals(txns.iterator().next().getId())));
+    verify(conversionPrewarmer, times(1)).prewarm(argThat(txn -> createdId.equals(txn.getId())));
+  }
+
+  @Test
+  void createPurchaseTxn_suppliedIdKept() {
+    PurchaseTxnDto request = TestHelper.createValidPurchaseTxnDto();
+    request.setId(existingId);
+
+    PurchaseTxnDto dto = purchaseTxnService.createPurchaseTxn(request);
+    assertEquals(existingId, dto.getId());
+    // inserted, rather than saved, which would merge it onto the transaction holding the id
+    verify(repository, times(1)).insertAll(argThat(txns -> existingId.equals(txns.get(0).getId())));
+    verify(repository, never()).save(any());
+  }
+
+  @Test
+  void createPurchaseTxns() {
+    // ids are assigned on insert
+    doAnswer(invocation -> {
+      List<PurchaseTxn> data = invocation.getArgument(0);
+      data.forEach(txn -> txn.setId(UUID.randomUUID()));
+      return null;
+    }).when(repository).insertAll(any());
+
+    PurchaseTxnDto first = TestHelper.createValidPurchaseTxnDto();
+    PurchaseTxnDto second = TestHelper.createValidPurchaseTxnDto();
+    second.setDescription("Hotel in Sydney");
+    List<PurchaseTxnDto> dtos = purchaseTxnService.createPurchaseTxns(List.of(first, second));
+
+    verify(repository, times(1)).insertAll(any());
+    verify(repository, never()).save(any());
+    verify(spendRollupService, times(1)).add(any());
+    assertEquals(2, dtos.size());
+    assertNotNull(dtos.get(0).getId());
+    assertEquals("Hotel in Sydney", dtos.get(1).getDescription());
   }
 
   // happy path
@@ -61,15 +139,16 @@ class PurchaseTxnServiceTest {
     when(repository.findById(any())).thenReturn(
         Optional.of(purchaseTxn)
     );
-    when(currencyConversionService.getExchangeRate(any(), any(), any())).thenReturn(
-        Optional.of(new BigDecimal("0.121111113"))
+    when(currencyConversionService.getExchangeRateAsync(any(), any(), any())).thenReturn(
+        CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113")))
     );
 
-    PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC);
+    PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC)
+        .join();
     verify(repository, times(1)).findById(purchaseTxn.getId());
     OffsetDateTime dateStart = OffsetDateTime.parse("2019-04-12T07:20:50.520Z");
     OffsetDateTime dateEnd = OffsetDateTime.parse("2019-10-12T07:20:50.520Z");
-    verify(currencyConversionService, times(1)).getExchangeRate(COUNTRY_CURRENCY_DESC,
+    verify(currencyConversionService, times(1)).getExchangeRateAsync(COUNTRY_CURRENCY_DESC,
         dateStart, dateEnd);
 
     assertEquals(purchaseTxn.getId(), dto.getId());
@@ -79,6 +158,101 @@ class PurchaseTxnServiceTest {
     assertEquals(COUNTRY_CURRENCY_DESC, dto.getCountryCurrencyDesc());
     assertEquals("0.121111113", dto.getExchangeRate().toString());
     assertEquals("24.22", dto.getAmountConverted().toString()); // verify to 2 decimal places
+    verify(conversionStore, times(1)).save(dto);
+  }
+
+  // rate from the Treasury API: stored off the OkHttp thread completing the lookup
+  @Test
+  void getPurchaseTxnCurrency_treasuryRate_storedAsync() {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+    when(repository.findById(existingId)).thenReturn(Optional.of(purchaseTxn));
+    CompletableFuture<Optional<BigDecimal>> exchangeRate = new CompletableFuture<>();
+    when(currencyConversionService.getExchangeRateAsync(any(), any(), any())).thenReturn(exchangeRate);
+
+    CompletableFuture<PurchaseTxnCurrencyDto> converted = purchaseTxnService.getPurchaseTxnCurrency(existingId,
+        COUNTRY_CURRENCY_DESC);
+    exchangeRate.complete(Optional.of(new BigDecimal("0.121111113")));
+
+    verify(conversionStore, times(1)).saveAsync(converted.join());
+    verify(conversionStore, never()).save(any());
+  }
+
+  // converted before: the stored conversion, neither the transaction nor the rate looked up
+  @Test
+  void getPurchaseTxnCurrency_storedConversion() {
+    PurchaseTxnCurrencyDto stored = new PurchaseTxnCurrencyDto();
+    stored.setId(existingId);
+    when(conversionStore.find(existingId, COUNTRY_CURRENCY_DESC)).thenReturn(Optional.of(stored));
+
+    assertEquals(stored, purchaseTxnService.getPurchaseTxnCurrency(existingId, COUNTRY_CURRENCY_DESC).join());
+    verify(repository, never()).findById(any());
+    verify(currencyConversionService, never()).getExchangeRateAsync(any(), any(), any());
+    verify(conversionStore, never()).save(any());
+  }
+
+  // appended in write-behind mode, not yet stored: read your writes
+  @Test
+  void getPurchaseTxnCurrency_pendingWriteBehind() {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+    when(writeBehindIngester.findPending(existingId)).thenReturn(Optional.of(purchaseTxn));
+    when(currencyConversionService.getExchangeRateAsync(any(), any(), any())).thenReturn(
+        CompletableFuture.completedFuture(Optional.of(new BigDecimal("0.121111113")))
+    );
+
+    PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(existingId, COUNTRY_CURRENCY_DESC).join();
+    assertEquals(existingId, dto.getId());
+    assertEquals("24.22", dto.getAmountConverted().toString());
+    verify(repository, never()).findById(any());
+  }
+
+  // rate found in the local copy of the Treasury dataset, no Treasury API call
+  @Test
+  void getPurchaseTxnCurrency_localRate() throws Exception {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+
+    when(repository.findById(any())).thenReturn(
+        Optional.of(purchaseTxn)
+    );
+    when(treasuryRateStore.covers(any())).thenReturn(true);
+    when(treasuryRateStore.findExchangeRate(any())).thenReturn(
+        Optional.of(new BigDecimal("0.121111113"))
+    );
+
+    PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC)
+        .join();
+    verify(treasuryRateStore, times(1)).findExchangeRate(new ExchangeRateKey(COUNTRY_CURRENCY_DESC,
+        LocalDate.parse("2019-04-12"), LocalDate.parse("2019-10-12")));
+    verify(currencyConversionService, never()).getExchangeRateAsync(any(), any(), any());
+
+    assertEquals("24.22", dto.getAmountConverted().toString());
+    assertEquals(1, lookups(COUNTRY_CURRENCY_DESC, "dataset", "found"));
+  }
+
+  // rate found in the in-memory index: latest on or before the purchase date, within 6 months
+  @Test
+  void getPurchaseTxnCurrency_indexedRate() throws Exception {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+
+    when(repository.findById(any())).thenReturn(
+        Optional.of(purchaseTxn)
+    );
+    exchangeRateIndex.add(COUNTRY_CURRENCY_DESC, List.of(
+            new ExchangeRateIndex.Record(LocalDate.parse("2019-06-30"), new BigDecimal("0.121111113")),
+            new ExchangeRateIndex.Record(LocalDate.parse("2019-12-31"), new BigDecimal("0.2"))),
+        LocalDate.parse("2019-01-01"), LocalDate.parse("2019-12-31"));
+
+    PurchaseTxnCurrencyDto dto = purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC)
+        .join();
+    verify(treasuryRateStore, never()).findExchangeRate(any());
+    verify(currencyConversionService, never()).getExchangeRateAsync(any(), any(), any());
+
+    assertEquals("0.121111113", dto.getExchangeRate().toString());
+    assertEquals("24.22", dto.getAmountConverted().toString());
+    assertEquals(1, lookups(COUNTRY_CURRENCY_DESC, "index", "found"));
   }
 
   @Test
@@ -90,9 +264,9 @@ class PurchaseTxnServiceTest {
         Optional.empty()
     );
 
-    HttpClientErrorException ex = assertThrows(HttpClientErrorException.class,
-        () -> purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC));
-    assertEquals(HttpStatus.NOT_FOUND, ex.getStatusCode());
+    CompletionException ex = assertThrows(CompletionException.class,
+        () -> purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC).join());
+    assertEquals(HttpStatus.NOT_FOUND, ((HttpClientErrorException) ex.getCause()).getStatusCode());
   }
 
   @Test
@@ -103,12 +277,127 @@ class PurchaseTxnServiceTest {
     when(repository.findById(any())).thenReturn(
         Optional.of(purchaseTxn)
     );
-    when(currencyConversionService.getExchangeRate(any(), any(), any())).thenReturn(
+    when(currencyConversionService.getExchangeRateAsync(any(), any(), any())).thenReturn(
+        CompletableFuture.completedFuture(Optional.empty())
+    );
+
+    CompletionException ex = assertThrows(CompletionException.class,
+        () -> purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC).join());
+    assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, ((HttpClientErrorException) ex.getCause()).getStatusCode());
+  }
+
+  // cancelling the result, e.g. on request timeout, cancels the Treasury API lookup it waits on
+  @Test
+  void getPurchaseTxnCurrency_cancelled() {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+
+    when(repository.findById(any())).thenReturn(
+        Optional.of(purchaseTxn)
+    );
+    CompletableFuture<Optional<BigDecimal>> lookup = new CompletableFuture<>();
+    when(currencyConversionService.getExchangeRateAsync(any(), any(), any())).thenReturn(lookup);
+
+    CompletableFuture<PurchaseTxnCurrencyDto> dto = purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(),
+        COUNTRY_CURRENCY_DESC);
+    assertFalse(dto.isDone());
+    dto.cancel(true);
+
+    assertTrue(lookup.isCancelled());
+  }
+
+  // one query for all transactions, one rate lookup per distinct (currency, date window)
+  @Test
+  void getPurchaseTxnCurrencies() throws Exception {
+    PurchaseTxn first = TestHelper.createValidPurchaseTxn();
+    first.setId(existingId);
+    // same day, so same date window
+    PurchaseTxn second = TestHelper.createValidPurchaseTxn();
+    second.setId(createdId);
+    second.setAmountCents(10000L);
+    second.setTxnDate(first.getTxnDate().plusSeconds(60));
+
+    when(repository.findAllById(any())).thenReturn(List.of(first, second));
+    when(currencyConversionService.getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any())).thenReturn(
+        Optional.of(new BigDecimal("0.121111113"))
+    );
+    when(currencyConversionService.getExchangeRate(eq("Narnia-Crown"), any(), any())).thenReturn(
         Optional.empty()
     );
 
-    HttpClientErrorException ex = assertThrows(HttpClientErrorException.class,
-        () -> purchaseTxnService.getPurchaseTxnCurrency(purchaseTxn.getId(), COUNTRY_CURRENCY_DESC));
-    assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, ex.getStatusCode());
+    List<PurchaseTxnCurrencyResultDto> results = purchaseTxnService.getPurchaseTxnCurrencies(List.of(
+        request(existingId, COUNTRY_CURRENCY_DESC),
+        request(createdId, COUNTRY_CURRENCY_DESC),
+        request(nonExistentId, COUNTRY_CURRENCY_DESC),
+        request(existingId, "Narnia-Crown"),
+        request(createdId, COUNTRY_CURRENCY_DESC)));
+
+    verify(repository, times(1)).findAllById(Set.of(existingId, createdId, nonExistentId));
+    verify(repository, never()).findById(any());
+    verify(currencyConversionService, times(1)).getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any());
+    verify(currencyConversionService, times(1)).getExchangeRate(eq("Narnia-Crown"), any(), any());
+
+    assertEquals(5, results.size());
+    assertEquals("24.22", results.get(0).getPurchaseTxnCurrency().getAmountConverted().toString());
+    assertEquals("12.11", results.get(1).getPurchaseTxnCurrency().getAmountConverted().toString());
+    assertEquals(createdId, results.get(1).getPurchaseTxnCurrency().getId());
+    assertEquals(404, results.get(2).getError().getCode());
+    assertNull(results.get(2).getPurchaseTxnCurrency());
+    assertEquals(422, results.get(3).getError().getCode());
+    assertEquals(results.get(1), results.get(4));
+  }
+
+  // a failed rate lookup only fails the items needing that rate, and is not retried for each of them
+  @Test
+  void getPurchaseTxnCurrencies_lookupFailed() throws Exception {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+
+    when(repository.findAllById(any())).thenReturn(List.of(purchaseTxn));
+    when(currencyConversionService.getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any())).thenReturn(
+        Optional.of(new BigDecimal("0.121111113"))
+    );
+    when(currencyConversionService.getExchangeRate(eq("Canada-Dollar"), any(), any())).thenThrow(
+        new IOException("Treasury API down")
+    );
+
+    List<PurchaseTxnCurrencyResultDto> results = purchaseTxnService.getPurchaseTxnCurrencies(List.of(
+        request(existingId, "Canada-Dollar"),
+        request(existingId, COUNTRY_CURRENCY_DESC),
+        request(existingId, "Canada-Dollar")));
+
+    verify(currencyConversionService, times(1)).getExchangeRate(eq("Canada-Dollar"), any(), any());
+    assertEquals(500, results.get(0).getError().getCode());
+    assertNotNull(results.get(1).getPurchaseTxnCurrency());
+    assertEquals(500, results.get(2).getError().getCode());
+    assertEquals(1, lookups(COUNTRY_CURRENCY_DESC, "treasury", "found"));
+    // no rate ever found for it, so not tagged
+    assertEquals(1, lookups(ExchangeRateLookupMetrics.OTHER, "treasury", "failed"));
+  }
+
+  @Test
+  void getPurchaseTxnCurrencies_treasuryUnavailable() throws Exception {
+    PurchaseTxn purchaseTxn = TestHelper.createValidPurchaseTxn();
+    purchaseTxn.setId(existingId);
+
+    when(repository.findAllById(any())).thenReturn(List.of(purchaseTxn));
+    when(currencyConversionService.getExchangeRate(eq(COUNTRY_CURRENCY_DESC), any(), any())).thenThrow(
+        new CircuitBreakerOpenException("treasury circuit breaker is open")
+    );
+
+    List<PurchaseTxnCurrencyResultDto> results = purchaseTxnService.getPurchaseTxnCurrencies(List.of(
+        request(existingId, COUNTRY_CURRENCY_DESC)));
+
+    assertEquals(503, results.get(0).getError().getCode());
+  }
+
+  private static PurchaseTxnCurrencyRequestDto request(UUID id, String countryCurrencyDesc) {
+    return new PurchaseTxnCurrencyRequestDto().id(id).countryCurrencyDesc(countryCurrencyDesc);
+  }
+
+  private double lookups(String currency, String source, String result) {
+    return meterRegistry.get(ExchangeRateLookupMetrics.NAME)
+        .tags("currency", currency, "source", source, "result", result)
+        .counter().count();
   }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.api.model.SpendTotalDto;
+import com.example.purchase.persistence.dao.DailySpendRepository;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.DailySpend;
+import com.example.purchase.support.TestHelper;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+
+/**
+ * Reconciliation of the daily spend rollups, and of the totals read from them, against a full recomputation from the
+ * stored purchase transactions (using actual in-memory test DB). Run during mvn verify stage
+ */
+@SpringBootTest
+class SpendRollupIntegrationTest {
+
+  private static final String COUNTRY_CURRENCY_DESC = "Mexico-Peso";
+  private static final LocalDate FIRST_DAY = LocalDate.parse("2023-01-01");
+  private static final int DAYS = 90;
+  // no exchange rate available for it
+  private static final LocalDate MISSING_RATE_DAY = LocalDate.parse("2023-02-14");
+  private static final BigDecimal HALF_CENT = new BigDecimal("0.005");
+
+  @Autowired
+  private PurchaseTxnService purchaseTxnService;
+  @Autowired
+  private SpendRollupService spendRollupService;
+  @Autowired
+  private PurchaseTxnRepository repository;
+  @Autowired
+  private DailySpendRepository dailySpendRepository;
+  @SpyBean
+  private CurrencyConversionService currencyConversionService;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    tearDown();
+    // integration test would not normally call external API
+    doAnswer(invocation -> exchangeRate(invocation.getArgument(2, OffsetDateTime.class).toLocalDate()))
+        .when(currencyConversionService).getExchangeRate(anyString(), any(), any());
+  }
+
+  @AfterEach
+  void tearDown() {
+    repository.deleteAll();
+    dailySpendRepository.deleteAll();
+  }
+
+  @Test
+  void rollups_matchRecomputation() throws Exception {
+    Random random = new Random(19);
+    List<PurchaseTxnDto> batch = new ArrayList<>();
+    for (int i = 0; i < 2_000; i++) {
+      PurchaseTxnDto dto = randomPurchaseTxnDto(random, FIRST_DAY.plusDays(random.nextInt(DAYS)));
+      if (random.nextBoolean()) {
+        purchaseTxnService.createPurchaseTxn(dto);
+      } else {
+        batch.add(dto);
+        if (batch.size() == 100) {
+          purchaseTxnService.createPurchaseTxns(batch);
+          batch.clear();
+        }
+      }
+    }
+    purchaseTxnService.createPurchaseTxns(batch);
+
+    // concurrent writers of a day without a rollup yet
+    LocalDate newDay = FIRST_DAY.plusDays(DAYS);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        long seed = i;
+        futures.add(executor.submit(() -> {
+          Random threadRandom = new Random(seed);
+          for (int j = 0; j < 25; j++) {
+            PurchaseTxnDto dto = randomPurchaseTxnDto(threadRandom, newDay);
+            if (j % 5 == 0) {
+              purchaseTxnService.createPurchaseTxns(List.of(dto, randomPurchaseTxnDto(threadRandom, newDay)));
+            } else {
+              purchaseTxnService.createPurchaseTxn(dto);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Map<LocalDate, DailySpend> expected = recompute();
+    assertEquals(DAYS + 1, expected.size());
+    assertEquals(8 * 30L, expected.get(newDay).getTxnCount());
+    Map<LocalDate, DailySpend> rollups = new TreeMap<>();
+    dailySpendRepository.findAll().forEach(rollup -> rollups.put(rollup.getTxnDay(), rollup));
+    assertEquals(expected, rollups);
+
+    assertTotals(expected, SpendRollupService.Period.DAY, null, null);
+    assertTotals(expected, SpendRollupService.Period.MONTH, null, null);
+    assertTotals(expected, SpendRollupService.Period.DAY, FIRST_DAY.plusDays(10), FIRST_DAY.plusDays(40));
+    assertTotals(expected, SpendRollupService.Period.MONTH, FIRST_DAY.plusDays(10), FIRST_DAY.plusDays(40));
+  }
+
+  // a day's total is converted, then rounded, once: not the sum of its transactions' rounded conversions
+  @Test
+  void dayTotal_convertedOnceThenRounded() {
+    PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+    dto.setTxnDate(OffsetDateTime.parse("2023-01-01T10:00:00Z"));
+    dto.setAmount(new BigDecimal("0.16"));
+    purchaseTxnService.createPurchaseTxns(List.of(dto, dto));
+
+    List<SpendTotalDto> totals = spendRollupService.getSpendTotals(SpendRollupService.Period.DAY, FIRST_DAY, FIRST_DAY,
+        COUNTRY_CURRENCY_DESC);
+    assertEquals(1, totals.size());
+    assertEquals(new BigDecimal("0.32"), totals.get(0).getAmount());
+    // at 17.037 (day 1): 0.32 * 17.037 = 5.45184, rounded to 5.45, where each 0.16 * 17.037 = 2.72592 rounds to 2.73
+    assertEquals(new BigDecimal("5.45"), totals.get(0).getAmountConverted());
+  }
+
+  /**
+   * Compares the totals read from the rollups with those recomputed from the transactions: in USD exactly, and
+   * converted with each transaction converted on its own, without rounding. A day's total is converted once and rounded
+   * to the cent (half up), so a period's converted total may be off the exact one by up to half a cent per day in it.
+   */
+  private void assertTotals(Map<LocalDate, DailySpend> days, SpendRollupService.Period period, LocalDate fromDate,
+      LocalDate toDate) {
+    Map<LocalDate, BigDecimal> exactConverted = recomputeConverted();
+    Map<LocalDate, SpendTotalDto> expected = new TreeMap<>();
+    Map<LocalDate, Integer> daysConverted = new TreeMap<>();
+    days.forEach((day, sum) -> {
+      if ((fromDate != null && day.isBefore(fromDate)) || (toDate != null && day.isAfter(toDate))) {
+        return;
+      }
+      LocalDate periodStart = period == SpendRollupService.Period.DAY ? day : day.withDayOfMonth(1);
+      SpendTotalDto total = expected.computeIfAbsent(periodStart, start -> new SpendTotalDto().periodStart(start)
+          .txnCount(0L).amount(BigDecimal.ZERO.setScale(2)).countryCurrencyDesc(COUNTRY_CURRENCY_DESC)
+          .amountConverted(BigDecimal.ZERO));
+      total.setTxnCount(total.getTxnCount() + sum.getTxnCount());
+      total.setAmount(total.getAmount().add(MoneyMath.fromCents(sum.getAmountCents())));
+      if (!exactConverted.containsKey(day) || total.getAmountConverted() == null) {
+        total.setAmountConverted(null);
+      } else {
+        total.setAmountConverted(total.getAmountConverted().add(exactConverted.get(day)));
+        daysConverted.merge(periodStart, 1, Integer::sum);
+      }
+    });
+
+    List<SpendTotalDto> totals = spendRollupService.getSpendTotals(period, fromDate, toDate, COUNTRY_CURRENCY_DESC);
+    assertEquals(expected.keySet(), totals.stream().map(SpendTotalDto::getPeriodStart).collect(Collectors.toSet()));
+    for (SpendTotalDto total : totals) {
+      SpendTotalDto expectedTotal = expected.get(total.getPeriodStart());
+      assertEquals(expectedTotal.getTxnCount(), total.getTxnCount());
+      assertEquals(expectedTotal.getAmount(), total.getAmount());
+      if (expectedTotal.getAmountConverted() == null) {
+        assertNull(total.getAmountConverted());
+        assertEquals(422, total.getError().getCode());
+      } else {
+        assertEquals(2, total.getAmountConverted().scale());
+        BigDecimal tolerance = HALF_CENT.multiply(BigDecimal.valueOf(daysConverted.get(total.getPeriodStart())));
+        BigDecimal difference = total.getAmountConverted().subtract(expectedTotal.getAmountConverted()).abs();
+        assertTrue(difference.compareTo(tolerance) <= 0, () -> total.getPeriodStart() + ": "
+            + total.getAmountConverted() + " is " + difference + " off " + expectedTotal.getAmountConverted());
+        assertNull(total.getError());
+      }
+    }
+  }
+
+  /**
+   * @return the stored transactions converted one by one at their day's exchange rate, unrounded, summed by day (UTC),
+   * for the days with an exchange rate
+   */
+  private Map<LocalDate, BigDecimal> recomputeConverted() {
+    Map<LocalDate, BigDecimal> days = new TreeMap<>();
+    repository.findAll().forEach(txn -> {
+      LocalDate day = txn.getTxnDate().atOffset(ZoneOffset.UTC).toLocalDate();
+      exchangeRate(day).ifPresent(rate -> days.merge(day,
+          BigDecimal.valueOf(txn.getAmountCents(), 2).multiply(rate), BigDecimal::add));
+    });
+    return days;
+  }
+
+  /**
+   * @return the number and total amount of the stored transactions, by day (UTC)
+   */
+  private Map<LocalDate, DailySpend> recompute() {
+    Map<LocalDate, DailySpend> days = new TreeMap<>();
+    StreamSupport.stream(repository.findAll().spliterator(), false).forEach(txn -> {
+      LocalDate day = txn.getTxnDate().atOffset(ZoneOffset.UTC).toLocalDate();
+      DailySpend sum = days.computeIfAbsent(day, d -> {
+        DailySpend rollup = new DailySpend();
+        rollup.setTxnDay(d);
+        return rollup;
+      });
+      sum.setTxnCount(sum.getTxnCount() + 1);
+      sum.setAmountCents(sum.getAmountCents() + txn.getAmountCents());
+    });
+    return days;
+  }
+
+  private static PurchaseTxnDto randomPurchaseTxnDto(Random random, LocalDate day) {
+    PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+    dto.setTxnDate(day.atStartOfDay().atOffset(ZoneOffset.UTC).plusSeconds(random.nextInt(86_400)));
+    dto.setAmount(MoneyMath.fromCents(random.nextInt(10_000_000)));
+    return dto;
+  }
+
+  /**
+   * @return the exchange rate for transactions on the day, a different one each day
+   */
+  private static Optional<BigDecimal> exchangeRate(LocalDate day) {
+    return day.equals(MISSING_RATE_DAY)
+        ? Optional.empty()
+        : Optional.of(BigDecimal.valueOf(17_000L + day.getDayOfYear() * 37L, 3));
+  }
+
+}
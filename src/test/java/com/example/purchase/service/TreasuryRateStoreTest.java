@@ -0,0 +1,182 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.example.purchase.config.Config;
+import com.example.purchase.config.TreasuryProperties;
+import com.example.purchase.persistence.dao.TreasuryRateRepository;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+@DataJpaTest
+class TreasuryRateStoreTest {
+
+  private static final String PAGE_1 = "{\"data\":[{\"country_currency_desc\":\"Mexico-Peso\",\"exchange_rate\":\"23.791\",\"record_date\":\"2020-03-31\"},{\"country_currency_desc\":\"Canada-Dollar\",\"exchange_rate\":\"1.42\",\"record_date\":\"2020-03-31\"}],\"links\":{\"next\":\"&page%5Bnumber%5D=2&page%5Bsize%5D=2\"}}";
+  private static final String PAGE_2 = "{\"data\":[{\"country_currency_desc\":\"Mexico-Peso\",\"exchange_rate\":\"23.164\",\"record_date\":\"2020-06-30\"}],\"links\":{\"next\":null}}";
+  private static final String INCREMENTAL = "{\"data\":[{\"country_currency_desc\":\"Mexico-Peso\",\"exchange_rate\":\"23.200\",\"record_date\":\"2020-06-30\"},{\"country_currency_desc\":\"Mexico-Peso\",\"exchange_rate\":\"20.067\",\"record_date\":\"2020-09-30\"}],\"links\":{\"next\":null}}";
+
+  @Autowired
+  private TreasuryRateRepository repository;
+
+  private MockWebServer server;
+  private ExchangeRateIndex exchangeRateIndex;
+  private PurchaseTxnConversionStore conversionStore;
+  private TreasuryRateStore store;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    TreasuryProperties properties = new TreasuryProperties();
+    properties.setUrl(server.url("/rates_of_exchange").toString());
+    properties.getSync().setPageSize(2);
+    exchangeRateIndex = new ExchangeRateIndex();
+    conversionStore = mock(PurchaseTxnConversionStore.class);
+    store = new TreasuryRateStore(new OkHttpClient(), new Config().objectMapper(), properties, repository,
+        exchangeRateIndex, conversionStore);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  void sync_fullThenIncremental() throws Exception {
+    ExchangeRateKey key = new ExchangeRateKey("Mexico-Peso", LocalDate.parse("2020-04-01"),
+        LocalDate.parse("2020-10-01"));
+    assertFalse(store.covers(key));
+
+    // full load follows the pagination links
+    server.enqueue(new MockResponse().setBody(PAGE_1));
+    server.enqueue(new MockResponse().setBody(PAGE_2));
+    assertEquals(3, store.sync());
+    assertEquals(3L, repository.count());
+    verify(conversionStore, never()).invalidate(any(), any());
+    verify(conversionStore, never()).invalidate(any(), any(), any());
+    RecordedRequest first = server.takeRequest();
+    assertNull(first.getRequestUrl().queryParameter("filter"));
+    assertEquals("2", first.getRequestUrl().queryParameter("page[size]"));
+    assertEquals("2", server.takeRequest().getRequestUrl().queryParameter("page[number]"));
+
+    assertTrue(store.covers(key));
+    assertEquals(new BigDecimal("23.164"), store.findExchangeRate(key).get());
+    assertEquals(3, exchangeRateIndex.size());
+    assertEquals(new BigDecimal("23.164"), ExchangeRateIndex.fromFixedPoint(
+        exchangeRateIndex.lookup("Mexico-Peso", key.getDateStart(), key.getDateEnd())));
+
+    // incremental sync from the latest record_date held, updating amended records in place
+    server.enqueue(new MockResponse().setBody(INCREMENTAL));
+    assertEquals(2, store.sync());
+    assertEquals("record_date:gte:2020-06-30", server.takeRequest().getRequestUrl().queryParameter("filter"));
+    assertEquals(4L, repository.count());
+    // 2020-06-30 revised, 2020-09-30 published
+    verify(conversionStore, times(1)).invalidate(eq("Mexico-Peso"), eq(LocalDate.parse("2020-06-30")),
+        argThat(previousRate -> previousRate.compareTo(new BigDecimal("23.164")) == 0));
+    verify(conversionStore, times(1)).invalidate("Mexico-Peso", LocalDate.parse("2020-09-30"));
+    verify(conversionStore, never()).invalidate("Mexico-Peso", LocalDate.parse("2020-06-30"));
+    assertEquals(new BigDecimal("20.067"), store.findExchangeRate(key).get());
+    assertEquals(new BigDecimal("23.2"), store.findExchangeRate(new ExchangeRateKey("Mexico-Peso",
+        LocalDate.parse("2020-04-01"), LocalDate.parse("2020-07-01"))).get());
+    assertTrue(store.findExchangeRate(new ExchangeRateKey("Mexico-Peso",
+        LocalDate.parse("2019-01-01"), LocalDate.parse("2019-12-31"))).isEmpty());
+  }
+
+  @Test
+  void sync_recentDatesNotCovered() throws Exception {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    LocalDate settled = today.minus(CurrencyConversionService.PUBLICATION_LAG);
+    LocalDate recent = today.minusDays(5);
+    server.enqueue(new MockResponse().setBody("{\"data\":[{\"country_currency_desc\":\"Mexico-Peso\","
+        + "\"exchange_rate\":\"17.1\",\"record_date\":\"" + recent + "\"}],\"links\":{\"next\":null}}"));
+    store.sync();
+
+    // rates for the last dates may still be published: looked up remotely
+    assertFalse(store.covers(new ExchangeRateKey("Mexico-Peso", today.minusMonths(6), today)));
+    assertEquals(ExchangeRateIndex.UNKNOWN, exchangeRateIndex.lookup("Mexico-Peso", today.minusMonths(6), today));
+    ExchangeRateKey settledKey = new ExchangeRateKey("Mexico-Peso", settled.minusMonths(6), settled);
+    assertTrue(store.covers(settledKey));
+    assertEquals(ExchangeRateIndex.NOT_FOUND, exchangeRateIndex.lookup("Mexico-Peso", settledKey.getDateStart(),
+        settledKey.getDateEnd()));
+
+    // re-synced from the start of the publication lag rather than the latest record_date held
+    server.takeRequest();
+    server.enqueue(new MockResponse().setBody("{\"data\":[],\"links\":{\"next\":null}}"));
+    store.sync();
+    assertEquals("record_date:gte:" + settled, server.takeRequest().getRequestUrl().queryParameter("filter"));
+  }
+
+  @Test
+  void refresh_reloadsCurrency() throws Exception {
+    server.enqueue(new MockResponse().setBody(PAGE_1));
+    server.enqueue(new MockResponse().setBody(PAGE_2));
+    store.sync();
+    server.takeRequest();
+    server.takeRequest();
+
+    // 2020-06-30 revised
+    server.enqueue(new MockResponse().setBody("{\"data\":[{\"country_currency_desc\":\"Mexico-Peso\","
+        + "\"exchange_rate\":\"23.791\",\"record_date\":\"2020-03-31\"},{\"country_currency_desc\":\"Mexico-Peso\","
+        + "\"exchange_rate\":\"23.2\",\"record_date\":\"2020-06-30\"}],\"links\":{\"next\":null}}"));
+    assertEquals(2, store.refresh("Mexico-Peso"));
+    RecordedRequest request = server.takeRequest();
+    assertEquals("country_currency_desc:in:Mexico-Peso", request.getRequestUrl().queryParameter("filter"));
+    assertEquals("no-cache", request.getHeader("Cache-Control"));
+
+    ExchangeRateKey key = new ExchangeRateKey("Mexico-Peso", LocalDate.parse("2020-04-01"),
+        LocalDate.parse("2020-10-01"));
+    assertEquals(new BigDecimal("23.2"), store.findExchangeRate(key).get());
+    assertEquals(new BigDecimal("23.2"), ExchangeRateIndex.fromFixedPoint(
+        exchangeRateIndex.lookup("Mexico-Peso", key.getDateStart(), key.getDateEnd())));
+    assertEquals(3, exchangeRateIndex.size());
+    // only the conversions at the revised rate
+    verify(conversionStore, times(1)).invalidate(eq("Mexico-Peso"), eq(LocalDate.parse("2020-06-30")),
+        argThat(previousRate -> previousRate.compareTo(new BigDecimal("23.164")) == 0));
+    verify(conversionStore, never()).invalidate(any(), any());
+  }
+
+  @Test
+  void refresh_beforeSync_removesFromIndex() throws Exception {
+    exchangeRateIndex.add("Mexico-Peso", List.of(new ExchangeRateIndex.Record(LocalDate.parse("2020-06-30"),
+        new BigDecimal("23.164"))), LocalDate.parse("2020-04-01"), LocalDate.parse("2020-10-01"));
+
+    assertEquals(0, store.refresh("Mexico-Peso"));
+    assertEquals(0, server.getRequestCount());
+    assertEquals(ExchangeRateIndex.UNKNOWN, exchangeRateIndex.lookup("Mexico-Peso", LocalDate.parse("2020-04-01"),
+        LocalDate.parse("2020-10-01")));
+  }
+
+  @Test
+  void sync_failureKeepsLocalCopyUncovered() {
+    server.enqueue(new MockResponse().setResponseCode(503));
+    store.scheduledSync(); // disabled by default, does nothing
+    assertEquals(0, server.getRequestCount());
+
+    ExchangeRateKey key = new ExchangeRateKey("Mexico-Peso", LocalDate.parse("2020-04-01"),
+        LocalDate.parse("2020-10-01"));
+    assertFalse(store.covers(key));
+  }
+
+}
@@ -0,0 +1,84 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TreasuryResponseParserTest {
+
+  private final TreasuryResponseParser parser = new TreasuryResponseParser(new JsonFactory());
+
+  @Test
+  void parse_firstRecordOnly() throws IOException {
+    // nothing after the first record is read, so this need not even be complete
+    TreasuryResponseParser.Result result = parse(
+        "{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-12-31\"},{\"exchange_rate\":", false);
+
+    assertEquals(record("2020-12-31", "19.913"), result.getLatest());
+    assertNull(result.getRecords());
+  }
+
+  @Test
+  void parse_allRecords() throws IOException {
+    TreasuryResponseParser.Result result = parse("{\"data\":["
+        + "{\"exchange_rate\":\"20.067\",\"record_date\":\"2020-09-30\"},"
+        + "{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-12-31\"}],"
+        + "\"meta\":{\"count\":2}}", true);
+
+    // latest by record_date, whatever the order
+    assertEquals(record("2020-12-31", "19.913"), result.getLatest());
+    assertEquals(List.of(record("2020-09-30", "20.067"), record("2020-12-31", "19.913")), result.getRecords());
+  }
+
+  @Test
+  void parse_skipsOtherFields() throws IOException {
+    TreasuryResponseParser.Result result = parse("{\"meta\":{\"count\":1,\"labels\":{\"a\":[1,2]}},"
+        + "\"data\":[{\"country\":\"Mexico\",\"record_date\":\"2020-12-31\",\"nested\":{\"x\":[]},"
+        + "\"exchange_rate\":\"19.913\"}]}", true);
+
+    assertEquals(List.of(record("2020-12-31", "19.913")), result.getRecords());
+  }
+
+  @Test
+  void parse_noRecords() throws IOException {
+    TreasuryResponseParser.Result result = parse("{\"data\":[],\"meta\":{\"count\":0}}", true);
+
+    assertNull(result.getLatest());
+    assertEquals(List.of(), result.getRecords());
+    assertNull(parse("{\"data\":[]}", false).getLatest());
+  }
+
+  @Test
+  void parse_unrecognised() {
+    assertThrows(JsonParseException.class, () -> parse("[]", false));
+    assertThrows(JsonParseException.class, () -> parse("{\"meta\":{}}", false));
+    assertThrows(JsonParseException.class, () -> parse("{\"data\":{}}", false));
+    assertThrows(JsonParseException.class, () -> parse("{\"data\":[1]}", true));
+    assertThrows(JsonParseException.class, () -> parse("{\"data\":[{\"record_date\":\"2020-12-31\"}]}", false));
+    assertThrows(JsonParseException.class,
+        () -> parse("{\"data\":[{\"exchange_rate\":\"n/a\",\"record_date\":\"2020-12-31\"}]}", false));
+    assertThrows(JsonParseException.class,
+        () -> parse("{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"2020-13-31\"}]}", false));
+    assertThrows(JsonParseException.class,
+        () -> parse("{\"data\":[{\"exchange_rate\":\"19.913\",\"record_date\":\"31/12/2020\"}]}", false));
+  }
+
+  private TreasuryResponseParser.Result parse(String body, boolean allRecords) throws IOException {
+    return parser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), allRecords);
+  }
+
+  private static ExchangeRateIndex.Record record(String recordDate, String exchangeRate) {
+    return new ExchangeRateIndex.Record(LocalDate.parse(recordDate), new BigDecimal(exchangeRate));
+  }
+
+}
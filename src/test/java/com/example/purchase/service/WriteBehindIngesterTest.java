@@ -0,0 +1,281 @@
+package com.example.purchase.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.purchase.api.model.PurchaseTxnDto;
+import com.example.purchase.config.Config;
+import com.example.purchase.config.IngestProperties;
+import com.example.purchase.persistence.dao.PurchaseTxnRepository;
+import com.example.purchase.persistence.model.PurchaseTxn;
+import com.example.purchase.support.TestHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+class WriteBehindIngesterTest {
+
+  @TempDir
+  Path directory;
+
+  private final IngestProperties properties = new IngestProperties();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final ObjectMapper objectMapper = new Config().objectMapper();
+  private PurchaseTxnRepository repository;
+  private SpendRollupService spendRollupService;
+  private ConversionPrewarmer conversionPrewarmer;
+  private WriteBehindIngester ingester;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    properties.setMode(IngestProperties.Mode.WRITE_BEHIND);
+    properties.setDirectory(directory.toString());
+    // drained by the tests themselves
+    properties.setDrainInterval(Duration.ofHours(1L));
+    repository = mock(PurchaseTxnRepository.class);
+    spendRollupService = mock(SpendRollupService.class);
+    conversionPrewarmer = mock(ConversionPrewarmer.class);
+    ingester = start();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    ingester.shutdown();
+  }
+
+  @Test
+  void append_thenDrain() throws Exception {
+    PurchaseTxnDto first = ingester.append(TestHelper.createValidPurchaseTxnDto());
+    PurchaseTxnDto second = ingester.append(TestHelper.createValidPurchaseTxnDto());
+
+    assertEquals(7, first.getId().version());
+    assertTrue(ingester.findPending(first.getId()).isPresent());
+    assertEquals(2.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+
+    assertEquals(2, ingester.drain());
+    List<PurchaseTxn> stored = storedBatch();
+    assertEquals(List.of(first.getId(), second.getId()), ids(stored));
+    assertEquals(TestHelper.createValidPurchaseTxn().getAmountCents(), stored.get(0).getAmountCents());
+    verify(spendRollupService, times(1)).add(stored);
+    verify(conversionPrewarmer, times(2)).prewarm(any());
+    assertTrue(ingester.findPending(first.getId()).isEmpty());
+    assertEquals(0.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+    assertEquals(0, ingester.drain());
+  }
+
+  @Test
+  void append_backlogFull_tooManyRequests() {
+    properties.setMaxBacklog(1);
+    ingester.append(TestHelper.createValidPurchaseTxnDto());
+
+    HttpClientErrorException ex = assertThrows(HttpClientErrorException.class,
+        () -> ingester.append(TestHelper.createValidPurchaseTxnDto()));
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS, ex.getStatusCode());
+    assertEquals(1.0, meterRegistry.get(WriteBehindIngester.REJECTED).counter().count());
+    assertEquals(1.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+  }
+
+  @Test
+  void append_shuttingDown_serviceUnavailable() throws Exception {
+    UUID appended = ingester.append(TestHelper.createValidPurchaseTxnDto()).getId();
+    ingester.shutdown();
+
+    HttpServerErrorException ex = assertThrows(HttpServerErrorException.class,
+        () -> ingester.append(TestHelper.createValidPurchaseTxnDto()));
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ex.getStatusCode());
+    assertEquals(1.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+
+    // the one appended before is stored once started again
+    ingester = start();
+    assertEquals(1, ingester.drain());
+    assertEquals(List.of(appended), ids(storedBatch()));
+  }
+
+  @Test
+  void append_suppliedId_keptUnlessTaken() throws Exception {
+    UUID stored = UUID.randomUUID();
+    when(repository.existsById(stored)).thenReturn(true);
+    PurchaseTxnDto dto = TestHelper.createValidPurchaseTxnDto();
+    dto.setId(UUID.randomUUID());
+
+    assertEquals(dto.getId(), ingester.append(dto).getId());
+    HttpClientErrorException pending = assertThrows(HttpClientErrorException.class, () -> ingester.append(dto));
+    assertEquals(HttpStatus.CONFLICT, pending.getStatusCode());
+    dto.setId(stored);
+    HttpClientErrorException existing = assertThrows(HttpClientErrorException.class, () -> ingester.append(dto));
+    assertEquals(HttpStatus.CONFLICT, existing.getStatusCode());
+    assertEquals(1.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+    assertEquals(1, ingester.drain());
+  }
+
+  @Test
+  void drain_failed_retried() throws Exception {
+    PurchaseTxnDto appended = ingester.append(TestHelper.createValidPurchaseTxnDto());
+    doThrow(new IllegalStateException("rollup missing")).doNothing().when(spendRollupService).add(any());
+
+    assertThrows(IllegalStateException.class, () -> ingester.drain());
+    assertTrue(ingester.findPending(appended.getId()).isPresent());
+    assertEquals(1, ingester.drain());
+    assertTrue(ingester.findPending(appended.getId()).isEmpty());
+  }
+
+  @Test
+  void drain_failingTransaction_deadLettered() throws Exception {
+    PurchaseTxnDto first = ingester.append(TestHelper.createValidPurchaseTxnDto());
+    PurchaseTxnDto duplicate = ingester.append(TestHelper.createValidPurchaseTxnDto().description("Hotel in Sydney"));
+    PurchaseTxnDto last = ingester.append(TestHelper.createValidPurchaseTxnDto());
+    doAnswer(invocation -> {
+      List<PurchaseTxn> txns = invocation.getArgument(0);
+      if (ids(txns).contains(duplicate.getId())) {
+        throw new DataIntegrityViolationException("duplicate id");
+      }
+      return null;
+    }).when(repository).insertAll(any());
+
+    // retried as a batch, then one at a time
+    assertThrows(DataIntegrityViolationException.class, () -> ingester.drain());
+    assertThrows(DataIntegrityViolationException.class, () -> ingester.drain());
+    assertEquals(3, ingester.drain());
+
+    verify(repository, times(1)).insertAll(argThat(txns -> ids(txns).equals(List.of(first.getId()))));
+    verify(repository, times(1)).insertAll(argThat(txns -> ids(txns).equals(List.of(last.getId()))));
+    verify(conversionPrewarmer, times(2)).prewarm(any());
+    List<String> deadLetters = Files.readAllLines(directory.resolve(WriteBehindIngester.DEAD_LETTER_FILE));
+    assertEquals(List.of(duplicate), deadLetters.stream().map(this::readDto).collect(Collectors.toList()));
+    assertEquals(1.0, meterRegistry.get(WriteBehindIngester.DEAD_LETTERED).counter().count());
+    assertTrue(ingester.findPending(duplicate.getId()).isEmpty());
+    assertTrue(ingester.findPending(last.getId()).isEmpty());
+    assertEquals(0.0, meterRegistry.get(WriteBehindIngester.BACKLOG).gauge().value());
+    assertEquals(0, ingester.drain());
+  }
+
+  @Test
+  void drain_databaseUnavailable_notDeadLettered() throws Exception {
+    PurchaseTxnDto appended = ingester.append(TestHelper.createValidPurchaseTxnDto());
+    doThrow(new CannotCreateTransactionException("no connection")).when(repository).insertAll(any());
+
+    for (int attempt = 0; attempt < 5; attempt++) {
+      assertThrows(CannotCreateTransactionException.class, () -> ingester.drain());
+    }
+
+    assertFalse(Files.exists(directory.resolve(WriteBehindIngester.DEAD_LETTER_FILE)));
+    assertTrue(ingester.findPending(appended.getId()).isPresent());
+    doNothing().when(repository).insertAll(any());
+    assertEquals(1, ingester.drain());
+    assertTrue(ingester.findPending(appended.getId()).isEmpty());
+  }
+
+  // stopped (or crashed) before the writer stored them, one stored without its offset committed
+  @Test
+  void restart_storesTransactionsLeftInLog() throws Exception {
+    List<UUID> appended = List.of(ingester.append(TestHelper.createValidPurchaseTxnDto()).getId(),
+        ingester.append(TestHelper.createValidPurchaseTxnDto()).getId(),
+        ingester.append(TestHelper.createValidPurchaseTxnDto()).getId());
+    ingester.shutdown();
+    PurchaseTxn alreadyStored = TestHelper.createValidPurchaseTxn();
+    alreadyStored.setId(appended.get(0));
+    when(repository.findAllById(any())).thenReturn(List.of(alreadyStored));
+
+    ingester = start();
+    appended.forEach(id -> assertTrue(ingester.findPending(id).isPresent()));
+    assertEquals(3, ingester.drain());
+    assertEquals(appended.subList(1, 3), ids(storedBatch()));
+    appended.forEach(id -> assertTrue(ingester.findPending(id).isEmpty()));
+
+    // nothing left after another restart
+    ingester.shutdown();
+    ingester = start();
+    assertEquals(0, ingester.drain());
+  }
+
+  @Test
+  void syncMode_noLog() throws Exception {
+    ingester.shutdown();
+    properties.setMode(IngestProperties.Mode.SYNC);
+    ingester = start();
+
+    assertFalse(ingester.isEnabled());
+    assertTrue(ingester.findPending(UUID.randomUUID()).isEmpty());
+    verify(repository, never()).insertAll(any());
+  }
+
+  @Test
+  void start_noDirectory_fails() throws Exception {
+    ingester.shutdown();
+    properties.setDirectory(null);
+
+    assertThrows(IllegalStateException.class, this::start);
+    properties.setDirectory("");
+    assertThrows(IllegalStateException.class, this::start);
+    properties.setMode(IngestProperties.Mode.SYNC);
+    ingester = start();
+  }
+
+  @Test
+  void encodeDecode() {
+    PurchaseTxn txn = TestHelper.createValidPurchaseTxn();
+    txn.setId(UUID.randomUUID());
+    txn.setDescription("Café in Zürich");
+
+    assertEquals(txn, WriteBehindIngester.decode(WriteBehindIngester.encode(txn)));
+  }
+
+  private WriteBehindIngester start() throws Exception {
+    WriteBehindIngester started = new WriteBehindIngester(properties, repository, spendRollupService,
+        new TransactionTemplate(mock(PlatformTransactionManager.class)), conversionPrewarmer, objectMapper,
+        meterRegistry);
+    started.start();
+    return started;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<PurchaseTxn> storedBatch() {
+    ArgumentCaptor<List<PurchaseTxn>> captor = ArgumentCaptor.forClass(List.class);
+    verify(repository, times(1)).insertAll(captor.capture());
+    return captor.getValue();
+  }
+
+  private PurchaseTxnDto readDto(String json) {
+    try {
+      return objectMapper.readValue(json, PurchaseTxnDto.class);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static List<UUID> ids(List<PurchaseTxn> txns) {
+    return txns.stream().map(PurchaseTxn::getId).collect(Collectors.toList());
+  }
+
+}